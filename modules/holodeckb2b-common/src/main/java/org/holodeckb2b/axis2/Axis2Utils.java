@@ -18,11 +18,17 @@ package org.holodeckb2b.axis2;
 
 import static org.apache.axis2.client.ServiceClient.ANON_OUT_IN_OP;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.axiom.om.OMXMLBuilderFactory;
 import org.apache.axiom.soap.SOAPEnvelope;
@@ -33,8 +39,9 @@ import org.apache.axis2.context.OperationContext;
 import org.apache.axis2.description.AxisService;
 import org.apache.axis2.util.MessageContextBuilder;
 import org.apache.axis2.wsdl.WSDLConstants;
-import org.apache.xml.security.utils.XMLUtils;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * This class contains helper functions related to the Axis2 framework
@@ -48,6 +55,15 @@ public final class Axis2Utils {
      */
     private static final String HB2B_ANON_SVC = "hb2b:axis2utils:anon_svc";
 
+    /**
+     * Factory for creating the DOM documents the SOAP envelope is converted to
+     */
+    private static final DocumentBuilderFactory DOM_FACTORY;
+    static {
+        DOM_FACTORY = DocumentBuilderFactory.newInstance();
+        DOM_FACTORY.setNamespaceAware(true);
+    }
+
     /**
      * Creates the {@link MessageContext} for the response to message currently being processed.
      *
@@ -80,6 +96,8 @@ public final class Axis2Utils {
 
     /**
      * Converts the SOAP Envelope element from the Axis2 representation to the standard DOM representation.
+     * <p>The DOM tree is built directly from the StAX events of the Axiom object model, so the envelope does not need
+     * to be serialized and parsed again.
      *
      * @param mc The MessageContext representing the SOAP message
      * @return A {@link Document} object that represents to the SOAP envelope element contained in the message, or<br>
@@ -87,13 +105,14 @@ public final class Axis2Utils {
      */
     public static Document convertToDOM(final MessageContext mc) {
         try {
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            mc.getEnvelope().serialize(baos);
-            final ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-
-            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            return factory.newDocumentBuilder().parse(bais);
+            final Document document = DOM_FACTORY.newDocumentBuilder().newDocument();
+            final XMLStreamReader reader = mc.getEnvelope().getXMLStreamReader();
+            try {
+                buildDOM(reader, document);
+            } finally {
+                reader.close();
+            }
+            return document;
         } catch (final Exception e) {
             // If anything goes wrong converting the document, just return null
             return null;
@@ -102,6 +121,8 @@ public final class Axis2Utils {
 
     /**
      * Converts a {@link Document} representation of the SOAP Envelope into a Axiom representation.
+     * <p>The Axiom object model is built directly by reading the DOM tree, so the envelope does not need to be
+     * serialized and parsed again.
      *
      * @param document The standard DOM representation of the SOAP Envelope
      * @return An {@link SOAPEnvelope} object containing the Axiom representation of the SOAP envelope, or <br>
@@ -109,11 +130,10 @@ public final class Axis2Utils {
      */
     public static SOAPEnvelope convertToAxiom(final Document document) {
         try {
-            final ByteArrayOutputStream os = new ByteArrayOutputStream();
-            XMLUtils.outputDOM(document.getDocumentElement(), os, true);
-            final ByteArrayInputStream bais = new ByteArrayInputStream(os.toByteArray());
-
-            final SOAPModelBuilder stAXSOAPModelBuilder = OMXMLBuilderFactory.createSOAPModelBuilder(bais, null);
+            // The reader of the non cached document just passes on the events read from the DOM tree
+            final XMLStreamReader domReader = OMXMLBuilderFactory.createOMBuilder(document, false)
+                                                                 .getDocument().getXMLStreamReaderWithoutCaching();
+            final SOAPModelBuilder stAXSOAPModelBuilder = OMXMLBuilderFactory.createStAXSOAPModelBuilder(domReader);
             final SOAPEnvelope env = stAXSOAPModelBuilder.getSOAPEnvelope();
             env.build();
             return env;
@@ -123,6 +143,92 @@ public final class Axis2Utils {
         }
     }
 
+    /**
+     * Helper method to build a DOM tree from the events read from a {@link XMLStreamReader}. Namespace declarations
+     * that are missing in the stream, which can happen when the Axiom object model was created programmatically, are
+     * added so the DOM tree is equal to the result of parsing the serialized XML.
+     *
+     * @param reader    The reader to get the XML events from
+     * @param document  The document to which the nodes should be added
+     * @throws XMLStreamException When an error occurs reading the XML events
+     */
+    private static void buildDOM(final XMLStreamReader reader, final Document document) throws XMLStreamException {
+        // Stack of the namespace declarations in scope, with the prefix of the default namespace being ""
+        final Deque<Map<String, String>> nsScopes = new ArrayDeque<>();
+        Map<String, String> inScope = new HashMap<>();
+        Node current = document;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT :
+                    nsScopes.push(inScope);
+                    inScope = new HashMap<>(inScope);
+                    final Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                                                    qualifiedName(reader.getPrefix(), reader.getLocalName()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++)
+                        declareNamespace(element, reader.getNamespacePrefix(i), reader.getNamespaceURI(i), inScope);
+                    declareNamespace(element, reader.getPrefix(), reader.getNamespaceURI(), inScope);
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        final String nsURI = emptyToNull(reader.getAttributeNamespace(i));
+                        if (nsURI != null)
+                            declareNamespace(element, reader.getAttributePrefix(i), nsURI, inScope);
+                        element.setAttributeNS(nsURI, qualifiedName(reader.getAttributePrefix(i),
+                                                                    reader.getAttributeLocalName(i)),
+                                               reader.getAttributeValue(i));
+                    }
+                    current.appendChild(element);
+                    current = element;
+                    break;
+                case XMLStreamConstants.END_ELEMENT :
+                    inScope = nsScopes.pop();
+                    current = current.getParentNode();
+                    break;
+                case XMLStreamConstants.CHARACTERS :
+                case XMLStreamConstants.SPACE :
+                    // Text outside the document element can only be whitespace which is not needed in the DOM tree
+                    if (current != document)
+                        current.appendChild(document.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA :
+                    current.appendChild(document.createCDATASection(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT :
+                    current.appendChild(document.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION :
+                    current.appendChild(document.createProcessingInstruction(reader.getPITarget(),
+                                                                             reader.getPIData()));
+                    break;
+                default:
+                    // Other events do not result in a node
+            }
+        }
+    }
+
+    /**
+     * Helper method to add a namespace declaration to the element if the prefix is not yet bound to the given
+     * namespace URI.
+     */
+    private static void declareNamespace(final Element element, final String prefix, final String nsURI,
+                                         final Map<String, String> inScope) {
+        final String p = prefix == null ? "" : prefix;
+        final String uri = nsURI == null ? "" : nsURI;
+        // The unprefixed "no namespace" does not need a declaration unless a default namespace is in scope
+        if (uri.equals(inScope.get(p)) || (p.isEmpty() && uri.isEmpty() && !inScope.containsKey(p)))
+            return;
+        inScope.put(p, uri);
+        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                               p.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + p,
+                               uri);
+    }
+
+    private static String qualifiedName(final String prefix, final String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(final String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
     /**
      * Create an axisService with one (anonymous) operation for OutIn MEP but that does accept an empty responses.
      *
@@ -21,6 +21,9 @@ import java.net.UnknownHostException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -148,10 +151,86 @@ public class Config implements InternalConfiguration {
      */
     private String persistencyProviderClass = null;
 
+    /*
+     * Prefix of the names of the parameters that are intended for the persistency provider
+     */
+    private static final String PERSISTENCY_PARAMETER_PREFIX = "Persistency.";
+
+    /*
+     * The parameters for the persistency provider, i.e. all parameters starting with "Persistency."
+     * @since HB2B_NEXT_VERSION
+     */
+    private Map<String, String> persistencyProviderParameters = Collections.emptyMap();
+
+    /*
+     * The maximum number of HTTP connections that may be opened to a single destination when sending messages
+     * @since HB2B_NEXT_VERSION
+     */
+    private int maxHTTPConnectionsPerHost = -1;
+
+    /*
+     * The maximum total number of HTTP connections that may be opened when sending messages
+     * @since HB2B_NEXT_VERSION
+     */
+    private int maxHTTPConnections = -1;
+
+    /*
+     * The time in seconds after which an idle HTTP connection is closed
+     * @since HB2B_NEXT_VERSION
+     */
+    private int httpIdleConnectionTimeout = -1;
+
+    /*
+     * Indicator whether payload files of submitted messages should be hard linked instead of copied
+     * @since HB2B_NEXT_VERSION
+     */
+    private boolean linkSubmittedPayloads = false;
+
+    /*
+     * The time in seconds certificate validation results can be reused
+     * @since HB2B_NEXT_VERSION
+     */
+    private int certValidationCacheTTL = -1;
+
+    /*
+     * The path of the local CRL file
+     * @since HB2B_NEXT_VERSION
+     */
+    private String crlFile = null;
+
+    /*
+     * The interval in seconds at which the local CRL file is reloaded
+     * @since HB2B_NEXT_VERSION
+     */
+    private int crlRefreshInterval = -1;
+
+    /*
+     * Indicator whether payloads should be (de)compressed in parallel
+     * @since HB2B_NEXT_VERSION
+     */
+    private boolean parallelCompression = false;
+
+    /*
+     * The settings of the asynchronous event processor
+     * @since HB2B_NEXT_VERSION
+     */
+    private int eventProcessorWorkers = -1;
+    private int eventProcessorQueueSize = -1;
+    private String eventProcessorFullQueuePolicy = null;
+
     private boolean isTrue (final String s) {
       return "on".equalsIgnoreCase(s) || "true".equalsIgnoreCase(s) || "1".equalsIgnoreCase(s);
     }
 
+    private int toPositiveInt (final String s) {
+      try {
+          final int i = Integer.parseInt(s.trim());
+          return i > 0 ? i : -1;
+      } catch (final NullPointerException | NumberFormatException invalid) {
+          return -1;
+      }
+    }
+
     /**
      * Initializes the configuration object using the Holodeck B2B configuration file located in <code>
      * «HB2B_HOME»/conf/holodeckb2b.xml</code> where <b>HB2B_HOME</b> is the directory where Holodeck B2B is installed
@@ -263,6 +342,44 @@ public class Config implements InternalConfiguration {
 
         // The class name of the persistency provider
         persistencyProviderClass = configFile.getParameter("PersistencyProvider");
+        // The parameters for the persistency provider
+        if (!Utils.isNullOrEmpty(configFile.getParameters())) {
+            final Map<String, String> providerParameters = new HashMap<>();
+            for (final Map.Entry<String, String> p : configFile.getParameters().entrySet())
+                if (p.getKey().startsWith(PERSISTENCY_PARAMETER_PREFIX))
+                    providerParameters.put(p.getKey().substring(PERSISTENCY_PARAMETER_PREFIX.length()), p.getValue());
+            persistencyProviderParameters = Collections.unmodifiableMap(providerParameters);
+        }
+
+        // The settings of the HTTP connection pool used for sending messages, if not specified (or invalid) the
+        // default values will be used
+        maxHTTPConnectionsPerHost = toPositiveInt(configFile.getParameter("HTTPMaxConnectionsPerHost"));
+        maxHTTPConnections = toPositiveInt(configFile.getParameter("HTTPMaxConnections"));
+        httpIdleConnectionTimeout = toPositiveInt(configFile.getParameter("HTTPIdleConnectionTimeout"));
+
+        // Should payload files of submitted messages be linked instead of copied? Default false
+        linkSubmittedPayloads = isTrue(configFile.getParameter("LinkSubmittedPayloads"));
+
+        // How long can certificate validation results be reused, if not specified (or invalid) the default is used
+        certValidationCacheTTL = toPositiveInt(configFile.getParameter("CertificateValidationCacheTTL"));
+
+        // The local file with CRLs, a relative path will start at the Holodeck B2B home directory
+        crlFile = configFile.getParameter("CRLFile");
+        if (!Utils.isNullOrEmpty(crlFile))
+            crlFile = Paths.get(holodeckHome).resolve(crlFile).toString();
+        else
+            crlFile = null;
+        crlRefreshInterval = toPositiveInt(configFile.getParameter("CRLRefreshInterval"));
+
+        // Should payloads be (de)compressed in parallel? Default false
+        parallelCompression = isTrue(configFile.getParameter("ParallelCompression"));
+
+        // The settings of the asynchronous event processor, if not specified (or invalid) the defaults will be used
+        eventProcessorWorkers = toPositiveInt(configFile.getParameter("EventProcessorWorkers"));
+        eventProcessorQueueSize = toPositiveInt(configFile.getParameter("EventProcessorQueueSize"));
+        eventProcessorFullQueuePolicy = configFile.getParameter("EventProcessorFullQueuePolicy");
+        if (Utils.isNullOrEmpty(eventProcessorFullQueuePolicy))
+            eventProcessorFullQueuePolicy = null;
     }
 
     /**
@@ -550,4 +667,163 @@ public class Config implements InternalConfiguration {
     public String getPersistencyProviderClass() {
         return persistencyProviderClass;
     }
+
+    /**
+     * Gets the configuration parameters for the persistency provider. These are optional configuration parameters and
+     * include all parameters whose name starts with <i>"Persistency."</i>. The prefix is removed from the names of the
+     * returned parameters.
+     *
+     * @return  The parameters for the persistency provider, empty if there are no such parameters
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public Map<String, String> getPersistencyProviderParameters() {
+        return persistencyProviderParameters;
+    }
+
+    /**
+     * Gets the maximum number of HTTP connections that Holodeck B2B may open to a single destination when sending
+     * messages. This is an optional configuration parameter and when not set the Holodeck B2B Core will use a default
+     * value. To change the maximum set the <i>HTTPMaxConnectionsPerHost</i> parameter.
+     *
+     * @return  The maximum number of connections per destination, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getMaxHTTPConnectionsPerHost() {
+        return maxHTTPConnectionsPerHost;
+    }
+
+    /**
+     * Gets the maximum total number of HTTP connections that Holodeck B2B may open when sending messages. This is an
+     * optional configuration parameter and when not set the Holodeck B2B Core will use a default value. To change the
+     * maximum set the <i>HTTPMaxConnections</i> parameter.
+     *
+     * @return  The maximum total number of connections, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getMaxHTTPConnections() {
+        return maxHTTPConnections;
+    }
+
+    /**
+     * Gets the time in seconds an HTTP connection used for sending messages can be idle before it is closed. This is
+     * an optional configuration parameter and when not set the Holodeck B2B Core will use a default value. To change
+     * the timeout set the <i>HTTPIdleConnectionTimeout</i> parameter.
+     *
+     * @return  The idle timeout in seconds, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getHTTPIdleConnectionTimeout() {
+        return httpIdleConnectionTimeout;
+    }
+
+    /**
+     * Indicates whether the payload files of a submitted User Message that should not be deleted after submission are
+     * made available to the Holodeck B2B Core by creating a hard link instead of copying them. This is an optional
+     * configuration parameter and when not set the files are copied. To use hard links set the <i>
+     * LinkSubmittedPayloads</i> parameter to <i>"on"</i>, <i>"true"</i> or <i>"1"</i>.
+     *
+     * @return  <code>true</code> if payload files should be linked,<br><code>false</code> if they should be copied
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public boolean linkSubmittedPayloads() {
+        return linkSubmittedPayloads;
+    }
+
+    /**
+     * Gets the time in seconds the outcome of the validation of a certificate path, including the revocation check if
+     * enabled, may be reused for validating the same certificate again. This is an optional configuration parameter
+     * and when not set the default value is used. To change the time set the <i>CertificateValidationCacheTTL</i>
+     * parameter.
+     *
+     * @return  The time to live of certificate validation results in seconds, or <code>-1</code> if the default
+     *          should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getCertificateValidationCacheTTL() {
+        return certValidationCacheTTL;
+    }
+
+    /**
+     * Gets the path of a local file containing the Certificate Revocation Lists to use when checking the revocation of
+     * certificates. This is an optional configuration parameter set using the <i>CRLFile</i> parameter. A relative
+     * path will start at the Holodeck B2B home directory.
+     *
+     * @return  The absolute path of the CRL file, or <code>null</code> if no local CRL file is configured
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public String getCRLFile() {
+        return crlFile;
+    }
+
+    /**
+     * Gets the interval in seconds at which the local CRL file is checked for changes and reloaded. This is an optional
+     * configuration parameter and when not set the default value is used. To change the interval set the <i>
+     * CRLRefreshInterval</i> parameter.
+     *
+     * @return  The refresh interval in seconds, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getCRLRefreshInterval() {
+        return crlRefreshInterval;
+    }
+
+    /**
+     * Indicates whether the payloads of a message that uses the AS4 Compression Feature should be compressed and
+     * decompressed in parallel. This is an optional configuration parameter set using the <i>ParallelCompression</i>
+     * parameter, by default payloads are processed one after another.
+     *
+     * @return <code>true</code> if payloads should be (de)compressed in parallel,<br><code>false</code> otherwise
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public boolean useParallelCompression() {
+        return parallelCompression;
+    }
+
+    /**
+     * Gets the number of worker threads the asynchronous event processor uses to pass message processing events to the
+     * event handlers. This is an optional configuration parameter and when not set the event processor will use a
+     * default value. To change the number of workers set the <i>EventProcessorWorkers</i> parameter.
+     *
+     * @return  The number of worker threads, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getEventProcessorWorkers() {
+        return eventProcessorWorkers;
+    }
+
+    /**
+     * Gets the maximum number of message processing events the asynchronous event processor can queue for handling.
+     * This is an optional configuration parameter and when not set the event processor will use a default value. To
+     * change the queue size set the <i>EventProcessorQueueSize</i> parameter.
+     *
+     * @return  The maximum number of queued events, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getEventProcessorQueueSize() {
+        return eventProcessorQueueSize;
+    }
+
+    /**
+     * Gets the policy the asynchronous event processor should apply when its queue is full. This is an optional
+     * configuration parameter and when not set the event processor will block until there is room in the queue. To
+     * change the policy set the <i>EventProcessorFullQueuePolicy</i> parameter.
+     *
+     * @return  The policy to apply when the queue is full, or <code>null</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public String getEventProcessorFullQueuePolicy() {
+        return eventProcessorFullQueuePolicy;
+    }
 }
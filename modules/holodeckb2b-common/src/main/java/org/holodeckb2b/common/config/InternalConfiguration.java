@@ -16,6 +16,7 @@
  */
 package org.holodeckb2b.common.config;
 
+import java.util.Map;
 import org.apache.axis2.context.ConfigurationContext;
 import org.holodeckb2b.interfaces.config.IConfiguration;
 import org.holodeckb2b.interfaces.persistency.IPersistencyProvider;
@@ -81,4 +82,126 @@ public interface InternalConfiguration extends IConfiguration {
      * @since  3.0.0
      */
     public String getPersistencyProviderClass();
+
+    /**
+     * Gets the configuration parameters for the persistency provider. These are optional configuration parameters and
+     * include all parameters whose name starts with <i>"Persistency."</i>. The prefix is removed from the names of the
+     * returned parameters. Which parameters are supported depends on the persistency provider in use.
+     *
+     * @return  The parameters for the persistency provider, empty if there are no such parameters
+     * @since HB2B_NEXT_VERSION
+     */
+    public Map<String, String> getPersistencyProviderParameters();
+
+    /**
+     * Gets the maximum number of HTTP connections that Holodeck B2B may open to a single destination when sending
+     * messages. This is an optional configuration parameter and when not set the Holodeck B2B Core will use a default
+     * value.
+     *
+     * @return  The maximum number of connections per destination, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    public int getMaxHTTPConnectionsPerHost();
+
+    /**
+     * Gets the maximum total number of HTTP connections that Holodeck B2B may open when sending messages. This is an
+     * optional configuration parameter and when not set the Holodeck B2B Core will use a default value.
+     *
+     * @return  The maximum total number of connections, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    public int getMaxHTTPConnections();
+
+    /**
+     * Gets the time in seconds an HTTP connection used for sending messages can be idle before it is closed. This is
+     * an optional configuration parameter and when not set the Holodeck B2B Core will use a default value.
+     *
+     * @return  The idle timeout in seconds, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    public int getHTTPIdleConnectionTimeout();
+
+    /**
+     * Indicates whether the payload files of a submitted User Message that should not be deleted after submission are
+     * made available to the Holodeck B2B Core by creating a hard link instead of copying them. When the file system
+     * does not support hard links the files are still copied. This is an optional configuration parameter and when not
+     * set the files are copied.
+     * <p>NOTE: When this option is used the back-end application must not change the content of a payload file after
+     * it has been submitted as this would also change the payload that is sent.
+     *
+     * @return  <code>true</code> if payload files should be linked,<br><code>false</code> if they should be copied
+     * @since HB2B_NEXT_VERSION
+     */
+    public boolean linkSubmittedPayloads();
+
+    /**
+     * Gets the time in seconds the outcome of the validation of a certificate path, including the revocation check if
+     * enabled, may be reused for validating the same certificate again. This is an optional configuration parameter
+     * and when not set the Holodeck B2B Core will use a default value.
+     *
+     * @return  The time to live of certificate validation results in seconds, or <code>-1</code> if the default
+     *          should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    public int getCertificateValidationCacheTTL();
+
+    /**
+     * Gets the path of a local file containing the Certificate Revocation Lists (CRLs) to use when checking the
+     * revocation of certificates. The file can contain multiple CRLs in DER or PEM format. This is an optional
+     * configuration parameter and when not set no local CRLs are used.
+     *
+     * @return  The absolute path of the CRL file, or <code>null</code> if no local CRL file is configured
+     * @since HB2B_NEXT_VERSION
+     */
+    public String getCRLFile();
+
+    /**
+     * Gets the interval in seconds at which the local CRL file is checked for changes and reloaded. This is an optional
+     * configuration parameter and when not set the Holodeck B2B Core will use a default value.
+     *
+     * @return  The refresh interval in seconds, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    public int getCRLRefreshInterval();
+
+    /**
+     * Indicates whether the payloads of a message that uses the AS4 Compression Feature should be compressed and
+     * decompressed in parallel. When enabled the attached payloads of a sent message are compressed concurrently before
+     * the message is serialized and the attachments of a received message are decompressed concurrently when they are
+     * saved. This is an optional configuration parameter and by default payloads are processed one after another.
+     *
+     * @return <code>true</code> if payloads should be (de)compressed in parallel,<br><code>false</code> otherwise
+     * @since HB2B_NEXT_VERSION
+     */
+    public boolean useParallelCompression();
+
+    /**
+     * Gets the number of worker threads the asynchronous event processor uses to pass message processing events to the
+     * event handlers. This is an optional configuration parameter only used when the <code>
+     * org.holodeckb2b.events.AsyncEventProcessor</code> is configured as event processor.
+     *
+     * @return  The number of worker threads, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    public int getEventProcessorWorkers();
+
+    /**
+     * Gets the maximum number of message processing events the asynchronous event processor can queue for handling.
+     * This is an optional configuration parameter only used when the <code>org.holodeckb2b.events.AsyncEventProcessor
+     * </code> is configured as event processor.
+     *
+     * @return  The maximum number of queued events, or <code>-1</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    public int getEventProcessorQueueSize();
+
+    /**
+     * Gets the policy the asynchronous event processor should apply when its queue is full, one of <i>"block"</i>,
+     * <i>"discard"</i> or <i>"caller-runs"</i>. This is an optional configuration parameter only used when the <code>
+     * org.holodeckb2b.events.AsyncEventProcessor</code> is configured as event processor.
+     *
+     * @return  The policy to apply when the queue is full, or <code>null</code> if the default should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    public String getEventProcessorFullQueuePolicy();
 }
@@ -23,10 +23,12 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -259,6 +261,99 @@ public final class Utils {
         return targetPath;
     }
 
+    /**
+     * Moves the given file to the target location. When source and target are on the same file system the file is
+     * atomically renamed, so no data is copied. Otherwise the file is first copied to a temporary file in the target
+     * directory which is then renamed to the target and only after that the source file is deleted. Therefore the
+     * target never contains partial content and the source file is kept when the move fails.
+     * <p>An already existing target file, e.g. created by {@link #createFileWithUniqueName(java.lang.String)}, is
+     * replaced.
+     *
+     * @param source        Path to the file to move
+     * @param target        Path to move the file to
+     * @return              <code>true</code> if the file was renamed,<br><code>false</code> if it had to be copied
+     * @throws IOException  When the file could not be moved
+     * @since HB2B_NEXT_VERSION
+     */
+    public static boolean moveFile(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (final AtomicMoveNotSupportedException differentFileSystem) {
+            copyFile(source, target);
+            Files.delete(source);
+            return false;
+        }
+    }
+
+    /**
+     * Makes the content of the given file available at the target location by creating a hard link to it. When
+     * source and target are not on the same file system or the file system does not support hard links the file is
+     * copied instead. The target is first created under a temporary name and then renamed to the target so it never
+     * contains partial content. The source file is not changed.
+     * <p>An already existing target file, e.g. created by {@link #createFileWithUniqueName(java.lang.String)}, is
+     * replaced.
+     * <p>NOTE: As a linked target shares its content with the source, changing the content of one file also changes
+     * the other one. Deleting either one of them does not affect the other.
+     *
+     * @param source        Path to the file to link to
+     * @param target        Path of the new link
+     * @return              <code>true</code> if a hard link was created,<br><code>false</code> if the file was copied
+     * @throws IOException  When the file could neither be linked nor copied
+     * @since HB2B_NEXT_VERSION
+     */
+    public static boolean linkFile(final Path source, final Path target) throws IOException {
+        final Path tempPath = createTempPath(target);
+        try {
+            Files.createLink(tempPath, source);
+        } catch (final UnsupportedOperationException | IOException linkFailure) {
+            // Hard links not possible, fall back to a copy
+            copyFile(source, target);
+            return false;
+        }
+        try {
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException renameFailure) {
+            Files.deleteIfExists(tempPath);
+            throw renameFailure;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the given file to the target location using a temporary file in the target directory that is renamed to
+     * the target when all content is copied.
+     *
+     * @param source        Path to the file to copy
+     * @param target        Path to copy the file to, an existing file is replaced
+     * @throws IOException  When the file could not be copied
+     */
+    private static void copyFile(final Path source, final Path target) throws IOException {
+        final Path tempPath = createTempPath(target);
+        try {
+            Files.copy(source, tempPath);
+            Files.move(tempPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException copyFailure) {
+            Files.deleteIfExists(tempPath);
+            throw copyFailure;
+        }
+    }
+
+    /**
+     * Gets a path for a temporary file in the same directory as the given target file. The file itself is not
+     * created.
+     *
+     * @param target        The target file
+     * @return              Path to use for the temporary file
+     * @throws IOException  When the temporary file name could not be reserved
+     */
+    private static Path createTempPath(final Path target) throws IOException {
+        final Path tempPath = Files.createTempFile(target.toAbsolutePath().getParent(),
+                                                  "." + target.getFileName().toString(), ".tmp");
+        Files.delete(tempPath);
+        return tempPath;
+    }
+
     /**
      * Sorts an array of files so that the filenames are in alphabetical order. The sort operational is done in the
      * array itself so there is no return value.
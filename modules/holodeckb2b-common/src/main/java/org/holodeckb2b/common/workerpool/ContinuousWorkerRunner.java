@@ -50,6 +50,13 @@ class ContinuousWorkerRunner implements IWorkerTask {
         this.log = LogFactory.getLog(actualTask.getClass().getName());
     }
 
+    /**
+     * @return The actual worker task that is run continuously
+     */
+    IWorkerTask getActualTask() {
+        return actualTask;
+    }
+
     @Override
     public void setName(String name) {
         actualTask.setName(name);
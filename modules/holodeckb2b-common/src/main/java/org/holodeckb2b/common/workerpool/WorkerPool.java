@@ -25,6 +25,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.holodeckb2b.interfaces.general.Interval;
+import org.holodeckb2b.interfaces.workerpool.IStoppableWorkerTask;
 import org.holodeckb2b.interfaces.workerpool.IWorkerConfiguration;
 import org.holodeckb2b.interfaces.workerpool.IWorkerPoolConfiguration;
 import org.holodeckb2b.interfaces.workerpool.IWorkerTask;
@@ -63,6 +64,11 @@ public class WorkerPool {
         Future<?>   runningWorker;
     }
 
+    /**
+     * The delay in seconds a task may use to finish its work in progress when it is removed from the pool
+     */
+    private static final int STOP_DELAY = 10;
+
     /**
      * Logging facility
      */
@@ -135,7 +141,9 @@ public class WorkerPool {
      * Stops the worker pool and all the managed workers.
      * <p>As workers may not stop immediately a time should be specified to allow for orderly shutdown of the workers.
      * If the pool fails to stop within that time an immediate shutdown will be performed, but this may also take up
-     * a minute to complete.
+     * a minute to complete. When the workers are stopped the tasks that implement {@link IStoppableWorkerTask} are
+     * informed so they can finish the work they handed over to their own threads, again waiting at most the given
+     * delay.
      *
      * @param delay The delay in seconds to wait for workers to stop
      */
@@ -165,6 +173,27 @@ public class WorkerPool {
             // Preserve interrupt status
             Thread.currentThread().interrupt();
         }
+        for (final RunningWorkerInstance w : workers)
+            stopTask(w.task, delay);
+    }
+
+    /**
+     * Informs the given task that it is stopped when it implements {@link IStoppableWorkerTask}.
+     *
+     * @param task  The task that is stopped
+     * @param delay The delay in seconds the task may use to finish its work in progress
+     */
+    private void stopTask(final IWorkerTask task, final int delay) {
+        final IWorkerTask actualTask = task instanceof ContinuousWorkerRunner ?
+                                                        ((ContinuousWorkerRunner) task).getActualTask() : task;
+        if (actualTask instanceof IStoppableWorkerTask) {
+            try {
+                ((IStoppableWorkerTask) actualTask).stop(delay);
+            } catch (final Throwable t) {
+                log.error("An error occurred while stopping task " + actualTask.getName() + ". Details: "
+                          + t.getMessage());
+            }
+        }
     }
 
     /**
@@ -328,6 +357,7 @@ public class WorkerPool {
         for (final RunningWorkerInstance w : workers) {
             if (w.workerName.equals(workerName)) {
                 w.runningWorker.cancel(true);
+                stopTask(w.task, STOP_DELAY);
                 stoppedWorkers.add(w);
             }
         }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.axis2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axiom.soap.SOAPHeaderBlock;
+import org.apache.axiom.soap.SOAPModelBuilder;
+import org.apache.axis2.context.MessageContext;
+import org.apache.xml.security.Init;
+import org.apache.xml.security.utils.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Benchmark for the conversion of the SOAP envelope between the Axiom and DOM representations as done by the
+ * WS-Security handlers. It compares the conversion by serializing and re-parsing the envelope, as it was done before,
+ * with the direct conversion of {@link Axis2Utils#convertToDOM(MessageContext)} and {@link
+ * Axis2Utils#convertToAxiom(Document)}.
+ * <p>The envelopes used contain a header with the given number of elements and a body with a payload of the given
+ * size in kB. These can be given as pairs of arguments, by default a small (10 elements, 1 kB), medium (100, 100 kB)
+ * and large (1000, 1024 kB) envelope are used. Before measuring the benchmark also checks that a DOM element which
+ * does not explicitly declare its namespace, as created by WSS4J, survives the conversion back to Axiom.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class Axis2UtilsConversionBenchmark {
+
+    private static final String TEST_NS = "http://holodeck-b2b.org/test";
+    private static final String DS_NS = "http://www.w3.org/2000/09/xmldsig#";
+
+    private interface Conversion {
+        Document toDOM(MessageContext mc) throws Exception;
+
+        SOAPEnvelope toAxiom(Document doc) throws Exception;
+    }
+
+    private static final Conversion SERIALIZE = new Conversion() {
+        @Override
+        public Document toDOM(final MessageContext mc) throws Exception {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            mc.getEnvelope().serialize(baos);
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(baos.toByteArray()));
+        }
+
+        @Override
+        public SOAPEnvelope toAxiom(final Document doc) throws Exception {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            XMLUtils.outputDOM(doc.getDocumentElement(), os, true);
+            final SOAPModelBuilder builder = OMXMLBuilderFactory.createSOAPModelBuilder(
+                                                                    new ByteArrayInputStream(os.toByteArray()), null);
+            final SOAPEnvelope env = builder.getSOAPEnvelope();
+            env.build();
+            return env;
+        }
+    };
+
+    private static final Conversion DIRECT = new Conversion() {
+        @Override
+        public Document toDOM(final MessageContext mc) {
+            return Axis2Utils.convertToDOM(mc);
+        }
+
+        @Override
+        public SOAPEnvelope toAxiom(final Document doc) {
+            return Axis2Utils.convertToAxiom(doc);
+        }
+    };
+
+    public static void main(final String[] args) throws Exception {
+        final int[][] sizes;
+        if (args.length > 1) {
+            sizes = new int[args.length / 2][];
+            for (int i = 0; i < sizes.length; i++)
+                sizes[i] = new int[] { Integer.parseInt(args[2 * i]), Integer.parseInt(args[2 * i + 1]) };
+        } else
+            sizes = new int[][] { { 10, 1 }, { 100, 100 }, { 1000, 1024 } };
+        // The old conversion uses the xmlsec serializer which needs to be initialised, as done by WSS4J
+        Init.init();
+
+        System.out.printf("Undeclared namespace check - serialize: %s, direct: %s%n",
+                          checkUndeclaredNamespace(SERIALIZE), checkUndeclaredNamespace(DIRECT));
+
+        System.out.printf("%-9s %-8s %-10s %10s %10s%n", "Headers", "Body", "Method", "toDOM ms", "toAxiom ms");
+        for (final int[] size : sizes) {
+            final String xml = createEnvelope(size[0], size[1]);
+            final int runs = size[1] <= 100 ? 200 : 50;
+            run(size, runs, "serialize", SERIALIZE, xml);
+            run(size, runs, "direct", DIRECT, xml);
+        }
+    }
+
+    private static void run(final int[] size, final int runs, final String name, final Conversion conversion,
+                            final String xml) throws Exception {
+        // Warm up
+        for (int i = 0; i < runs; i++)
+            conversion.toAxiom(conversion.toDOM(createMessageContext(xml)));
+
+        final long[] toDOM = new long[runs];
+        final long[] toAxiom = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            final MessageContext mc = createMessageContext(xml);
+            long start = System.nanoTime();
+            final Document doc = conversion.toDOM(mc);
+            toDOM[i] = System.nanoTime() - start;
+            start = System.nanoTime();
+            conversion.toAxiom(doc);
+            toAxiom[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(toDOM);
+        Arrays.sort(toAxiom);
+        System.out.printf("%-9d %-8s %-10s %10.3f %10.3f%n", size[0], size[1] + "kB", name,
+                          toDOM[runs / 2] / 1e6, toAxiom[runs / 2] / 1e6);
+    }
+
+    /**
+     * Adds an element in the XML Signature namespace to the DOM header without declaring the namespace, as WSS4J does
+     * when adding the signature, and checks that the element is still there after converting back to Axiom.
+     */
+    private static String checkUndeclaredNamespace(final Conversion conversion) {
+        try {
+            final Document doc = conversion.toDOM(createMessageContext(createEnvelope(1, 1)));
+            final Element header = (Element) doc.getDocumentElement().getFirstChild();
+            final Element signature = doc.createElementNS(DS_NS, "ds:Signature");
+            signature.appendChild(doc.createElementNS(DS_NS, "ds:SignedInfo"));
+            header.appendChild(signature);
+            final SOAPEnvelope env = conversion.toAxiom(doc);
+            return env.getHeader().getFirstChildWithName(new QName(DS_NS, "Signature")) != null ? "ok" : "lost";
+        } catch (final Exception e) {
+            return "failed (" + e.getMessage() + ")";
+        }
+    }
+
+    private static MessageContext createMessageContext(final String xml) throws Exception {
+        final MessageContext mc = new MessageContext();
+        mc.setEnvelope(OMXMLBuilderFactory.createSOAPModelBuilder(new ByteArrayInputStream(xml.getBytes("UTF-8")),
+                                                                  "UTF-8").getSOAPEnvelope());
+        return mc;
+    }
+
+    private static String createEnvelope(final int headerElements, final int bodySize) {
+        final SOAPFactory f = OMAbstractFactory.getSOAP12Factory();
+        final SOAPEnvelope env = f.getDefaultEnvelope();
+        final SOAPHeaderBlock block = env.getHeader().addHeaderBlock("Messaging",
+                                                                  f.createOMNamespace(TEST_NS, "t"));
+        for (int i = 0; i < headerElements; i++) {
+            final OMElement e = f.createOMElement("Property", block.getNamespace(), block);
+            e.addAttribute("name", "p" + i, null);
+            e.setText("value-" + i);
+        }
+        final OMElement payload = f.createOMElement(new QName(TEST_NS, "payload", "pl"), env.getBody());
+        final StringBuilder content = new StringBuilder(bodySize * 1024);
+        while (content.length() < bodySize * 1024)
+            content.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+        for (int i = 0; i < 16; i++)
+            f.createOMElement("line", null, payload).setText(content.substring(i * content.length() / 16,
+                                                                                (i + 1) * content.length() / 16));
+        return env.toString();
+    }
+}
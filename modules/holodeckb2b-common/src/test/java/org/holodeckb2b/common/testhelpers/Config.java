@@ -16,6 +16,8 @@
  */
 package org.holodeckb2b.common.testhelpers;
 
+import java.util.Collections;
+import java.util.Map;
 import org.apache.axis2.context.ConfigurationContext;
 import org.holodeckb2b.common.config.InternalConfiguration;
 
@@ -143,4 +145,64 @@ public class Config implements InternalConfiguration {
     public String getPersistencyProviderClass() {
         throw new UnsupportedOperationException("Not supported yet.");
     }
+
+    @Override
+    public Map<String, String> getPersistencyProviderParameters() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public int getMaxHTTPConnectionsPerHost() {
+        return -1;
+    }
+
+    @Override
+    public int getMaxHTTPConnections() {
+        return -1;
+    }
+
+    @Override
+    public int getHTTPIdleConnectionTimeout() {
+        return -1;
+    }
+
+    @Override
+    public boolean linkSubmittedPayloads() {
+        return false;
+    }
+
+    @Override
+    public int getCertificateValidationCacheTTL() {
+        return -1;
+    }
+
+    @Override
+    public String getCRLFile() {
+        return null;
+    }
+
+    @Override
+    public int getCRLRefreshInterval() {
+        return -1;
+    }
+
+    @Override
+    public boolean useParallelCompression() {
+        return false;
+    }
+
+    @Override
+    public int getEventProcessorWorkers() {
+        return -1;
+    }
+
+    @Override
+    public int getEventProcessorQueueSize() {
+        return -1;
+    }
+
+    @Override
+    public String getEventProcessorFullQueuePolicy() {
+        return null;
+    }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.common.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark for handing off payload files between directories as done when submitting and delivering User Messages.
+ * It compares copying the file, which was the only option before, with moving using {@link Utils#moveFile(Path, Path)}
+ * and linking using {@link Utils#linkFile(Path, Path)}. Besides the time needed it reports the number of bytes written
+ * by the process as reported by <code>/proc/self/io</code> (only available on Linux).
+ * <p>The payload sizes in MB can be given as arguments, by default 1, 100 and 1024 MB are used. The files are created
+ * in the temp directory, which can be changed by setting the <i>java.io.tmpdir</i> system property. To test the
+ * fall back to copying when source and target are on different file systems, the target directory can be set using
+ * the <i>targetDir</i> system property.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PayloadHandOffBenchmark {
+
+    private static final long MB = 1024 * 1024;
+
+    private interface HandOff {
+        void handOff(Path source, Path target) throws IOException;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long[] sizes = args.length > 0 ? new long[args.length] : new long[] { 1, 100, 1024 };
+        for (int i = 0; i < args.length; i++)
+            sizes[i] = Long.parseLong(args[i]);
+
+        final Path workDir = Files.createTempDirectory("hb2b-handoff-benchmark");
+        final Path targetDir = System.getProperty("targetDir") != null ?
+                                        Files.createTempDirectory(Paths.get(System.getProperty("targetDir")), "hb2b")
+                                      : workDir;
+
+        System.out.printf("%-8s %-10s %10s %12s%n", "Size", "Method", "ms", "MB written");
+        for (final long size : sizes) {
+            final Path payload = workDir.resolve("payload.bin");
+            createPayload(payload, size * MB);
+            final int runs = size <= 100 ? 5 : 3;
+
+            run(size, runs, "copy", new HandOff() {
+                @Override
+                public void handOff(final Path source, final Path target) throws IOException {
+                    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }, payload, targetDir);
+            run(size, runs, "link", new HandOff() {
+                @Override
+                public void handOff(final Path source, final Path target) throws IOException {
+                    Utils.linkFile(source, target);
+                }
+            }, payload, targetDir);
+            run(size, runs, "move", new HandOff() {
+                @Override
+                public void handOff(final Path source, final Path target) throws IOException {
+                    Utils.moveFile(source, target);
+                }
+            }, payload, targetDir);
+
+            Files.delete(payload);
+        }
+        Files.deleteIfExists(targetDir);
+        Files.deleteIfExists(workDir);
+    }
+
+    private static void run(final long size, final int runs, final String name, final HandOff method,
+                            final Path payload, final Path targetDir) throws IOException {
+        final long[] times = new long[runs];
+        long written = 0;
+        for (int i = 0; i < runs; i++) {
+            final Path target = Utils.createFileWithUniqueName(targetDir.resolve("target.bin").toString());
+            final long startWritten = getBytesWritten();
+            final long start = System.nanoTime();
+            method.handOff(payload, target);
+            times[i] = System.nanoTime() - start;
+            written += getBytesWritten() - startWritten;
+            if (Files.size(target) != size * MB)
+                throw new IllegalStateException("Target has incorrect size: " + Files.size(target));
+            if (Files.exists(payload))
+                Files.delete(target);
+            else
+                // The payload was moved, move it back so it is available for the next run
+                Utils.moveFile(target, payload);
+        }
+        Arrays.sort(times);
+        System.out.printf("%-8s %-10s %10.1f %12.1f%n", size + "MB", name, times[runs / 2] / 1e6,
+                          (double) written / runs / MB);
+    }
+
+    /**
+     * Gets the number of bytes the process has written, including writes to the page cache.
+     *
+     * @return The number of bytes written, or 0 if this information is not available
+     */
+    private static long getBytesWritten() {
+        try {
+            final List<String> lines = Files.readAllLines(Paths.get("/proc/self/io"), StandardCharsets.US_ASCII);
+            for (final String l : lines)
+                if (l.startsWith("wchar:"))
+                    return Long.parseLong(l.substring(6).trim());
+        } catch (IOException | NumberFormatException notAvailable) {
+            // Ignore, not supported on this platform
+        }
+        return 0;
+    }
+
+    private static void createPayload(final Path payload, final long size) throws IOException {
+        final Random random = new Random(42);
+        final byte[] chunk = new byte[(int) MB];
+        try (OutputStream os = Files.newOutputStream(payload)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                os.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+    }
+}
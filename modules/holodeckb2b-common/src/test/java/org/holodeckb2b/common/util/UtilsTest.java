@@ -18,6 +18,8 @@ package org.holodeckb2b.common.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.SortedSet;
 import org.apache.tika.mime.MediaType;
@@ -131,6 +133,62 @@ public class UtilsTest {
         }
     }
 
+    @Test
+    public void testMoveFile() throws IOException {
+        final Path dir = Files.createTempDirectory("hb2b-utils");
+        try {
+            final Path source = Files.write(dir.resolve("source.txt"), "payload".getBytes("UTF-8"));
+            final Path target = Utils.createFileWithUniqueName(dir.resolve("target.txt").toString());
+
+            assertTrue(Utils.moveFile(source, target));
+            assertFalse(Files.exists(source));
+            assertEquals("payload", new String(Files.readAllBytes(target), "UTF-8"));
+
+            try {
+                Utils.moveFile(source, target);
+                fail("Moving a non existing file should fail");
+            } catch (IOException expected) {
+                assertTrue(Files.exists(target));
+            }
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testLinkFile() throws IOException {
+        final Path dir = Files.createTempDirectory("hb2b-utils");
+        try {
+            final Path source = Files.write(dir.resolve("source.txt"), "payload".getBytes("UTF-8"));
+            final Path target = Utils.createFileWithUniqueName(dir.resolve("target.txt").toString());
+
+            if (Utils.linkFile(source, target))
+                assertTrue(Files.isSameFile(source, target));
+            assertTrue(Files.exists(source));
+            assertEquals("payload", new String(Files.readAllBytes(target), "UTF-8"));
+            // Removing the link should not affect the source
+            Files.delete(target);
+            assertEquals("payload", new String(Files.readAllBytes(source), "UTF-8"));
+
+            try {
+                Utils.linkFile(dir.resolve("nonexisting.txt"), target);
+                fail("Linking a non existing file should fail");
+            } catch (IOException expected) {
+                assertFalse(Files.exists(target));
+            }
+            // No temporary files should be left behind
+            assertEquals(1, dir.toFile().list().length);
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private static void deleteDirectory(final Path dir) throws IOException {
+        for (File f : dir.toFile().listFiles())
+            f.delete();
+        Files.delete(dir);
+    }
+
     @Test
     public void testGetKeyByValue() {
         HashMap<String, String> map = new HashMap<>();
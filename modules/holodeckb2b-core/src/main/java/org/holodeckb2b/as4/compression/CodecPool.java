@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Is a pool of {@link Deflater} and {@link Inflater} instances used by the AS4 Compression Feature.
+ * <p>Both classes hold native memory that is only released when {@link Deflater#end()} or {@link Inflater#end()} is
+ * called or when the object is garbage collected. Creating a new instance for each payload therefore causes native
+ * memory to pile up under load. This pool lets the (de)compression streams reuse the instances and releases the ones
+ * that do not fit in the pool explicitly.
+ * <p>All instances handed out by the pool use the raw <i>deflate</i> format (i.e. are created with <code>nowrap =
+ * true</code>) as the GZIP header and trailer are handled by the streams themselves.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+final class CodecPool {
+
+    /**
+     * The maximum number of idle instances kept per type
+     */
+    static final int MAX_IDLE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static final Queue<Deflater>  deflaters = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger    idleDeflaters = new AtomicInteger();
+
+    private static final Queue<Inflater>  inflaters = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger    idleInflaters = new AtomicInteger();
+
+    private CodecPool() {}
+
+    /**
+     * Gets a {@link Deflater} set to the given compression level.
+     *
+     * @param level     The compression level to use, -1 for the default level
+     * @return          A deflater ready for use
+     */
+    static Deflater getDeflater(final int level) {
+        final int l = (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION) ? level
+                                                                                        : Deflater.DEFAULT_COMPRESSION;
+        final Deflater d = deflaters.poll();
+        if (d == null)
+            return new Deflater(l, true);
+
+        idleDeflaters.decrementAndGet();
+        d.setLevel(l);
+        return d;
+    }
+
+    /**
+     * Returns the given {@link Deflater} to the pool. When the pool is full the deflater is ended directly so its
+     * native memory is released.
+     *
+     * @param d     The deflater to release, may be <code>null</code>
+     */
+    static void release(final Deflater d) {
+        if (d == null)
+            return;
+        if (idleDeflaters.incrementAndGet() <= MAX_IDLE) {
+            d.reset();
+            deflaters.offer(d);
+        } else {
+            idleDeflaters.decrementAndGet();
+            d.end();
+        }
+    }
+
+    /**
+     * Gets an {@link Inflater}.
+     *
+     * @return  An inflater ready for use
+     */
+    static Inflater getInflater() {
+        final Inflater i = inflaters.poll();
+        if (i == null)
+            return new Inflater(true);
+
+        idleInflaters.decrementAndGet();
+        return i;
+    }
+
+    /**
+     * Returns the given {@link Inflater} to the pool. When the pool is full the inflater is ended directly so its
+     * native memory is released.
+     *
+     * @param i     The inflater to release, may be <code>null</code>
+     */
+    static void release(final Inflater i) {
+        if (i == null)
+            return;
+        if (idleInflaters.incrementAndGet() <= MAX_IDLE) {
+            i.reset();
+            inflaters.offer(i);
+        } else {
+            idleInflaters.decrementAndGet();
+            i.end();
+        }
+    }
+
+    /**
+     * Gets the number of idle deflaters currently held by the pool.
+     *
+     * @return  The number of pooled deflaters
+     */
+    static int idleDeflaters() {
+        return idleDeflaters.get();
+    }
+
+    /**
+     * Gets the number of idle inflaters currently held by the pool.
+     *
+     * @return  The number of pooled inflaters
+     */
+    static int idleInflaters() {
+        return idleInflaters.get();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import org.apache.axiom.util.base64.Base64Utils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.common.util.Utils;
+
+/**
+ * Stores the compressed form of payloads on disk so it can be reused when a message is retransmitted.
+ * <p>When a message is resent the complete outbound pipeline is executed again, which without this store means that
+ * every payload is compressed again. The store keeps the compressed data in a file next to the payload file, using the
+ * name of the payload file with extension <i>".gz"</i>. A second file with extension <i>".gz.properties"</i> contains
+ * the meta-data of the entry: the size and last modification time of the payload file at the moment it was compressed,
+ * the compression level used and the digests of the compressed data that were calculated when the message was signed.
+ * <p>An entry is only used when the payload file has not been changed since it was compressed and the same compression
+ * level is requested. The entries are removed by the {@link org.holodeckb2b.ebms3.workers.PurgeOldMessagesWorker} when
+ * the payload itself is removed.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class CompressedPayloadStore {
+
+    private static final Log log = LogFactory.getLog(CompressedPayloadStore.class);
+
+    /**
+     * Extension of the file containing the compressed data
+     */
+    static final String COMPRESSED_EXT = ".gz";
+
+    /**
+     * Extension of the file containing the meta-data of the entry
+     */
+    static final String METADATA_EXT = ".gz.properties";
+
+    private static final String SOURCE_SIZE = "source.size";
+    private static final String SOURCE_MODIFIED = "source.modified";
+    private static final String LEVEL = "level";
+    private static final String DIGEST_PREFIX = "digest.";
+
+    private CompressedPayloadStore() {}
+
+    /**
+     * Gets the stored compressed form of the given payload file.
+     *
+     * @param source    The payload file
+     * @param level     The compression level that should have been used
+     * @return          The entry with the compressed data, or <code>null</code> if there is no entry or the entry is not
+     *                  valid anymore because the payload file was changed or another compression level is requested
+     */
+    public static Entry get(final File source, final int level) {
+        final File compressed = new File(source.getPath() + COMPRESSED_EXT);
+        final File metadataFile = new File(source.getPath() + METADATA_EXT);
+        if (!compressed.exists() || !metadataFile.exists())
+            return null;
+
+        final Properties metadata = new Properties();
+        try (InputStream is = new FileInputStream(metadataFile)) {
+            metadata.load(is);
+        } catch (final IOException readError) {
+            log.warn("Could not read meta-data of compressed payload [" + metadataFile.getPath() + "]: "
+                     + readError.getMessage());
+            return null;
+        }
+        if (!String.valueOf(source.length()).equals(metadata.getProperty(SOURCE_SIZE))
+           || !String.valueOf(source.lastModified()).equals(metadata.getProperty(SOURCE_MODIFIED))
+           || !String.valueOf(level).equals(metadata.getProperty(LEVEL))) {
+            log.debug("Stored compressed payload for [" + source.getPath() + "] is outdated");
+            return null;
+        }
+        return new Entry(compressed, metadataFile, metadata);
+    }
+
+    /**
+     * Compresses the data of the given data handler and stores it as the compressed form of the given payload file.
+     * An existing entry for the payload file is replaced.
+     *
+     * @param dh        The data handler that compresses the payload data
+     * @param source    The payload file
+     * @param level     The compression level used by the data handler
+     * @return          The new entry
+     * @throws IOException  When the data could not be compressed or the entry could not be written
+     */
+    public static Entry store(final CompressionDataHandler dh, final File source, final int level) throws IOException {
+        // Get the meta-data of the source before compressing, so a change during compression invalidates the entry
+        final Properties metadata = new Properties();
+        metadata.setProperty(SOURCE_SIZE, String.valueOf(source.length()));
+        metadata.setProperty(SOURCE_MODIFIED, String.valueOf(source.lastModified()));
+        metadata.setProperty(LEVEL, String.valueOf(level));
+
+        final File compressed = new File(source.getPath() + COMPRESSED_EXT);
+        final File metadataFile = new File(source.getPath() + METADATA_EXT);
+        // Remove the current meta-data first so an incomplete entry is never considered valid
+        Files.deleteIfExists(metadataFile.toPath());
+
+        final File tmpFile = File.createTempFile("gz-", null, source.getParentFile());
+        try {
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                dh.writeCompressed(out);
+            }
+            move(tmpFile, compressed);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+        final Entry entry = new Entry(compressed, metadataFile, metadata);
+        entry.save();
+        return entry;
+    }
+
+    /**
+     * Removes the stored compressed form of the given payload file.
+     *
+     * @param source    The payload file
+     * @return          <code>true</code> if there was no entry or it was removed,<br>
+     *                  <code>false</code> if (a part of) the entry could not be removed
+     */
+    public static boolean remove(final File source) {
+        boolean removed = true;
+        for (final String ext : new String[] { METADATA_EXT, COMPRESSED_EXT }) {
+            final File f = new File(source.getPath() + ext);
+            if (f.exists() && !f.delete()) {
+                log.error("Could not remove stored compressed payload file " + f.getPath() + ". Remove manually");
+                removed = false;
+            }
+        }
+        return removed;
+    }
+
+    private static void move(final File source, final File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException notAtomic) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Represents a stored compressed payload.
+     */
+    public static final class Entry {
+
+        private final File          compressed;
+        private final File          metadataFile;
+        private final Properties    metadata;
+
+        private Entry(final File compressed, final File metadataFile, final Properties metadata) {
+            this.compressed = compressed;
+            this.metadataFile = metadataFile;
+            this.metadata = metadata;
+        }
+
+        /**
+         * Gets the file containing the compressed data.
+         *
+         * @return  The file with the compressed data
+         */
+        public File getCompressedFile() {
+            return compressed;
+        }
+
+        /**
+         * Gets the digest of the compressed data calculated using the given algorithm.
+         *
+         * @param algorithm     The URI of the digest algorithm
+         * @return              The digest value, or <code>null</code> if no digest is stored for the algorithm
+         */
+        public synchronized byte[] getDigest(final String algorithm) {
+            final String digest = metadata.getProperty(DIGEST_PREFIX + algorithm);
+            return Utils.isNullOrEmpty(digest) ? null : Base64Utils.decode(digest);
+        }
+
+        /**
+         * Stores the digest of the compressed data calculated using the given algorithm.
+         *
+         * @param algorithm     The URI of the digest algorithm
+         * @param digest        The digest value
+         */
+        public synchronized void setDigest(final String algorithm, final byte[] digest) {
+            metadata.setProperty(DIGEST_PREFIX + algorithm, Base64Utils.encode(digest));
+            try {
+                save();
+            } catch (final IOException writeError) {
+                log.warn("Could not save digest of compressed payload [" + compressed.getPath() + "]: "
+                         + writeError.getMessage());
+            }
+        }
+
+        /**
+         * Writes the meta-data of the entry to disk. The meta-data is first written to a temporary file which then
+         * replaces the current meta-data file, so a reader never sees partial meta-data.
+         */
+        private void save() throws IOException {
+            final File tmpFile = File.createTempFile("gzm-", null, metadataFile.getParentFile());
+            try {
+                try (OutputStream out = new FileOutputStream(tmpFile)) {
+                    metadata.store(out, null);
+                }
+                move(tmpFile, metadataFile);
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        }
+    }
+}
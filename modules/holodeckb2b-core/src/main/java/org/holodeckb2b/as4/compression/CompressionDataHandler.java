@@ -16,11 +16,14 @@
  */
 package org.holodeckb2b.as4.compression;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
 import java.util.zip.ZipException;
 import javax.activation.DataHandler;
 
@@ -32,7 +35,16 @@ import javax.activation.DataHandler;
  * or decompressed; when the content type is <i>"application/gzip"</i> it will be compressed, otherwise it will be
  * decompressed.
  * <p>For decompression of the data the {@link DataHandler#getInputStream()} is used, so the source <code>DataHandler
- * </code> MUST implement this method to ensure correct decompression.
+ * </code> MUST implement this method to ensure correct decompression. This also applies to compression as the data is
+ * read from the source and compressed using a {@link GZIPCompressingInputStream}.
+ * <p>The compression level and size of the buffers used for (de)compression can be set when creating the data handler.
+ * The actual (de)compression is done using the pooled {@link Deflater} and {@link java.util.zip.Inflater} instances
+ * from the {@link CodecPool}.
+ * <p>Normally the data is compressed when it is written or read, but it can also be compressed in advance into a file
+ * using {@link #precompress(File)}. This is used by the {@link ParallelCompressor} to compress multiple payloads in
+ * parallel before the message is serialized. The compressed data can also be taken from the {@link
+ * CompressedPayloadStore} using {@link #useStoreEntry(CompressedPayloadStore.Entry)}, in which case the digests of the
+ * compressed data calculated for a signature are also saved in the store.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -55,6 +67,26 @@ public class CompressionDataHandler extends DataHandler {
      */
     private boolean     compressing;
 
+    /**
+     * The compression level to use, -1 for the default level
+     */
+    private int         level = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * The size of the buffers used for (de)compression, -1 for the default size
+     */
+    private int         bufferSize = -1;
+
+    /**
+     * The file containing the pre-compressed data, <code>null</code> if the data has not been compressed in advance
+     */
+    private volatile File compressedFile = null;
+
+    /**
+     * The entry in the compressed payload store that holds the compressed data, <code>null</code> if not stored
+     */
+    private volatile CompressedPayloadStore.Entry storeEntry = null;
+
     /**
      * This constructor should be used to create a facade to a {@link DataHandler} for decompressing the contained data.
      * The specified MIME type is not used by this class itself but only to inform using classes about the expected
@@ -70,6 +102,20 @@ public class CompressionDataHandler extends DataHandler {
         this.compressing = false;
     }
 
+    /**
+     * This constructor should be used to create a facade to a {@link DataHandler} for decompressing the contained data
+     * using a specific buffer size.
+     *
+     * @param source        The {@link DataHandler} that contains the compressed data
+     * @param mimeType      The MIME type of the decompressed data.
+     * @param bufferSize    The size of the buffer used for decompression, when &lt;= 0 the default size is used
+     * @since HB2B_NEXT_VERSION
+     */
+    public CompressionDataHandler(final DataHandler source, final String mimeType, final int bufferSize) {
+        this(source, mimeType);
+        this.bufferSize = bufferSize;
+    }
+
     /**
      * This constructor should be used to create a facade to a {@link DataHandler} for compressing the contained data.
      *
@@ -82,6 +128,21 @@ public class CompressionDataHandler extends DataHandler {
         this.compressing = true;
     }
 
+    /**
+     * This constructor should be used to create a facade to a {@link DataHandler} for compressing the contained data
+     * using a specific compression level and buffer size.
+     *
+     * @param source        The {@link DataHandler} that contains the uncompressed data
+     * @param level         The compression level [0..9], -1 to use the default level
+     * @param bufferSize    The size of the buffer used for compression, when &lt;= 0 the default size is used
+     * @since HB2B_NEXT_VERSION
+     */
+    public CompressionDataHandler(final DataHandler source, final int level, final int bufferSize) {
+        this(source);
+        this.level = level;
+        this.bufferSize = bufferSize;
+    }
+
     /**
      * Sets the MIME Type that defines the output of the {@link #writeTo(java.io.OutputStream)} method. When this type
      * is equal to "application/gzip" the data from the contained DataHandler will be compressed, otherwise the data
@@ -125,7 +186,9 @@ public class CompressionDataHandler extends DataHandler {
      */
     @Override
     public void writeTo(final OutputStream out) throws IOException, ZipException {
-        if (compressing)
+        if (compressing && compressedFile != null)
+            Files.copy(compressedFile.toPath(), out);
+        else if (compressing)
             compress(out);
         else
             decompress(out);
@@ -141,12 +204,96 @@ public class CompressionDataHandler extends DataHandler {
      */
     @Override
     public InputStream getInputStream() throws IOException, ZipException {
-        if (compressing)
-            return new GZIPCompressingInputStream(super.getInputStream());
+        if (compressing && compressedFile != null)
+            return new FileInputStream(compressedFile);
+        else if (compressing)
+            return new GZIPCompressingInputStream(super.getInputStream(), level, bufferSize);
         else
-            return new GZIPInputStream(super.getInputStream());
+            return new GZIPDecompressingInputStream(super.getInputStream(), bufferSize);
+    }
+
+
+    /**
+     * Compresses the data in advance and writes it to the given file. After successful completion of this method the
+     * data handler will use the compressed data from the file instead of compressing the data again when it is written
+     * or read. The caller is responsible for removing the file when it is not needed anymore.
+     * <p>This method has no effect when the data handler is used for decompression.
+     *
+     * @param target        The file to write the compressed data to
+     * @throws IOException  When the data could not be compressed or written to the file
+     * @since HB2B_NEXT_VERSION
+     */
+    public void precompress(final File target) throws IOException {
+        if (!compressing)
+            return;
+        try (OutputStream out = new FileOutputStream(target)) {
+            compress(out);
+        }
+        compressedFile = target;
     }
 
+    /**
+     * Sets the entry from the {@link CompressedPayloadStore} that contains the compressed data. After this method is
+     * called the data handler will use the compressed data from the stored entry.
+     * <p>This method has no effect when the data handler is used for decompression.
+     *
+     * @param entry     The entry with the compressed data of the payload
+     * @since HB2B_NEXT_VERSION
+     */
+    public void useStoreEntry(final CompressedPayloadStore.Entry entry) {
+        if (!compressing)
+            return;
+        storeEntry = entry;
+        compressedFile = entry.getCompressedFile();
+    }
+
+    /**
+     * Gets the digest of the compressed data that was calculated before using the given algorithm.
+     *
+     * @param algorithm     The URI of the digest algorithm
+     * @return              The digest value if the compressed data is taken from the {@link CompressedPayloadStore} and
+     *                      a digest was saved for the algorithm, <code>null</code> otherwise
+     * @since HB2B_NEXT_VERSION
+     */
+    public byte[] getDigest(final String algorithm) {
+        final CompressedPayloadStore.Entry entry = storeEntry;
+        return entry != null ? entry.getDigest(algorithm) : null;
+    }
+
+    /**
+     * Saves the digest of the compressed data so it can be reused when the message is resent. The digest is only
+     * saved when the compressed data is taken from the {@link CompressedPayloadStore}.
+     *
+     * @param algorithm     The URI of the digest algorithm
+     * @param digest        The digest value
+     * @since HB2B_NEXT_VERSION
+     */
+    public void setDigest(final String algorithm, final byte[] digest) {
+        final CompressedPayloadStore.Entry entry = storeEntry;
+        if (entry != null)
+            entry.setDigest(algorithm, digest);
+    }
+
+    /**
+     * Indicates whether the data of this data handler has been compressed in advance.
+     *
+     * @return <code>true</code> if the compressed data is available from a file,<br><code>false</code> otherwise
+     * @since HB2B_NEXT_VERSION
+     */
+    public boolean isPrecompressed() {
+        return compressedFile != null;
+    }
+
+    /**
+     * Compresses the data from the source data handler and writes it to the given output stream, regardless of whether
+     * the data was compressed in advance.
+     *
+     * @param out           The {@link OutputStream} to write the compressed data to
+     * @throws IOException  When an error occurs while compressing or writing the data
+     */
+    void writeCompressed(final OutputStream out) throws IOException {
+        compress(out);
+    }
 
     /**
      * Writes the data GZip compressed to the given output stream.
@@ -155,11 +302,17 @@ public class CompressionDataHandler extends DataHandler {
      * @throws IOException  When an error occurs while writing the data to the stream
      */
     private void compress(final OutputStream out) throws IOException {
-        // Writing compressed data is easy, we only need to wrap the given output stream in a GZIPOutputStream to get
-        // compression.
-        final GZIPOutputStream gzOutputStream = new GZIPOutputStream(out);
-        source.writeTo(gzOutputStream);
-        gzOutputStream.finish();
+        // The compressing input stream is used here as well so the pooled deflater is used and released again when
+        // the stream is closed, which is not possible when wrapping the given output stream
+        try (GZIPCompressingInputStream gzInputStream = new GZIPCompressingInputStream(source.getInputStream(),
+                                                                                        level, bufferSize))
+        {
+            final byte[]  buffer = new byte[bufferSize > 0 ? bufferSize
+                                                         : GZIPCompressingInputStream.DEFAULT_BUFFER_SIZE];
+            int     r = 0;
+            while ((r = gzInputStream.read(buffer)) > 0)
+                out.write(buffer, 0, r);
+        }
     }
 
     /**
@@ -171,9 +324,11 @@ public class CompressionDataHandler extends DataHandler {
      *                      exception
      */
     private void decompress(final OutputStream out) throws ZipException {
-        try (GZIPInputStream gzInputStream = new GZIPInputStream(source.getInputStream()))
+        try (GZIPDecompressingInputStream gzInputStream = new GZIPDecompressingInputStream(source.getInputStream(),
+                                                                                            bufferSize))
         {
-            final byte[]  buffer = new byte[2048];
+            final byte[]  buffer = new byte[bufferSize > 0 ? bufferSize
+                                                         : GZIPDecompressingInputStream.DEFAULT_BUFFER_SIZE];
             int     r = 0;
             while ((r = gzInputStream.read(buffer)) > 0)
                 out.write(buffer, 0, r);
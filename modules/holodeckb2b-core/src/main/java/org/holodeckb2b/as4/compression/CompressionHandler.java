@@ -16,18 +16,29 @@
  */
 package org.holodeckb2b.as4.compression;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.activation.FileDataSource;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
 import org.holodeckb2b.common.messagemodel.Property;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.ebms3.util.AbstractUserMessageHandler;
+import org.holodeckb2b.interfaces.as4.pmode.IAS4Leg;
+import org.holodeckb2b.interfaces.as4.pmode.IAS4CompressionSettings;
 import org.holodeckb2b.interfaces.as4.pmode.IAS4PayloadProfile;
+import org.holodeckb2b.interfaces.as4.pmode.IReceptionAwareness;
 import org.holodeckb2b.interfaces.general.IProperty;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.pmode.IPMode;
 import org.holodeckb2b.interfaces.pmode.IPayloadProfile;
 import org.holodeckb2b.interfaces.pmode.IUserMessageFlow;
 import org.holodeckb2b.module.HolodeckB2BCore;
@@ -43,14 +54,33 @@ import org.holodeckb2b.module.HolodeckB2BCore;
  * <li><code>@name = <i>"MimeType"</i></code> and value the MIME Type of the uncompressed data.</li></ol>
  * <p>The actual compression of the data is done by the {@link CompressionDataHandler} that will encapsulate the
  * original <code>DataHandler</code> that contains the payload data. This way the compression is only executed at the
- * moment the payload data is sent to the receiving MSH and an extra operation is prevented.
+ * moment the payload data is sent to the receiving MSH and an extra operation is prevented. When the payload profile
+ * also implements {@link IAS4CompressionSettings} the compression level and buffer size used are taken from it.
  * <p>NOTE: Although the AS4 profiles states that payloads containing already compressed data do not need to be
- * compressed Holodeck B2B will compress all payloads regardless of their content.
+ * compressed Holodeck B2B will compress all payloads regardless of their content. Only payloads of which the size is
+ * known and is below the threshold given by {@link IAS4CompressionSettings#getCompressionThreshold()} are not
+ * compressed.
+ * <p>When parallel compression is enabled in the configuration (see {@link
+ * org.holodeckb2b.common.config.InternalConfiguration#useParallelCompression()}) and the message contains multiple
+ * attached payloads, the payloads are compressed in parallel into temporary files by the {@link ParallelCompressor}
+ * before the message is serialized. The temporary files are removed when the flow is completed.
+ * <p>When the message may be retransmitted, i.e. the AS4 Reception Awareness feature is used with retries, the
+ * compressed data of payloads stored in a file is saved in the {@link CompressedPayloadStore} when the message is sent
+ * for the first time and reused when it is resent, so the payloads do not need to be compressed again.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
 public class CompressionHandler extends AbstractUserMessageHandler {
 
+    /**
+     * The name of the message context property holding the list of temporary files that contain pre-compressed data
+     */
+    private static final String PRECOMPRESSED_FILES = "org:holodeckb2b:precompressed-files";
+
+    /**
+     * The name of the directory used for temporarily storing pre-compressed payloads
+     */
+    private static final String PRECOMPRESSED_DIR = "plcout";
 
     @Override
     protected InvocationResponse doProcessing(final MessageContext mc, final IUserMessageEntity um)
@@ -60,19 +90,54 @@ public class CompressionHandler extends AbstractUserMessageHandler {
             return InvocationResponse.CONTINUE;
 
         log.debug("Check P-Mode configuration if AS4 compression must be used");
-        final IUserMessageFlow flow = HolodeckB2BCore.getPModeSet().get(um.getPModeId())
-                                                                    .getLegs().iterator().next().getUserMessageFlow();
-        final IPayloadProfile plProfile = (flow != null ? flow.getPayloadProfile() : null);
+        final IAS4PayloadProfile plProfile = getPayloadProfile(um);
 
-        if ((plProfile instanceof IAS4PayloadProfile) &&
-             CompressionFeature.COMPRESSED_CONTENT_TYPE.equalsIgnoreCase(
-                                                               ((IAS4PayloadProfile) plProfile).getCompressionType())) {
+        if (plProfile != null &&
+             CompressionFeature.COMPRESSED_CONTENT_TYPE.equalsIgnoreCase(plProfile.getCompressionType())) {
             log.debug("AS4 Compression feature is used");
+            // When the message can be resent, the compressed data of payload files is kept in the store
+            final boolean useStore = mayBeResent(um);
+            final IAS4CompressionSettings settings = getCompressionSettings(plProfile);
+            final int level = settings != null ? settings.getCompressionLevel() : -1;
             // enable compression by decorating DataHandler and setting payload properties
+            final List<CompressionDataHandler> toCompress = new ArrayList<>();
+            final List<CompressionDataHandler> toStore = new ArrayList<>();
+            final List<File> storeSources = new ArrayList<>();
             for (final IPayload p : um.getPayloads())
                 // Only payloads contained in attachment can use compression
-                if (p.getContainment() == IPayload.Containment.ATTACHMENT)
-                    enableCompression(p, mc);
+                if (p.getContainment() == IPayload.Containment.ATTACHMENT) {
+                    final CompressionDataHandler dh = enableCompression(p, mc, settings);
+                    if (dh == null)
+                        continue;
+                    final File plFile = useStore && dh.getDataSource() instanceof FileDataSource ?
+                                                            ((FileDataSource) dh.getDataSource()).getFile() : null;
+                    if (plFile == null)
+                        toCompress.add(dh);
+                    else {
+                        final CompressedPayloadStore.Entry stored = CompressedPayloadStore.get(plFile, level);
+                        if (stored != null) {
+                            log.debug("Using stored compressed data of payload [" + p.getPayloadURI() + "]");
+                            dh.useStoreEntry(stored);
+                        } else {
+                            toStore.add(dh);
+                            storeSources.add(plFile);
+                        }
+                    }
+                }
+
+            if (toCompress.size() + toStore.size() > 1
+               && HolodeckB2BCore.getConfiguration().useParallelCompression())
+                precompress(toCompress, toStore, storeSources, level, mc);
+            else
+                for (int i = 0; i < toStore.size(); i++) {
+                    try {
+                        ParallelCompressor.storeTask(toStore.get(i), storeSources.get(i), level).call();
+                    } catch (final Exception storeFailure) {
+                        log.warn("Could not store compressed data of payload file ["
+                                 + storeSources.get(i).getAbsolutePath() + "], it will be compressed when sent."
+                                 + " Details: " + storeFailure.getMessage());
+                    }
+                }
 
             log.debug("Enabled compression for all attached payloads");
         } else
@@ -86,13 +151,161 @@ public class CompressionHandler extends AbstractUserMessageHandler {
         return OUT_FLOW | OUT_FAULT_FLOW;
     }
 
+    /**
+     * Removes the temporary files containing the pre-compressed payload data when the message has been sent.
+     *
+     * @param mc    The current message context
+     */
+    @Override
+    protected void doFlowComplete(final MessageContext mc) {
+        @SuppressWarnings("unchecked")
+        final List<File> files = (List<File>) mc.getProperty(PRECOMPRESSED_FILES);
+        if (files != null) {
+            for (final File f : files)
+                if (f.exists() && !f.delete())
+                    log.warn("Could not remove temporary file with pre-compressed payload: " + f.getAbsolutePath());
+            mc.removeProperty(PRECOMPRESSED_FILES);
+        }
+    }
 
-    private void enableCompression(final IPayload p, final MessageContext mc) {
+    /**
+     * Compresses the given payloads in parallel, either into temporary files or into the {@link
+     * CompressedPayloadStore}. When a payload can not be pre-compressed it will be compressed while the message is
+     * sent.
+     *
+     * @param handlers      The data handlers of the payloads to compress into temporary files
+     * @param toStore       The data handlers of the payloads to compress into the store
+     * @param storeSources  The payload files of the data handlers to compress into the store
+     * @param level         The compression level used
+     * @param mc            The current message context
+     */
+    private void precompress(final List<CompressionDataHandler> handlers, final List<CompressionDataHandler> toStore,
+                             final List<File> storeSources, final int level, final MessageContext mc) {
+        final int total = handlers.size() + toStore.size();
+        log.debug("Compressing " + total + " payloads in parallel");
+        final List<Callable<Void>> tasks = new ArrayList<>(total);
+        for (int i = 0; i < toStore.size(); i++)
+            tasks.add(ParallelCompressor.storeTask(toStore.get(i), storeSources.get(i), level));
+        if (!handlers.isEmpty()) {
+            final List<File> files = new ArrayList<>(handlers.size());
+            try {
+                final File tmpDir = new File(HolodeckB2BCore.getConfiguration().getTempDirectory()
+                                             + PRECOMPRESSED_DIR);
+                if (!tmpDir.exists() && !tmpDir.mkdirs())
+                    throw new IOException("Could not create directory " + tmpDir.getAbsolutePath());
+                for (int i = 0; i < handlers.size(); i++)
+                    files.add(File.createTempFile("gz-", null, tmpDir));
+                // Register the files before compression so they are always removed
+                mc.setProperty(PRECOMPRESSED_FILES, files);
+                for (int i = 0; i < handlers.size(); i++)
+                    tasks.add(ParallelCompressor.precompressTask(handlers.get(i), files.get(i)));
+            } catch (final IOException ex) {
+                log.warn("Could not create temporary files for pre-compression, payloads will be compressed when"
+                         + " sent. Details: " + ex.getMessage());
+                for (final File f : files)
+                    f.delete();
+            }
+        }
+        final int success = ParallelCompressor.runAll(tasks);
+        if (success < total)
+            log.warn((total - success) + " payloads could not be pre-compressed and will be compressed when sent");
+        else
+            log.debug("Compressed all payloads in parallel");
+    }
+
+    /**
+     * Checks whether the given User Message may be resent, which is the case when the leg uses the AS4 Reception
+     * Awareness feature with retries.
+     *
+     * @param um    The User Message
+     * @return      <code>true</code> if the message may be resent,<br><code>false</code> otherwise
+     */
+    private static boolean mayBeResent(final IUserMessageEntity um) {
+        final IPMode pmode = !Utils.isNullOrEmpty(um.getPModeId()) ?
+                                                            HolodeckB2BCore.getPModeSet().get(um.getPModeId()) : null;
+        if (pmode == null || Utils.isNullOrEmpty(pmode.getLegs()))
+            return false;
+        final ILeg leg = pmode.getLegs().iterator().next();
+        final IReceptionAwareness raConfig = leg instanceof IAS4Leg ? ((IAS4Leg) leg).getReceptionAwareness() : null;
+        return raConfig != null && raConfig.getMaxRetries() > 0;
+    }
+
+
+    /**
+     * Gets the AS4 payload profile that applies to the given User Message.
+     *
+     * @param um    The User Message
+     * @return      The {@link IAS4PayloadProfile} from the P-Mode of the message, or <code>null</code> if the P-Mode
+     *              does not contain one
+     * @since HB2B_NEXT_VERSION
+     */
+    static IAS4PayloadProfile getPayloadProfile(final IUserMessageEntity um) {
+        final IPMode pmode = !Utils.isNullOrEmpty(um.getPModeId()) ?
+                                                            HolodeckB2BCore.getPModeSet().get(um.getPModeId()) : null;
+        if (pmode == null || Utils.isNullOrEmpty(pmode.getLegs()))
+            return null;
+        final IUserMessageFlow flow = pmode.getLegs().iterator().next().getUserMessageFlow();
+        final IPayloadProfile plProfile = (flow != null ? flow.getPayloadProfile() : null);
+
+        return plProfile instanceof IAS4PayloadProfile ? (IAS4PayloadProfile) plProfile : null;
+    }
+
+    /**
+     * Gets the settings for tuning the compression from the given payload profile.
+     *
+     * @param plProfile The payload profile, may be <code>null</code>
+     * @return          The payload profile as {@link IAS4CompressionSettings} if it includes these settings, or
+     *                  <code>null</code> if the default settings should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    static IAS4CompressionSettings getCompressionSettings(final IAS4PayloadProfile plProfile) {
+        return plProfile instanceof IAS4CompressionSettings ? (IAS4CompressionSettings) plProfile : null;
+    }
+
+    /**
+     * Gets the size of the data contained in the given data handler if it can be determined without reading the
+     * data, which currently is only the case for files.
+     *
+     * @param dh    The data handler
+     * @return      The size of the data in bytes, or -1 if it is unknown
+     */
+    private static long getSize(final DataHandler dh) {
+        final DataSource ds = dh.getDataSource();
+        return ds instanceof FileDataSource ? ((FileDataSource) ds).getFile().length() : -1;
+    }
+
+    /**
+     * Enables compression of the given payload by replacing its data handler with a {@link CompressionDataHandler} and
+     * adding the part properties indicating compression is used.
+     *
+     * @param p         The payload to compress
+     * @param mc        The current message context
+     * @param settings  The settings for tuning the compression, <code>null</code> if the defaults should be used
+     * @return          The data handler that will compress the payload data, or <code>null</code> if the payload is
+     *                  not compressed because it is smaller than the threshold
+     */
+    private CompressionDataHandler enableCompression(final IPayload p, final MessageContext mc,
+                                                     final IAS4CompressionSettings settings) {
 
-        // Replace current datahandler of attachment with CompressionDataHandler to facilitate compression
         final String cid = p.getPayloadURI();
         final DataHandler source = mc.getAttachment(cid);
-        mc.addAttachment(cid, new CompressionDataHandler(source));
+
+        // Check whether the payload is large enough to be worth compressing
+        final long threshold = settings != null ? settings.getCompressionThreshold() : -1;
+        if (threshold > 0 && source != null) {
+            final long size = getSize(source);
+            if (size >= 0 && size < threshold) {
+                log.debug("Payload [" + cid + "] is smaller (" + size + " bytes) than the compression threshold ("
+                          + threshold + " bytes), not compressing it");
+                return null;
+            }
+        }
+
+        // Replace current datahandler of attachment with CompressionDataHandler to facilitate compression
+        final CompressionDataHandler compressingDH = settings == null ? new CompressionDataHandler(source) :
+                                                     new CompressionDataHandler(source, settings.getCompressionLevel(),
+                                                                                settings.getCompressionBufferSize());
+        mc.addAttachment(cid, compressingDH);
         log.debug("Replaced DataHandler to enable compression");
 
         // Set the part properties to indicate AS4 Compression feature was used and original MIME Type
@@ -111,6 +324,7 @@ public class CompressionHandler extends AbstractUserMessageHandler {
                                         CompressionFeature.COMPRESSED_CONTENT_TYPE));
         partProperties.add(new Property(CompressionFeature.MIME_TYPE_PROPERTY_NAME, source.getContentType()));
         log.debug("Set PartProperties to indicate compression");
+        return compressingDH;
     }
 
 }
@@ -23,6 +23,7 @@ import org.apache.axis2.context.MessageContext;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.ebms3.axis2.MessageContextUtils;
 import org.holodeckb2b.ebms3.util.AbstractUserMessageHandler;
+import org.holodeckb2b.interfaces.as4.pmode.IAS4CompressionSettings;
 import org.holodeckb2b.interfaces.general.IProperty;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
@@ -39,7 +40,8 @@ import org.holodeckb2b.module.HolodeckB2BCore;
  * from the AS4 profile for more information on this feature.
  * <p>The actual decompression of the data is done by the {@link CompressionDataHandler} that will encapsulate the
  * original <code>DataHandler</code> that contains the payload data. This way the decompression is only executed at the
- * moment the payload data is written to an output stream and an extra operation is prevented.
+ * moment the payload data is written to an output stream and an extra operation is prevented. When the P-Mode of
+ * the message specifies a buffer size for the compression feature it is also used for decompression.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -54,6 +56,8 @@ public class DecompressionHandler extends AbstractUserMessageHandler {
             return InvocationResponse.CONTINUE;
 
         // The compression feature can be used per payload, so check all payloads in message
+        IAS4CompressionSettings settings = null;
+        boolean settingsChecked = false;
         for (final IPayload p : um.getPayloads()) {
             // Only payloads contained in attachment can use compression
             if (p.getContainment() == IPayload.Containment.ATTACHMENT
@@ -78,9 +82,14 @@ public class DecompressionHandler extends AbstractUserMessageHandler {
                     HolodeckB2BCore.getStorageManager().setProcessingState(um, ProcessingState.FAILURE);
                 } else {
                     // Replace DataHandler to enable decompression
+                    if (!settingsChecked) {
+                        settings = CompressionHandler.getCompressionSettings(CompressionHandler.getPayloadProfile(um));
+                        settingsChecked = true;
+                    }
                     try {
                         final String cid = p.getPayloadURI();
-                        mc.addAttachment(cid, new CompressionDataHandler(mc.getAttachment(cid), mimeType));
+                        mc.addAttachment(cid, new CompressionDataHandler(mc.getAttachment(cid), mimeType,
+                                                       settings != null ? settings.getCompressionBufferSize() : -1));
                         log.debug("Replaced DataHandler to enable decompression");
                         // Remove part property specific to AS4 Compression feature
                         removeProperty(p);
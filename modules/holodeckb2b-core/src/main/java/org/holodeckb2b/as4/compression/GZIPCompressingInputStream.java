@@ -25,7 +25,9 @@ import java.util.zip.DeflaterInputStream;
 
 /**
  * Is an {@link InputStream} implementation with on the fly GZIP compression.
- * <p>It uses the compression of the {@link DeflaterInputStream} and adds the GZIP header and trailer.
+ * <p>It uses the compression of the {@link DeflaterInputStream} and adds the GZIP header and trailer. The {@link
+ * Deflater} used for the compression is taken from the {@link CodecPool} and returned to it when the stream is closed,
+ * so streams should always be closed after use.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -63,15 +65,57 @@ public class GZIPCompressingInputStream extends DeflaterInputStream {
     private int position = 0;
 
     /**
-     * Creates a new {@link GZIPCompressingInputStream} from an uncompressed {@link InputStream}.
+     * The default size of the buffer used for compression
+     * @since HB2B_NEXT_VERSION
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    // Indicator whether the stream is closed and the deflater returned to the pool
+    private boolean closed = false;
+
+    /**
+     * Creates a new {@link GZIPCompressingInputStream} from an uncompressed {@link InputStream} using the default
+     * compression level and buffer size.
      *
      * @param in The uncompressed {@link InputStream}.
      */
     public GZIPCompressingInputStream(final InputStream in) {
-        super(new CheckedInputStream(in, new CRC32()), new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        this(in, Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new {@link GZIPCompressingInputStream} from an uncompressed {@link InputStream} using the given
+     * compression level and buffer size.
+     *
+     * @param in            The uncompressed {@link InputStream}.
+     * @param level         The compression level [0..9], -1 to use the default level
+     * @param bufferSize    The size of the buffer used for compression, when &lt;= 0 the default size is used
+     * @since HB2B_NEXT_VERSION
+     */
+    public GZIPCompressingInputStream(final InputStream in, final int level, final int bufferSize) {
+        super(new CheckedInputStream(in, new CRC32()), CodecPool.getDeflater(level),
+              bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE);
         part = Part.HEADER;
     }
 
+    /**
+     * Closes this input stream and the underlying input stream and returns the deflater to the pool.
+     *
+     * @throws IOException If an I/O error occurs while closing the underlying stream
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            CodecPool.release(def);
+        }
+    }
+
     /**
      * Reads compressed data into a byte array. This method uses {@link DeflaterInputStream#read(byte[], int, int)} to
      * do the actual compression. Before it starts with the compressed data it returns the GZIP header and after the
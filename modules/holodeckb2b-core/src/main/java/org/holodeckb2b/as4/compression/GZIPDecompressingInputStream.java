@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Is an {@link InputStream} implementation that decompresses GZIP compressed data on the fly.
+ * <p>It has the same functionality as {@link java.util.zip.GZIPInputStream} but uses an {@link java.util.zip.Inflater}
+ * from the {@link CodecPool} instead of creating a new one for each stream. The inflater is returned to the pool when
+ * the stream is closed, so streams should always be closed after use.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public class GZIPDecompressingInputStream extends InflaterInputStream {
+
+    // GZIP header magic number.
+    private final static int GZIP_MAGIC = 0x8b1f;
+
+    // Flags in the GZIP header
+    private final static int FHCRC      = 2;
+    private final static int FEXTRA     = 4;
+    private final static int FNAME      = 8;
+    private final static int FCOMMENT   = 16;
+
+    /**
+     * The default size of the buffer used for decompression
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    // CRC-32 of the uncompressed data of the current member
+    private final CRC32 crc = new CRC32();
+
+    // Indicator whether the end of the compressed data has been reached
+    private boolean eos = false;
+
+    // Indicator whether the stream is closed and the inflater returned to the pool
+    private boolean closed = false;
+
+    /**
+     * Creates a new {@link GZIPDecompressingInputStream} for the given compressed stream using the default buffer
+     * size.
+     *
+     * @param in            The GZIP compressed {@link InputStream}
+     * @throws ZipException When the data from the stream is not in GZIP format
+     * @throws IOException  When an error occurs reading the GZIP header from the stream
+     */
+    public GZIPDecompressingInputStream(final InputStream in) throws IOException {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new {@link GZIPDecompressingInputStream} for the given compressed stream using the given buffer size.
+     *
+     * @param in            The GZIP compressed {@link InputStream}
+     * @param bufferSize    The size of the buffer used for decompression, when &lt;= 0 the default size is used
+     * @throws ZipException When the data from the stream is not in GZIP format
+     * @throws IOException  When an error occurs reading the GZIP header from the stream
+     */
+    public GZIPDecompressingInputStream(final InputStream in, final int bufferSize) throws IOException {
+        super(in, CodecPool.getInflater(), bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE);
+        try {
+            readHeader(in);
+        } catch (final IOException headerError) {
+            closed = true;
+            CodecPool.release(inf);
+            throw headerError;
+        }
+    }
+
+    /**
+     * Reads decompressed data into a byte array.
+     *
+     * @param b     buffer into which the data is read
+     * @param off   starting offset of the data within b
+     * @param len   maximum number of bytes to read into b
+     * @return      the actual number of bytes read, or -1 if the end of the compressed input stream is reached
+     * @throws ZipException When the compressed data is corrupt
+     * @throws IOException  if an I/O error occurs or if this input stream is already closed
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (eos)
+            return -1;
+        int n = super.read(b, off, len);
+        while (n == -1 && !readTrailer())
+            // Another member follows, continue reading from it
+            n = super.read(b, off, len);
+        if (n == -1)
+            eos = true;
+        else
+            crc.update(b, off, n);
+        return n;
+    }
+
+    /**
+     * Closes this input stream and the underlying input stream and returns the inflater to the pool.
+     *
+     * @throws IOException If an I/O error occurs while closing the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        eos = true;
+        try {
+            super.close();
+        } finally {
+            CodecPool.release(inf);
+        }
+    }
+
+    /**
+     * Reads the GZIP member header from the given stream.
+     *
+     * @param is    The stream to read the header from
+     * @return      The number of bytes in the header
+     * @throws IOException  When the header can not be read or is invalid
+     */
+    private int readHeader(final InputStream is) throws IOException {
+        final CheckedInputStream cis = new CheckedInputStream(is, crc);
+        crc.reset();
+        if (readUShort(cis) != GZIP_MAGIC)
+            throw new ZipException("Not in GZIP format");
+        if (readUByte(cis) != Deflater.DEFLATED)
+            throw new ZipException("Unsupported compression method");
+        final int flags = readUByte(cis);
+        // Skip modification time, extra flags and operating system
+        skipBytes(cis, 6);
+        int n = 10;
+        if ((flags & FEXTRA) == FEXTRA) {
+            final int m = readUShort(cis);
+            skipBytes(cis, m);
+            n += m + 2;
+        }
+        if ((flags & FNAME) == FNAME)
+            do { n++; } while (readUByte(cis) != 0);
+        if ((flags & FCOMMENT) == FCOMMENT)
+            do { n++; } while (readUByte(cis) != 0);
+        if ((flags & FHCRC) == FHCRC) {
+            final int v = (int) crc.getValue() & 0xffff;
+            if (readUShort(cis) != v)
+                throw new ZipException("Corrupt GZIP header");
+            n += 2;
+        }
+        crc.reset();
+        return n;
+    }
+
+    /**
+     * Reads and checks the GZIP member trailer and checks whether another member follows.
+     *
+     * @return  <code>true</code> if the end of the compressed data is reached,<br>
+     *          <code>false</code> if another member follows and decompression should continue
+     * @throws IOException  When the trailer can not be read or does not match the decompressed data
+     */
+    private boolean readTrailer() throws IOException {
+        // The trailer may already be (partially) read into the buffer of the inflater
+        InputStream is = this.in;
+        final int n = inf.getRemaining();
+        if (n > 0)
+            is = new SequenceInputStream(new ByteArrayInputStream(buf, len - n, n), new FilterInputStream(this.in) {
+                @Override
+                public void close() throws IOException {}
+            });
+        if (readUInt(is) != crc.getValue() || readUInt(is) != (inf.getBytesWritten() & 0xffffffffL))
+            throw new ZipException("Corrupt GZIP trailer");
+
+        // Check for another member, which is only possible when there is more data available
+        if (this.in.available() > 0 || n > 26) {
+            int m = 8;
+            try {
+                m += readHeader(is);
+            } catch (final IOException notAHeader) {
+                // Trailing data that is not a GZIP member is ignored
+                return true;
+            }
+            inf.reset();
+            if (n > m)
+                inf.setInput(buf, len - n + m, n - m);
+            return false;
+        }
+        return true;
+    }
+
+    private long readUInt(final InputStream is) throws IOException {
+        final long s = readUShort(is);
+        return ((long) readUShort(is) << 16) | s;
+    }
+
+    private int readUShort(final InputStream is) throws IOException {
+        final int b = readUByte(is);
+        return (readUByte(is) << 8) | b;
+    }
+
+    private int readUByte(final InputStream is) throws IOException {
+        final int b = is.read();
+        if (b == -1)
+            throw new EOFException();
+        return b;
+    }
+
+    private void skipBytes(final InputStream is, int n) throws IOException {
+        while (n > 0) {
+            final long s = is.skip(n);
+            if (s <= 0) {
+                // Skip is not guaranteed to make progress, fall back to reading
+                readUByte(is);
+                n--;
+            } else
+                n -= s;
+        }
+    }
+}
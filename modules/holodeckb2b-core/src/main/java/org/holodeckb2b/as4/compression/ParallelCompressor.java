@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the compression and decompression of multiple payloads in parallel. It is used when the <i>
+ * ParallelCompression</i> configuration parameter is enabled to compress the attached payloads of a message before it
+ * is serialized and to decompress the attachments of a received message when they are saved.
+ * <p>The tasks are executed by a shared pool of daemon threads sized to the number of available processors. The pool
+ * is created when it is first needed and stopped by {@link #shutdown()} when the Holodeck B2B Core is stopped.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class ParallelCompressor {
+
+    /**
+     * The pool of threads that execute the (de)compression tasks, created when the first task is submitted
+     */
+    private static ExecutorService compressionPool;
+
+    private ParallelCompressor() {}
+
+    /**
+     * Submits the given tasks for parallel execution.
+     *
+     * @param tasks     The tasks to execute
+     * @return          The {@link Future}s of the tasks in the same order as the tasks were given
+     */
+    public static <T> List<Future<T>> submitAll(final List<? extends Callable<T>> tasks) {
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (final Callable<T> t : tasks)
+            futures.add(getCompressionPool().submit(t));
+        return futures;
+    }
+
+    /**
+     * Gets the pool of threads that execute the (de)compression tasks, creating it when it does not exist yet.
+     *
+     * @return The thread pool
+     */
+    private static synchronized ExecutorService getCompressionPool() {
+        if (compressionPool == null)
+            compressionPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()),
+                                                           new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "hb2b-compression-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        return compressionPool;
+    }
+
+    /**
+     * Stops the pool of threads that execute the (de)compression tasks. The tasks already submitted are completed. When
+     * tasks are submitted afterwards a new thread pool is created.
+     */
+    public static synchronized void shutdown() {
+        if (compressionPool != null) {
+            compressionPool.shutdown();
+            compressionPool = null;
+        }
+    }
+
+    /**
+     * Waits for the given task to complete and returns its result.
+     *
+     * @param future    The {@link Future} of the task
+     * @return          The result of the task
+     * @throws IOException  When the task failed, the exception thrown by the task is the cause of the exception if
+     *                      it is not an <code>IOException</code> itself
+     */
+    public static <T> T await(final Future<T> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (final InterruptedException ie) {
+                    interrupted = true;
+                } catch (final ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    else
+                        throw new IOException("Error in (de)compression of payload", cause);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executes the given tasks in parallel and waits until all of them are completed.
+     *
+     * @param tasks     The tasks to execute
+     * @return          The number of tasks that completed successfully
+     */
+    public static int runAll(final List<? extends Callable<Void>> tasks) {
+        int success = 0;
+        for (final Future<Void> f : submitAll(tasks)) {
+            try {
+                await(f);
+                success++;
+            } catch (final IOException failed) {
+                // The task is responsible for handling its failure
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Compresses the data of the given data handlers in parallel, each into its own file. After successful
+     * compression the data handler will use the compressed data from the file. When compression of a payload fails the
+     * file is removed and the data handler will compress the data when it is sent.
+     *
+     * @param handlers  The data handlers to pre-compress
+     * @param files     The files to write the compressed data to, one for each data handler
+     * @return          The number of successfully pre-compressed payloads
+     */
+    public static int precompress(final List<CompressionDataHandler> handlers, final List<File> files) {
+        final List<Callable<Void>> tasks = new ArrayList<>(handlers.size());
+        for (int i = 0; i < handlers.size(); i++)
+            tasks.add(precompressTask(handlers.get(i), files.get(i)));
+        return runAll(tasks);
+    }
+
+    /**
+     * Creates the task that compresses the data of the given data handler into the given file. When the compression
+     * fails the file is removed.
+     *
+     * @param dh    The data handler to pre-compress
+     * @param f     The file to write the compressed data to
+     * @return      The task
+     */
+    public static Callable<Void> precompressTask(final CompressionDataHandler dh, final File f) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try {
+                    dh.precompress(f);
+                } catch (final IOException failed) {
+                    f.delete();
+                    throw failed;
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Creates the task that compresses the data of the given data handler into the {@link CompressedPayloadStore}.
+     * After successful compression the data handler will use the stored compressed data.
+     *
+     * @param dh        The data handler to pre-compress
+     * @param source    The payload file
+     * @param level     The compression level used by the data handler
+     * @return          The task
+     */
+    public static Callable<Void> storeTask(final CompressionDataHandler dh, final File source, final int level) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                dh.useStoreEntry(CompressedPayloadStore.store(dh, source, level));
+                return null;
+            }
+        };
+    }
+}
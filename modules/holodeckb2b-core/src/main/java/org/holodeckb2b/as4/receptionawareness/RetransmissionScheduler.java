@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.receptionawareness;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.as4.pmode.IAS4Leg;
+import org.holodeckb2b.interfaces.as4.pmode.IReceptionAwareness;
+import org.holodeckb2b.interfaces.general.Interval;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.dao.IProcessingStateListener;
+import org.holodeckb2b.persistency.dao.StorageManager;
+
+/**
+ * Keeps track of the moments at which the User Messages waiting for a Receipt must be checked for retransmission by
+ * the {@link RetransmissionWorker}. The User Messages are kept in a {@link DelayQueue} ordered by their deadline, i.e.
+ * the start of their current processing state plus the retry interval of the P-Mode. This way the worker only needs to
+ * check the User Messages whose deadline has passed instead of all User Messages waiting for a Receipt.
+ * <p>A User Message is scheduled when its processing state changes to <i>AWAITING_RECEIPT</i>,
+ * <i>TRANSPORT_FAILURE</i> or <i>WARNING</i>. The scheduler is informed about these changes by the {@link #LISTENER}
+ * which the worker registers with the {@link org.holodeckb2b.persistency.dao.StorageManager}. As only the last
+ * scheduled deadline of a User Message is used, earlier entries of the same message are skipped when they expire. The
+ * scheduler does not remove User Messages when a Receipt is received, the worker checks the processing state of the
+ * User Message when its deadline has passed.
+ * <p>The time of the next check is also saved with the User Message so it is available after a restart. To keep this
+ * extra database update out of the thread that changed the processing state, e.g. the one sending the message, the
+ * listener only records the message id and time and the worker saves the recorded times together, see {@link
+ * #saveNextRetryTimes()}.
+ * <p>As the schedule is only kept in memory the worker must schedule the User Messages already waiting for a Receipt
+ * when it is started.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class RetransmissionScheduler {
+
+    /**
+     * An entry in the schedule
+     */
+    static final class Entry implements Delayed {
+        final String    messageId;
+        final long      deadline;
+
+        Entry(final String messageId, final long deadline) {
+            this.messageId = messageId;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed o) {
+            return Long.compare(deadline, ((Entry) o).deadline);
+        }
+    }
+
+    /**
+     * The scheduled entries ordered by their deadline
+     */
+    private static final DelayQueue<Entry> schedule = new DelayQueue<>();
+
+    /**
+     * The last scheduled deadline for each User Message
+     */
+    private static final ConcurrentHashMap<String, Long> deadlines = new ConcurrentHashMap<>();
+
+    /**
+     * The times of the next check that still need to be saved for each User Message
+     */
+    private static final ConcurrentHashMap<String, Long> unsaved = new ConcurrentHashMap<>();
+
+    private static final Log log = LogFactory.getLog(RetransmissionScheduler.class);
+
+    /**
+     * The listener that schedules the outgoing User Messages when their processing state changes to one in which
+     * they may need to be retransmitted. As the listener is called on the thread that changed the processing state it
+     * does not save the time of the check itself but leaves this to the worker.
+     */
+    static final IProcessingStateListener LISTENER = new IProcessingStateListener() {
+        @Override
+        public void processingStateChanged(final IMessageUnitEntity msgUnit, final ProcessingState newState) {
+            if (msgUnit instanceof IUserMessageEntity && msgUnit.getDirection() == IMessageUnit.Direction.OUT
+                && (newState == ProcessingState.AWAITING_RECEIPT || newState == ProcessingState.TRANSPORT_FAILURE
+                    || newState == ProcessingState.WARNING)) {
+                unsaved.put(msgUnit.getMessageId(), schedule((IUserMessageEntity) msgUnit));
+            }
+        }
+    };
+
+    private RetransmissionScheduler() {}
+
+    /**
+     * Schedules the given User Message for a retransmission check when the retry interval configured in its P-Mode has
+     * passed since the start of its current processing state. When the retry interval can not be determined the User
+     * Message is scheduled to be checked immediately so the worker can handle the missing configuration.
+     *
+     * @param userMessage   The User Message waiting for a Receipt
+     * @return              The time in milliseconds since the epoch at which the User Message will be checked
+     */
+    public static long schedule(final IUserMessageEntity userMessage) {
+        long deadline = userMessage.getCurrentProcessingState().getStartTime().getTime();
+        try {
+            final IReceptionAwareness raConfig = ((IAS4Leg) HolodeckB2BCore.getPModeSet()
+                                                                           .get(userMessage.getPModeId())
+                                                                           .getLeg(userMessage.getLeg()))
+                                                                           .getReceptionAwareness();
+            final Interval retryInterval = raConfig.getRetryInterval();
+            deadline += TimeUnit.MILLISECONDS.convert(retryInterval.getLength(), retryInterval.getUnit());
+        } catch (final Exception noRetryConfig) {
+            // Check immediately, the worker will handle the missing configuration
+        }
+        schedule(userMessage.getMessageId(), deadline);
+        return deadline;
+    }
+
+    /**
+     * Schedules the User Message with the given message id for a retransmission check at the given time. This replaces
+     * any earlier scheduled check of the User Message.
+     *
+     * @param messageId     The message id of the User Message
+     * @param deadline      The time in milliseconds since the epoch at which the User Message must be checked
+     */
+    public static void schedule(final String messageId, final long deadline) {
+        deadlines.put(messageId, deadline);
+        schedule.add(new Entry(messageId, deadline));
+    }
+
+    /**
+     * Gets the message ids of the User Messages whose deadline has passed, waiting at most the given time for the next
+     * deadline to pass if there are none. The User Messages are removed from the schedule.
+     *
+     * @param timeout   How long to wait for a deadline to pass
+     * @param unit      The time unit of the <code>timeout</code>
+     * @param maxUnits  The maximum number of message ids to return
+     * @return          The message ids of the User Messages to check, empty if no deadline passed in time
+     * @throws InterruptedException When the thread is interrupted while waiting
+     */
+    static List<String> takeDue(final long timeout, final TimeUnit unit, final int maxUnits)
+                                                                                        throws InterruptedException {
+        final List<String> due = new ArrayList<>();
+        Entry e = schedule.poll(timeout, unit);
+        while (e != null) {
+            // Skip the entry if the User Message was rescheduled
+            if (deadlines.remove(e.messageId, e.deadline))
+                due.add(e.messageId);
+            e = due.size() < maxUnits ? schedule.poll() : null;
+        }
+        return due;
+    }
+
+    /**
+     * Saves the times of the next check of the User Messages that were scheduled by the {@link #LISTENER} since the
+     * last call. The times are saved together using {@link StorageManager#setNextRetryTimes(Map)} which does not
+     * change the version of the User Messages, so it does not interfere with the threads processing them. When the
+     * times can not be saved this is not critical as the worker will then calculate the time of the check after a
+     * restart.
+     *
+     * @return The number of User Messages for which the time of the next check was saved
+     */
+    static int saveNextRetryTimes() {
+        if (unsaved.isEmpty())
+            return 0;
+        final Map<String, Date> saving = new HashMap<>(unsaved.size());
+        for (final Map.Entry<String, Long> r : unsaved.entrySet())
+            // Only take the time if it was not replaced by a newer one in the meantime, that will be saved next time
+            if (unsaved.remove(r.getKey(), r.getValue()))
+                saving.put(r.getKey(), new Date(r.getValue()));
+        try {
+            HolodeckB2BCore.getStorageManager().setNextRetryTimes(saving);
+            return saving.size();
+        } catch (final PersistenceException saveFailure) {
+            log.warn("Could not save the time of the next retransmission check of " + saving.size()
+                     + " User Messages! Details: " + saveFailure.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * @return The number of User Messages for which the time of the next check still needs to be saved
+     */
+    static int unsavedCount() {
+        return unsaved.size();
+    }
+
+    /**
+     * @return The number of User Messages currently scheduled
+     */
+    static int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Removes all User Messages from the schedule.
+     */
+    static void clear() {
+        schedule.clear();
+        deadlines.clear();
+        unsaved.clear();
+    }
+}
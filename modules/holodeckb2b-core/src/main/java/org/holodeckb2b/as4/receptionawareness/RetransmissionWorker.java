@@ -16,8 +16,10 @@
  */
 package org.holodeckb2b.as4.receptionawareness;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
@@ -35,6 +37,7 @@ import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.entities.IErrorMessageEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
 import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
 import org.holodeckb2b.interfaces.pmode.IErrorHandling;
 import org.holodeckb2b.interfaces.pmode.ILeg;
@@ -48,7 +51,12 @@ import org.holodeckb2b.pmode.PModeUtils;
 
 /**
  * This worker is responsible for the retransmission of User Messages that did not receive an AS4 receipt as expected.
- * <p>
+ * <p>The User Messages that may need to be retransmitted are scheduled in the {@link RetransmissionScheduler} when
+ * they are sent. The worker waits for the retry interval of the next scheduled User Message to pass and then only
+ * checks the User Messages whose interval has passed. When started the worker schedules the User Messages that are
+ * already waiting for a Receipt. As the worker waits for the next User Message to become due it should be configured
+ * to run continuously, i.e. with an interval of 0. Each time it stops waiting the worker also saves the times of the
+ * next check of the User Messages scheduled in the meantime.
  *
  * @author Sander Fieten
  */
@@ -60,97 +68,188 @@ public class RetransmissionWorker extends AbstractWorkerTask {
      */
     private final Log     missingReceiptsLog = LogFactory.getLog("org.holodeckb2b.msgproc.errors.missingreceipts");
 
+    /**
+     * The maximum number of message units that is retrieved from the database at once
+     */
+    static final int PAGE_SIZE = 100;
+
+    /**
+     * The maximum time in milliseconds to wait for a User Message to become due for checking
+     */
+    static final long MAX_WAIT = 60000;
+
+    /**
+     * Indicates whether the User Messages waiting for a Receipt when the worker started have been scheduled
+     */
+    private boolean waitingScheduled = false;
+
+    /**
+     * Waits until the retry interval of one or more scheduled User Messages has passed and checks whether these must
+     * be retransmitted. On its first run the worker schedules all User Messages that are already waiting for a Receipt.
+     *
+     * @throws InterruptedException When the worker is interrupted while waiting for a User Message to become due
+     */
     @Override
-    public void doProcessing() {
+    public void doProcessing() throws InterruptedException {
+        if (!waitingScheduled)
+            waitingScheduled = scheduleWaiting();
 
-        // Get all the message id's for unacknowlegded user messages
-        log.debug("Get all user messages that may need to be resent");
-        Collection<IUserMessageEntity> waitingForRcpt = null;
+        final List<String> due = RetransmissionScheduler.takeDue(MAX_WAIT, TimeUnit.MILLISECONDS, PAGE_SIZE);
+        // Save the times of the next check of the User Messages scheduled since the last run
+        RetransmissionScheduler.saveNextRetryTimes();
+        if (due.isEmpty())
+            return;
+        log.debug(due.size() + " messages may need to be resent");
+        final List<IUserMessageEntity> userMessages = new ArrayList<>(due.size());
         try {
-            waitingForRcpt = HolodeckB2BCore.getQueryManager()
+            for (final String messageId : due)
+                for (final IMessageUnitEntity mu : HolodeckB2BCore.getQueryManager().getMessageUnitsWithId(messageId))
+                    if (mu instanceof IUserMessageEntity && mu.getDirection() == IMessageUnit.Direction.OUT
+                        && isWaitingForReceipt(mu.getCurrentProcessingState().getState()))
+                        userMessages.add((IUserMessageEntity) mu);
+        } catch (final PersistenceException ex) {
+            log.error("An error occurred while retrieving message units from the database! Details: "
+                      + ex.getMessage());
+            // Check the messages again later
+            final long retryAt = System.currentTimeMillis() + MAX_WAIT;
+            for (final String messageId : due)
+                RetransmissionScheduler.schedule(messageId, retryAt);
+            return;
+        }
+        checkRetransmission(userMessages);
+    }
+
+    /**
+     * Indicates whether a User Message in the given processing state is waiting for a Receipt and may therefore need
+     * to be retransmitted.
+     *
+     * @param state     The current processing state of the User Message
+     * @return          <code>true</code> if the User Message may need to be retransmitted, <code>false</code> if not
+     */
+    private static boolean isWaitingForReceipt(final ProcessingState state) {
+        return state == ProcessingState.AWAITING_RECEIPT || state == ProcessingState.TRANSPORT_FAILURE
+               || state == ProcessingState.WARNING;
+    }
+
+    /**
+     * Schedules all User Messages in the database that are waiting for a Receipt.
+     *
+     * @return  <code>true</code> if all User Messages were scheduled, <code>false</code> if an error occurred
+     */
+    private boolean scheduleWaiting() {
+        // Get all unacknowlegded user messages. To limit the memory used when there are many messages waiting for a
+        // receipt they are retrieved and scheduled in pages
+        log.debug("Get all user messages that may need to be resent");
+        IUserMessageEntity lastUserMsg = null;
+        List<IUserMessageEntity> waitingForRcpt = null;
+        do {
+            try {
+                waitingForRcpt = HolodeckB2BCore.getQueryManager()
                                                 .getMessageUnitsInState(IUserMessage.class, IMessageUnit.Direction.OUT,
                                                         new ProcessingState[] { ProcessingState.AWAITING_RECEIPT,
                                                                                 ProcessingState.TRANSPORT_FAILURE,
                                                                                 ProcessingState.WARNING
-                                                                              });
-        } catch (final PersistenceException ex) {
-            log.error("An error occurred while retrieving message units from the database! Details: " + ex.getMessage());
-            return;
-        }
+                                                                              },
+                                                        lastUserMsg, PAGE_SIZE);
+            } catch (final PersistenceException ex) {
+                log.error("An error occurred while retrieving message units from the database! Details: "
+                          + ex.getMessage());
+                return false;
+            }
 
-        if (!Utils.isNullOrEmpty(waitingForRcpt)) {
-            log.debug(waitingForRcpt.size() + " messages may be waiting for a Receipt");
+            if (!Utils.isNullOrEmpty(waitingForRcpt)) {
+                log.debug(waitingForRcpt.size() + " messages may be waiting for a Receipt");
+                lastUserMsg = waitingForRcpt.get(waitingForRcpt.size() - 1);
+                for (final IUserMessageEntity um : waitingForRcpt)
+                    // Use the saved time of the check if available
+                    if (um.getNextRetryTime() != null)
+                        RetransmissionScheduler.schedule(um.getMessageId(), um.getNextRetryTime().getTime());
+                    else
+                        RetransmissionScheduler.schedule(um);
+            } else if (lastUserMsg == null)
+                log.debug("No messages waiting for Receipt");
+        } while (waitingForRcpt != null && waitingForRcpt.size() == PAGE_SIZE);
+        return true;
+    }
 
-            StorageManager   updManager = HolodeckB2BCore.getStorageManager();
-            // For each message check if it should be retransmitted or not
-            for (final IUserMessageEntity um : waitingForRcpt) {
+    /**
+     * Checks for each of the given User Messages whether it should be retransmitted or whether no more retries are
+     * left and the <i>MissingReceipt</i> error should be generated.
+     *
+     * @param waitingForRcpt    The User Messages waiting for a Receipt
+     */
+    private void checkRetransmission(final Collection<IUserMessageEntity> waitingForRcpt) {
+        StorageManager   updManager = HolodeckB2BCore.getStorageManager();
+        // For each message check if it should be retransmitted or not
+        for (final IUserMessageEntity um : waitingForRcpt) {
+            try {
+                log.debug("Get retry configuration from P-Mode [" + um.getPModeId() + "]");
+                // Retry information is contained in Leg, and as we only have One-way it is always the first
+                // and because retries is part of AS4 reception awareness feature leg should be instance of
+                // ILegAS4, if it is not we can not retransmit
+                IAS4Leg leg = null;
+                IReceptionAwareness raConfig = null;
                 try {
-                    log.debug("Get retry configuration from P-Mode [" + um.getPModeId() + "]");
-                    // Retry information is contained in Leg, and as we only have One-way it is always the first
-                    // and because retries is part of AS4 reception awareness feature leg should be instance of
-                    // ILegAS4, if it is not we can not retransmit
-                    IAS4Leg leg = null;
-                    IReceptionAwareness raConfig = null;
-                    try {
-                        leg = (IAS4Leg) HolodeckB2BCore.getPModeSet().get(um.getPModeId()).getLeg(um.getLeg());
-                        raConfig = leg.getReceptionAwareness();
-                    } catch (final Exception e) {
-                        // Could not get configuration for retries, maybe P-Mode configuration was deleted?
-                        log.error("Message [" + um.getMessageId() + "] can not be resent due to missing P-Mode ["
-                                    + um.getPModeId() + "]");
-                    }
-                    if (raConfig == null) {
-                        // Not an ILegAS4 instance or no RA config available, can't determine if and how to resend.
-                        log.error("Message [" + um.getMessageId() + "] can not be resent due to missing Reception"
-                                    + " Awareness configuration in P-Mode [" + um.getPModeId() + "]");
-                        // Because we don't know how to process this message further the only thing we can do is set
-                        // the processing to failed
-                        updManager.setProcessingState(um, ProcessingState.FAILURE);
-                        continue; // with next message
-                    }
+                    leg = (IAS4Leg) HolodeckB2BCore.getPModeSet().get(um.getPModeId()).getLeg(um.getLeg());
+                    raConfig = leg.getReceptionAwareness();
+                } catch (final Exception e) {
+                    // Could not get configuration for retries, maybe P-Mode configuration was deleted?
+                    log.error("Message [" + um.getMessageId() + "] can not be resent due to missing P-Mode ["
+                                + um.getPModeId() + "]");
+                }
+                if (raConfig == null) {
+                    // Not an ILegAS4 instance or no RA config available, can't determine if and how to resend.
+                    log.error("Message [" + um.getMessageId() + "] can not be resent due to missing Reception"
+                                + " Awareness configuration in P-Mode [" + um.getPModeId() + "]");
+                    // Because we don't know how to process this message further the only thing we can do is set
+                    // the processing to failed
+                    updManager.setProcessingState(um, ProcessingState.FAILURE);
+                    continue; // with next message
+                }
 
-                    // Check if retransmit interval has passed
-                    // Convert configured retry interval to milliseconds
-                    final long retransmitInterval = TimeUnit.MILLISECONDS.convert(raConfig.getRetryInterval().getLength(),
-                                                                            raConfig.getRetryInterval().getUnit());
-                    if (((new Date()).getTime() - um.getCurrentProcessingState().getStartTime().getTime())
-                         >= retransmitInterval) {
-                        // The retransmit interval expired, check if message can be resend or a MissingReceipt error
-                        // has to be generated
-
-                        // Initial transmission does not count for max retries
-                        final int numOfRetransmits = HolodeckB2BCore.getQueryManager().getNumberOfTransmissions(um) - 1;
-                        if (numOfRetransmits >= raConfig.getMaxRetries()) {
-                            // No retries left, generate MissingReceipt error
-                            missingReceiptsLog.error("No Receipt received for UserMessage with messageId="
-                                                        + um.getMessageId());
-                            // Change processing state accordingly
-                            updManager.setProcessingState(um, ProcessingState.FAILURE);
-                            log.debug("Changed processing state of user message to reflect failure");
-                            // Generate and report (if requested) MissingReceipt
-                            generateMissingReceiptError(um, leg);
+                // Check if retransmit interval has passed
+                // Convert configured retry interval to milliseconds
+                final long retransmitInterval = TimeUnit.MILLISECONDS.convert(raConfig.getRetryInterval().getLength(),
+                                                                        raConfig.getRetryInterval().getUnit());
+                final long stateStart = um.getCurrentProcessingState().getStartTime().getTime();
+                if (((new Date()).getTime() - stateStart) >= retransmitInterval) {
+                    // The retransmit interval expired, check if message can be resend or a MissingReceipt error
+                    // has to be generated
+
+                    // Initial transmission does not count for max retries
+                    final int numOfRetransmits = um.getNumberOfTransmissions() - 1;
+                    if (numOfRetransmits >= raConfig.getMaxRetries()) {
+                        // No retries left, generate MissingReceipt error
+                        missingReceiptsLog.error("No Receipt received for UserMessage with messageId="
+                                                    + um.getMessageId());
+                        // Change processing state accordingly
+                        updManager.setProcessingState(um, ProcessingState.FAILURE);
+                        log.debug("Changed processing state of user message to reflect failure");
+                        // Generate and report (if requested) MissingReceipt
+                        generateMissingReceiptError(um, leg);
+                    } else {
+                        // Message can be resend, is the message to be pushed or pulled?
+                        if (PModeUtils.doesHolodeckB2BTrigger(leg)) {
+                            log.debug("Message must be pushed to receiver again");
+                            updManager.setProcessingState(um, ProcessingState.READY_TO_PUSH);
                         } else {
-                            // Message can be resend, is the message to be pushed or pulled?
-                            if (PModeUtils.doesHolodeckB2BTrigger(leg)) {
-                                log.debug("Message must be pushed to receiver again");
-                                updManager.setProcessingState(um, ProcessingState.READY_TO_PUSH);
-                            } else {
-                                log.debug("Message must be pulled by receiver again");
-                                updManager.setProcessingState(um, ProcessingState.AWAITING_PULL);
-                            }
-                            log.debug("Message unit is ready for retransmission");
+                            log.debug("Message must be pulled by receiver again");
+                            updManager.setProcessingState(um, ProcessingState.AWAITING_PULL);
                         }
-                    } else {
-                            // Time to wait for receipt has not expired yet, wait longer
-                            log.debug("Retransmit interval not expired yet. Nothing to do.");
+                        log.debug("Message unit is ready for retransmission");
                     }
-                } catch (final PersistenceException dbe) {
-                    log.error("An error occurred when checking retransmission of message unit [msgID="
-                                + um.getMessageId() + "]. Details: " + dbe.getMessage());
+                } else {
+                        // Time to wait for receipt has not expired yet, wait longer
+                        log.debug("Retransmit interval not expired yet. Check again when it expires.");
+                        RetransmissionScheduler.schedule(um.getMessageId(), stateStart + retransmitInterval);
                 }
+            } catch (final PersistenceException dbe) {
+                log.error("An error occurred when checking retransmission of message unit [msgID="
+                            + um.getMessageId() + "]. Details: " + dbe.getMessage());
+                // Check the message again later
+                RetransmissionScheduler.schedule(um.getMessageId(), System.currentTimeMillis() + MAX_WAIT);
             }
-        } else
-            log.debug("No messages waiting for Receipt, nothing to do");
+        }
     }
 
     /**
@@ -161,6 +260,8 @@ public class RetransmissionWorker extends AbstractWorkerTask {
      */
     @Override
     public void setParameters(final Map<String, ?> parameters) throws TaskConfigurationException {
+        // Get informed when User Messages start waiting for a Receipt
+        StorageManager.addProcessingStateListener(RetransmissionScheduler.LISTENER);
     }
 
     /**
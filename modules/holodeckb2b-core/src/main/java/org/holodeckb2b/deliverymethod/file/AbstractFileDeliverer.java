@@ -42,6 +42,9 @@ import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
  * the subclass.
  * <p>This deliverer also does not implement the delivery of signal messages. If signals have to be delivered to the
  * business application this should also be implemented in the subclass by overriding {@link #deliverSignalMessage(org.holodeckb2b.common.messagemodel.IMessageUnit)}
+ * <p>The payload files are by default copied to the delivery directory. Optionally a hard link to the payload file can
+ * be created, which saves the I/O for copying the content when the delivery directory is on the same file system as
+ * the Holodeck B2B temp directory. If the file can not be linked it is copied.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -52,6 +55,12 @@ public abstract class AbstractFileDeliverer implements IMessageDeliverer {
      */
     protected String  directory = null;
 
+    /**
+     * Indicator whether payload files should be hard linked instead of copied
+     * @since HB2B_NEXT_VERSION
+     */
+    protected boolean linkPayloads = false;
+
     /**
      * Logger
      */
@@ -63,7 +72,20 @@ public abstract class AbstractFileDeliverer implements IMessageDeliverer {
      * @param dir   The directory where file should be written to.
      */
     public AbstractFileDeliverer(final String dir) {
+        this(dir, false);
+    }
+
+    /**
+     * Constructs a new deliverer which will write the files to the given directory and either copy or link the payload
+     * files.
+     *
+     * @param dir           The directory where file should be written to.
+     * @param linkPayloads  Indicates whether payload files should be hard linked instead of copied
+     * @since HB2B_NEXT_VERSION
+     */
+    public AbstractFileDeliverer(final String dir, final boolean linkPayloads) {
         this.directory = dir;
+        this.linkPayloads = linkPayloads;
     }
 
     @Override
@@ -166,7 +188,10 @@ public abstract class AbstractFileDeliverer implements IMessageDeliverer {
                                                                + (ext != null ? ext : ""));
 
         try {
-            Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            if (!linkPayloads)
+                Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            else if (!Utils.linkFile(sourcePath, targetPath))
+                log.debug("Could not link payload file, copied it to delivery directory");
         } catch (final Exception ex) {
             // Can not move payload file -> delivery not possible
             // Try to remove the already created file
@@ -136,6 +136,18 @@ public class EbmsFileDeliverer extends AbstractFileDeliverer {
         super(dir);
     }
 
+    /**
+     * Constructs a new deliverer which will write the files to the given directory and either copy or link the payload
+     * files.
+     *
+     * @param dir           The directory where file should be written to.
+     * @param linkPayloads  Indicates whether payload files should be hard linked instead of copied
+     * @since HB2B_NEXT_VERSION
+     */
+    public EbmsFileDeliverer(final String dir, final boolean linkPayloads) {
+        super(dir, linkPayloads);
+    }
+
     /**
      * Writes the user message meta data to file using the same structure as in the ebMS header.
      *
@@ -48,6 +48,12 @@ import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
  * <p>Which format is requested must be specified when creating the factory using the "<i>format</i>" parameter. If not
  * specified the <i>"ebms"</i> format will be used as default.<br>
  * Furthermore the directory where to write the files MUST be specified using the "<i>deliveryDirectoy</i>" setting.
+ * <p>For the <i>mmd</i> and <i>ebms</i> formats the payload files are by default copied to the delivery directory. By
+ * setting the "<i>linkPayloads</i>" parameter to <i>"true"</i> a hard link to the payload file is created instead,
+ * which avoids copying the content when the delivery directory is on the same file system as the Holodeck B2B temp
+ * directory. When linking is not possible the payload file is still copied. Note that the back-end application must
+ * not change the content of linked payload files as it is shared with the copy Holodeck B2B keeps until the message is
+ * purged.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @see MMDDeliverer
@@ -66,6 +72,12 @@ public class FileDeliveryFactory implements IMessageDelivererFactory {
      */
     public static final String FORMAT_PARAM = "format";
 
+    /**
+     * The name of the parameter to indicate that payload files should be hard linked instead of copied
+     * @since HB2B_NEXT_VERSION
+     */
+    public static final String LINK_PAYLOADS_PARAM = "linkPayloads";
+
     /**
      * Enumeration for the possible formats
      */
@@ -81,6 +93,12 @@ public class FileDeliveryFactory implements IMessageDelivererFactory {
      */
     protected FileFormat miFormat = FileFormat.EBMS;
 
+    /**
+     * Indicator whether payload files should be hard linked instead of copied to the delivery directory
+     * @since HB2B_NEXT_VERSION
+     */
+    protected boolean linkPayloads = false;
+
     /**
      * Initializes the factory, ensures that a valid delivery directory is specified.
      *
@@ -119,6 +137,11 @@ public class FileDeliveryFactory implements IMessageDelivererFactory {
             miFormat = FileFormat.SINGLE_XML;
         else
             miFormat = FileFormat.EBMS;
+
+        // Check if payloads should be linked, default is to copy them
+        final Object linkSetting = settings.get(LINK_PAYLOADS_PARAM);
+        linkPayloads = linkSetting instanceof Boolean ? (Boolean) linkSetting
+                                                      : "true".equalsIgnoreCase(String.valueOf(linkSetting));
     }
 
     /**
@@ -134,9 +157,9 @@ public class FileDeliveryFactory implements IMessageDelivererFactory {
                 case SINGLE_XML :
                     return new SingleXMLDeliverer(deliveryDir);
                 case MMD :
-                    return new MMDDeliverer(deliveryDir);
+                    return new MMDDeliverer(deliveryDir, linkPayloads);
                 default:
-                    return new EbmsFileDeliverer(deliveryDir);
+                    return new EbmsFileDeliverer(deliveryDir, linkPayloads);
             }
         else
             // Directory is not valid anymore
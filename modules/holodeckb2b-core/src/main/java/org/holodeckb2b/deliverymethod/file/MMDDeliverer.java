@@ -46,6 +46,18 @@ public class MMDDeliverer extends AbstractFileDeliverer {
         super(dir);
     }
 
+    /**
+     * Constructs a new deliverer which will write the files to the given directory and either copy or link the payload
+     * files.
+     *
+     * @param dir           The directory where file should be written to.
+     * @param linkPayloads  Indicates whether payload files should be hard linked instead of copied
+     * @since HB2B_NEXT_VERSION
+     */
+    public MMDDeliverer(final String dir, final boolean linkPayloads) {
+        super(dir, linkPayloads);
+    }
+
     @Override
     protected void deliverSignalMessage(final ISignalMessage sigMsgUnit) throws MessageDeliveryException {
         // Not supported, this deliverer only delivers user messages!
@@ -17,22 +17,21 @@
 package org.holodeckb2b.ebms3.axis2;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.addressing.EndpointReference;
 import org.apache.axis2.client.OperationClient;
 import org.apache.axis2.client.Options;
 import org.apache.axis2.client.ServiceClient;
 import static org.apache.axis2.client.ServiceClient.ANON_OUT_IN_OP;
+import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.transport.http.HTTPConstants;
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.logging.Log;
 import org.holodeckb2b.axis2.Axis2Utils;
-import org.holodeckb2b.common.config.InternalConfiguration;
 import org.holodeckb2b.common.messagemodel.util.MessageUnitUtils;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.ebms3.constants.MessageContextProperties;
-import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
 import org.holodeckb2b.interfaces.messagemodel.IErrorMessage;
 import org.holodeckb2b.interfaces.messagemodel.IPullRequest;
 import org.holodeckb2b.interfaces.messagemodel.IReceipt;
@@ -40,15 +39,27 @@ import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.entities.IErrorMessageEntity;
 import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
 import org.holodeckb2b.interfaces.persistency.entities.IReceiptEntity;
+import org.holodeckb2b.module.HolodeckB2BCore;
 import org.holodeckb2b.module.HolodeckB2BCoreImpl;
 
 /**
  * Is a helper class that handles the sending of a message unit using the Axis2 framework.
+ * <p>To prevent that a new Axis2 service needs to be created and registered for every message that is sent, the
+ * {@link ServiceClient}s are reused. As a <code>ServiceClient</code> can not be used concurrently each thread takes
+ * one from the pool of idle clients (or creates a new one if none is available) and returns it after the message is
+ * sent. The HTTP connections used for sending the messages are managed by the {@link HTTPConnectionPool} so they can
+ * be reused for subsequent messages to the same destination.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
 public class Axis2Sender {
 
+    /**
+     * The <code>ServiceClient</code>s that are currently not in use and can be reused for sending a message
+     * @since HB2B_NEXT_VERSION
+     */
+    private static final ConcurrentLinkedQueue<ServiceClient> idleClients = new ConcurrentLinkedQueue<>();
+
     /**
      * Sends the given message unit to the other MSH.
      *
@@ -56,17 +67,14 @@ public class Axis2Sender {
      * @param log           The log to use for writing log information
      */
     public static void sendMessage(final IMessageUnitEntity messageUnit, final Log log) {
-        ServiceClient sc;
+        ServiceClient sc = null;
         OperationClient oc;
         final MessageContext msgCtx = new MessageContext();
 
         try {
             log.debug("Prepare Axis2 client to send " + MessageUnitUtils.getMessageUnitName(messageUnit)
                         + " with msgId: " + messageUnit.getMessageId());
-            sc = new ServiceClient(((InternalConfiguration) HolodeckB2BCoreInterface.getConfiguration())
-                                                                                    .getAxisConfigurationContext(),
-                                   Axis2Utils.createAnonymousService());
-            sc.engageModule(HolodeckB2BCoreImpl.HOLODECKB2B_CORE_MODULE);
+            sc = getServiceClient(HolodeckB2BCore.getConfiguration().getAxisConfigurationContext(), log);
             oc = sc.createClient(ANON_OUT_IN_OP);
 
             log.debug("Create an empty MessageContext for message with current configuration");
@@ -90,11 +98,14 @@ public class Axis2Sender {
             options.setExceptionToBeThrownOnSOAPFault(false);
             oc.setOptions(options);
 
-            msgCtx.setProperty(HTTPConstants.CACHED_HTTP_CLIENT, new HttpClient());
+            msgCtx.setProperty(HTTPConstants.CACHED_HTTP_CLIENT,
+                               HolodeckB2BCore.getHTTPConnectionPool().getHttpClient());
             log.debug("Axis2 client configured for sending ebMS message");
         } catch (final AxisFault af) {
             // Setting up the Axis environment failed. As it prevents sending the message it is logged as a fatal error
             log.fatal("Setting up Axis2 to send message failed! Details: " + af.getReason());
+            if (sc != null)
+                discardServiceClient(sc, log);
             return;
         }
 
@@ -117,11 +128,71 @@ public class Axis2Sender {
                      + logMsg.toString());
         } finally {
             try {
-                sc.cleanupTransport();
-                sc.cleanup();
+                // Release the HTTP connection so it can be reused for a next message
+                oc.complete(msgCtx);
+                idleClients.offer(sc);
             } catch (final AxisFault af2) {
                 log.error("Clean up of Axis2 context to send message failed! Details: " + af2.getReason());
+                discardServiceClient(sc, log);
             }
         }
     }
+
+    /**
+     * Gets a <code>ServiceClient</code> for sending a message. If there is an idle client available it is reused,
+     * otherwise a new client is created using a new anonymous service. Idle clients that belong to another Axis2
+     * configuration are discarded.
+     *
+     * @param configCtx     The Axis2 configuration context to use
+     * @param log           The log to use for writing log information
+     * @return              A <code>ServiceClient</code> that is configured for sending ebMS messages
+     * @throws AxisFault    When a new client could not be created
+     * @since HB2B_NEXT_VERSION
+     */
+    private static ServiceClient getServiceClient(final ConfigurationContext configCtx, final Log log)
+                                                                                                    throws AxisFault {
+        ServiceClient sc = idleClients.poll();
+        // A client that belongs to another Axis2 configuration (i.e. from before a restart) can not be reused
+        while (sc != null && sc.getServiceContext().getConfigurationContext() != configCtx) {
+            discardServiceClient(sc, log);
+            sc = idleClients.poll();
+        }
+
+        if (sc == null) {
+            sc = new ServiceClient(configCtx, Axis2Utils.createAnonymousService());
+            sc.engageModule(HolodeckB2BCoreImpl.HOLODECKB2B_CORE_MODULE);
+        }
+        return sc;
+    }
+
+    /**
+     * Cleans up all idle <code>ServiceClient</code>s and removes them from the pool. Is called when the Holodeck B2B
+     * Core is stopped so the anonymous services of the clients are removed from the Axis2 configuration.
+     *
+     * @param log   The log to use for writing log information
+     * @since HB2B_NEXT_VERSION
+     */
+    public static void shutdown(final Log log) {
+        ServiceClient sc = idleClients.poll();
+        while (sc != null) {
+            discardServiceClient(sc, log);
+            sc = idleClients.poll();
+        }
+    }
+
+    /**
+     * Removes the anonymous service of a <code>ServiceClient</code> that can not be reused from the Axis2
+     * configuration.
+     *
+     * @param sc    The <code>ServiceClient</code> to discard
+     * @param log   The log to use for writing log information
+     * @since HB2B_NEXT_VERSION
+     */
+    private static void discardServiceClient(final ServiceClient sc, final Log log) {
+        try {
+            sc.cleanup();
+        } catch (final AxisFault af) {
+            log.error("Clean up of Axis2 context to send message failed! Details: " + af.getReason());
+        }
+    }
 }
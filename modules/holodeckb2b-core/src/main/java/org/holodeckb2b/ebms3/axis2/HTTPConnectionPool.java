@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.axis2;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Manages the pool of HTTP connections that is used by the {@link Axis2Sender} to send messages to other MSHs. By
+ * sharing one {@link HttpClient} with a {@link MultiThreadedHttpConnectionManager} the connections to a destination
+ * are kept alive and reused for subsequent messages, so not every message needs to set up a new TCP connection and
+ * execute the TLS handshake.
+ * <p>The number of connections that can be opened to one destination and the total number of connections are
+ * limited. Connections that have not been used for some time are closed by a background thread.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class HTTPConnectionPool {
+
+    private static final Log log = LogFactory.getLog(HTTPConnectionPool.class);
+
+    /**
+     * The default maximum number of connections to a single destination
+     */
+    static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+    /**
+     * The default maximum total number of connections
+     */
+    static final int DEFAULT_MAX_CONNECTIONS = 100;
+
+    /**
+     * The default time in seconds a connection can be idle before it is closed
+     */
+    static final int DEFAULT_IDLE_TIMEOUT = 60;
+
+    /**
+     * The connection manager that maintains the pool of connections
+     */
+    private final MultiThreadedHttpConnectionManager    connectionManager;
+
+    /**
+     * The HTTP client that uses the pooled connections
+     */
+    private final HttpClient                            httpClient;
+
+    /**
+     * The thread that closes idle connections
+     */
+    private final IdleConnectionTimeoutThread           idleConnectionMonitor;
+
+    /**
+     * Creates a new connection pool using the given settings. When a setting is not positive the default value is
+     * used.
+     *
+     * @param maxPerHost    The maximum number of connections to a single destination
+     * @param maxTotal      The maximum total number of connections
+     * @param idleTimeout   The time in seconds a connection can be idle before it is closed
+     */
+    public HTTPConnectionPool(final int maxPerHost, final int maxTotal, final int idleTimeout) {
+        final int perHost = maxPerHost > 0 ? maxPerHost : DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        final int total = Math.max(perHost, maxTotal > 0 ? maxTotal : DEFAULT_MAX_CONNECTIONS);
+        final long idleMillis = (idleTimeout > 0 ? idleTimeout : DEFAULT_IDLE_TIMEOUT) * 1000L;
+
+        log.debug("Create HTTP connection pool: max connections per host=" + perHost + ", max total connections="
+                  + total + ", idle timeout=" + idleMillis + "ms");
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        final HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(perHost);
+        params.setMaxTotalConnections(total);
+        // As connections are kept open they should be checked before reuse
+        params.setStaleCheckingEnabled(true);
+        httpClient = new HttpClient(connectionManager);
+
+        idleConnectionMonitor = new IdleConnectionTimeoutThread();
+        idleConnectionMonitor.setName("hb2b-http-idle-connection-monitor");
+        idleConnectionMonitor.setConnectionTimeout(idleMillis);
+        idleConnectionMonitor.setTimeoutInterval(Math.max(1000L, idleMillis / 2));
+        idleConnectionMonitor.addConnectionManager(connectionManager);
+        idleConnectionMonitor.start();
+    }
+
+    /**
+     * Gets the HTTP client that should be used for sending messages. The client is thread safe and can therefore be
+     * used concurrently by all sending threads.
+     *
+     * @return  The shared {@link HttpClient}
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Gets the number of connections currently in use or available for reuse.
+     *
+     * @return  The number of open connections
+     */
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    /**
+     * Closes all connections in the pool and stops the monitoring of idle connections. Must be called when Holodeck B2B
+     * is shut down.
+     */
+    public void shutdown() {
+        log.debug("Shutting down HTTP connection pool");
+        idleConnectionMonitor.shutdown();
+        connectionManager.shutdown();
+    }
+}
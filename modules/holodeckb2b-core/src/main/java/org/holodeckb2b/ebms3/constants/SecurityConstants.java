@@ -126,4 +126,10 @@ public final class SecurityConstants {
      * Identifier for the indicator whether the SOAP Body should be encrypted
      */
     public static final String ENCRYPT_BODY = PREFIX + "encrypt-body";
+
+    /**
+     * Identifier for the message context property that contains the digests of the attachments calculated when the
+     * signature was created, stored as a <code>Collection&lt;IPayloadDigest&gt;</code>
+     */
+    public static final String ATTACHMENT_DIGESTS = PREFIX + "attachment-digests";
 }
@@ -34,7 +34,8 @@ import org.holodeckb2b.persistency.dao.StorageManager;
  * application.
  * <p>To prevent that the message unit is delivered twice in parallel delivery only takes place when the processing
  * state can be successfully changed from {@link ProcessingState#READY_FOR_DELIVERY} to
- * {@link ProcessingState#OUT_FOR_DELIVERY}.
+ * {@link ProcessingState#OUT_FOR_DELIVERY}. When the message is delivered the updates collected in the unit of work
+ * are saved directly, so the delivery is visible to the duplicate detection of other threads.
  * <p>NOTE: The actual delivery to the business application is done through a <i>DeliveryMethod</i> which is specified
  * in the P-Mode for this message unit.
  *
@@ -81,6 +82,8 @@ public class DeliverUserMessage extends AbstractUserMessageHandler {
                 log.info("Successfully delivered user message [msgId=" + um.getMessageId() +"]");
                 log.debug("Set the processing state to delivered");
                 updateManager.setProcessingState(um, ProcessingState.DELIVERED);
+                // Save the delivery directly so a duplicate that is received concurrently is detected
+                updateManager.saveUnitOfWork();
             } catch (final MessageDeliveryException ex) {
                 log.error("Could not deliver the user message [msgId=" + um.getMessageId()
                             + "] using specified delivery method!"
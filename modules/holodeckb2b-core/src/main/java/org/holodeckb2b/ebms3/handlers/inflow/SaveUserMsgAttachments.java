@@ -16,11 +16,14 @@
  */
 package org.holodeckb2b.ebms3.handlers.inflow;
 
+import org.apache.axiom.attachments.lifecycle.DataHandlerExt;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.soap.SOAPBody;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
+import org.holodeckb2b.as4.compression.CompressionDataHandler;
 import org.holodeckb2b.as4.compression.DeCompressionFailure;
+import org.holodeckb2b.as4.compression.ParallelCompressor;
 import org.holodeckb2b.common.messagemodel.EbmsError;
 import org.holodeckb2b.common.messagemodel.Payload;
 import org.holodeckb2b.common.util.Utils;
@@ -40,13 +43,20 @@ import org.holodeckb2b.module.HolodeckB2BCore;
 import org.holodeckb2b.persistency.dao.StorageManager;
 
 import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.zip.ZipException;
 
 /**
@@ -54,6 +64,13 @@ import java.util.zip.ZipException;
  * stored temporarily on the file system.
  * <p>Once the payloads are successfully read the UserMessage is ready for delivery to the business application. So this
  * handler changes the processing state to {@link ProcessingState#READY_FOR_DELIVERY}.
+ * <p>When parallel compression is enabled in the configuration the attachments that need to be decompressed are saved
+ * concurrently by the {@link ParallelCompressor} after all other payloads have been saved. Note that this means that
+ * the MIME parts of all attachments are read from the message before the first of these attachments is decompressed.
+ * As MIME parts can only be read in order Axiom must buffer the content of each attachment that is read before it is
+ * saved, i.e. in memory or, for large attachments, in a temporary file depending on the Axis2 attachment caching
+ * settings. Parallel decompression therefore trades this extra buffering for a shorter processing time and is only
+ * beneficial for messages with multiple compressed attachments.
  * <p>As this handler is only useful when a {@link IUserMessageEntity} object is already available in the message context this
  * handler extends from {@link AbstractUserMessageHandler} to ensure it only runs when a UserMessage is available.
  *
@@ -66,6 +83,17 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
      */
     private static final String PAYLOAD_DIR = "plcin";
 
+    /**
+     * The size of the buffer used when copying the payload content from a stream
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The factory for creating the writers to save payloads contained in the SOAP body. As creating the factory is
+     * expensive and the factory is thread safe once configured it is shared by all invocations.
+     */
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
     @Override
     protected byte inFlows() {
         return IN_FLOW;
@@ -100,6 +128,15 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
             // Save each payload to a file
             // We built a new collection of payload meta-data so we can update the content location
             ArrayList<IPayload>  newPayloadData = new ArrayList<>(payloads.size());
+            // The files already used for attachments, needed when multiple payloads refer to the same attachment
+            final Map<String, File> savedAttachments = new HashMap<>();
+            // When decompression is done in parallel, the attachments to decompress and the copies of them that must
+            // be made when they are referenced multiple times
+            final boolean parallel = HolodeckB2BCore.getConfiguration().useParallelCompression();
+            final List<String> deferredRefs = new ArrayList<>();
+            final List<Callable<Void>> deferredSaves = new ArrayList<>();
+            final List<String> postponedCopyRefs = new ArrayList<>();
+            final List<File[]> postponedCopies = new ArrayList<>();
             for(final IPayload ip : payloads) {
                 // Convert to Payload object so we can set properties
                 Payload p = new Payload(ip);
@@ -147,38 +184,30 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
                             createInconsistentError(mc, um, plRef);
                             return InvocationResponse.CONTINUE;
                         } else {
-                            try (final OutputStream aOS = new FileOutputStream(plFile))
-                            {
-                                dh.writeTo(aOS);
+                            try {
+                                final File savedAttachment = savedAttachments.get(plRef);
+                                if (savedAttachment != null) {
+                                    if (deferredRefs.contains(plRef)) {
+                                        // The attachment is saved later, so the copy must be made after that
+                                        postponedCopyRefs.add(plRef);
+                                        postponedCopies.add(new File[] { savedAttachment, plFile });
+                                    } else
+                                        copyFile(savedAttachment, plFile);
+                                } else if (parallel && dh instanceof CompressionDataHandler) {
+                                    log.debug("Attachment will be decompressed in parallel");
+                                    deferredRefs.add(plRef);
+                                    deferredSaves.add(new Callable<Void>() {
+                                        @Override
+                                        public Void call() throws IOException {
+                                            saveAttachment(dh, plFile);
+                                            return null;
+                                        }
+                                    });
+                                } else
+                                    saveAttachment(dh, plFile);
+                                savedAttachments.put(plRef, plFile);
                             } catch (final IOException ioException) {
-                                // Get root cause as this problem can be caused by failure to decompress, decrypt or
-                                // writing to file system
-                                Throwable rootCause = Utils.getRootCause(ioException);
-                                // An error must be generated, which one depending on the what caused the exception
-                                EbmsError writeFailure;
-                                String  errMessage;
-                                // Check if this IO exception is caused by decryption failure
-                                if (rootCause instanceof ZipException) {
-                                    errMessage = "decompressed";
-                                    writeFailure = new DeCompressionFailure("Payload [" + plRef
-                                                                        + "] in message could not be decompressed!",
-                                                                        um.getMessageId());
-                                } else if (Utils.getRootCause(ioException)
-                                                                instanceof java.security.GeneralSecurityException) {
-                                    errMessage = "decrypted";
-                                    writeFailure = new FailedDecryption("Payload [" + plRef
-                                                                        + "] in message could not be decrypted!",
-                                                                        um.getMessageId());
-                                } else {
-                                    errMessage = "written to temp directory";
-                                    writeFailure = new OtherContentError("Unexpected error in payload processing!",
-                                                                        um.getMessageId());
-                                }
-                                log.error("Payload [" + plRef + "] in message [" + um.getMessageId() + "] could not be "
-                                          + errMessage + "!\n\tDetails: " + rootCause.getMessage());
-                                MessageContextUtils.addGeneratedError(mc, writeFailure);
-                                log.debug("Error generated and stored in MC, change processing state of user message");
-                                updateManager.setProcessingState(um, ProcessingState.FAILURE);
+                                handleSaveFailure(mc, um, plRef, ioException);
                                 return InvocationResponse.CONTINUE;
                             }
                             log.debug("Payload saved to temporary file, set content location in meta data");
@@ -194,6 +223,36 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
                 newPayloadData.add(p);
             }
 
+            if (!deferredSaves.isEmpty()) {
+                log.debug("Decompressing " + deferredSaves.size() + " attachments in parallel");
+                final List<Future<Void>> results = ParallelCompressor.submitAll(deferredSaves);
+                // Wait for all attachments to be saved, even when one fails, so no files are still being written
+                IOException failure = null;
+                String failedRef = null;
+                for (int i = 0; i < results.size(); i++) {
+                    try {
+                        ParallelCompressor.await(results.get(i));
+                    } catch (final IOException saveFailure) {
+                        if (failure == null) {
+                            failure = saveFailure;
+                            failedRef = deferredRefs.get(i);
+                        }
+                    }
+                }
+                if (failure != null) {
+                    handleSaveFailure(mc, um, failedRef, failure);
+                    return InvocationResponse.CONTINUE;
+                }
+                for (int i = 0; i < postponedCopies.size(); i++) {
+                    try {
+                        copyFile(postponedCopies.get(i)[0], postponedCopies.get(i)[1]);
+                    } catch (final IOException copyFailure) {
+                        handleSaveFailure(mc, um, postponedCopyRefs.get(i), copyFailure);
+                        return InvocationResponse.CONTINUE;
+                    }
+                }
+            }
+
             log.debug("All payloads saved to temp file");
             // Update the message meta data in data base and change the processing state of the
             // message to indicate it is now ready for delivery to the business application
@@ -209,6 +268,44 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
         return InvocationResponse.CONTINUE;
     }
 
+    /**
+     * Handles the failure to save an attachment by generating the ebMS error that corresponds to the cause of the
+     * failure and changing the processing state of the user message to {@link ProcessingState#FAILURE}.
+     *
+     * @param mc            The current message context
+     * @param um            The user message containing the attachment
+     * @param plRef         The reference to the attachment that could not be saved
+     * @param ioException   The exception that occurred while saving the attachment
+     * @throws PersistenceException When updating the processing state fails.
+     */
+    private void handleSaveFailure(final MessageContext mc, final IUserMessageEntity um, final String plRef,
+                                   final IOException ioException) throws PersistenceException {
+        // Get root cause as this problem can be caused by failure to decompress, decrypt or
+        // writing to file system
+        Throwable rootCause = Utils.getRootCause(ioException);
+        // An error must be generated, which one depending on the what caused the exception
+        EbmsError writeFailure;
+        String  errMessage;
+        // Check if this IO exception is caused by decryption failure
+        if (rootCause instanceof ZipException) {
+            errMessage = "decompressed";
+            writeFailure = new DeCompressionFailure("Payload [" + plRef + "] in message could not be decompressed!",
+                                                    um.getMessageId());
+        } else if (rootCause instanceof java.security.GeneralSecurityException) {
+            errMessage = "decrypted";
+            writeFailure = new FailedDecryption("Payload [" + plRef + "] in message could not be decrypted!",
+                                                um.getMessageId());
+        } else {
+            errMessage = "written to temp directory";
+            writeFailure = new OtherContentError("Unexpected error in payload processing!", um.getMessageId());
+        }
+        log.error("Payload [" + plRef + "] in message [" + um.getMessageId() + "] could not be "
+                  + errMessage + "!\n\tDetails: " + rootCause.getMessage());
+        MessageContextUtils.addGeneratedError(mc, writeFailure);
+        log.debug("Error generated and stored in MC, change processing state of user message");
+        HolodeckB2BCore.getStorageManager().setProcessingState(um, ProcessingState.FAILURE);
+    }
+
     /**
      * Helper method to get the directory where the payload contents can be stored.
      *
@@ -287,7 +384,7 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
 
 
     /**
-     * Saves the XML contained in the given element to the specified file.
+     * Saves the XML contained in the given element to the specified file. The XML is saved using UTF-8 encoding.
      *
      * @param e     The {@link OMElement} to save
      * @param f     {@link File} handle for the file where content should be saved
@@ -295,11 +392,65 @@ public class SaveUserMsgAttachments extends AbstractUserMessageHandler {
      * @throws XMLStreamException
      */
     private void saveXMLPayload(final OMElement e, final File f) throws XMLStreamException, IOException {
-        try (final Writer w = new FileWriter(f))
+        try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(f), BUFFER_SIZE))
         {
-            final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(w);
+            final XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(os, "UTF-8");
             e.serialize(writer);
             writer.flush();
+            writer.close();
+        }
+    }
+
+    /**
+     * Saves the content of an attachment to the specified file, avoiding unnecessary copies of the content:<ul>
+     * <li>When the attachment is still a MIME part of the received message its content is read only once, which means
+     * that if the part has not been read yet it is streamed directly from the transport to the file without being
+     * buffered by Axiom first.</li>
+     * <li>When the content of the attachment is already available in a file it is copied using a file channel, so the
+     * copy can be done by the operating system.</li>
+     * <li>In all other cases, for example when the attachment needs to be decompressed, the content is written to
+     * the file by the data handler.</li></ul>
+     *
+     * @param dh    The {@link DataHandler} of the attachment
+     * @param f     {@link File} handle for the file where content should be saved
+     * @throws IOException When the content of the attachment could not be read or written to the file
+     */
+    static void saveAttachment(final DataHandler dh, final File f) throws IOException {
+        if (dh instanceof DataHandlerExt) {
+            try (final InputStream is = ((DataHandlerExt) dh).readOnce();
+                 final OutputStream os = new FileOutputStream(f))
+            {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int r;
+                while ((r = is.read(buffer)) > 0)
+                    os.write(buffer, 0, r);
+            }
+        } else if (dh.getClass() == DataHandler.class && dh.getDataSource() instanceof FileDataSource) {
+            // Only for plain data handlers the content is the same as the data source, sub classes may change it
+            copyFile(((FileDataSource) dh.getDataSource()).getFile(), f);
+        } else {
+            try (final OutputStream os = new BufferedOutputStream(new FileOutputStream(f), BUFFER_SIZE))
+            {
+                dh.writeTo(os);
+            }
+        }
+    }
+
+    /**
+     * Copies the content of a file to another file using file channels.
+     *
+     * @param source    The file to copy
+     * @param target    The file to copy the content to
+     * @throws IOException When the file could not be copied
+     */
+    private static void copyFile(final File source, final File target) throws IOException {
+        try (final FileChannel in = new FileInputStream(source).getChannel();
+             final FileChannel out = new FileOutputStream(target).getChannel())
+        {
+            final long size = in.size();
+            long position = 0;
+            while (position < size)
+                position += out.transferFrom(in, position, size - position);
         }
     }
 }
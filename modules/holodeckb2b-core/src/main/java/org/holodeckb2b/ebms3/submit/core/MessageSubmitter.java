@@ -24,6 +24,8 @@ import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.holodeckb2b.common.messagemodel.Payload;
@@ -249,9 +251,13 @@ public class MessageSubmitter implements IMessageSubmitter {
     /**
      * Helper method to copy or move the submissionPayloadInfo to an internal directory so they will be kept available during the
  processing of the message (which may include resending).
+     * <p>When the files are moved and the internal directory is on the same file system they are just renamed. If the
+     * files should be kept and the Holodeck B2B configuration allows it, a hard link to the files is created instead of
+     * a copy. If the files can not be linked, they are copied. When one of the payloads can not be moved, copied or
+     * linked, the payloads that were already handled are moved back or removed from the internal directory.
      *
      * @param um     The meta data on the submitted user message
-     * @param pmode  The P-Mode that governs the processing this user message
+     * @param move   Indicator whether the payload files should be moved to the internal directory
      * @throws IOException  When the payload could not be moved/copied to the internal payload storage
      * @throws PersistenceException When the new payload locations couldn't be saved to the database
      */
@@ -264,10 +270,12 @@ public class MessageSubmitter implements IMessageSubmitter {
             log.debug("Create the directory [" + internalPayloadDir + "] for storing payload files");
             Files.createDirectories(pathPlDir);
         }
+        final boolean link = !move && HolodeckB2BCore.getConfiguration().linkSubmittedPayloads();
 
         final Collection<? extends IPayload> submissionPayloadInfo = um.getPayloads();
         Collection<IPayload> internalPayloadInfo = new ArrayList<>();
         if (!Utils.isNullOrEmpty(submissionPayloadInfo)) {
+            final Map<Path, Path> handledPayloads = new LinkedHashMap<>();
             for (final IPayload p : submissionPayloadInfo) {
                 final Path srcPath = Paths.get(p.getContentLocation());
                 // Ensure that the filename in the temp directory is unique
@@ -275,12 +283,18 @@ public class MessageSubmitter implements IMessageSubmitter {
                 try {
                     if (move) {
                         log.debug("Moving payload [" + p.getContentLocation() + "] to internal directory");
-                        Files.move(srcPath, destPath, StandardCopyOption.REPLACE_EXISTING);
+                        if (!Utils.moveFile(srcPath, destPath))
+                            log.debug("Payload is on different file system, copied to internal directory");
+                    } else if (link) {
+                        log.debug("Linking payload [" + p.getContentLocation() + "] to internal directory");
+                        if (!Utils.linkFile(srcPath, destPath))
+                            log.debug("Payload could not be linked, copied to internal directory");
                     } else {
                         log.debug("Copying payload [" + p.getContentLocation() + "] to internal directory");
                         Files.copy(srcPath, destPath, StandardCopyOption.REPLACE_EXISTING);
                     }
                     log.debug("Payload moved/copied to internal directory");
+                    handledPayloads.put(srcPath, destPath);
                     // Complete payload info to store
                     Payload completeInfo = new Payload(p);
                     completeInfo.setContentLocation(destPath.toString());
@@ -295,6 +309,7 @@ public class MessageSubmitter implements IMessageSubmitter {
                         log.error("Could not remove the temporary payload file [" + destPath.toString() + "]!" +
                                   " Please remove manually.");
                     }
+                    revertPayloads(handledPayloads, move);
                     throw io;
                 }
             }
@@ -303,4 +318,28 @@ public class MessageSubmitter implements IMessageSubmitter {
         }
     }
 
+    /**
+     * Helper method to undo the moving or copying of the payloads to the internal directory when not all payloads of
+     * the message could be handled. Moved payloads are moved back to their original location and copied or linked
+     * payloads are removed from the internal directory.
+     *
+     * @param handledPayloads   The payloads already moved or copied, the key is the original location and the value
+     *                          the location in the internal directory
+     * @param move              Indicator whether the payloads were moved
+     */
+    private void revertPayloads(final Map<Path, Path> handledPayloads, final boolean move) {
+        for (final Map.Entry<Path, Path> pl : handledPayloads.entrySet()) {
+            try {
+                if (move)
+                    Utils.moveFile(pl.getValue(), pl.getKey());
+                else
+                    Files.deleteIfExists(pl.getValue());
+            } catch (IOException revertFailure) {
+                log.error("Could not " + (move ? "move back" : "remove") + " the payload file ["
+                          + pl.getValue().toString() + "]! Please " + (move ? "move to [" + pl.getKey().toString()
+                          + "]" : "remove") + " manually.");
+            }
+        }
+    }
+
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.util;
+
+import org.apache.axis2.context.MessageContext;
+import org.holodeckb2b.common.handler.BaseHandler;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Is a special handler that commits the <i>unit of work</i> started by the {@link UnitOfWorkHandler} at the end of the
+ * <i>ebms3InPhase</i>, so all updates of the message units' meta-data are saved before the response, for example a
+ * Receipt, is sent. This ensures that the states on which the reliability of the message exchange depends, like
+ * <i>DELIVERED</i>, are stored before the sender is informed and are seen when the message is retransmitted.
+ * <p>When the updates can not be saved the processing of the message fails, so no response is sent that would
+ * acknowledge a message of which the processing state is not stored.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ * @see UnitOfWorkHandler
+ */
+public class CommitUnitOfWorkHandler extends BaseHandler {
+
+    @Override
+    protected byte inFlows() {
+        return IN_FLOW | IN_FAULT_FLOW;
+    }
+
+    @Override
+    protected InvocationResponse doProcessing(final MessageContext mc) throws PersistenceException {
+        try {
+            HolodeckB2BCore.getStorageManager().commitUnitOfWork();
+            log.debug("Committed unit of work of the received message");
+        } catch (final PersistenceException commitFailure) {
+            log.error("An error occurred while saving the updates made during processing of the message! Details: "
+                     + commitFailure.getMessage());
+            throw commitFailure;
+        }
+        return InvocationResponse.CONTINUE;
+    }
+}
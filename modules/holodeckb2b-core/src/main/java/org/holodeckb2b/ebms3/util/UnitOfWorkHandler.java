@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.util;
+
+import org.apache.axis2.context.MessageContext;
+import org.holodeckb2b.common.handler.BaseHandler;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Is a special handler that starts a <i>unit of work</i> for the processing of a received message so all updates of
+ * the message units' meta-data made by the handlers are saved together instead of each in its own transaction. The
+ * unit of work is committed by the {@link CommitUnitOfWorkHandler} at the end of the <i>ebms3InPhase</i>, before the
+ * response is sent. When the processing of the message is stopped before that handler is reached, the updates made
+ * until then are saved when the flow is completed.
+ * <p>Only the updates of the message units created or claimed in the unit of work are collected. Updates of other
+ * message units, like the sent message units the received signals refer to, and changes of the processing state that
+ * require a specific current state are still saved directly. Therefore this handler does not change the way message
+ * units are claimed for processing.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ * @see org.holodeckb2b.interfaces.persistency.dao.IUpdateManager#startUnitOfWork()
+ */
+public class UnitOfWorkHandler extends BaseHandler {
+
+    @Override
+    protected byte inFlows() {
+        return IN_FLOW | IN_FAULT_FLOW;
+    }
+
+    @Override
+    protected InvocationResponse doProcessing(final MessageContext mc) throws PersistenceException {
+        log.debug("Start unit of work for processing the received message");
+        HolodeckB2BCore.getStorageManager().startUnitOfWork();
+        return InvocationResponse.CONTINUE;
+    }
+
+    /**
+     * Commits the unit of work if it was not already committed by the {@link CommitUnitOfWorkHandler}, which happens
+     * when the processing of the message was stopped before. As the message has already been processed there is
+     * nothing more to do than logging the error when saving the updates fails.
+     *
+     * @param mc    The current message context
+     */
+    @Override
+    protected void doFlowComplete(final MessageContext mc) {
+        try {
+            HolodeckB2BCore.getStorageManager().commitUnitOfWork();
+        } catch (final PersistenceException commitFailure) {
+            log.error("An error occurred while saving the updates made during processing of the message! Details: "
+                     + commitFailure.getMessage());
+        }
+    }
+}
@@ -18,16 +18,27 @@ package org.holodeckb2b.ebms3.workers;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.holodeckb2b.as4.compression.CompressedPayloadStore;
 import org.holodeckb2b.common.messagemodel.Payload;
 import org.holodeckb2b.common.messagemodel.UserMessage;
 import org.holodeckb2b.common.messagemodel.util.MessageUnitUtils;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.common.workerpool.AbstractWorkerTask;
-import org.holodeckb2b.events.MessageUnitPurgedEvent;
-import org.holodeckb2b.interfaces.events.types.IMessageUnitPurgedEvent;
+import org.holodeckb2b.events.MessageUnitsPurgedEvent;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.interfaces.events.types.IMessageUnitsPurgedEvent;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
@@ -37,12 +48,17 @@ import org.holodeckb2b.module.HolodeckB2BCore;
 
 /**
  * Is the default <i>purge worker</i> responsible for cleaning up information on old and processed messages, i.e. remove
- * the meta-data information from the database and delete associated payloads from the file system.
+ * the meta-data information from the database and delete associated payloads from the file system. The compressed form
+ * of the payloads that may have been kept in the {@link CompressedPayloadStore} is removed as well.
  * <p>Currently only the number of days after which the message information should be removed can be configured. This is
  * done through the optional <i>purgeAfterDays</i> parameter. If not specified 30 days is used as the default setting.
- * <p>This implementation will trigger {@link IMessageUnitPurgedEvent}s only for <i>User Message</i> message units and
+ * <p>The expired message units are purged in chunks of at most {@link #CHUNK_SIZE} message units, so the number of
+ * expired message units kept in memory is bounded. For each chunk the payload files are deleted in parallel, after
+ * which the meta-data of all message units in the chunk is removed in one transaction.
+ * <p>This implementation will trigger {@link IMessageUnitsPurgedEvent}s only for <i>User Message</i> message units and
  * it will only provide the meta-data to the event handler. The payload data associated with the User Message message
- * unit will already be deleted by the worker.
+ * unit will already be deleted by the worker. The events are raised per chunk once its meta-data has been removed, with
+ * one event for all purged User Messages in the chunk that are governed by the same P-Mode.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -54,6 +70,16 @@ public class PurgeOldMessagesWorker extends AbstractWorkerTask {
      */
     public static final String P_PURGE_AFTER_DAYS = "purgeAfterDays";
 
+    /**
+     * The maximum number of message units that is purged in one chunk
+     */
+    static final int CHUNK_SIZE = 500;
+
+    /**
+     * The number of threads used to delete the payload files
+     */
+    private static final int DELETE_THREADS = 4;
+
     /**
      * The number of days after which message information will be purged
      */
@@ -61,71 +87,161 @@ public class PurgeOldMessagesWorker extends AbstractWorkerTask {
 
     @Override
     public void doProcessing() throws InterruptedException {
-        final IQueryManager queryManager = HolodeckB2BCore.getQueryManager();
-        Collection<IMessageUnitEntity> experidMsgUnits = null;
-
         // Calculate the experition time
         final Calendar expirationDate = Calendar.getInstance();
         expirationDate.add(Calendar.DAY_OF_YEAR, -purgeAfterDays);
         final String expDateString = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:SS.sss").format(expirationDate.getTime());
 
+        log.debug("Purge all message units that changed state before " + expDateString);
+        final ExecutorService executor = createExecutor();
+        int purged = 0;
         try {
-            log.debug("Get all message units that changed state before " + expDateString);
-             experidMsgUnits = queryManager.getMessageUnitsWithLastStateChangedBefore(expirationDate.getTime());
+            List<IMessageUnitEntity> expiredMsgUnits = null;
+            do {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedException();
+                final IMessageUnitEntity lastMsgUnit = Utils.isNullOrEmpty(expiredMsgUnits) ? null :
+                                                                expiredMsgUnits.get(expiredMsgUnits.size() - 1);
+                expiredMsgUnits = getExpiredMessageUnits(expirationDate.getTime(), lastMsgUnit);
+                if (!Utils.isNullOrEmpty(expiredMsgUnits))
+                    purged += purge(expiredMsgUnits, executor);
+            } while (expiredMsgUnits != null && expiredMsgUnits.size() == CHUNK_SIZE);
         } catch (final PersistenceException dbe) {
             log.error("Could not get the list of expired message units from database! Error details: "
                      + dbe.getMessage());
+        } finally {
+            executor.shutdownNow();
         }
-        if (Utils.isNullOrEmpty(experidMsgUnits)) {
-            log.debug("No expired message unist found, nothing to do");
-            return;
-        }
+        if (purged == 0)
+            log.debug("No expired message units removed");
+        else
+            log.info("Removed " + purged + " expired message units");
+    }
 
-        log.debug("Removing " + experidMsgUnits.size() + " expired message units.");
-        for(final IMessageUnitEntity msgUnit : experidMsgUnits) {
-            log.debug("Removing " + MessageUnitUtils.getMessageUnitName(msgUnit)
-                      + " with msgId: " + msgUnit.getMessageId());
-            try {
-                // If the message unit to delete is a User Message we need to have a temp object so we can change the
-                // payload location info as we may need to trigger purge event.
-                UserMessage tmpUserMessage = null;
-                if (msgUnit instanceof IUserMessage) {
-                    log.debug("Delete the payload data of the User Message");
-                    // Complete loading is needed as it is not done when querying
-                    queryManager.ensureCompletelyLoaded(msgUnit);
-                    tmpUserMessage = new UserMessage((IUserMessage) msgUnit);
-                    final Collection<IPayload> payloads = tmpUserMessage.getPayloads();
-                    if (!Utils.isNullOrEmpty(payloads)) {
-                        for (final IPayload pl : payloads) {
-                            if (Utils.isNullOrEmpty(pl.getContentLocation()))
-                                log.debug("No payload location provided for payload [" + pl.getPayloadURI() + "]");
-                            else {
-                                final File plFile = new File(pl.getContentLocation());
-                                if (plFile.exists() && plFile.delete()) {
-                                    log.debug("Removed payload data file " + pl.getContentLocation());
-                                    // Clear the payload location
-                                    ((Payload) pl).setContentLocation(null);
-                                }  else if (plFile.exists())
-                                    log.error("Could not remove payload data file " + pl.getContentLocation()
-                                                + ". Remove manually");
+    /**
+     * Gets the next chunk of expired message units from the database.
+     *
+     * @param expirationDate    The date before which the processing state must have changed
+     * @param lastMsgUnit       The last message unit of the previous chunk, or <code>null</code> for the first chunk
+     * @return                  The completely loaded message units of the next chunk, or <code>null</code> if there are
+     *                          no more expired message units
+     * @throws PersistenceException When the message units could not be retrieved from the database
+     */
+    List<IMessageUnitEntity> getExpiredMessageUnits(final Date expirationDate, final IMessageUnitEntity lastMsgUnit)
+                                                                                        throws PersistenceException {
+        final IQueryManager queryManager = HolodeckB2BCore.getQueryManager();
+        return queryManager.getMessageUnitsWithLastStateChangedBefore(expirationDate, lastMsgUnit, CHUNK_SIZE);
+    }
+
+    /**
+     * Purges one chunk of expired message units. First the payload data of the User Messages in the chunk is deleted
+     * in parallel, then the meta-data of all message units is removed and finally the purge events are raised.
+     *
+     * @param msgUnits      The completely loaded message units to purge
+     * @param executor      The executor to use for deleting the payload files
+     * @return              The number of message units removed
+     * @throws InterruptedException When the worker was interrupted while deleting the payload files
+     */
+    private int purge(final List<IMessageUnitEntity> msgUnits, final ExecutorService executor)
+                                                                                        throws InterruptedException {
+        log.debug("Removing " + msgUnits.size() + " expired message units.");
+        // For User Messages we need a temp object so we can change the payload location info as we need to trigger
+        // the purge event.
+        final List<UserMessage> purgedUserMsgs = new ArrayList<>();
+        final List<Callable<Void>> deletions = new ArrayList<>();
+        for (final IMessageUnitEntity msgUnit : msgUnits) {
+            if (msgUnit instanceof IUserMessage) {
+                final UserMessage tmpUserMessage = new UserMessage((IUserMessage) msgUnit);
+                purgedUserMsgs.add(tmpUserMessage);
+                final Collection<IPayload> payloads = tmpUserMessage.getPayloads();
+                if (!Utils.isNullOrEmpty(payloads)) {
+                    for (final IPayload pl : payloads)
+                        deletions.add(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                deletePayloadData(pl);
+                                return null;
                             }
-                        }
-                    } else
-                        log.debug("User Message [" + msgUnit.getMessageId() + "] has no payloads");
-                }
-                // Remove meta-data from database
-                HolodeckB2BCore.getStorageManager().deleteMessageUnit(msgUnit);
-                log.info(MessageUnitUtils.getMessageUnitName(msgUnit)
+                        });
+                } else
+                    log.debug("User Message [" + msgUnit.getMessageId() + "] has no payloads");
+            }
+        }
+        if (!deletions.isEmpty()) {
+            log.debug("Delete the data of " + deletions.size() + " payloads");
+            executor.invokeAll(deletions);
+        }
+
+        // Remove meta-data from database
+        try {
+            HolodeckB2BCore.getStorageManager().deleteMessageUnits(msgUnits);
+        } catch (final PersistenceException dbe) {
+            log.error("Could not remove the meta-data of " + msgUnits.size() + " expired message units. Error details: "
+                      + dbe.getMessage());
+            return 0;
+        }
+        if (log.isDebugEnabled())
+            for (final IMessageUnitEntity msgUnit : msgUnits)
+                log.debug(MessageUnitUtils.getMessageUnitName(msgUnit)
                          + " [msgId=" + msgUnit.getMessageId() + "] is removed");
 
-                // Raise event so extension can process purge actions (for User Messages only)
-                if (msgUnit instanceof IUserMessage)
-                    HolodeckB2BCore.getEventProcessor().raiseEvent(new MessageUnitPurgedEvent(tmpUserMessage), null);
-            } catch (final PersistenceException dbe) {
-                log.error("Could not remove the meta-data of " + MessageUnitUtils.getMessageUnitName(msgUnit)
-                        + " [msgId=" + msgUnit.getMessageId() + "]. Error details: " + dbe.getMessage());
+        // Raise events so extension can process purge actions (for User Messages only). As the event handlers are
+        // configured in the P-Mode one event is raised for each P-Mode governing the purged messages
+        final Map<String, List<UserMessage>> purgedPerPMode = new LinkedHashMap<>();
+        for (final UserMessage purgedUserMsg : purgedUserMsgs) {
+            List<UserMessage> group = purgedPerPMode.get(purgedUserMsg.getPModeId());
+            if (group == null) {
+                group = new ArrayList<>();
+                purgedPerPMode.put(purgedUserMsg.getPModeId(), group);
             }
+            group.add(purgedUserMsg);
         }
+        final IMessageProcessingEventProcessor eventProcessor = HolodeckB2BCore.getEventProcessor();
+        for (final List<UserMessage> group : purgedPerPMode.values())
+            eventProcessor.raiseEvent(new MessageUnitsPurgedEvent(group), null);
+
+        return msgUnits.size();
+    }
+
+    /**
+     * Deletes the file containing the payload data and its compressed form. When the file is deleted the location of
+     * the payload is cleared.
+     *
+     * @param pl    The payload which data must be deleted
+     */
+    private void deletePayloadData(final IPayload pl) {
+        if (Utils.isNullOrEmpty(pl.getContentLocation()))
+            log.debug("No payload location provided for payload [" + pl.getPayloadURI() + "]");
+        else {
+            final File plFile = new File(pl.getContentLocation());
+            if (plFile.exists() && plFile.delete()) {
+                log.debug("Removed payload data file " + pl.getContentLocation());
+                // Clear the payload location
+                ((Payload) pl).setContentLocation(null);
+            }  else if (plFile.exists())
+                log.error("Could not remove payload data file " + pl.getContentLocation() + ". Remove manually");
+            // Also remove the compressed form of the payload that may have been stored
+            CompressedPayloadStore.remove(plFile);
+        }
+    }
+
+    /**
+     * Creates the executor for deleting the payload files.
+     *
+     * @return  The executor
+     */
+    private ExecutorService createExecutor() {
+        final String threadName = "hb2b-purge-" + getName() + "-";
+        return Executors.newFixedThreadPool(DELETE_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, threadName + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
     }
 
     /**
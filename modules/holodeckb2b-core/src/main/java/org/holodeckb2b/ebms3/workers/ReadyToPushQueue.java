@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.workers;
+
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.dao.IProcessingStateListener;
+
+/**
+ * Is the in-memory queue of message units that are ready to be pushed to their destination. When the processing state
+ * of a message unit is changed to <i>READY_TO_PUSH</i> the message unit is added to this queue by the {@link #LISTENER}
+ * so the {@link SenderWorker} can start sending it immediately instead of waiting for its next poll of the database.
+ * <p>The queue only is a signal, the database remains leading. Therefore the queue is bounded and a message unit that
+ * can not be added because the queue is full is not lost, but will be sent when the sender worker checks the database
+ * for message units that are waiting to be sent. To prevent that these message units have to wait until the next
+ * regular check, the sender worker checks the database as soon as possible after the queue overflowed. A message
+ * unit may also be added more than once, the sender worker only sends it if it can claim it, i.e. change its
+ * processing state from <i>READY_TO_PUSH</i> to <i>PROCESSING</i>.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class ReadyToPushQueue {
+
+    private static final Log log = LogFactory.getLog(ReadyToPushQueue.class);
+
+    /**
+     * The maximum number of message units in the queue
+     */
+    static final int MAX_QUEUED = 10000;
+
+    /**
+     * The message units ready to be pushed
+     */
+    private static final LinkedBlockingQueue<IMessageUnitEntity> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+
+    /**
+     * Indicates whether message units could not be added to the queue since the last check by the sender worker
+     */
+    private static final AtomicBoolean overflowed = new AtomicBoolean(false);
+
+    /**
+     * The listener that adds the message units to the queue when their processing state changes to
+     * <i>READY_TO_PUSH</i>. It is registered with the {@link org.holodeckb2b.persistency.dao.StorageManager} by the
+     * sender worker when it is configured to take the message units from the queue.
+     */
+    static final IProcessingStateListener LISTENER = new IProcessingStateListener() {
+        @Override
+        public void processingStateChanged(final IMessageUnitEntity msgUnit, final ProcessingState newState) {
+            if (newState == ProcessingState.READY_TO_PUSH)
+                signal(msgUnit);
+        }
+    };
+
+    private ReadyToPushQueue() {}
+
+    /**
+     * Signals that the given message unit is ready to be pushed.
+     *
+     * @param msgUnit   The message unit which processing state was changed to <i>READY_TO_PUSH</i>
+     */
+    public static void signal(final IMessageUnitEntity msgUnit) {
+        if (msgUnit != null && !queue.offer(msgUnit)) {
+            // Only warn once until the sender worker has checked the database
+            if (overflowed.compareAndSet(false, true))
+                log.warn("Queue of message units ready to push is full (" + MAX_QUEUED + " message units), "
+                         + "new message units will be sent when database is checked");
+            log.debug("Queue is full, message unit [" + msgUnit.getMessageId()
+                      + "] will be sent when database is checked");
+        }
+    }
+
+    /**
+     * Checks whether message units could not be added to the queue since the last call of this method and resets the
+     * indicator. When this method returns <code>true</code> the sender worker should check the database for message
+     * units waiting to be sent.
+     *
+     * @return <code>true</code> if the queue overflowed since the last check,<br><code>false</code> otherwise
+     */
+    static boolean checkOverflowed() {
+        return overflowed.getAndSet(false);
+    }
+
+    /**
+     * Gets the next message unit that is ready to be pushed, waiting until one is available or the given time has
+     * passed.
+     *
+     * @param timeout   How long to wait for a message unit
+     * @param unit      The time unit of the <code>timeout</code>
+     * @return          The next message unit, or <code>null</code> if no message unit became available in time
+     * @throws InterruptedException When the thread is interrupted while waiting
+     */
+    static IMessageUnitEntity poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    /**
+     * Removes at most the given number of message units from the queue and adds them to the given collection, without
+     * waiting.
+     *
+     * @param c         The collection to add the message units to
+     * @param maxUnits  The maximum number of message units to remove
+     * @return          The number of message units added to the collection
+     */
+    static int drainTo(final Collection<? super IMessageUnitEntity> c, final int maxUnits) {
+        return queue.drainTo(c, maxUnits);
+    }
+
+    /**
+     * Removes all message units from the queue. Used when the sender worker only polls the database so the queue
+     * does not keep message units that already have been sent.
+     */
+    static void clear() {
+        queue.clear();
+        overflowed.set(false);
+    }
+
+    /**
+     * @return The number of message units currently in the queue
+     */
+    static int size() {
+        return queue.size();
+    }
+}
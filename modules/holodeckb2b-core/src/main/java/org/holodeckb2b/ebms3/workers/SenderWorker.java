@@ -16,8 +16,25 @@
  */
 package org.holodeckb2b.ebms3.workers;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.holodeckb2b.common.messagemodel.util.MessageUnitUtils;
@@ -27,78 +44,559 @@ import org.holodeckb2b.ebms3.axis2.Axis2Sender;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.pmode.IPMode;
 import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.interfaces.workerpool.IStoppableWorkerTask;
 import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
 import org.holodeckb2b.module.HolodeckB2BCore;
+import org.holodeckb2b.persistency.dao.StorageManager;
 
 /**
  * Is responsible for starting the send process of message units. It looks for all messages waiting in the database to
  * get send and starts an Axis2 client for each of them. The ebMS specific handlers in the Axis2 handler chain will then
  * take over and do the actual message processing. This worker is only to kick-off the process.
- * <p>This worker does not need configuration to run. As this worker is needed for Holodeck B2B to work properly it is
- * included in the default worker pool.
+ * <p>By default the message units are sent one after another by the worker thread itself. To prevent that one slow
+ * destination delays the sending of all other messages the worker can be configured to send messages concurrently
+ * using the following parameters:<ul>
+ * <li><i>maxConcurrentSends</i> : the maximum number of message units that are sent at the same time. When larger than
+ *      1 the worker uses a pool of threads to send the messages.</li>
+ * <li><i>maxConcurrentSendsPerDestination</i> : the maximum number of message units that are sent at the same time to
+ *      one destination, i.e. the host and port of the URL in the P-Mode. When not set there is no limit per
+ *      destination.</li></ul>
+ * The message units are dispatched round robin over the destinations so every destination gets its fair share of the
+ * available capacity. A message unit is only claimed for sending, i.e. its processing state changed from
+ * <i>READY_TO_PUSH</i> to <i>PROCESSING</i>, just before it is sent. Therefore message units that could not be
+ * dispatched will remain ready for sending.
+ * <p>By default the worker checks the database for message units that are ready to be sent each time it is run. When
+ * the <i>reconciliationInterval</i> parameter is set the worker is event driven: it takes the message units from the
+ * {@link ReadyToPushQueue} as soon as their processing state is changed to <i>READY_TO_PUSH</i> and only checks the
+ * database every <i>reconciliationInterval</i> seconds, to send message units that were not signalled, for example
+ * because they were waiting when Holodeck B2B was stopped. When the queue overflows the database is checked directly
+ * instead of at the next regular check. In this mode the worker should be configured to run continuously, i.e. with an
+ * interval of 0.
+ * <p>When the worker is stopped it waits for the message units that are being sent concurrently to be sent, see {@link
+ * #stop(int)}.
+ * <p>As this worker is needed for Holodeck B2B to work properly it is included in the default worker pool.
  *
  * @author Sander Fieten
  */
-public class SenderWorker extends AbstractWorkerTask {
+public class SenderWorker extends AbstractWorkerTask implements IStoppableWorkerTask {
 
     private static final Log log = LogFactory.getLog(SenderWorker.class.getName());
 
+    /**
+     * Name of the configuration parameter to set the maximum number of message units that are sent concurrently
+     * @since HB2B_NEXT_VERSION
+     */
+    public static final String P_MAX_CONCURRENT_SENDS = "maxConcurrentSends";
+
+    /**
+     * Name of the configuration parameter to set the maximum number of message units that are sent concurrently to
+     * one destination
+     * @since HB2B_NEXT_VERSION
+     */
+    public static final String P_MAX_CONCURRENT_PER_DEST = "maxConcurrentSendsPerDestination";
+
+    /**
+     * Name of the configuration parameter to set the interval in seconds at which the database is checked for message
+     * units ready to be sent when the worker takes the message units from the {@link ReadyToPushQueue}
+     * @since HB2B_NEXT_VERSION
+     */
+    public static final String P_RECONCILIATION_INTERVAL = "reconciliationInterval";
+
+    /**
+     * The maximum number of message units that is retrieved from the database at once
+     */
+    static final int PAGE_SIZE = 100;
+
+    /**
+     * The time in seconds to wait for the sends that are cancelled when the worker is stopped to end
+     */
+    static final int CANCEL_GRACE_PERIOD = 5;
+
+    /**
+     * The maximum number of message units that can be sent concurrently
+     */
+    private int maxConcurrentSends = 1;
+
+    /**
+     * The maximum number of message units that can be sent concurrently to one destination
+     */
+    private int maxConcurrentPerDest = 1;
+
+    /**
+     * The executor used to send the message units when they are sent concurrently, <code>null</code> if the
+     * messages are sent by the worker thread itself
+     */
+    private ThreadPoolExecutor executor = null;
+
+    /**
+     * The number of message units currently being sent per destination and in total. Access must be synchronized on
+     * the <code>inFlight</code> map, which is also used to signal that a send has finished.
+     */
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private int totalInFlight = 0;
+
+    /**
+     * The send tasks that have been handed over to the executor and have not finished yet
+     */
+    private final Set<SendTask> sending = Collections.newSetFromMap(new ConcurrentHashMap<SendTask, Boolean>());
+
+    /**
+     * The interval in milliseconds at which the database is checked when the message units are taken from the {@link
+     * ReadyToPushQueue}, 0 if the worker only checks the database
+     */
+    private long reconciliationInterval = 0;
+
+    /**
+     * The time at which the database must be checked again for message units to send
+     */
+    private long nextReconciliation = 0;
+
     /**
      * Looks for message units that are for sending and kicks off the send process
      * for each of them. To prevent a message from being send twice the send process
      * is only started if the processing state can be successfully changed.
+     * <p>When event driven the database is only checked when the reconciliation interval has passed. Until the next
+     * check the worker waits for message units to become ready and dispatches them as they arrive. This method returns
+     * after each batch of message units, so the worker must be run continuously.
      */
     @Override
-    public void doProcessing() {
+    public void doProcessing() throws InterruptedException {
         try {
+            if (reconciliationInterval <= 0) {
+                // The queue is not used, but must not keep the message units that will now be found in the database
+                ReadyToPushQueue.clear();
+                sendWaiting();
+                return;
+            }
+
+            if (System.currentTimeMillis() >= nextReconciliation) {
+                sendWaiting();
+                nextReconciliation = System.currentTimeMillis() + reconciliationInterval;
+            } else if (ReadyToPushQueue.checkOverflowed()) {
+                // Not all message units could be signalled, get them from the database without waiting for the next
+                // regular check. The queued ones will be found as well, so they can be dropped
+                log.debug("Queue overflowed, checking database for message units to send");
+                ReadyToPushQueue.clear();
+                sendWaiting();
+                return;
+            }
+            final long waitTime = nextReconciliation - System.currentTimeMillis();
+            final IMessageUnitEntity signalled = waitTime > 0 ?
+                                                ReadyToPushQueue.poll(waitTime, TimeUnit.MILLISECONDS) : null;
+            if (signalled != null) {
+                final List<IMessageUnitEntity> msgUnitsToSend = new ArrayList<>();
+                msgUnitsToSend.add(signalled);
+                ReadyToPushQueue.drainTo(msgUnitsToSend, PAGE_SIZE - 1);
+                log.debug("Got " + msgUnitsToSend.size() + " message units ready to send");
+                dispatch(msgUnitsToSend);
+            }
+        } catch (final PersistenceException dbError) {
+            log.error("Could not process message because a database error occurred. Details:"
+                        + dbError.toString() + "\n");
+        } catch (final InterruptedException interrupted) {
+            throw interrupted;
+        } catch (final Throwable t) {
+            log.error ("Internal error in SenderWorker", t);
+        }
+    }
+
+    /**
+     * Checks the database for message units that are waiting to be sent and dispatches them. To limit the memory used
+     * when there are many messages waiting the message units are retrieved in pages.
+     *
+     * @throws PersistenceException When the message units can not be retrieved or their processing state can not be
+     *                              changed
+     * @throws InterruptedException When the worker is interrupted while waiting for a send to finish
+     */
+    private void sendWaiting() throws PersistenceException, InterruptedException {
+        IMessageUnitEntity lastMsgUnit = null;
+        List<IMessageUnitEntity> msgUnitsToSend;
+        do {
             log.debug("Getting list of message units to send");
-            List<IMessageUnitEntity> msgUnitsToSend = HolodeckB2BCore.getQueryManager()
-                                                               .getMessageUnitsInState(IMessageUnit.class,
-                                                                IMessageUnit.Direction.OUT,
-                                                                new ProcessingState[] {ProcessingState.READY_TO_PUSH});
+            msgUnitsToSend = getWaitingMessageUnits(lastMsgUnit);
 
             if (!Utils.isNullOrEmpty(msgUnitsToSend)) {
                 log.info("Found " + msgUnitsToSend.size() + " message units to send");
-                for (final IMessageUnitEntity msgUnit : msgUnitsToSend) {
-                    // Only message units associated with a P-Mode can be send
-                    if (Utils.isNullOrEmpty(msgUnit.getPModeId())) {
-                        log.error("Can not sent message [" + msgUnit.getMessageId()
-                                    + "] because it has no associated P-Mode");
-                        HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.FAILURE);
-                        continue;
+                lastMsgUnit = msgUnitsToSend.get(msgUnitsToSend.size() - 1);
+                dispatch(msgUnitsToSend);
+            } else if (lastMsgUnit == null)
+                log.info("No messages found that are ready for sending");
+        } while (msgUnitsToSend != null && msgUnitsToSend.size() == PAGE_SIZE);
+    }
+
+    /**
+     * Gets the next page of message units that are waiting in the database to be sent.
+     *
+     * @param lastMsgUnit   The last message unit of the previous page, <code>null</code> for the first page
+     * @return              The message units in the <i>READY_TO_PUSH</i> state
+     * @throws PersistenceException When the message units can not be retrieved from the database
+     */
+    List<IMessageUnitEntity> getWaitingMessageUnits(final IMessageUnitEntity lastMsgUnit)
+                                                                                        throws PersistenceException {
+        return HolodeckB2BCore.getQueryManager().getMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.OUT,
+                                                                new ProcessingState[] {ProcessingState.READY_TO_PUSH},
+                                                                lastMsgUnit, PAGE_SIZE);
+    }
+
+    /**
+     * Dispatches the given message units for sending. The message units are grouped by destination and taken from
+     * these groups round robin, taking the limits on the number of concurrent sends into account. When no message unit
+     * can be sent because the limits are reached this method waits until a send has finished. It returns when all
+     * message units have been dispatched, but they may still be in the process of being sent.
+     *
+     * @param msgUnits  The message units to send
+     * @throws PersistenceException When the processing state of a message unit can not be changed
+     * @throws InterruptedException When the worker is interrupted while waiting for a send to finish
+     */
+    void dispatch(final List<IMessageUnitEntity> msgUnits) throws PersistenceException, InterruptedException {
+        final LinkedHashMap<String, Deque<IMessageUnitEntity>> queues = new LinkedHashMap<>();
+        for (final IMessageUnitEntity msgUnit : msgUnits) {
+            // Only message units associated with a P-Mode can be send
+            if (Utils.isNullOrEmpty(msgUnit.getPModeId())) {
+                log.error("Can not sent message [" + msgUnit.getMessageId()
+                            + "] because it has no associated P-Mode");
+                HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.FAILURE);
+                continue;
+            }
+            final String destination = getDestination(msgUnit);
+            Deque<IMessageUnitEntity> queue = queues.get(destination);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(destination, queue);
+            }
+            queue.add(msgUnit);
+        }
+
+        while (!queues.isEmpty()) {
+            String destination = null;
+            Deque<IMessageUnitEntity> queue = null;
+            synchronized (inFlight) {
+                while (queue == null) {
+                    final Iterator<Map.Entry<String, Deque<IMessageUnitEntity>>> it = queues.entrySet().iterator();
+                    while (queue == null && totalInFlight < maxConcurrentSends && it.hasNext()) {
+                        final Map.Entry<String, Deque<IMessageUnitEntity>> q = it.next();
+                        if (getInFlight(q.getKey()) < maxConcurrentPerDest) {
+                            destination = q.getKey();
+                            queue = q.getValue();
+                            it.remove();
+                        }
                     }
+                    if (queue == null)
+                        inFlight.wait();
+                }
+                totalInFlight++;
+                inFlight.put(destination, getInFlight(destination) + 1);
+            }
 
-                    // Indicate that processing will start
-                    if (HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.READY_TO_PUSH,
-                                                                              ProcessingState.PROCESSING)) {
-                        // only when we could succesfully set processing state really start processing
-                        log.debug("Start processing " + MessageUnitUtils.getMessageUnitName(msgUnit)
-                                    + "[" + msgUnit.getMessageId() + "]");
-                        // Ensure all data is available for processing
-                        HolodeckB2BCore.getQueryManager().ensureCompletelyLoaded(msgUnit);
-                        Axis2Sender.sendMessage(msgUnit, log);
-                    } else
-                        // Message probably already in process
-                        log.debug("Could not start processing message [" + msgUnit.getMessageId()
-                                    + "] because switching to processing state was unsuccesful");
+            final IMessageUnitEntity msgUnit = queue.poll();
+            // Re-add the destination at the end so the other destinations get their turn first
+            if (!queue.isEmpty())
+                queues.put(destination, queue);
+
+            boolean started = false;
+            try {
+                if (claimForSending(msgUnit)) {
+                    startSending(msgUnit, destination);
+                    started = true;
                 }
-            } else
-                log.info("No messages found that are ready for sending");
+            } finally {
+                if (!started)
+                    sendFinished(destination);
+            }
+        }
+    }
+
+    /**
+     * Starts the send process of the given message unit. When messages are sent concurrently the send process is
+     * executed by one of the threads of the executor, otherwise the message unit is sent directly.
+     *
+     * @param msgUnit       The message unit to send
+     * @param destination   The destination of the message unit
+     */
+    private void startSending(final IMessageUnitEntity msgUnit, final String destination) {
+        final SendTask sendTask = new SendTask(msgUnit, destination);
+        final ThreadPoolExecutor sendExecutor = executor;
+        if (sendExecutor == null)
+            sendTask.run();
+        else {
+            sending.add(sendTask);
+            try {
+                sendExecutor.execute(sendTask);
+            } catch (final RejectedExecutionException stopped) {
+                // The worker is stopped, leave the message unit to be sent when the worker is started again
+                log.debug("Worker is stopped, not sending message [" + msgUnit.getMessageId() + "]");
+                sending.remove(sendTask);
+                releaseClaim(msgUnit);
+                sendFinished(destination);
+            }
+        }
+    }
+
+    /**
+     * Is the send process of a message unit as executed by one of the threads of the executor.
+     */
+    private final class SendTask implements Runnable {
+        final IMessageUnitEntity    msgUnit;
+        final String                destination;
+
+        SendTask(final IMessageUnitEntity msgUnit, final String destination) {
+            this.msgUnit = msgUnit;
+            this.destination = destination;
+        }
+
+        @Override
+        public void run() {
+            try {
+                send(msgUnit);
+            } catch (final Throwable t) {
+                log.error("An error occurred while sending message [" + msgUnit.getMessageId() + "]", t);
+            } finally {
+                sending.remove(this);
+                sendFinished(destination);
+            }
+        }
+    }
+
+    /**
+     * Registers that the send process to the given destination has finished and signals the dispatcher that a new
+     * message unit can be sent.
+     *
+     * @param destination   The destination to which the message unit was sent
+     */
+    private void sendFinished(final String destination) {
+        synchronized (inFlight) {
+            totalInFlight--;
+            final int n = getInFlight(destination) - 1;
+            if (n > 0)
+                inFlight.put(destination, n);
+            else
+                inFlight.remove(destination);
+            inFlight.notifyAll();
+        }
+    }
+
+    /**
+     * Gets the number of message units currently being sent to the given destination. Must be called while holding
+     * the lock on the <code>inFlight</code> map.
+     *
+     * @param destination   The destination
+     * @return              The number of message units being sent to the destination
+     */
+    private int getInFlight(final String destination) {
+        final Integer n = inFlight.get(destination);
+        return n != null ? n : 0;
+    }
+
+    /**
+     * Tries to claim the message unit for sending by changing its processing state from <i>READY_TO_PUSH</i> to
+     * <i>PROCESSING</i>.
+     *
+     * @param msgUnit   The message unit to claim
+     * @return          <code>true</code> when the message unit can be sent,<br>
+     *                  <code>false</code> when it is already being processed by another thread
+     * @throws PersistenceException When the processing state of the message unit can not be changed
+     */
+    boolean claimForSending(final IMessageUnitEntity msgUnit) throws PersistenceException {
+        if (HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.READY_TO_PUSH,
+                                                                   ProcessingState.PROCESSING)) {
+            log.debug("Start processing " + MessageUnitUtils.getMessageUnitName(msgUnit)
+                        + "[" + msgUnit.getMessageId() + "]");
+            return true;
+        } else {
+            // Message probably already in process
+            log.debug("Could not start processing message [" + msgUnit.getMessageId()
+                        + "] because switching to processing state was unsuccesful");
+            return false;
+        }
+    }
+
+    /**
+     * Releases the claim on a message unit that was claimed for sending but will not be sent because the worker is
+     * stopped, by changing its processing state back to <i>READY_TO_PUSH</i>. The processing state is only changed if
+     * it still is <i>PROCESSING</i>.
+     *
+     * @param msgUnit   The message unit that will not be sent
+     */
+    void releaseClaim(final IMessageUnitEntity msgUnit) {
+        try {
+            HolodeckB2BCore.getStorageManager().setProcessingState(msgUnit, ProcessingState.PROCESSING,
+                                                                   ProcessingState.READY_TO_PUSH);
         } catch (final PersistenceException dbError) {
-            log.error("Could not process message because a database error occurred. Details:"
-                        + dbError.toString() + "\n");
+            log.error("Could not release message [" + msgUnit.getMessageId() + "] for sending. Details: "
+                      + dbError.getMessage());
         }
-        catch (final Throwable t) {
-            log.error ("Internal error in SenderWorker", t);
-            return;
+    }
+
+    /**
+     * Sends the given message unit that has been claimed for sending.
+     *
+     * @param msgUnit   The message unit to send
+     * @throws PersistenceException When the meta-data of the message unit could not be loaded
+     */
+    void send(final IMessageUnitEntity msgUnit) throws PersistenceException {
+        // Ensure all data is available for processing
+        HolodeckB2BCore.getQueryManager().ensureCompletelyLoaded(msgUnit);
+        Axis2Sender.sendMessage(msgUnit, log);
+    }
+
+    /**
+     * Gets the destination of the message unit, which is the combination of the host and port of the URL specified
+     * in the P-Mode. When the URL can not be determined the P-Mode id is used as destination.
+     *
+     * @param msgUnit   The message unit to send
+     * @return          The destination of the message unit
+     */
+    String getDestination(final IMessageUnitEntity msgUnit) {
+        try {
+            final IPMode pmode = HolodeckB2BCore.getPModeSet().get(msgUnit.getPModeId());
+            final URI url = new URI(pmode.getLeg(msgUnit.getLeg()).getProtocol().getAddress());
+            if (url.getHost() != null)
+                return url.getHost().toLowerCase() + ":" + url.getPort();
+        } catch (NullPointerException | URISyntaxException unknownURL) {
+            // Could not determine URL, use P-Mode id
         }
+        return msgUnit.getPModeId();
     }
 
     /**
-     * This worker does not take any configuration. Therefor the implementation of this method is empty.
+     * Configures the number of message units that can be sent concurrently using the <i>maxConcurrentSends</i> and
+     * <i>maxConcurrentSendsPerDestination</i> parameters. If not specified the message units are sent one after
+     * another. When the <i>reconciliationInterval</i> parameter is specified the worker takes the message units to
+     * send from the {@link ReadyToPushQueue}.
+     *
+     * @param parameters    A <code>Map</code> containing the configuration of the worker
+     * @throws TaskConfigurationException When a parameter has an invalid value
      */
     @Override
     public void setParameters(final Map<String, ?> parameters) throws TaskConfigurationException {
+        final int maxTotal = getIntParameter(parameters, P_MAX_CONCURRENT_SENDS, 1);
+        final int maxPerDest = getIntParameter(parameters, P_MAX_CONCURRENT_PER_DEST, maxTotal);
+        reconciliationInterval = 1000L * getIntParameter(parameters, P_RECONCILIATION_INTERVAL, 0);
+        nextReconciliation = 0;
+
+        final ThreadPoolExecutor oldExecutor;
+        synchronized (inFlight) {
+            maxConcurrentSends = maxTotal;
+            maxConcurrentPerDest = Math.min(maxPerDest, maxTotal);
+            oldExecutor = executor;
+            executor = maxTotal > 1 ? createExecutor(maxTotal) : null;
+            inFlight.notifyAll();
+        }
+        // Message units already handed over to the old executor will still be sent
+        if (oldExecutor != null)
+            oldExecutor.shutdown();
+        // Only fill the queue when the worker takes the message units from it
+        if (reconciliationInterval > 0)
+            StorageManager.addProcessingStateListener(ReadyToPushQueue.LISTENER);
+        else
+            StorageManager.removeProcessingStateListener(ReadyToPushQueue.LISTENER);
+        log.info("Configured to send " + maxConcurrentSends + " message units concurrently, with max "
+                 + maxConcurrentPerDest + " per destination");
+        if (reconciliationInterval > 0)
+            log.info("Sending message units when ready, checking database every " + reconciliationInterval / 1000
+                     + " seconds");
+    }
+
+    /**
+     * Waits for the message units that are being sent by the threads of the executor to be sent. When they are not sent
+     * within the given delay the sends are cancelled and the message units that were not sent yet are released so they
+     * will be sent when the worker is started again. The cancelled sends get {@link #CANCEL_GRACE_PERIOD} seconds to
+     * end, after which the message units of the sends that ended are released as well if they are still in the
+     * <i>PROCESSING</i> state. Message units still being sent after the grace period are left alone as they may still
+     * be sent.
+     *
+     * @param delay The time in seconds to wait for the message units being sent
+     */
+    @Override
+    public void stop(final int delay) {
+        final ThreadPoolExecutor sendExecutor;
+        synchronized (inFlight) {
+            sendExecutor = executor;
+        }
+        if (sendExecutor == null)
+            return;
+        log.debug("Waiting for the message units being sent to finish");
+        sendExecutor.shutdown();
+        try {
+            if (sendExecutor.awaitTermination(delay, TimeUnit.SECONDS))
+                return;
+            log.warn("Not all message units were sent within " + delay + " seconds, cancelling the sends");
+        } catch (final InterruptedException interrupted) {
+            // Cancel the sends, but preserve the interrupt status
+            Thread.currentThread().interrupt();
+        }
+        final List<SendTask> cancelled = new ArrayList<>(sending);
+        for (final Runnable notStarted : sendExecutor.shutdownNow()) {
+            final SendTask sendTask = (SendTask) notStarted;
+            sending.remove(sendTask);
+            sendFinished(sendTask.destination);
+        }
+        try {
+            if (!Thread.currentThread().isInterrupted()
+                && !sendExecutor.awaitTermination(CANCEL_GRACE_PERIOD, TimeUnit.SECONDS))
+                log.warn("Not all cancelled sends ended within " + CANCEL_GRACE_PERIOD + " seconds");
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // Release the message units that are not being sent anymore. As only the message units that are still in the
+        // PROCESSING state are changed, this does not affect the ones that were sent before the send was cancelled
+        for (final SendTask sendTask : cancelled) {
+            if (sending.contains(sendTask))
+                log.warn("Message [" + sendTask.msgUnit.getMessageId() + "] may still be sent, not releasing it");
+            else
+                releaseClaim(sendTask.msgUnit);
+        }
+    }
+
+    /**
+     * Gets the value of an integer parameter.
+     *
+     * @param parameters    The configuration of the worker
+     * @param name          The name of the parameter
+     * @param defaultValue  The value to use if the parameter is not specified
+     * @return              The value of the parameter
+     * @throws TaskConfigurationException When the parameter is not a positive integer
+     */
+    private int getIntParameter(final Map<String, ?> parameters, final String name, final int defaultValue)
+                                                                                  throws TaskConfigurationException {
+        final Object value = parameters != null ? parameters.get(name) : null;
+        if (value == null || Utils.isNullOrEmpty(value.toString()))
+            return defaultValue;
+        try {
+            final int i = Integer.parseInt(value.toString().trim());
+            if (i > 0)
+                return i;
+        } catch (final NumberFormatException NaN) {
+            // Handled below
+        }
+        throw new TaskConfigurationException("Illegal value [" + value + "] for parameter " + name
+                                             + ", must be a positive integer");
+    }
+
+    /**
+     * Creates the executor for sending message units concurrently. The threads of the executor are stopped when they
+     * have been idle for a minute.
+     *
+     * @param threads   The number of threads to use
+     * @return          The executor
+     */
+    private ThreadPoolExecutor createExecutor(final int threads) {
+        final String threadName = "hb2b-sender-" + getName() + "-";
+        final ThreadPoolExecutor sendExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                                        new LinkedBlockingQueue<Runnable>(),
+                                                                        new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, threadName + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sendExecutor.allowCoreThreadTimeOut(true);
+        return sendExecutor;
     }
 }
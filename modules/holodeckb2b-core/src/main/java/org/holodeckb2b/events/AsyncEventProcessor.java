@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.events;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.holodeckb2b.common.config.InternalConfiguration;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEvent;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventConfiguration;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Is an implementation of {@link IMessageProcessingEventProcessor} that passes the <i>message processing events</i> to
+ * the handlers asynchronously, so a slow event handler does not delay the processing of the message unit. To use this
+ * processor set the <i>MessageProcessingEventProcessor</i> parameter in the Holodeck B2B configuration to this class.
+ * <p>Which handlers must handle an event is still decided when the event is raised, in the same way as done by the
+ * {@link SyncEventProcessor}. The handling of the event by each handler is then queued for execution by a pool of
+ * worker threads. All events for the same handler configuration are assigned to the same worker and are therefore
+ * handled in the order in which they were raised. The queue is bounded and the policy to apply when it is full is
+ * configurable:<ul>
+ * <li><i>block</i> : the thread raising the event waits until there is room in the queue. This is the default.</li>
+ * <li><i>discard</i> : the event is not handled by the handler and a warning is logged.</li>
+ * <li><i>caller-runs</i> : the event is handled by the thread raising it. Note that the order of events for the
+ * handler is not guaranteed anymore when this happens.</li></ul>
+ * <p>The number of workers, the size of the queue and the policy are set using the <i>EventProcessorWorkers</i>,
+ * <i>EventProcessorQueueSize</i> and <i>EventProcessorFullQueuePolicy</i> configuration parameters. The workers are
+ * started when the first event is raised.
+ * <p>NOTE: As the events are handled after they were raised the meta-data of the message unit the event applies to
+ * may already have changed by then, for example its processing state.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @see SyncEventProcessor
+ * @since HB2B_NEXT_VERSION
+ */
+public class AsyncEventProcessor extends SyncEventProcessor {
+
+    /**
+     * The policies that can be applied when there is no room in the queue for an event
+     */
+    public enum FullQueuePolicy { BLOCK, DISCARD, CALLER_RUNS }
+
+    /**
+     * The default number of worker threads
+     */
+    public static final int DEFAULT_WORKERS = 4;
+
+    /**
+     * The default maximum number of events that can be queued
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * Logging
+     */
+    private static final Log log = LogFactory.getLog(AsyncEventProcessor.class);
+
+    /**
+     * Indicator whether the settings were specified when the processor was created or should be read from the
+     * Holodeck B2B configuration
+     */
+    private final boolean useConfiguration;
+
+    /**
+     * The number of worker threads
+     */
+    private int workers;
+
+    /**
+     * The maximum number of events that can be queued, divided equally over the workers
+     */
+    private int queueSize;
+
+    /**
+     * The policy to apply when the queue is full
+     */
+    private FullQueuePolicy fullQueuePolicy;
+
+    /**
+     * The single threaded executors, one for each worker, each with its own part of the queue
+     */
+    private volatile ThreadPoolExecutor[] executors;
+
+    /**
+     * Indicator whether the processor has been shut down
+     */
+    private volatile boolean isShutdown = false;
+
+    /**
+     * Creates a new processor that will use the settings from the Holodeck B2B configuration.
+     */
+    public AsyncEventProcessor() {
+        this.useConfiguration = true;
+    }
+
+    /**
+     * Creates a new processor with the given settings.
+     *
+     * @param workers           The number of worker threads
+     * @param queueSize         The maximum number of events that can be queued
+     * @param fullQueuePolicy   The policy to apply when the queue is full
+     */
+    public AsyncEventProcessor(final int workers, final int queueSize, final FullQueuePolicy fullQueuePolicy) {
+        if (workers <= 0 || queueSize <= 0)
+            throw new IllegalArgumentException("Number of workers and queue size must be positive");
+        this.useConfiguration = false;
+        this.workers = workers;
+        this.queueSize = queueSize;
+        this.fullQueuePolicy = fullQueuePolicy != null ? fullQueuePolicy : FullQueuePolicy.BLOCK;
+    }
+
+    /**
+     * Queues the handling of the event by the handler from the given configuration to the worker assigned to the
+     * handler configuration.
+     *
+     * @param handlerCfg    The configuration of the event handler that should handle the event
+     * @param event         The event to be handled
+     */
+    @Override
+    protected void handleEvent(final IMessageProcessingEventConfiguration handlerCfg,
+                               final IMessageProcessingEvent event) {
+        final ThreadPoolExecutor[] workerExecutors = getExecutors();
+        if (workerExecutors == null) {
+            log.warn("Event processor is shut down, " + event.getClass().getSimpleName() + " [id=" + event.getId()
+                    + "] is not handled by " + handlerCfg.getFactoryClass());
+            return;
+        }
+        final int i = (System.identityHashCode(handlerCfg) & Integer.MAX_VALUE) % workerExecutors.length;
+        workerExecutors[i].execute(new EventTask(handlerCfg, event));
+    }
+
+    /**
+     * Stops the processor. The events that are already queued are still handled, but new events are not accepted
+     * anymore. This method waits at most the given number of seconds for the queued events to be handled, after that
+     * the workers are interrupted and the remaining events are dropped.
+     *
+     * @param timeout   The maximum time to wait for the queued events to be handled, in seconds
+     */
+    public void shutdown(final int timeout) {
+        final ThreadPoolExecutor[] workerExecutors;
+        synchronized (this) {
+            isShutdown = true;
+            workerExecutors = executors;
+            executors = null;
+        }
+        if (workerExecutors == null)
+            return;
+        log.debug("Stopping the event processor workers");
+        for (final ThreadPoolExecutor e : workerExecutors)
+            e.shutdown();
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        try {
+            for (final ThreadPoolExecutor e : workerExecutors)
+                if (!e.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    log.warn("Not all queued events could be handled before shutdown!");
+                    break;
+                }
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (final ThreadPoolExecutor e : workerExecutors)
+            e.shutdownNow();
+        log.debug("Event processor workers stopped");
+    }
+
+    /**
+     * Gets the executors of the workers, creating them when the first event is raised.
+     *
+     * @return The executors of the workers, or <code>null</code> when the processor has been shut down
+     */
+    private ThreadPoolExecutor[] getExecutors() {
+        ThreadPoolExecutor[] workerExecutors = executors;
+        if (workerExecutors == null && !isShutdown) {
+            synchronized (this) {
+                if (executors == null && !isShutdown) {
+                    if (useConfiguration)
+                        readConfiguration();
+                    log.debug("Starting " + workers + " event processor workers, queue size=" + queueSize
+                              + ", policy when full=" + fullQueuePolicy);
+                    final int capacity = Math.max(1, (queueSize + workers - 1) / workers);
+                    final ThreadPoolExecutor[] newExecutors = new ThreadPoolExecutor[workers];
+                    for (int i = 0; i < workers; i++) {
+                        final String threadName = "hb2b-events-" + (i + 1);
+                        newExecutors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                                 new ArrayBlockingQueue<Runnable>(capacity),
+                                                                 new ThreadFactory() {
+                                                                     @Override
+                                                                     public Thread newThread(final Runnable r) {
+                                                                         final Thread t = new Thread(r, threadName);
+                                                                         t.setDaemon(true);
+                                                                         return t;
+                                                                     }
+                                                                 },
+                                                                 new FullQueueHandler());
+                    }
+                    executors = newExecutors;
+                }
+                workerExecutors = executors;
+            }
+        }
+        return workerExecutors;
+    }
+
+    /**
+     * Reads the settings of the processor from the Holodeck B2B configuration, using the defaults for the parameters
+     * that are not specified or invalid.
+     */
+    private void readConfiguration() {
+        final InternalConfiguration config = HolodeckB2BCore.getConfiguration();
+        workers = config != null && config.getEventProcessorWorkers() > 0 ? config.getEventProcessorWorkers()
+                                                                          : DEFAULT_WORKERS;
+        queueSize = config != null && config.getEventProcessorQueueSize() > 0 ? config.getEventProcessorQueueSize()
+                                                                              : DEFAULT_QUEUE_SIZE;
+        fullQueuePolicy = FullQueuePolicy.BLOCK;
+        final String policy = config != null ? config.getEventProcessorFullQueuePolicy() : null;
+        if (policy != null) {
+            try {
+                fullQueuePolicy = FullQueuePolicy.valueOf(policy.trim().toUpperCase().replace('-', '_'));
+            } catch (final IllegalArgumentException invalidPolicy) {
+                log.warn("Invalid value for the policy to apply when the event queue is full: " + policy
+                         + ". Using default " + FullQueuePolicy.BLOCK);
+            }
+        }
+    }
+
+    /**
+     * Handles the event by the handler from the given configuration. Any problem that occurs is caught and logged so
+     * the worker can continue with the next event.
+     *
+     * @param handlerCfg    The configuration of the event handler that should handle the event
+     * @param event         The event to be handled
+     */
+    private void process(final IMessageProcessingEventConfiguration handlerCfg, final IMessageProcessingEvent event) {
+        try {
+            super.handleEvent(handlerCfg, event);
+        } catch (final Throwable t) {
+            log.error("An " + t.getClass().getSimpleName() + " error occurred while handling a "
+                      + event.getClass().getSimpleName() + " [id=" + event.getId() + "] by "
+                      + handlerCfg.getFactoryClass());
+        }
+    }
+
+    /**
+     * The task executed by a worker to handle an event by one handler.
+     */
+    private class EventTask implements Runnable {
+        private final IMessageProcessingEventConfiguration handlerCfg;
+        private final IMessageProcessingEvent event;
+
+        EventTask(final IMessageProcessingEventConfiguration handlerCfg, final IMessageProcessingEvent event) {
+            this.handlerCfg = handlerCfg;
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            process(handlerCfg, event);
+        }
+    }
+
+    /**
+     * Applies the configured policy when an event can not be queued because the queue is full. When the processor
+     * has been shut down the event is always discarded.
+     */
+    private class FullQueueHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+            final EventTask task = (EventTask) r;
+            if (!executor.isShutdown()) {
+                switch (fullQueuePolicy) {
+                    case BLOCK :
+                        try {
+                            executor.getQueue().put(r);
+                            // The executor may have been shut down while waiting, in that case remove the task
+                            if (!executor.isShutdown() || !executor.getQueue().remove(r))
+                                return;
+                        } catch (final InterruptedException interrupted) {
+                            Thread.currentThread().interrupt();
+                        }
+                        break;
+                    case CALLER_RUNS :
+                        log.debug("Event queue full, event is handled by raising thread");
+                        r.run();
+                        return;
+                    default :
+                }
+            }
+            log.warn((executor.isShutdown() ? "Event processor is shut down, " : "Event queue is full, ")
+                     + task.event.getClass().getSimpleName() + " [id=" + task.event.getId() + "] is not handled by "
+                     + task.handlerCfg.getFactoryClass());
+        }
+    }
+}
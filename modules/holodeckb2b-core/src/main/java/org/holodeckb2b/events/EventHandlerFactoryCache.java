@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.events;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventConfiguration;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandler;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandlerFactory;
+import org.holodeckb2b.interfaces.events.MessageProccesingEventHandlingException;
+
+/**
+ * Caches the initialized {@link IMessageProcessingEventHandlerFactory} objects for the event handler configurations
+ * so the factory class only needs to be loaded and initialized once instead of for every event raised.
+ * <p>The factories are cached per {@link IMessageProcessingEventConfiguration} object. As these are part of the P-Mode
+ * a new factory is created when the P-Mode is redeployed. The cache only holds weak references to the configurations
+ * so the factories of removed P-Modes can be garbage collected.
+ * <p>Because a cached factory can be used by multiple threads at the same time, its <code>createHandler()</code>
+ * method should only be called through {@link #createHandler(IMessageProcessingEventHandlerFactory)} which serializes
+ * the calls per factory. The handlers created by the factory must be thread safe when the factory reuses them, as
+ * documented in {@link IMessageProcessingEventHandlerFactory}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public class EventHandlerFactoryCache {
+
+    /**
+     * The initialized factories per event handler configuration
+     */
+    private final Map<IMessageProcessingEventConfiguration, IMessageProcessingEventHandlerFactory> factories =
+                                                                        Collections.synchronizedMap(new WeakHashMap<
+                                                                            IMessageProcessingEventConfiguration,
+                                                                            IMessageProcessingEventHandlerFactory>());
+
+    /**
+     * Gets the initialized factory for the given event handler configuration. When there is no factory for the
+     * configuration yet, it is created and initialized using the handler settings from the configuration.
+     *
+     * @param handlerCfg    The event handler configuration
+     * @return  The initialized {@link IMessageProcessingEventHandlerFactory} for the configuration
+     * @throws MessageProccesingEventHandlingException When the factory could not be created or initialized. The failed
+     *                                                 factory is not cached, so the next call will try again.
+     */
+    public IMessageProcessingEventHandlerFactory getFactory(final IMessageProcessingEventConfiguration handlerCfg)
+                                                                    throws MessageProccesingEventHandlingException {
+        IMessageProcessingEventHandlerFactory factory = factories.get(handlerCfg);
+        if (factory == null) {
+            synchronized (factories) {
+                factory = factories.get(handlerCfg);
+                if (factory == null) {
+                    factory = createFactory(handlerCfg);
+                    factories.put(handlerCfg, factory);
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Gets a handler from the given factory. As factories written before they were cached may not expect to be used by
+     * multiple threads, the calls to <code>createHandler()</code> are serialized per factory.
+     *
+     * @param factory   The factory to get the handler from
+     * @return  The event handler as returned by the factory
+     * @throws MessageProccesingEventHandlingException When the factory could not create the handler
+     */
+    public static IMessageProcessingEventHandler createHandler(final IMessageProcessingEventHandlerFactory factory)
+                                                                    throws MessageProccesingEventHandlingException {
+        synchronized (factory) {
+            return factory.createHandler();
+        }
+    }
+
+    /**
+     * Removes all cached factories, so new factories will be created for the next events.
+     */
+    public void clear() {
+        factories.clear();
+    }
+
+    /**
+     * Creates and initializes a new factory as specified by the given event handler configuration.
+     *
+     * @param handlerCfg    The event handler configuration
+     * @return  The new and initialized factory
+     * @throws MessageProccesingEventHandlingException When the factory could not be created or initialized
+     */
+    private static IMessageProcessingEventHandlerFactory createFactory(
+                                                            final IMessageProcessingEventConfiguration handlerCfg)
+                                                                    throws MessageProccesingEventHandlingException {
+        final IMessageProcessingEventHandlerFactory factory;
+        try {
+            factory = (IMessageProcessingEventHandlerFactory) Class.forName(handlerCfg.getFactoryClass()).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException ex) {
+            throw new MessageProccesingEventHandlingException("Could not create factory instance (specified class name="
+                                                              + handlerCfg.getFactoryClass() + ")", ex);
+        }
+        factory.init(handlerCfg.getHandlerSettings());
+        return factory;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.holodeckb2b.interfaces.events.types.IMessageUnitsPurgedEvent;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+
+/**
+ * Is the implementation class of {@link IMessageUnitsPurgedEvent} to indicate that a group of message units governed
+ * by the same P-Mode has been purged.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  HB2B_NEXT_VERSION
+ */
+public class MessageUnitsPurgedEvent extends MessageUnitPurgedEvent implements IMessageUnitsPurgedEvent {
+
+    /**
+     * The purged message units
+     */
+    private final List<IMessageUnit>   purgedMsgUnits;
+
+    /**
+     * Creates a new event for the given purged message units. The first message unit is used as subject of the event.
+     *
+     * @param purgedMsgUnits    The purged message units, must not be empty
+     */
+    public MessageUnitsPurgedEvent(final Collection<? extends IMessageUnit> purgedMsgUnits) {
+        super(purgedMsgUnits.iterator().next());
+        this.purgedMsgUnits = Collections.unmodifiableList(new ArrayList<IMessageUnit>(purgedMsgUnits));
+        setMessage(purgedMsgUnits.size() + " message units purged");
+    }
+
+    @Override
+    public Collection<IMessageUnit> getPurgedMessageUnits() {
+        return purgedMsgUnits;
+    }
+}
@@ -27,6 +27,7 @@ import org.holodeckb2b.interfaces.events.IMessageProcessingEvent;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventConfiguration;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandlerFactory;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.interfaces.events.MessageProccesingEventHandlingException;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.pmode.ILeg;
 import org.holodeckb2b.interfaces.pmode.IPMode;
@@ -44,6 +45,8 @@ import org.holodeckb2b.interfaces.pmode.IPMode;
  * <p>This implementation processes the events directly when raised to the processor, i.e. processing of the event is
  * done as part of the message processing. This processor only passes raised events to the handlers, there is no
  * archiving.
+ * <p>The handler factories are created and initialized only once for each event handler configuration and then
+ * reused for the next events, see {@link EventHandlerFactoryCache}.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @see IMessageProcessingEvent
@@ -57,6 +60,12 @@ public class SyncEventProcessor implements IMessageProcessingEventProcessor {
      */
     private static final Log log = LogFactory.getLog(SyncEventProcessor.class);
 
+    /**
+     * The initialized handler factories
+     * @since HB2B_NEXT_VERSION
+     */
+    private final EventHandlerFactoryCache factoryCache = new EventHandlerFactoryCache();
+
     /**
      * Raises an event for processing.
      * <p>The P-Mode of the referenced message unit is checked for configured event handlers and each handler that can
@@ -109,32 +118,8 @@ public class SyncEventProcessor implements IMessageProcessingEventProcessor {
                 final String handlerClassname = EventUtils.getConfiguredHandler(c).getSimpleName();
                 log.debug(handlerClassname + (shouldHandle ? " should" : " does not") + " handle " + eventType + " for "
                           + msgUnitType + " with msgId=[" + messageId + "]");
-                if (shouldHandle) {
-                    // Create the factory class
-                    IMessageProcessingEventHandlerFactory factory = null;
-                    try {
-                        factory = (IMessageProcessingEventHandlerFactory)
-                                                                    Class.forName(c.getFactoryClass()).newInstance();
-                    }   catch (ClassNotFoundException | InstantiationException | IllegalAccessException ex) {
-                        log.error("Could not create factory instance (specified class name=" + c.getFactoryClass()
-                                  + ") due to a " + ex.getClass().getSimpleName());
-                        return;
-                    }
-                    log.debug("Initialize the handler factory");
-                    factory.init(c.getHandlerSettings());
-                    // Catch exceptions while the event is processed by the handler to prevent that error in one handler
-                    // will stop processing in others as well
-                    try {
-                        log.debug("Pass event to handler for further processing");
-                        factory.createHandler().handleEvent(event);
-                        log.info(eventType + "[id= " + event.getId() + "] for " + msgUnitType + " with msgId=["
-                                + messageId + "] handled by " + handlerClassname);
-                    } catch (final Exception ex) {
-                        log.warn("An exception occurred when " + eventType + "[id= " + event.getId()
-                                + " was processed by " + handlerClassname
-                                + "\n\tException details: " + ex.getMessage());
-                    }
-                }
+                if (shouldHandle)
+                    handleEvent(c, event);
             }
         } catch (final Throwable t) {
             // Ensure that any problem with handling the event does not affect the normal message processing
@@ -142,4 +127,37 @@ public class SyncEventProcessor implements IMessageProcessingEventProcessor {
                         + eventType + " event was raised for " + msgUnitType + " with msgId=" + messageId);
         }
     }
+
+    /**
+     * Passes the event to the handler created by the factory from the given event handler configuration.
+     * <p>Exceptions thrown while the event is processed by the handler are caught and logged to prevent that an error
+     * in one handler will stop processing in others as well.
+     *
+     * @param handlerCfg    The configuration of the event handler that should handle the event
+     * @param event         The event to be handled
+     * @since HB2B_NEXT_VERSION
+     */
+    protected void handleEvent(final IMessageProcessingEventConfiguration handlerCfg,
+                               final IMessageProcessingEvent event) {
+        final String eventType = event.getClass().getSimpleName();
+        final String handlerClassname = EventUtils.getConfiguredHandler(handlerCfg).getSimpleName();
+        IMessageProcessingEventHandlerFactory factory = null;
+        try {
+            factory = factoryCache.getFactory(handlerCfg);
+        } catch (final MessageProccesingEventHandlingException ex) {
+            log.error("Could not create factory instance (specified class name=" + handlerCfg.getFactoryClass()
+                      + ") due to a " + (ex.getCause() != null ? ex.getCause() : ex).getClass().getSimpleName());
+            return;
+        }
+        try {
+            log.debug("Pass event to handler for further processing");
+            EventHandlerFactoryCache.createHandler(factory).handleEvent(event);
+            log.info(eventType + "[id= " + event.getId() + "] for " + event.getSubject().getClass().getSimpleName()
+                    + " with msgId=[" + event.getSubject().getMessageId() + "] handled by " + handlerClassname);
+        } catch (final Exception ex) {
+            log.warn("An exception occurred when " + eventType + "[id= " + event.getId()
+                    + " was processed by " + handlerClassname
+                    + "\n\tException details: " + ex.getMessage());
+        }
+    }
 }
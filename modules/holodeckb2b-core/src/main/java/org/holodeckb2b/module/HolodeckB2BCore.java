@@ -17,6 +17,7 @@
 package org.holodeckb2b.module;
 
 import org.holodeckb2b.common.config.InternalConfiguration;
+import org.holodeckb2b.ebms3.axis2.HTTPConnectionPool;
 import org.holodeckb2b.interfaces.config.IConfiguration;
 import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
 import org.holodeckb2b.persistency.dao.StorageManager;
@@ -52,4 +53,14 @@ public class HolodeckB2BCore extends HolodeckB2BCoreInterface {
     public static StorageManager getStorageManager() {
         return ((HolodeckB2BCoreImpl) coreImplementation).getStorageManager();
     }
+
+    /**
+     * Gets the pool of HTTP connections that should be used for sending messages to other MSHs.
+     *
+     * @return  The {@link HTTPConnectionPool} to use for sending messages
+     * @since HB2B_NEXT_VERSION
+     */
+    public static HTTPConnectionPool getHTTPConnectionPool() {
+        return ((HolodeckB2BCoreImpl) coreImplementation).getHTTPConnectionPool();
+    }
 }
@@ -27,15 +27,19 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.neethi.Assertion;
 import org.apache.neethi.Policy;
+import org.holodeckb2b.as4.compression.ParallelCompressor;
 import org.holodeckb2b.common.config.Config;
 import org.holodeckb2b.common.config.InternalConfiguration;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.common.workerpool.WorkerPool;
 import org.holodeckb2b.common.workerpool.xml.XMLWorkerPoolConfig;
+import org.holodeckb2b.ebms3.axis2.Axis2Sender;
+import org.holodeckb2b.ebms3.axis2.HTTPConnectionPool;
 import org.holodeckb2b.ebms3.pulling.PullConfiguration;
 import org.holodeckb2b.ebms3.pulling.PullConfigurationWatcher;
 import org.holodeckb2b.ebms3.pulling.PullWorker;
 import org.holodeckb2b.ebms3.submit.core.MessageSubmitter;
+import org.holodeckb2b.events.AsyncEventProcessor;
 import org.holodeckb2b.events.SyncEventProcessor;
 import org.holodeckb2b.interfaces.config.IConfiguration;
 import org.holodeckb2b.interfaces.core.IHolodeckB2BCore;
@@ -44,6 +48,7 @@ import org.holodeckb2b.interfaces.delivery.IMessageDeliverer;
 import org.holodeckb2b.interfaces.delivery.IMessageDelivererFactory;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
 import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.interfaces.persistency.IConfigurablePersistencyProvider;
 import org.holodeckb2b.interfaces.persistency.IPersistencyProvider;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.dao.IDAOFactory;
@@ -55,6 +60,8 @@ import org.holodeckb2b.interfaces.workerpool.IWorkerPoolConfiguration;
 import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
 import org.holodeckb2b.persistency.dao.StorageManager;
 import org.holodeckb2b.pmode.PModeManager;
+import org.holodeckb2b.security.util.LocalCRLSource;
+import org.holodeckb2b.security.util.ParallelDigestSignatureAction;
 
 /**
  * Axis2 module class for the Holodeck B2B Core module.
@@ -123,6 +130,13 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
      */
     private IDAOFactory    daoFactory = null;
 
+    /**
+     * The pool of HTTP connections used for sending messages to other MSHs. It is created when the first message is
+     * sent.
+     * @since HB2B_NEXT_VERSION
+     */
+    private HTTPConnectionPool  httpConnectionPool = null;
+
     /**
      * Initializes the Holodeck B2B Core module.
      *
@@ -166,6 +180,7 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
                // Could not create the specified event processor, fall back to default implementation
                log.error("Could not load the specified event processor: " + eventProcessorClassname
                         + ". Using default implementation instead.");
+               eventProcessor = new SyncEventProcessor();
             }
         } else
             eventProcessor = new SyncEventProcessor();
@@ -187,7 +202,11 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
         log.debug("Using " + persistencyProvider.getName() + " as persistency provider");
 
         try {
-             persistencyProvider.init();
+             if (persistencyProvider instanceof IConfigurablePersistencyProvider)
+                 ((IConfigurablePersistencyProvider) persistencyProvider).init(
+                                                        instanceConfiguration.getPersistencyProviderParameters());
+             else
+                 persistencyProvider.init();
              daoFactory = persistencyProvider.getDAOFactory();
         } catch (PersistenceException initializationFailure) {
             log.fatal("Could not initialize the persistency provider " + persistencyProvider.getName()
@@ -260,14 +279,33 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
     public void shutdown(final ConfigurationContext cc) throws AxisFault {
         log.info("Shutting down Holodeck B2B Core module...");
 
-        // Stop all the workers by shutting down the normal and pull worker pool
+        // Stop all the workers by shutting down the normal and pull worker pool. This also waits for the messages
+        // that are being sent by the workers
         log.debug("Stopping worker pool");
         workers.stop(10);
         log.debug("Worker pool stopped");
         log.debug("Stopping pull worker pool");
         pullWorkers.stop(10);
         log.debug("Pull worker pool stopped");
-
+        if (eventProcessor instanceof AsyncEventProcessor) {
+            log.debug("Stopping the asynchronous event processor");
+            ((AsyncEventProcessor) eventProcessor).shutdown(10);
+        }
+        log.debug("Cleaning up idle Axis2 clients");
+        Axis2Sender.shutdown(log);
+        synchronized (this) {
+            if (httpConnectionPool != null) {
+                log.debug("Closing HTTP connections");
+                httpConnectionPool.shutdown();
+                httpConnectionPool = null;
+            }
+        }
+        log.debug("Stopping the thread pool for calculating digests");
+        ParallelDigestSignatureAction.shutdown();
+        log.debug("Stopping the thread pool for (de)compressing payloads");
+        ParallelCompressor.shutdown();
+        log.debug("Stopping the refresh of the local CRLs");
+        LocalCRLSource.stop();
 
         log.info("Holodeck B2B Core module STOPPED.");
     }
@@ -427,6 +465,23 @@ public class HolodeckB2BCoreImpl implements Module, IHolodeckB2BCore {
         return new StorageManager(daoFactory.getUpdateManager());
     }
 
+    /**
+     * Gets the pool of HTTP connections that should be used for sending messages to other MSHs. The pool is created
+     * on first use based on the settings in the Holodeck B2B configuration.
+     *
+     * @return  The {@link HTTPConnectionPool} to use for sending messages
+     * @since HB2B_NEXT_VERSION
+     */
+    public synchronized HTTPConnectionPool getHTTPConnectionPool() {
+        if (httpConnectionPool == null) {
+            final InternalConfiguration config = getConfiguration();
+            httpConnectionPool = new HTTPConnectionPool(config.getMaxHTTPConnectionsPerHost(),
+                                                        config.getMaxHTTPConnections(),
+                                                        config.getHTTPIdleConnectionTimeout());
+        }
+        return httpConnectionPool;
+    }
+
     /**
      * Gets the data access object that should be used to query the meta-data on processed message units.
      * <p>Note that the DAO itself is provided by the persistency provider.
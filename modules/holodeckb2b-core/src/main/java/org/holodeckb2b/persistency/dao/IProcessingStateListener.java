@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.dao;
+
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+
+/**
+ * Defines the interface of components that want to be informed when the processing state of a message unit has been
+ * changed through the {@link StorageManager}, for example to start processing the message unit without having to poll
+ * the database. Listeners are registered using {@link StorageManager#addProcessingStateListener(
+ * IProcessingStateListener)}.
+ * <p>The listener is called after the change has been saved to the database, so when the change is made in a unit of
+ * work the listener is only called when the unit of work is committed. The listener is called by the thread that made
+ * the change and should therefore return quickly. Exceptions thrown by the listener are logged but do not affect the
+ * change of the processing state.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public interface IProcessingStateListener {
+
+    /**
+     * Is called when the processing state of the given message unit has been changed.
+     *
+     * @param msgUnit   The entity object representing the message unit
+     * @param newState  The new processing state of the message unit
+     */
+    void processingStateChanged(IMessageUnitEntity msgUnit, ProcessingState newState);
+}
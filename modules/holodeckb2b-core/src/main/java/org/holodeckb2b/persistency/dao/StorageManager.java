@@ -16,8 +16,14 @@
  */
 package org.holodeckb2b.persistency.dao;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.holodeckb2b.common.messagemodel.ErrorMessage;
 import org.holodeckb2b.common.messagemodel.MessageUnit;
 import org.holodeckb2b.common.messagemodel.PullRequest;
@@ -46,11 +52,40 @@ import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
  */
 public class StorageManager {
 
+    private static final Log log = LogFactory.getLog(StorageManager.class);
+
     /**
      * The update manager provided by the persistency provider which does the "real" work of storing the data
      */
     private IUpdateManager  parent;
 
+    /**
+     * The listeners to inform about changes of the processing state of message units
+     * @since HB2B_NEXT_VERSION
+     */
+    private static final CopyOnWriteArrayList<IProcessingStateListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The changes of processing states made in the active unit of work of the thread. The listeners can only be
+     * informed about these changes when the unit of work is committed. When the thread has no active unit of work this
+     * is <code>null</code>.
+     * @since HB2B_NEXT_VERSION
+     */
+    private static final ThreadLocal<List<StateChange>> pendingStateChanges = new ThreadLocal<>();
+
+    /**
+     * A change of the processing state of a message unit
+     */
+    private static final class StateChange {
+        final IMessageUnitEntity    msgUnit;
+        final ProcessingState       newState;
+
+        StateChange(final IMessageUnitEntity msgUnit, final ProcessingState newState) {
+            this.msgUnit = msgUnit;
+            this.newState = newState;
+        }
+    }
+
     /**
      * Creates a new facade to the given update manager of the persistency provider so other Core classes can update the
      * meta-data of a message unit.
@@ -61,6 +96,28 @@ public class StorageManager {
         this.parent = parent;
     }
 
+    /**
+     * Registers a listener that should be informed about changes of the processing state of message units. A listener
+     * that is already registered is not added again.
+     *
+     * @param listener  The listener to register
+     * @since HB2B_NEXT_VERSION
+     */
+    public static void addProcessingStateListener(final IProcessingStateListener listener) {
+        if (listener != null)
+            listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Removes a registered listener.
+     *
+     * @param listener  The listener to remove
+     * @since HB2B_NEXT_VERSION
+     */
+    public static void removeProcessingStateListener(final IProcessingStateListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Creates a new persistency object to store the meta-data of the given message unit that is received by Holodeck
      * B2B.
@@ -141,6 +198,8 @@ public class StorageManager {
      * check and change need to be executed in one transaction to ensure that no other thread can make changes to the
      * message unit's processing state.<br>
      * The new processing state's start time will be set to the current time.
+     * <p>When the processing state is changed the registered {@link IProcessingStateListener}s are informed. If the
+     * thread has an active unit of work this is done when the unit of work is committed.
      *
      * @param msgUnit           The entity object representing the message unit
      * @param currentProcState  The required current processing state of the message unit
@@ -153,7 +212,46 @@ public class StorageManager {
                                                                       , final ProcessingState newProcState)
                                                                                         throws PersistenceException {
         //@todo Check if the processing state is allowed and ensure events are triggered using the ProcessingStateManager
-        return parent.setProcessingState(msgUnit, currentProcState, newProcState);
+        final boolean changed = parent.setProcessingState(msgUnit, currentProcState, newProcState);
+        if (changed) {
+            // Inform the listeners, but only when the change is saved
+            final List<StateChange> pending = pendingStateChanges.get();
+            if (pending != null)
+                pending.add(new StateChange(msgUnit, newProcState));
+            else
+                notifyListeners(msgUnit, newProcState);
+        }
+        return changed;
+    }
+
+    /**
+     * Informs the registered listeners about the change of the processing state of the given message unit.
+     *
+     * @param msgUnit   The message unit which processing state was changed
+     * @param newState  The new processing state
+     */
+    private static void notifyListeners(final IMessageUnitEntity msgUnit, final ProcessingState newState) {
+        for (final IProcessingStateListener l : listeners)
+            try {
+                l.processingStateChanged(msgUnit, newState);
+            } catch (final Throwable t) {
+                log.warn("A " + t.getClass().getSimpleName() + " occurred in " + l.getClass().getName()
+                         + " while informing about the change of processing state of message unit [msgId="
+                         + msgUnit.getMessageId() + "] to " + newState + "! Details: " + t.getMessage());
+            }
+    }
+
+    /**
+     * Sets the times at which the outgoing User Messages must be checked for retransmission. The times are written
+     * directly to the database without changing the version or the entity objects of the User Messages, so this can
+     * be used for User Messages that are being processed by other threads.
+     *
+     * @param nextRetryTimes    The times of the next retransmission check, mapped by message id
+     * @throws PersistenceException When a database error occurs while updating the times
+     * @since HB2B_NEXT_VERSION
+     */
+    public void setNextRetryTimes(final Map<String, Date> nextRetryTimes) throws PersistenceException {
+        parent.setNextRetryTimes(nextRetryTimes);
     }
 
     /**
@@ -206,6 +304,62 @@ public class StorageManager {
         parent.setAddSOAPFault(errorMessage, addSOAPFault);
     }
 
+    /**
+     * Starts a unit of work for the current thread in which all updates of message units are collected and saved
+     * together when the unit of work is committed. This reduces the number of database transactions when multiple
+     * updates are made to a message unit during its processing, for example when processing a received message.
+     * <p>See {@link IUpdateManager#startUnitOfWork()} for how changes of the processing state that require a specific
+     * current state are handled in a unit of work.
+     *
+     * @throws PersistenceException When the active unit of work of the thread could not be committed
+     * @since HB2B_NEXT_VERSION
+     */
+    public void startUnitOfWork() throws PersistenceException {
+        // Starting a new unit of work will commit the currently active one
+        final List<StateChange> pending = pendingStateChanges.get();
+        pendingStateChanges.remove();
+        parent.startUnitOfWork();
+        notifyListeners(pending);
+        pendingStateChanges.set(new ArrayList<StateChange>());
+    }
+
+    /**
+     * Saves all updates collected in the unit of work of the current thread and ends the unit of work.
+     *
+     * @throws PersistenceException When an error occurs saving the updates to the database
+     * @since HB2B_NEXT_VERSION
+     */
+    public void commitUnitOfWork() throws PersistenceException {
+        final List<StateChange> pending = pendingStateChanges.get();
+        pendingStateChanges.remove();
+        parent.commitUnitOfWork();
+        notifyListeners(pending);
+    }
+
+    /**
+     * Saves the updates collected so far in the unit of work of the current thread, after which the thread continues
+     * with a new unit of work. Used when the updates must be visible to other threads before the processing of the
+     * message is completed. When the current thread has no active unit of work nothing is done.
+     *
+     * @throws PersistenceException When an error occurs saving the updates to the database
+     * @since HB2B_NEXT_VERSION
+     */
+    public void saveUnitOfWork() throws PersistenceException {
+        if (pendingStateChanges.get() != null)
+            startUnitOfWork();
+    }
+
+    /**
+     * Informs the listeners about the changes of processing states made in a unit of work that has been committed.
+     *
+     * @param changes   The changes of processing states, may be <code>null</code>
+     */
+    private static void notifyListeners(final List<StateChange> changes) {
+        if (changes != null)
+            for (final StateChange c : changes)
+                notifyListeners(c.msgUnit, c.newState);
+    }
+
     /**
      * Deletes the meta-data of the given message unit from the database.
      *
@@ -216,6 +370,17 @@ public class StorageManager {
         parent.deleteMessageUnit(messageUnit);
     }
 
+    /**
+     * Deletes the meta-data of all given message units from the database in one transaction.
+     *
+     * @param messageUnits      The {@link IMessageUnitEntity} objects to be deleted
+     * @throws PersistenceException     When a problem occurs while removing the message units from the database.
+     * @since HB2B_NEXT_VERSION
+     */
+    public void deleteMessageUnits(Collection<IMessageUnitEntity> messageUnits) throws PersistenceException {
+        parent.deleteMessageUnits(messageUnits);
+    }
+
     /**
      * Helper method to create a temporary message unit object to enable setting of the correct processing state and
      * generation of a messageId.
@@ -28,45 +28,56 @@ import org.holodeckb2b.interfaces.pmode.PModeSetException;
 
 /**
  * Is the default implementation of {@link IPModeSet} that maintains the set of P-Modes in memory.
+ * <p>The set is implemented as a <i>copy-on-write</i> structure: every change results in a new immutable
+ * {@link PModeSetSnapshot} that is published atomically. Reading the set therefore never requires locking and readers
+ * never see a partially updated set, even when P-Modes are (re)loaded while messages are being processed. Changes
+ * to the set are serialized. Components that need a consistent view of the set for a longer period, e.g. during the
+ * processing of a message, can use {@link #getSnapshot()} to get the current version of the set.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
 public class InMemoryPModeSet implements IPModeSet {
 
     /**
-     * The actual storage of the P-Mode set, for easy access on PMode.id we use a HashMap
+     * The current version of the P-Mode set
      */
-    private HashMap<String, IPMode>     pmodeSet = new HashMap<>();
+    private volatile PModeSetSnapshot   currentSet = new PModeSetSnapshot(0, new HashMap<String, IPMode>());
+
+    /**
+     * Lock used to serialize the changes to the set
+     */
+    private final Object    updateLock = new Object();
+
+    /**
+     * Gets the current version of the P-Mode set. As the returned snapshot will not change it can be used when a
+     * consistent view on the P-Mode set is needed.
+     *
+     * @return  The {@link PModeSetSnapshot} representing the current version of the set
+     * @since HB2B_NEXT_VERSION
+     */
+    public PModeSetSnapshot getSnapshot() {
+        return currentSet;
+    }
 
     @Override
     @Deprecated
     public String[] listPModeIds() {
-        final String[]    pmodeIds = new String[pmodeSet.size()];
-
-        // Copy all ids to an array
-        int i = 0;
-        for (final String id : pmodeSet.keySet())
-            pmodeIds[i++] = id;
-
-        return pmodeIds;
+        return currentSet.listPModeIds();
     }
 
     @Override
     public IPMode get(final String id) {
-        if (this.containsId(id))
-            return pmodeSet.get(id);
-        else
-            return null;
+        return currentSet.get(id);
     }
 
     @Override
     public Collection<IPMode> getAll() {
-        return pmodeSet.values();
+        return currentSet.getAll();
     }
 
     @Override
     public boolean containsId(final String id) {
-        return (pmodeSet.keySet() != null ? pmodeSet.keySet().contains(id) : false);
+        return currentSet.containsId(id);
     }
 
     @Override
@@ -74,17 +85,19 @@ public class InMemoryPModeSet implements IPModeSet {
         // Check whether the provided P-Mode has been assigned an id
         String pmodeId = pmode.getId();
 
-        if (Utils.isNullOrEmpty(pmodeId)) {
-            // No id provided, generate one now
-            pmodeId = generatePModeId(pmode);
-        }
+        synchronized (updateLock) {
+            if (Utils.isNullOrEmpty(pmodeId)) {
+                // No id provided, generate one now
+                pmodeId = generatePModeId(pmode);
+            }
 
-        synchronized (this.pmodeSet) {
             // Ensure that the P-Mode id is unique and does not already exist
-            if (pmodeSet.containsKey(pmodeId))
+            if (currentSet.containsId(pmodeId))
                 throw new PModeSetException("A P-Mode with id " + pmodeId + " already exists!");
 
-            pmodeSet.put(pmodeId, pmode);
+            final HashMap<String, IPMode> newSet = copyCurrentSet();
+            newSet.put(pmodeId, pmode);
+            publish(newSet);
 
             return pmodeId;
         }
@@ -97,26 +110,50 @@ public class InMemoryPModeSet implements IPModeSet {
         if (Utils.isNullOrEmpty(pmodeId))
             throw new PModeSetException("The P-Mode MUST have an id!");
 
-        synchronized (this.pmodeSet) {
-            if (!containsId(pmodeId))
+        synchronized (updateLock) {
+            if (!currentSet.containsId(pmodeId))
                 throw new PModeSetException("There is no P-Mode with the given id!");
 
-            this.pmodeSet.put(pmodeId, pmode);
+            final HashMap<String, IPMode> newSet = copyCurrentSet();
+            newSet.put(pmodeId, pmode);
+            publish(newSet);
         }
     }
 
     @Override
     public void remove(final String id) throws PModeSetException {
-        if (containsId(id)) {
-            synchronized (this.pmodeSet) {
-                this.pmodeSet.remove(id);
+        synchronized (updateLock) {
+            if (currentSet.containsId(id)) {
+                final HashMap<String, IPMode> newSet = copyCurrentSet();
+                newSet.remove(id);
+                publish(newSet);
             }
         }
     }
 
     @Override
     public void removeAll() throws PModeSetException {
-        this.pmodeSet = new HashMap<>();
+        synchronized (updateLock) {
+            publish(new HashMap<String, IPMode>());
+        }
+    }
+
+    /**
+     * Creates a modifiable copy of the current version of the set. Must only be called while holding the update lock.
+     *
+     * @return  A new map containing all P-Modes currently in the set
+     */
+    private HashMap<String, IPMode> copyCurrentSet() {
+        return new HashMap<>(currentSet.asMap());
+    }
+
+    /**
+     * Publishes the given P-Modes as the new version of the set. Must only be called while holding the update lock.
+     *
+     * @param newSet    The P-Modes in the new version of the set
+     */
+    private void publish(final HashMap<String, IPMode> newSet) {
+        currentSet = new PModeSetSnapshot(currentSet.getVersion() + 1, newSet);
     }
 
     /**
@@ -21,6 +21,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
 import org.holodeckb2b.common.messagemodel.util.CompareUtils;
 import org.holodeckb2b.common.util.Utils;
@@ -121,161 +122,194 @@ public class PModeFinder {
         if (pmodes == null)
             return null;
 
-        for (final IPMode p : pmodes.getAll()) {
+        // When the P-Mode set is managed by the Core's P-Mode manager the index it maintains can be used to limit the
+        // number of P-Modes that need to be evaluated. Otherwise, i.e. when a custom Core implementation provides
+        // another P-Mode set, all P-Modes must be checked.
+        final Collection<IPMode> candidates = pmodes instanceof PModeManager ?
+                                                ((PModeManager) pmodes).getMatchingCandidates(mu)
+                                              : pmodes.getAll();
+        for (final IPMode p : candidates) {
             // Ignore this P-Mode if it is configured for sending
-            if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)
-                && p.getLeg(ILeg.Label.REQUEST).getProtocol() != null
-                && !Utils.isNullOrEmpty(p.getLeg(ILeg.Label.REQUEST).getProtocol().getAddress())) {
+            if (isForSendingUserMessages(p))
                 continue;
-            }
-
-            int cValue = 0;
-            // P-Mode id and agreement info are contained in optional element
-            final IAgreementReference agreementRef = mu.getCollaborationInfo().getAgreement();
 
-            if (p.includeId() != null && p.includeId()) {
-                // The P-Mode id can be used for matching, so check if one is given in message
-                if (agreementRef != null) {
-                    final String pid = agreementRef.getPModeId();
-                    if (!Utils.isNullOrEmpty(pid) && pid.equals(p.getId()))
-                        cValue = MATCH_WEIGHTS.get(PARAMETERS.ID);
-                }
+            final int cValue = calculateMatch(p, mu);
+            // Does this P-Mode better match to the message meta data than the current highest match?
+            if (cValue > hValue) {
+                // Yes, it does, set it as new best match
+                hValue = cValue;
+                hPMode = p;
             }
+        }
 
-            // Check agreement info
-            final IAgreement agreementPMode = p.getAgreement();
-            if (agreementPMode != null) {
-                final int i = Utils.compareStrings(agreementRef != null ? agreementRef.getName() : null
-                                                  , agreementPMode.getName());
-                switch (i) {
-                    case -2 :
-                    case 2 :
-                        // mismatch on agreement name, either because different or one defined in P-Mode but not in msg
-                        continue;
-                    case 0 :
-                        // names equal, but for match also types must be equal
-                        final int j = Utils.compareStrings(agreementRef.getType(), agreementPMode.getType());
-                        if (j == -1 || j == 0)
-                            cValue += MATCH_WEIGHTS.get(PARAMETERS.AGREEMENT);
-                        else
-                            continue; // mis-match on agreement type
-                    case -1 :
-                        // both P-Mode and message agreement ref are empty, ignore
-                    case 1 :
-                        // the message contains agreement ref, but P-Mode does not, ignore
-                }
-            }
+        return hPMode;
+    }
 
-            // Check trading partner info
-            final ITradingPartner from = mu.getSender(), to = mu.getReceiver();
-            ITradingPartner fromPMode = null, toPMode = null;
-            if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)) {
-                fromPMode = p.getInitiator(); toPMode = p.getResponder();
-            } else {
-                fromPMode = p.getResponder(); toPMode = p.getInitiator();
-            }
+    /**
+     * Checks whether the given P-Mode is used for sending User Messages, i.e. it uses a one way push and specifies the
+     * address to which the User Message should be sent. Such P-Modes can not be used for received User Messages.
+     *
+     * @param p     The P-Mode to check
+     * @return      <code>true</code> if the P-Mode configures the sending of the User Message,<br>
+     *              <code>false</code> otherwise
+     * @since HB2B_NEXT_VERSION
+     */
+    static boolean isForSendingUserMessages(final IPMode p) {
+        return p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)
+                && p.getLeg(ILeg.Label.REQUEST).getProtocol() != null
+                && !Utils.isNullOrEmpty(p.getLeg(ILeg.Label.REQUEST).getProtocol().getAddress());
+    }
 
-            // Check To info
-            if (toPMode != null) {
-                final int c = Utils.compareStrings(to.getRole(), toPMode.getRole());
-                if ( c == -1 || c == 0)
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.TO_ROLE);
-                else if (c != 1)
-                    continue; // mis-match on To party role
-                Collection<IPartyId> pmodeToIds = toPMode.getPartyIds();
-                if (!Utils.isNullOrEmpty(pmodeToIds))
-                    if (CompareUtils.areEqual(to.getPartyIds(), pmodeToIds))
-                        cValue += MATCH_WEIGHTS.get(PARAMETERS.TO);
-                    else
-                        continue; // mis-match on To party id('s)
+    /**
+     * Calculates how well the given P-Mode matches to the meta-data of the received User Message using the weights
+     * described in {@link #forReceivedUserMessage(IUserMessage)}.
+     *
+     * @param p     The P-Mode to compare to the User Message
+     * @param mu    The received User Message
+     * @return      The sum of the weights of the matching elements, or<br>
+     *              -1 if there is a mismatch on one of the elements
+     * @since HB2B_NEXT_VERSION
+     */
+    static int calculateMatch(final IPMode p, final IUserMessage mu) {
+        int cValue = 0;
+        // P-Mode id and agreement info are contained in optional element
+        final IAgreementReference agreementRef = mu.getCollaborationInfo().getAgreement();
+
+        if (p.includeId() != null && p.includeId()) {
+            // The P-Mode id can be used for matching, so check if one is given in message
+            if (agreementRef != null) {
+                final String pid = agreementRef.getPModeId();
+                if (!Utils.isNullOrEmpty(pid) && pid.equals(p.getId()))
+                    cValue = MATCH_WEIGHTS.get(PARAMETERS.ID);
             }
+        }
 
-            // Check From info
-            if (fromPMode != null) {
-                final int c = Utils.compareStrings(from.getRole(), fromPMode.getRole());
-                if ( c == -1 || c == 0)
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.FROM_ROLE);
-                else if (c != 1)
-                    continue; // mis-match on From party role
-                Collection<IPartyId> pmodeFromIds = fromPMode.getPartyIds();
-                if (!Utils.isNullOrEmpty(pmodeFromIds))
-                    if (CompareUtils.areEqual(from.getPartyIds(), pmodeFromIds))
-                        cValue += MATCH_WEIGHTS.get(PARAMETERS.FROM);
+        // Check agreement info
+        final IAgreement agreementPMode = p.getAgreement();
+        if (agreementPMode != null) {
+            final int i = Utils.compareStrings(agreementRef != null ? agreementRef.getName() : null
+                                              , agreementPMode.getName());
+            switch (i) {
+                case -2 :
+                case 2 :
+                    // mismatch on agreement name, either because different or one defined in P-Mode but not in msg
+                    return -1;
+                case 0 :
+                    // names equal, but for match also types must be equal
+                    final int j = Utils.compareStrings(agreementRef.getType(), agreementPMode.getType());
+                    if (j == -1 || j == 0)
+                        cValue += MATCH_WEIGHTS.get(PARAMETERS.AGREEMENT);
                     else
-                        continue;  // mis-match on From party id('s)
+                        return -1; // mis-match on agreement type
+                case -1 :
+                    // both P-Mode and message agreement ref are empty, ignore
+                case 1 :
+                    // the message contains agreement ref, but P-Mode does not, ignore
             }
+        }
 
-            // Next info items are defined per Leg basis, for now we only have one-way MEP, so only one leg to check
-            // Within the leg all relevant information is contained in the user message flow.
-            final IUserMessageFlow  flow = p.getLeg(ILeg.Label.REQUEST).getUserMessageFlow();
-            final IBusinessInfo     pmBI = flow != null ? flow.getBusinessInfo() : null;
-            if (pmBI != null) {
-                // Check Service
-                final IService svcPMode = pmBI.getService();
-                if (svcPMode != null) {
-                    final IService svc = mu.getCollaborationInfo().getService();
-                    if (svc.getName().equals(svcPMode.getName())) {
-                        final int i = Utils.compareStrings(svc.getType(), svcPMode.getType());
-                        if (i == -1 || i == 0)
-                            cValue += MATCH_WEIGHTS.get(PARAMETERS.SERVICE);
-                        else
-                            continue; // mis-match on service type
-                    } else
-                        continue; // mis-match on service name
-                }
-                // Check Action
-                final int i = Utils.compareStrings(mu.getCollaborationInfo().getAction(), pmBI.getAction());
-                if (i == 0)
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.ACTION);
-                else if (i == -2)
-                    continue; // mis-match on action
-            }
+        // Check trading partner info
+        final ITradingPartner from = mu.getSender(), to = mu.getReceiver();
+        ITradingPartner fromPMode = null, toPMode = null;
+        if (p.getMepBinding().equals(EbMSConstants.ONE_WAY_PUSH)) {
+            fromPMode = p.getInitiator(); toPMode = p.getResponder();
+        } else {
+            fromPMode = p.getResponder(); toPMode = p.getInitiator();
+        }
 
-            // Check MPC, first check the MPC defined in the User Message flow, and if there is none there, check
-            // if there is maybe on in Pull Request flow
-            String mpc = mu.getMPC();
-            if (Utils.isNullOrEmpty(mpc))
-                mpc = EbMSConstants.DEFAULT_MPC;
-            String mpcPMode = pmBI != null ? pmBI.getMpc() : null;
-            // If no MPC is provided in User Message flow, check if this P-Mode is for pulling messages and if it is
-            // use the MPC defined in PR flow
-            if (Utils.isNullOrEmpty(mpcPMode) && p.getMepBinding().equals(EbMSConstants.ONE_WAY_PULL)
-                && p.getLeg(ILeg.Label.REQUEST).getProtocol() != null
-                && !Utils.isNullOrEmpty(p.getLeg(ILeg.Label.REQUEST).getProtocol().getAddress()))
-            {
-                try {
-                    mpcPMode = p.getLeg(ILeg.Label.REQUEST).getPullRequestFlows().iterator().next().getMPC();
-                } catch (NullPointerException npe) {
-                    mpcPMode = null;
-                }
-                if (Utils.isNullOrEmpty(mpcPMode))
-                    mpcPMode = EbMSConstants.DEFAULT_MPC;
-                // Now compare MPC, but take into account that MPC from P-Mode can be a sub MPC, so a message that
-                // contains parent MPC does match
-                if (mpcPMode.startsWith(mpc))
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.MPC);
+        // Check To info
+        if (toPMode != null) {
+            final int c = Utils.compareStrings(to.getRole(), toPMode.getRole());
+            if ( c == -1 || c == 0)
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.TO_ROLE);
+            else if (c != 1)
+                return -1; // mis-match on To party role
+            Collection<IPartyId> pmodeToIds = toPMode.getPartyIds();
+            if (!Utils.isNullOrEmpty(pmodeToIds))
+                if (CompareUtils.areEqual(to.getPartyIds(), pmodeToIds))
+                    cValue += MATCH_WEIGHTS.get(PARAMETERS.TO);
                 else
-                    continue; // mis-match on MPC
-            } else {
-                // If no MPC is given in P-Mode, it uses the default
-                if (Utils.isNullOrEmpty(mpcPMode))
-                    mpcPMode = EbMSConstants.DEFAULT_MPC;
-                // Now compare the MPC values
-                if (mpc.equalsIgnoreCase(mpcPMode))
-                    cValue += MATCH_WEIGHTS.get(PARAMETERS.MPC);
+                    return -1; // mis-match on To party id('s)
+        }
+
+        // Check From info
+        if (fromPMode != null) {
+            final int c = Utils.compareStrings(from.getRole(), fromPMode.getRole());
+            if ( c == -1 || c == 0)
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.FROM_ROLE);
+            else if (c != 1)
+                return -1; // mis-match on From party role
+            Collection<IPartyId> pmodeFromIds = fromPMode.getPartyIds();
+            if (!Utils.isNullOrEmpty(pmodeFromIds))
+                if (CompareUtils.areEqual(from.getPartyIds(), pmodeFromIds))
+                    cValue += MATCH_WEIGHTS.get(PARAMETERS.FROM);
                 else
-                    continue; // mis-match on MPC
+                    return -1;  // mis-match on From party id('s)
+        }
+
+        // Next info items are defined per Leg basis, for now we only have one-way MEP, so only one leg to check
+        // Within the leg all relevant information is contained in the user message flow.
+        final IUserMessageFlow  flow = p.getLeg(ILeg.Label.REQUEST).getUserMessageFlow();
+        final IBusinessInfo     pmBI = flow != null ? flow.getBusinessInfo() : null;
+        if (pmBI != null) {
+            // Check Service
+            final IService svcPMode = pmBI.getService();
+            if (svcPMode != null) {
+                final IService svc = mu.getCollaborationInfo().getService();
+                if (svc.getName().equals(svcPMode.getName())) {
+                    final int i = Utils.compareStrings(svc.getType(), svcPMode.getType());
+                    if (i == -1 || i == 0)
+                        cValue += MATCH_WEIGHTS.get(PARAMETERS.SERVICE);
+                    else
+                        return -1; // mis-match on service type
+                } else
+                    return -1; // mis-match on service name
             }
+            // Check Action
+            final int i = Utils.compareStrings(mu.getCollaborationInfo().getAction(), pmBI.getAction());
+            if (i == 0)
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.ACTION);
+            else if (i == -2)
+                return -1; // mis-match on action
+        }
 
-            // Does this P-Mode better match to the message meta data than the current highest match?
-            if (cValue > hValue) {
-                // Yes, it does, set it as new best match
-                hValue = cValue;
-                hPMode = p;
+        // Check MPC, first check the MPC defined in the User Message flow, and if there is none there, check
+        // if there is maybe on in Pull Request flow
+        String mpc = mu.getMPC();
+        if (Utils.isNullOrEmpty(mpc))
+            mpc = EbMSConstants.DEFAULT_MPC;
+        String mpcPMode = pmBI != null ? pmBI.getMpc() : null;
+        // If no MPC is provided in User Message flow, check if this P-Mode is for pulling messages and if it is
+        // use the MPC defined in PR flow
+        if (Utils.isNullOrEmpty(mpcPMode) && p.getMepBinding().equals(EbMSConstants.ONE_WAY_PULL)
+            && p.getLeg(ILeg.Label.REQUEST).getProtocol() != null
+            && !Utils.isNullOrEmpty(p.getLeg(ILeg.Label.REQUEST).getProtocol().getAddress()))
+        {
+            try {
+                mpcPMode = p.getLeg(ILeg.Label.REQUEST).getPullRequestFlows().iterator().next().getMPC();
+            } catch (NullPointerException npe) {
+                mpcPMode = null;
             }
+            if (Utils.isNullOrEmpty(mpcPMode))
+                mpcPMode = EbMSConstants.DEFAULT_MPC;
+            // Now compare MPC, but take into account that MPC from P-Mode can be a sub MPC, so a message that
+            // contains parent MPC does match
+            if (mpcPMode.startsWith(mpc))
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.MPC);
+            else
+                return -1; // mis-match on MPC
+        } else {
+            // If no MPC is given in P-Mode, it uses the default
+            if (Utils.isNullOrEmpty(mpcPMode))
+                mpcPMode = EbMSConstants.DEFAULT_MPC;
+            // Now compare the MPC values
+            if (mpc.equalsIgnoreCase(mpcPMode))
+                cValue += MATCH_WEIGHTS.get(PARAMETERS.MPC);
+            else
+                return -1; // mis-match on MPC
         }
 
-        return hPMode;
+        return cValue;
     }
 
     /**
@@ -288,9 +322,39 @@ public class PModeFinder {
      *              a pull operation for the given MPC
      */
     public static Collection<IPMode> findForPulling(final Map<String, IAuthenticationInfo> authInfo, final String mpc) {
+        final IPModeSet pmodes = HolodeckB2BCoreInterface.getPModeSet();
+        if (!(pmodes instanceof PModeManager))
+            return findForPulling(pmodes, authInfo, mpc);
+
+        // Check if the result of this lookup is already cached
+        final PModeLookupCache cache = ((PModeManager) pmodes).getLookupCache();
+        final long cacheVersion = cache.getVersion();
+        final String key = PModeLookupCache.getPullingKey(authInfo, mpc);
+        final Collection<IPMode> cached = cache.get(PModeLookupCache.LookupType.PULLING, key);
+        if (cached != null)
+            return cached;
+        else
+            return cache.put(cacheVersion, PModeLookupCache.LookupType.PULLING, key,
+                             findForPulling(pmodes, authInfo, mpc));
+    }
+
+    /**
+     * Gets the list of P-Modes from the given P-Mode set for which Holodeck B2B is the responder in a pull operation
+     * for the given MPC and authentication info.
+     *
+     * @param pmodes    The set of P-Modes to search
+     * @param authInfo  The authentication info included in the pull request
+     * @param mpc       The <i>MPC</i> that the message are exchanged on
+     * @return          A collection of {@link IPMode} objects for the P-Modes for which Holodeck B2B is the responder
+     *                  in a pull operation for the given MPC
+     * @since HB2B_NEXT_VERSION
+     */
+    private static Collection<IPMode> findForPulling(final IPModeSet pmodes,
+                                                     final Map<String, IAuthenticationInfo> authInfo,
+                                                     final String mpc) {
         final ArrayList<IPMode> pmodesForPulling = new ArrayList<>();
 
-        for(final IPMode p : HolodeckB2BCoreInterface.getPModeSet().getAll()) {
+        for(final IPMode p : pmodes.getAll()) {
             // Check if this P-Mode uses pulling with Holodeck B2B being the responder
             final ILeg leg = p.getLegs().iterator().next();
             if (EbMSConstants.ONE_WAY_PULL.equalsIgnoreCase(p.getMepBinding())
@@ -457,9 +521,33 @@ public class PModeFinder {
      *              exists <code>null</code> is returned
      */
     public static Collection<IPMode> getPModesWithErrorsTo(final String url) {
+        final IPModeSet pmodes = HolodeckB2BCoreInterface.getPModeSet();
+        if (!(pmodes instanceof PModeManager))
+            return getPModesWithErrorsTo(pmodes, url);
+
+        // Check if the result of this lookup is already cached
+        final PModeLookupCache cache = ((PModeManager) pmodes).getLookupCache();
+        final long cacheVersion = cache.getVersion();
+        final String key = url != null ? url.toLowerCase(Locale.ROOT) : null;
+        final Collection<IPMode> cached = cache.get(PModeLookupCache.LookupType.ERRORS_TO, key);
+        if (cached != null)
+            return cached;
+        else
+            return cache.put(cacheVersion, PModeLookupCache.LookupType.ERRORS_TO, key, getPModesWithErrorsTo(pmodes, url));
+    }
+
+    /**
+     * Retrieves all P-Modes in the given P-Mode set which specify the given URL as the destination of <i>Error</i> signals.
+     *
+     * @param pmodes    The set of P-Modes to search
+     * @param url       The destination URL
+     * @return          Collection of {@link IPMode}s for which errors must be sent to the given URL
+     * @since HB2B_NEXT_VERSION
+     */
+    private static Collection<IPMode> getPModesWithErrorsTo(final IPModeSet pmodes, final String url) {
         final Collection<IPMode>  result = new ArrayList<>();
 
-        for(final IPMode p : HolodeckB2BCoreInterface.getPModeSet().getAll()) {
+        for(final IPMode p : pmodes.getAll()) {
             // Get all relevent P-Mode info
             final ILeg leg = p.getLegs().iterator().next();
             final IProtocol protocolInfo = leg.getProtocol();
@@ -487,9 +575,33 @@ public class PModeFinder {
      *              exists <code>null</code> is returned
      */
     public static Collection<IPMode> getPModesWithReceiptsTo(final String url) {
+        final IPModeSet pmodes = HolodeckB2BCoreInterface.getPModeSet();
+        if (!(pmodes instanceof PModeManager))
+            return getPModesWithReceiptsTo(pmodes, url);
+
+        // Check if the result of this lookup is already cached
+        final PModeLookupCache cache = ((PModeManager) pmodes).getLookupCache();
+        final long cacheVersion = cache.getVersion();
+        final String key = url != null ? url.toLowerCase(Locale.ROOT) : null;
+        final Collection<IPMode> cached = cache.get(PModeLookupCache.LookupType.RECEIPTS_TO, key);
+        if (cached != null)
+            return cached;
+        else
+            return cache.put(cacheVersion, PModeLookupCache.LookupType.RECEIPTS_TO, key, getPModesWithReceiptsTo(pmodes, url));
+    }
+
+    /**
+     * Retrieves all P-Modes in the given P-Mode set which specify the given URL as the destination of <i>Receipt</i> signals.
+     *
+     * @param pmodes    The set of P-Modes to search
+     * @param url       The destination URL
+     * @return          Collection of {@link IPMode}s for which receipts must be sent to the given URL
+     * @since HB2B_NEXT_VERSION
+     */
+    private static Collection<IPMode> getPModesWithReceiptsTo(final IPModeSet pmodes, final String url) {
         final Collection<IPMode>  result = new ArrayList<>();
 
-        for(final IPMode p : HolodeckB2BCoreInterface.getPModeSet().getAll()) {
+        for(final IPMode p : pmodes.getAll()) {
             // Get all relevent P-Mode info
             final ILeg leg = p.getLegs().iterator().next();
             final IProtocol protocolInfo = leg.getProtocol();
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.security.IUsernameTokenConfiguration;
+import org.holodeckb2b.security.tokens.IAuthenticationInfo;
+import org.holodeckb2b.security.tokens.UsernameToken;
+import org.holodeckb2b.security.tokens.X509Certificate;
+
+/**
+ * Caches the results of the P-Mode lookups done by the {@link PModeFinder} for received signal messages and pull
+ * requests, i.e. the P-Modes that have a specific URL as destination for <i>Error</i> or <i>Receipt</i> signals and
+ * the P-Modes that can be pulled using a specific MPC and authentication info.
+ * <p>The cache is maintained by the {@link PModeManager} which invalidates it whenever the set of deployed P-Modes
+ * changes. The cached results are kept per <i>generation</i> of the P-Mode set, so a result that was calculated based
+ * on a previous version of the P-Mode set can never be added to the cache of the current version.
+ * <p>The result of finding the P-Modes for a pull request only depends on the authentication info when it does not
+ * include a password digest. Because the digest is based on a nonce and timestamp that are unique for each message
+ * there is no use in caching these and lookups using such authentication info therefore bypass the cache.
+ * <p>To check the effectiveness of the cache it counts the number of hits and misses, which can be retrieved using
+ * {@link #getHitCount()} and {@link #getMissCount()}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public class PModeLookupCache {
+
+    /**
+     * The types of lookup for which results are cached
+     */
+    enum LookupType { ERRORS_TO, RECEIPTS_TO, PULLING }
+
+    /**
+     * The maximum number of results cached for each lookup type. When the limit is reached new results are not added
+     * anymore until the cache is invalidated.
+     */
+    static final int MAX_ENTRIES = 1000;
+
+    /**
+     * Holds the cached results for one version of the P-Mode set
+     */
+    private static class Generation {
+        final long  version;
+        final Map<LookupType, Map<String, Collection<IPMode>>>  results = new EnumMap<>(LookupType.class);
+
+        Generation(final long version) {
+            this.version = version;
+            for (final LookupType t : LookupType.values())
+                results.put(t, new ConcurrentHashMap<String, Collection<IPMode>>());
+        }
+    }
+
+    /**
+     * The cached results for the current version of the P-Mode set
+     */
+    private volatile Generation current = new Generation(0);
+
+    /**
+     * Counters for the number of cache hits and misses
+     */
+    private final AtomicLong    hits = new AtomicLong();
+    private final AtomicLong    misses = new AtomicLong();
+
+    /**
+     * Gets the version of the P-Mode set the cache currently holds results for. This version must be supplied when
+     * adding a new result to the cache so the cache can check that the result is still valid.
+     *
+     * @return  The current version of the cache
+     */
+    long getVersion() {
+        return current.version;
+    }
+
+    /**
+     * Gets the cached result of the given lookup.
+     *
+     * @param type  The type of lookup
+     * @param key   The key of the lookup, i.e. the URL or MPC and authentication info fingerprint
+     * @return      The cached collection of P-Modes if available, <code>null</code> otherwise
+     */
+    Collection<IPMode> get(final LookupType type, final String key) {
+        final Collection<IPMode> result = key != null ? current.results.get(type).get(key) : null;
+        if (result != null)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Adds the result of a lookup to the cache if it was calculated using the current version of the P-Mode set.
+     *
+     * @param version   The version of the cache as retrieved before the lookup was started
+     * @param type      The type of lookup
+     * @param key       The key of the lookup
+     * @param result    The P-Modes found
+     * @return          An unmodifiable version of the result
+     */
+    Collection<IPMode> put(final long version, final LookupType type, final String key,
+                           final Collection<IPMode> result) {
+        final Collection<IPMode> cached = Collections.unmodifiableCollection(result);
+        final Generation gen = current;
+        if (key != null && gen.version == version) {
+            final Map<String, Collection<IPMode>> typeResults = gen.results.get(type);
+            if (typeResults.size() < MAX_ENTRIES)
+                typeResults.put(key, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Invalidates all cached results. Must be called every time the set of deployed P-Modes changes.
+     */
+    void invalidate() {
+        synchronized (this) {
+            current = new Generation(current.version + 1);
+        }
+    }
+
+    /**
+     * Gets the number of lookups that could be served from the cache since the start of Holodeck B2B.
+     *
+     * @return  The number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that could not be served from the cache since the start of Holodeck B2B.
+     *
+     * @return  The number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Creates the key for caching the result of finding the P-Modes for a pull request. As the key includes the
+     * authentication info, which can include passwords, a hash of this info is used.
+     *
+     * @param authInfo  The authentication info included in the pull request
+     * @param mpc       The MPC included in the pull request
+     * @return          The key to use for caching the result of the lookup, or <code>null</code> if the result should
+     *                  not be cached because it depends on a password digest or unknown type of authentication info
+     */
+    static String getPullingKey(final Map<String, IAuthenticationInfo> authInfo, final String mpc) {
+        final StringBuilder fingerprint = new StringBuilder(mpc != null ? "+" + mpc.toLowerCase(Locale.ROOT) : "-")
+                                                                                                    .append('\n');
+
+        if (authInfo != null && !authInfo.isEmpty()) {
+            final List<String> targets = new ArrayList<>(authInfo.keySet());
+            Collections.sort(targets);
+            for (final String target : targets) {
+                final IAuthenticationInfo info = authInfo.get(target);
+                fingerprint.append(target).append('=');
+                if (info instanceof UsernameToken) {
+                    final UsernameToken ut = (UsernameToken) info;
+                    if (ut.getPasswordType() == IUsernameTokenConfiguration.PasswordType.DIGEST)
+                        return null;
+                    fingerprint.append(ut.getUsername()).append('\t').append(ut.getPassword()).append('\t')
+                               .append(ut.includesNonce()).append('\t').append(ut.includesCreated());
+                } else if (info instanceof X509Certificate)
+                    fingerprint.append(((X509Certificate) info).getKeystoreAlias());
+                else if (info != null)
+                    return null;
+                fingerprint.append('\n');
+            }
+        }
+
+        return DigestUtils.sha256Hex(fingerprint.toString());
+    }
+}
@@ -17,10 +17,13 @@
 package org.holodeckb2b.pmode;
 
 import java.util.Collection;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.holodeckb2b.common.config.InternalConfiguration;
 import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
 import org.holodeckb2b.interfaces.pmode.IPMode;
 import org.holodeckb2b.interfaces.pmode.IPModeSet;
 import org.holodeckb2b.interfaces.pmode.PModeSetException;
@@ -58,6 +61,25 @@ public class PModeManager implements IPModeSet {
      */
     private IPModeValidator validator;
 
+    /**
+     * The index on the deployed P-Modes used for finding the P-Mode of received User Messages
+     * @since HB2B_NEXT_VERSION
+     */
+    private final PModeMatchingIndex matchingIndex = new PModeMatchingIndex();
+
+    /**
+     * The cache of P-Mode lookups for received signals and pull requests
+     * @since HB2B_NEXT_VERSION
+     */
+    private final PModeLookupCache lookupCache = new PModeLookupCache();
+
+    /**
+     * Lock to ensure that a change in the set of deployed P-Modes and the corresponding update of the index are seen
+     * as one change by the lookups
+     * @since HB2B_NEXT_VERSION
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
     /**
      * Creates a new <code>PModeManager</code> which will use the given {@link IPModeSet} and {@link IPModeValidator}
      * implementations for storing the deployed respectively checking the P-Modes. If either is not specified the
@@ -103,10 +125,16 @@ public class PModeManager implements IPModeSet {
             // No specific validator, use default one
             deployedPModes = new InMemoryPModeSet();
 
+        // The storage implementation may already contain P-Modes, e.g. when it is a persistent store, so these must be
+        // included in the index
+        for (final IPMode p : deployedPModes.getAll())
+            matchingIndex.add(p.getId(), p);
+
         // Log configuration
         StringBuilder   logMsg = new StringBuilder("Initialized P-Mode manager:\n");
         logMsg.append("\tP-Mode validator    : ").append(validator.getClass().getName()).append('\n')
-              .append("\tP-Mode storage impl.: ").append(deployedPModes.getClass().getName()).append('\n');
+              .append("\tP-Mode storage impl.: ").append(deployedPModes.getClass().getName()).append('\n')
+              .append("\tIndexed P-Modes     : ").append(matchingIndex.size()).append('\n');
         log.info(logMsg.toString());
     }
 
@@ -140,7 +168,15 @@ public class PModeManager implements IPModeSet {
         if (Utils.isNullOrEmpty(validationErrors)) {
             log.debug("No errors found in new P-Mode, adding to deployed set of P-Modes");
             try {
-                String pmodeId = deployedPModes.add(pmode);
+                String pmodeId;
+                lock.writeLock().lock();
+                try {
+                    pmodeId = deployedPModes.add(pmode);
+                    matchingIndex.add(pmodeId, pmode);
+                    invalidateLookupCache();
+                } finally {
+                    lock.writeLock().unlock();
+                }
                 log.info("Successfully deployed P-Mode [{}]", pmodeId);
                 return pmodeId;
             } catch (PModeSetException deploymentException) {
@@ -163,7 +199,14 @@ public class PModeManager implements IPModeSet {
         if (Utils.isNullOrEmpty(validationErrors)) {
             log.debug("No errors found in new version of P-Mode, replacing it in the deployed set of P-Modes");
             try {
-                deployedPModes.replace(pmode);
+                lock.writeLock().lock();
+                try {
+                    deployedPModes.replace(pmode);
+                    matchingIndex.add(pmode.getId(), pmode);
+                    invalidateLookupCache();
+                } finally {
+                    lock.writeLock().unlock();
+                }
                 log.info("Successfully deployed change version of P-Mode [{}]", pmode.getId());
             } catch (PModeSetException deploymentException) {
                 log.error("Could not replace P-Mode due to exception in storage implementation! Error message: {}",
@@ -178,11 +221,82 @@ public class PModeManager implements IPModeSet {
 
     @Override
     public void remove(String id) throws PModeSetException {
-        deployedPModes.remove(id);
+        lock.writeLock().lock();
+        try {
+            deployedPModes.remove(id);
+            matchingIndex.remove(id);
+            invalidateLookupCache();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public void removeAll() throws PModeSetException {
-        deployedPModes.removeAll();
+        lock.writeLock().lock();
+        try {
+            deployedPModes.removeAll();
+            matchingIndex.clear();
+            invalidateLookupCache();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the deployed P-Modes that are candidates for matching with the given received User Message using the index
+     * on the deployed P-Modes.
+     *
+     * @param mu    The received User Message
+     * @return      The P-Modes that may match the User Message
+     * @see PModeMatchingIndex#getCandidates(IUserMessage)
+     * @since HB2B_NEXT_VERSION
+     */
+    Collection<IPMode> getMatchingCandidates(final IUserMessage mu) {
+        lock.readLock().lock();
+        try {
+            return matchingIndex.getCandidates(mu);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the cache of P-Mode lookups for received signals and pull requests. The cache is invalidated every time the
+     * set of deployed P-Modes changes.
+     *
+     * @return  The {@link PModeLookupCache} for the currently deployed P-Modes
+     * @since HB2B_NEXT_VERSION
+     */
+    public PModeLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    /**
+     * Gets a snapshot of the currently deployed P-Modes, i.e. a version of the set that will not change when P-Modes
+     * are added, replaced or removed. This can be used by components that need a consistent view of the deployed
+     * P-Modes for a longer period, e.g. during the processing of a message.
+     * <p>When the default {@link InMemoryPModeSet} is used for storage of the P-Modes the snapshot is provided by the
+     * storage implementation and retrieving it is a cheap operation. For other storage implementations a copy of the
+     * current set is made and consistency depends on the storage implementation.
+     *
+     * @return  A {@link PModeSetSnapshot} of the currently deployed P-Modes
+     * @since HB2B_NEXT_VERSION
+     */
+    public PModeSetSnapshot getSnapshot() {
+        if (deployedPModes instanceof InMemoryPModeSet)
+            return ((InMemoryPModeSet) deployedPModes).getSnapshot();
+        else
+            // As the lookup cache is invalidated on every change of the set, its version can be used as set version
+            return new PModeSetSnapshot(lookupCache.getVersion(), deployedPModes.getAll());
+    }
+
+    /**
+     * Invalidates the cached P-Mode lookups because the set of deployed P-Modes has changed.
+     */
+    private void invalidateLookupCache() {
+        lookupCache.invalidate();
+        log.debug("Invalidated P-Mode lookup cache, cache statistics: hits={}, misses={}",
+                  lookupCache.getHitCount(), lookupCache.getMissCount());
     }
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.general.EbMSConstants;
+import org.holodeckb2b.interfaces.general.IPartyId;
+import org.holodeckb2b.interfaces.general.IService;
+import org.holodeckb2b.interfaces.general.ITradingPartner;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.pmode.IBusinessInfo;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.IUserMessageFlow;
+
+/**
+ * Is an index on the deployed P-Modes that is used by the {@link PModeFinder} to limit the number of P-Modes that must
+ * be evaluated when finding the P-Mode for a received User Message.
+ * <p>The P-Modes are indexed on the combination of the <i>Service</i>, <i>Action</i> and the <i>To</i> party ids. As
+ * each of these can be left empty in the P-Mode, in which case it matches to any value in the message, a P-Mode that
+ * does not specify a value is indexed using a wild card for that part of the key. When retrieving the candidate
+ * P-Modes for a message all combinations of the actual and wild card values are therefore looked up.
+ * <p>NOTE: The index only filters out P-Modes that can never match the message, it does not calculate the match
+ * itself. The result of finding the P-Mode is therefore the same as when all P-Modes are evaluated. P-Modes that
+ * are used for sending User Messages are not included in the index as these are never used for received messages.
+ * <p>The index is maintained by the {@link PModeManager} and is updated whenever a P-Mode is added, replaced or
+ * removed.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+class PModeMatchingIndex {
+
+    /**
+     * The value used in the key when the P-Mode does not specify a value for that part of the key
+     */
+    private static final String WILDCARD = "*";
+
+    /**
+     * The separator used between the different parts of the key
+     */
+    private static final char   SEPARATOR = '\u0000';
+
+    /**
+     * The index itself, mapping the key to the P-Modes that have that key
+     */
+    private final Map<String, List<IPMode>> index = new ConcurrentHashMap<>();
+
+    /**
+     * The keys under which P-Modes are indexed, needed to remove them from the index
+     */
+    private final Map<String, IndexedPMode> indexedPModes = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the given P-Mode to the index. If the index already contains a P-Mode with the same id it is replaced.
+     *
+     * @param pmodeId   The id under which the P-Mode is registered in the set of deployed P-Modes
+     * @param pmode     The P-Mode to add
+     */
+    synchronized void add(final String pmodeId, final IPMode pmode) {
+        remove(pmodeId);
+
+        // P-Modes for sending User Messages are never used for received ones, so don't need to be indexed
+        if (PModeFinder.isForSendingUserMessages(pmode))
+            return;
+
+        final String key = getKey(pmode);
+        List<IPMode> entries = index.get(key);
+        if (entries == null) {
+            entries = new CopyOnWriteArrayList<>();
+            index.put(key, entries);
+        }
+        entries.add(pmode);
+        indexedPModes.put(pmodeId, new IndexedPMode(key, pmode));
+    }
+
+    /**
+     * Removes the P-Mode with the given id from the index.
+     *
+     * @param pmodeId   The id of the P-Mode to remove
+     */
+    synchronized void remove(final String pmodeId) {
+        if (pmodeId == null)
+            return;
+
+        final IndexedPMode indexed = indexedPModes.remove(pmodeId);
+        if (indexed != null) {
+            final List<IPMode> entries = index.get(indexed.key);
+            if (entries != null) {
+                entries.remove(indexed.pmode);
+                if (entries.isEmpty())
+                    index.remove(indexed.key);
+            }
+        }
+    }
+
+    /**
+     * Removes all P-Modes from the index.
+     */
+    synchronized void clear() {
+        index.clear();
+        indexedPModes.clear();
+    }
+
+    /**
+     * Gets the P-Modes that are candidates for matching with the given User Message, i.e. the P-Modes whose
+     * <i>Service</i>, <i>Action</i> and <i>To</i> party ids are either equal to the ones in the message or not
+     * specified.
+     *
+     * @param mu    The received User Message
+     * @return      Collection of P-Modes that may match the User Message
+     */
+    Collection<IPMode> getCandidates(final IUserMessage mu) {
+        final String action = mu.getCollaborationInfo().getAction();
+        if (Utils.isNullOrEmpty(action)) {
+            // As a message without action matches to any action specified in the P-Mode the index can not be used
+            final List<IPMode> all = new ArrayList<>();
+            for (final List<IPMode> entries : index.values())
+                all.addAll(entries);
+            return all;
+        }
+
+        final IService svc = mu.getCollaborationInfo().getService();
+        final String[] svcKeys = { svc != null ? getValueKey(svc.getName()) : WILDCARD, WILDCARD };
+        final String[] actionKeys = { action, WILDCARD };
+        final ITradingPartner to = mu.getReceiver();
+        final String[] toKeys = { to != null ? getPartyIdsKey(to.getPartyIds()) : WILDCARD, WILDCARD };
+
+        List<IPMode> candidates = null;
+        for (int s = svcKeys[0].equals(WILDCARD) ? 1 : 0; s < 2; s++)
+            for (int a = actionKeys[0].equals(WILDCARD) ? 1 : 0; a < 2; a++)
+                for (int t = toKeys[0].equals(WILDCARD) ? 1 : 0; t < 2; t++) {
+                    final List<IPMode> entries = index.get(buildKey(svcKeys[s], actionKeys[a], toKeys[t]));
+                    if (!Utils.isNullOrEmpty(entries)) {
+                        if (candidates == null)
+                            candidates = new ArrayList<>();
+                        candidates.addAll(entries);
+                    }
+                }
+
+        return candidates != null ? candidates : Collections.<IPMode>emptyList();
+    }
+
+    /**
+     * Gets the number of P-Modes currently included in the index.
+     *
+     * @return  The number of indexed P-Modes
+     */
+    int size() {
+        return indexedPModes.size();
+    }
+
+    /**
+     * Determines the key under which the given P-Mode should be indexed.
+     *
+     * @param pmode The P-Mode to get the key for
+     * @return      The index key
+     */
+    private static String getKey(final IPMode pmode) {
+        String svcKey = WILDCARD, actionKey = WILDCARD, toKey = WILDCARD;
+
+        final ILeg leg = pmode.getLeg(ILeg.Label.REQUEST);
+        final IUserMessageFlow flow = leg != null ? leg.getUserMessageFlow() : null;
+        final IBusinessInfo pmBI = flow != null ? flow.getBusinessInfo() : null;
+        if (pmBI != null) {
+            if (pmBI.getService() != null)
+                svcKey = getValueKey(pmBI.getService().getName());
+            if (!Utils.isNullOrEmpty(pmBI.getAction()))
+                actionKey = pmBI.getAction();
+        }
+        // Which trading partner is the receiver of the User Message depends on the MEP binding
+        final ITradingPartner toPMode = EbMSConstants.ONE_WAY_PUSH.equals(pmode.getMepBinding()) ?
+                                                                        pmode.getResponder() : pmode.getInitiator();
+        if (toPMode != null && !Utils.isNullOrEmpty(toPMode.getPartyIds()))
+            toKey = getPartyIdsKey(toPMode.getPartyIds());
+
+        return buildKey(svcKey, actionKey, toKey);
+    }
+
+    /**
+     * Gets the value to use in the key for the given string, which is the string itself or the empty string when it
+     * is <code>null</code>. This ensures that only exactly equal values result in the same key.
+     *
+     * @param s     The string value
+     * @return      The value to use in the key
+     */
+    private static String getValueKey(final String s) {
+        return s != null ? s : "";
+    }
+
+    /**
+     * Creates the key representing the given collection of party ids. The key is independent of the order of the
+     * party ids in the collection, so two collections that contain the same party ids result in the same key.
+     *
+     * @param partyIds  The party ids
+     * @return          The key representing the party ids, or the wild card when the collection is empty
+     */
+    private static String getPartyIdsKey(final Collection<IPartyId> partyIds) {
+        if (Utils.isNullOrEmpty(partyIds))
+            return WILDCARD;
+
+        final List<String> ids = new ArrayList<>(partyIds.size());
+        for (final IPartyId pid : partyIds)
+            ids.add((pid.getType() != null ? "+" + pid.getType() : "-") + '|'
+                    + (pid.getId() != null ? "+" + pid.getId() : "-"));
+        Collections.sort(ids);
+
+        final StringBuilder key = new StringBuilder();
+        for (final String id : ids)
+            key.append(id).append(';');
+        return key.toString();
+    }
+
+    /**
+     * Combines the different parts into the index key.
+     */
+    private static String buildKey(final String svc, final String action, final String to) {
+        return new StringBuilder(svc).append(SEPARATOR).append(action).append(SEPARATOR).append(to).toString();
+    }
+
+    /**
+     * Holds the P-Mode and the key it is indexed under
+     */
+    private static class IndexedPMode {
+        final String    key;
+        final IPMode    pmode;
+
+        IndexedPMode(final String key, final IPMode pmode) {
+            this.key = key;
+            this.pmode = pmode;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.IPModeSet;
+import org.holodeckb2b.interfaces.pmode.PModeSetException;
+
+/**
+ * Is an immutable version of a set of P-Modes. It is used by the {@link InMemoryPModeSet} to publish the current
+ * version of the P-Mode set so it can be read without locking and can also be used by components that need a
+ * consistent view of the P-Mode set during the processing of a message, i.e. "pin" the version of the P-Mode set.
+ * <p>Each snapshot has a version number that is increased every time the P-Mode set changes. Because a snapshot can
+ * not be changed all methods that would modify the set throw a {@link PModeSetException}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class PModeSetSnapshot implements IPModeSet {
+
+    /**
+     * The version of the P-Mode set this snapshot represents
+     */
+    private final long  version;
+
+    /**
+     * The P-Modes contained in this version of the set
+     */
+    private final Map<String, IPMode>   pmodes;
+
+    /**
+     * Creates a new snapshot with the given version and P-Modes.
+     *
+     * @param version   The version of the P-Mode set
+     * @param pmodes    The P-Modes in this version of the set. The snapshot takes ownership of the map, so it should
+     *                  not be modified by the caller after the snapshot is created.
+     */
+    PModeSetSnapshot(final long version, final HashMap<String, IPMode> pmodes) {
+        this.version = version;
+        this.pmodes = Collections.unmodifiableMap(pmodes);
+    }
+
+    /**
+     * Creates a new snapshot with the given version containing the given P-Modes.
+     *
+     * @param version   The version of the P-Mode set
+     * @param pmodes    The P-Modes in this version of the set
+     */
+    PModeSetSnapshot(final long version, final Collection<IPMode> pmodes) {
+        this.version = version;
+        final HashMap<String, IPMode> pmodeMap = new HashMap<>(pmodes.size());
+        for (final IPMode p : pmodes)
+            pmodeMap.put(p.getId(), p);
+        this.pmodes = Collections.unmodifiableMap(pmodeMap);
+    }
+
+    /**
+     * Gets the version of the P-Mode set this snapshot represents. A higher version number indicates a more recent
+     * version of the set.
+     *
+     * @return  The version of the P-Mode set
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the number of P-Modes in this version of the set.
+     *
+     * @return  The number of P-Modes
+     */
+    public int size() {
+        return pmodes.size();
+    }
+
+    /**
+     * Gets the P-Modes in this snapshot mapped on the id under which they are registered in the set.
+     *
+     * @return  Unmodifiable map of the P-Modes in this version of the set
+     */
+    Map<String, IPMode> asMap() {
+        return pmodes;
+    }
+
+    @Override
+    @Deprecated
+    public String[] listPModeIds() {
+        return pmodes.keySet().toArray(new String[pmodes.size()]);
+    }
+
+    @Override
+    public IPMode get(final String id) {
+        return id != null ? pmodes.get(id) : null;
+    }
+
+    @Override
+    public Collection<IPMode> getAll() {
+        return pmodes.values();
+    }
+
+    @Override
+    public boolean containsId(final String id) {
+        return id != null && pmodes.containsKey(id);
+    }
+
+    @Override
+    public String add(final IPMode pmode) throws PModeSetException {
+        throw new PModeSetException("A snapshot of the P-Mode set can not be changed!");
+    }
+
+    @Override
+    public void replace(final IPMode pmode) throws PModeSetException {
+        throw new PModeSetException("A snapshot of the P-Mode set can not be changed!");
+    }
+
+    @Override
+    public void remove(final String id) throws PModeSetException {
+        throw new PModeSetException("A snapshot of the P-Mode set can not be changed!");
+    }
+
+    @Override
+    public void removeAll() throws PModeSetException {
+        throw new PModeSetException("A snapshot of the P-Mode set can not be changed!");
+    }
+}
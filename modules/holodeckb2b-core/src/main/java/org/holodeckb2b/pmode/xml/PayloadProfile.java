@@ -17,7 +17,7 @@
 package org.holodeckb2b.pmode.xml;
 
 import org.holodeckb2b.as4.compression.CompressionFeature;
-import org.holodeckb2b.interfaces.as4.pmode.IAS4PayloadProfile;
+import org.holodeckb2b.interfaces.as4.pmode.IAS4CompressionSettings;
 import org.simpleframework.xml.Element;
 import org.simpleframework.xml.Root;
 
@@ -27,11 +27,20 @@ import org.simpleframework.xml.Root;
  */
 
 @Root (name="PayloadProfile", strict=false)
-public class PayloadProfile implements IAS4PayloadProfile {
+public class PayloadProfile implements IAS4CompressionSettings {
 
     @Element (name = "UseAS4Compression", required = false)
     private Boolean useAS4Compression = Boolean.FALSE;
 
+    @Element (name = "CompressionLevel", required = false)
+    private Integer compressionLevel = null;
+
+    @Element (name = "CompressionBufferSize", required = false)
+    private Integer compressionBufferSize = null;
+
+    @Element (name = "CompressionThreshold", required = false)
+    private Long compressionThreshold = null;
+
     /**
      * Returns if compression is turned on for the payload.
      * @return <i>"application/gzip"</i> when payloads should be compressed,<br>
@@ -43,6 +52,35 @@ public class PayloadProfile implements IAS4PayloadProfile {
         return useAS4Compression ? CompressionFeature.COMPRESSED_CONTENT_TYPE : null;
     }
 
+    /**
+     * Returns the compression level to use.
+     * @return The configured compression level, or -1 when the default level should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getCompressionLevel() {
+        return compressionLevel != null ? compressionLevel : -1;
+    }
+
+    /**
+     * Returns the size of the buffers to use for (de)compression.
+     * @return The configured buffer size, or -1 when the default size should be used
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public int getCompressionBufferSize() {
+        return compressionBufferSize != null ? compressionBufferSize : -1;
+    }
+
+    /**
+     * Returns the minimum size of payloads that should be compressed.
+     * @return The configured threshold, or -1 when all payloads should be compressed
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public long getCompressionThreshold() {
+        return compressionThreshold != null ? compressionThreshold : -1;
+    }
 
 }
 
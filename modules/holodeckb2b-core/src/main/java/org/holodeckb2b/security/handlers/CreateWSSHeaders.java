@@ -17,13 +17,13 @@
 package org.holodeckb2b.security.handlers;
 
 import java.util.List;
-import java.util.Properties;
 import javax.security.auth.callback.CallbackHandler;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
 import org.apache.commons.logging.Log;
 import org.apache.wss4j.common.ConfigurationConstants;
+import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSSConfig;
@@ -47,6 +47,8 @@ import org.holodeckb2b.interfaces.pmode.security.IUsernameTokenConfiguration;
 import org.holodeckb2b.interfaces.pmode.security.X509ReferenceType;
 import org.holodeckb2b.security.callbackhandlers.AttachmentCallbackHandler;
 import org.holodeckb2b.security.callbackhandlers.PasswordCallbackHandler;
+import org.holodeckb2b.security.util.CryptoCache;
+import org.holodeckb2b.security.util.ParallelDigestSignatureAction;
 import org.holodeckb2b.security.util.SecurityUtils;
 import org.w3c.dom.Document;
 
@@ -234,10 +236,14 @@ public class CreateWSSHeaders extends BaseHandler {
      * @param pwdCBHandler  The {@link PasswordCallbackHandler} to use for handing over the password to WSS4J library
      */
     private void setupSignature(final MessageContext mc, final ISigningConfiguration sigCfg, final PasswordCallbackHandler pwdCBHandler) {
-        // Set up crypto engine
-        final Properties sigProperties = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.priv);
-        mc.setProperty(ConfigurationConstants.SIG_PROP_REF_ID, "" + sigProperties.hashCode());
-        mc.setProperty("" + sigProperties.hashCode(), sigProperties);
+        // Set up crypto engine, using the shared instance so the keystore is not loaded for every message
+        try {
+            final Crypto sigCrypto = CryptoCache.getCrypto(SecurityUtils.CertType.priv);
+            mc.setProperty(ConfigurationConstants.SIG_PROP_REF_ID, "" + sigCrypto.hashCode());
+            mc.setProperty("" + sigCrypto.hashCode(), sigCrypto);
+        } catch (final WSSecurityException keystoreFailure) {
+            log.error("Could not load the keystore with private keys! Details: " + keystoreFailure.getMessage());
+        }
 
         // Set up signing config
         // AS4 requires that the ebMS message header (eb:Messaging element) and SOAP Body are signed
@@ -285,10 +291,14 @@ public class CreateWSSHeaders extends BaseHandler {
      */
     private void setupEncryption(final MessageContext mc, final IEncryptionConfiguration encCfg,
                                  final PasswordCallbackHandler pwdCBHandler) {
-        // Set up crypto engine
-        final Properties encProperties = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.pub);
-        mc.setProperty(ConfigurationConstants.ENC_PROP_REF_ID, "" + encProperties.hashCode());
-        mc.setProperty("" + encProperties.hashCode(), encProperties);
+        // Set up crypto engine, using the shared instance so the keystore is not loaded for every message
+        try {
+            final Crypto encCrypto = CryptoCache.getCrypto(SecurityUtils.CertType.pub);
+            mc.setProperty(ConfigurationConstants.ENC_PROP_REF_ID, "" + encCrypto.hashCode());
+            mc.setProperty("" + encCrypto.hashCode(), encCrypto);
+        } catch (final WSSecurityException keystoreFailure) {
+            log.error("Could not load the keystore with public keys! Details: " + keystoreFailure.getMessage());
+        }
 
         // Set up encryption config
         // AS4 requires that only the payloads are encrypted, so we encrypt the Body only when it contains a payload
@@ -427,6 +437,8 @@ public class CreateWSSHeaders extends BaseHandler {
 
             log.debug("Set up security engine configuration");
             wssConfig = WSSConfig.getNewInstance();
+            // Use our own signature action that calculates the digests of the attachments in parallel
+            wssConfig.setAction(WSConstants.SIGN, new ParallelDigestSignatureAction());
             attachmentCBHandler = new AttachmentCallbackHandler(msgCtx);
         }
 
@@ -51,6 +51,7 @@ import org.holodeckb2b.security.callbackhandlers.AttachmentCallbackHandler;
 import org.holodeckb2b.security.tokens.IAuthenticationInfo;
 import org.holodeckb2b.security.tokens.UsernameToken;
 import org.holodeckb2b.security.tokens.X509Certificate;
+import org.holodeckb2b.security.util.CachingSignatureTrustValidator;
 import org.holodeckb2b.security.util.NoOpValidator;
 import org.holodeckb2b.security.util.WSSProcessingEngine;
 import org.w3c.dom.Document;
@@ -469,13 +470,16 @@ public class ProcessWSSHeaders extends BaseHandler {
 
         /**
          * Creates a {@link WSSecurityEngine} with a customized configuration to prevent checking the password of
-         * username tokens.
+         * username tokens. For signatures the results of earlier validations of the signing certificate are reused
+         * when possible, see {@link CachingSignatureTrustValidator}. The signature itself and its references are
+         * always verified.
          *
          * @return A {@link WSSecurityEngine} that will not validate username token passwords.
          */
         protected WSSecurityEngine createSecurityEngine() {
             final WSSConfig config = WSSConfig.getNewInstance();
             config.setValidator(WSSecurityEngine.USERNAME_TOKEN, new NoOpValidator());
+            config.setValidator(WSSecurityEngine.SIGNATURE, new CachingSignatureTrustValidator());
 
             final WSSecurityEngine engine = new WSSProcessingEngine();
             engine.setWssConfig(config);
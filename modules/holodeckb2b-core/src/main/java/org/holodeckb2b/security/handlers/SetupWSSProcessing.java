@@ -16,9 +16,10 @@
  */
 package org.holodeckb2b.security.handlers;
 
-import java.util.Properties;
 import org.apache.axis2.context.MessageContext;
 import org.apache.wss4j.common.ConfigurationConstants;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.ext.WSSecurityException;
 import org.holodeckb2b.common.handler.BaseHandler;
 import org.holodeckb2b.common.messagemodel.util.MessageUnitUtils;
 import org.holodeckb2b.ebms3.axis2.MessageContextUtils;
@@ -33,6 +34,7 @@ import org.holodeckb2b.interfaces.pmode.security.ISecurityConfiguration;
 import org.holodeckb2b.interfaces.pmode.security.ISigningConfiguration;
 import org.holodeckb2b.module.HolodeckB2BCore;
 import org.holodeckb2b.security.callbackhandlers.PasswordCallbackHandler;
+import org.holodeckb2b.security.util.CryptoCache;
 import org.holodeckb2b.security.util.SecurityUtils;
 
 /**
@@ -62,15 +64,25 @@ public class SetupWSSProcessing extends BaseHandler {
         @Override
     protected InvocationResponse doProcessing(final MessageContext mc) throws Exception {
 
-        log.debug("Set up Crypto engine configuration");
-        final Properties sigVerificationProperties = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.pub);
-        // For signature verification, also add the trusted CA's
-        sigVerificationProperties.putAll(SecurityUtils.createCryptoConfig(SecurityUtils.CertType.trust));
-        mc.setProperty(ConfigurationConstants.SIG_VER_PROP_REF_ID, "" + sigVerificationProperties.hashCode());
-        mc.setProperty("" + sigVerificationProperties.hashCode(), sigVerificationProperties);
-        final Properties decProperties = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.priv);
-        mc.setProperty(ConfigurationConstants.DEC_PROP_REF_ID, "" + decProperties.hashCode());
-        mc.setProperty("" + decProperties.hashCode(), decProperties);
+        log.debug("Set up Crypto engines");
+        // The Crypto engines are shared between messages so the keystores are not loaded for every message. When a
+        // keystore can not be loaded no engine is set and processing of the related security header element will fail
+        try {
+            // For signature verification, both the public keys and the trusted CA's are used
+            final Crypto sigVerificationCrypto = CryptoCache.getSignatureVerificationCrypto();
+            mc.setProperty(ConfigurationConstants.SIG_VER_PROP_REF_ID, "" + sigVerificationCrypto.hashCode());
+            mc.setProperty("" + sigVerificationCrypto.hashCode(), sigVerificationCrypto);
+        } catch (final WSSecurityException keystoreFailure) {
+            log.error("Could not load the keystores for signature verification! Details: "
+                      + keystoreFailure.getMessage());
+        }
+        try {
+            final Crypto decCrypto = CryptoCache.getCrypto(SecurityUtils.CertType.priv);
+            mc.setProperty(ConfigurationConstants.DEC_PROP_REF_ID, "" + decCrypto.hashCode());
+            mc.setProperty("" + decCrypto.hashCode(), decCrypto);
+        } catch (final WSSecurityException keystoreFailure) {
+            log.error("Could not load the keystore with private keys! Details: " + keystoreFailure.getMessage());
+        }
 
         // Set global settings as default and overwrite if necessary with P-Mode parameters from primary MU
         //
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.security.cert.X509Certificate;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.validate.SignatureTrustValidator;
+
+/**
+ * Is the WSS4J validator used to check that the certificate used for signing a received message is trusted. It is the
+ * same as the default WSS4J {@link SignatureTrustValidator} but uses the {@link CertificateValidationCache} to reuse
+ * the results of earlier validations of the certificate path. As messages from the same partner are mostly signed with
+ * the same certificate this prevents that the certificate path, and if enabled its revocation status, is validated
+ * again for each message. The validity period of the certificates is still checked for every message.
+ * <p>When the revocation of the certificates must be checked and a local CRL file is configured, the CRLs provided by
+ * the {@link LocalCRLSource} are used in the validation. These are attached to the <code>Crypto</code> instance by the
+ * {@link CryptoCache} when it creates it.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public class CachingSignatureTrustValidator extends SignatureTrustValidator {
+
+    @Override
+    protected void verifyTrustInCerts(final X509Certificate[] certificates, final Crypto crypto,
+                                      final RequestData data, final boolean enableRevocation)
+                                                                                        throws WSSecurityException {
+        final CertificateValidationCache.ValidationResult cached =
+                                            CertificateValidationCache.get(certificates, crypto, enableRevocation);
+        if (cached != null) {
+            if (cached.isTrusted())
+                return;
+            else
+                throw cached.getFailure();
+        }
+
+        try {
+            super.verifyTrustInCerts(certificates, crypto, data, enableRevocation);
+            CertificateValidationCache.put(certificates, crypto, enableRevocation, null);
+        } catch (final WSSecurityException untrusted) {
+            CertificateValidationCache.put(certificates, crypto, enableRevocation, untrusted);
+            throw untrusted;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.axiom.util.base64.Base64Utils;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.holodeckb2b.common.config.InternalConfiguration;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Keeps the results of the validation of certificate paths, including the revocation check when enabled, so the
+ * validation does not need to be repeated for every message signed with the same certificate. The results are keyed by
+ * the SHA-256 fingerprint of the certificate chain and can be used for the time configured by {@link
+ * InternalConfiguration#getCertificateValidationCacheTTL()}, by default {@link #DEFAULT_TTL} seconds.
+ * <p>Both successful and failed validations are cached. A result is only used when the validation is done with the
+ * same {@link Crypto} instance, which is replaced by the {@link CryptoCache} when the trust store changes. A result
+ * of a validation that included the revocation check can also be used when no revocation check is needed, but not the
+ * other way around. When the local CRLs are reloaded by the {@link LocalCRLSource} all results are removed.
+ * <p>At most {@link #MAX_ENTRIES} results are kept, removing the least recently used ones first.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class CertificateValidationCache {
+
+    /**
+     * The default time in seconds a validation result may be used
+     */
+    public static final int DEFAULT_TTL = 600;
+
+    /**
+     * The maximum number of cached validation results
+     */
+    public static final int MAX_ENTRIES = 1000;
+
+    /**
+     * The result of the validation of a certificate path
+     */
+    public static class ValidationResult {
+        private final Crypto                crypto;
+        private final boolean               revocationChecked;
+        private final WSSecurityException   failure;
+        private final long                  validatedAt;
+
+        ValidationResult(final Crypto crypto, final boolean revocationChecked, final WSSecurityException failure) {
+            this.crypto = crypto;
+            this.revocationChecked = revocationChecked;
+            this.failure = failure;
+            this.validatedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * @return <code>true</code> if the certificate path is trusted, <code>false</code> if not
+         */
+        public boolean isTrusted() {
+            return failure == null;
+        }
+
+        /**
+         * @return The exception that occurred during validation if the certificate path is not trusted
+         */
+        public WSSecurityException getFailure() {
+            return failure;
+        }
+    }
+
+    /**
+     * The cached results keyed by the fingerprint of the certificate chain
+     */
+    private static final Map<String, ValidationResult> RESULTS =
+                                                new LinkedHashMap<String, ValidationResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, ValidationResult> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    private CertificateValidationCache() {}
+
+    /**
+     * Gets the result of an earlier validation of the given certificate path.
+     *
+     * @param certs         The certificate chain
+     * @param crypto        The Crypto instance used for validation
+     * @param revocation    Indicates whether the revocation of the certificates must be checked
+     * @return              The result of an earlier validation that can be used, or <code>null</code> if there is none
+     */
+    public static ValidationResult get(final X509Certificate[] certs, final Crypto crypto, final boolean revocation) {
+        final String fingerprint = getFingerprint(certs);
+        if (fingerprint == null)
+            return null;
+        synchronized (RESULTS) {
+            final ValidationResult result = RESULTS.get(fingerprint);
+            if (result == null)
+                return null;
+            if (System.currentTimeMillis() - result.validatedAt > getTTL() * 1000L) {
+                RESULTS.remove(fingerprint);
+                return null;
+            }
+            if (result.crypto != crypto || (revocation && !result.revocationChecked))
+                return null;
+            // A failure that occurred in the revocation check does not apply when revocation is not checked
+            if (!result.isTrusted() && result.revocationChecked != revocation)
+                return null;
+            return result;
+        }
+    }
+
+    /**
+     * Registers the result of the validation of the given certificate path.
+     *
+     * @param certs         The certificate chain
+     * @param crypto        The Crypto instance used for validation
+     * @param revocation    Indicates whether the revocation of the certificates was checked
+     * @param failure       The exception that occurred when the certificate path is not trusted, <code>null</code> if
+     *                      the certificate path is trusted
+     */
+    public static void put(final X509Certificate[] certs, final Crypto crypto, final boolean revocation,
+                           final WSSecurityException failure) {
+        final String fingerprint = getFingerprint(certs);
+        if (fingerprint != null)
+            synchronized (RESULTS) {
+                RESULTS.put(fingerprint, new ValidationResult(crypto, revocation, failure));
+            }
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public static void clear() {
+        synchronized (RESULTS) {
+            RESULTS.clear();
+        }
+    }
+
+    /**
+     * Gets the configured time to live of the validation results.
+     *
+     * @return  The time to live in seconds
+     */
+    private static int getTTL() {
+        final InternalConfiguration config = HolodeckB2BCore.getConfiguration();
+        final int ttl = config != null ? config.getCertificateValidationCacheTTL() : -1;
+        return ttl > 0 ? ttl : DEFAULT_TTL;
+    }
+
+    /**
+     * Calculates the SHA-256 fingerprint of the given certificate chain.
+     */
+    private static String getFingerprint(final X509Certificate[] certs) {
+        if (certs == null || certs.length == 0)
+            return null;
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (final X509Certificate c : certs)
+                md.update(c.getEncoded());
+            return Base64Utils.encode(md.digest());
+        } catch (final CertificateEncodingException invalidCert) {
+            return null;
+        } catch (final NoSuchAlgorithmException unsupported) {
+            // SHA-256 must be supported by every Java platform
+            throw new IllegalStateException(unsupported);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.File;
+import java.security.KeyStore;
+import java.security.cert.CertStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.holodeckb2b.security.util.SecurityUtils.CertType;
+
+/**
+ * Provides the WSS4J {@link Crypto} instances for the keystores configured in Holodeck B2B. Creating a <code>Crypto
+ * </code> instance requires loading the keystores from disk and therefore the instances are cached and shared between
+ * all messages. The keystore files are checked on each request and when one of them has changed (based on last
+ * modification time and size) a new <code>Crypto</code> instance is created.
+ * <p>The cache is keyed by the crypto configuration as created by {@link SecurityUtils#createCryptoConfig(CertType)},
+ * so a change of the keystore location or password in the configuration will also result in a new instance. The
+ * {@link Merlin} instances handed out are only used to read the keystores and can therefore be shared between threads.
+ * For the same reason the CRLs of the {@link LocalCRLSource} are attached when the instance is created and not by the
+ * threads using it.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class CryptoCache {
+
+    /**
+     * The cached Crypto instances, keyed by the crypto configuration
+     */
+    private static final Map<Properties, CachedCrypto> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Holds a Crypto instance together with the state of the keystore files it was loaded from
+     */
+    private static class CachedCrypto {
+        final Crypto        crypto;
+        final File[]        files;
+        final long[]        lastModified;
+        final long[]        length;
+
+        /**
+         * Loads the Crypto instance. The state of the files is recorded before loading so a change during loading
+         * will result in a reload on next use. When a local CRL file is configured the certificate store with its CRLs
+         * is attached to the instance, so it does not need to be changed when the instance is in use.
+         */
+        CachedCrypto(final Properties config, final List<File> keystoreFiles) throws WSSecurityException {
+            files = keystoreFiles.toArray(new File[keystoreFiles.size()]);
+            lastModified = new long[files.length];
+            length = new long[files.length];
+            for (int i = 0; i < files.length; i++) {
+                lastModified[i] = files[i].lastModified();
+                length[i] = files[i].length();
+            }
+            crypto = CryptoFactory.getInstance(config);
+            if (crypto instanceof Merlin) {
+                final CertStore crls = LocalCRLSource.getCertStore();
+                if (crls != null)
+                    ((Merlin) crypto).setCRLCertStore(crls);
+            }
+        }
+
+        boolean isCurrent() {
+            for (int i = 0; i < files.length; i++)
+                if (files[i].lastModified() != lastModified[i] || files[i].length() != length[i])
+                    return false;
+            return true;
+        }
+    }
+
+    private CryptoCache() {}
+
+    /**
+     * Gets the {@link Crypto} instance for the keystore holding the given type of certificates.
+     *
+     * @param certType  The type of certificates the Crypto must provide access to
+     * @return          The Crypto instance for the requested keystore
+     * @throws WSSecurityException  When the keystore could not be loaded
+     */
+    public static Crypto getCrypto(final CertType certType) throws WSSecurityException {
+        return get(SecurityUtils.createCryptoConfig(certType));
+    }
+
+    /**
+     * Gets the {@link Crypto} instance for verifying signatures. This instance uses both the keystore with public keys
+     * and the trust store with the certificates of the trusted CAs.
+     *
+     * @return  The Crypto instance to use for signature verification
+     * @throws WSSecurityException  When one of the keystores could not be loaded
+     */
+    public static Crypto getSignatureVerificationCrypto() throws WSSecurityException {
+        final Properties config = SecurityUtils.createCryptoConfig(CertType.pub);
+        config.putAll(SecurityUtils.createCryptoConfig(CertType.trust));
+        return get(config);
+    }
+
+    /**
+     * Gets the Java {@link KeyStore} holding the given type of certificates.
+     *
+     * @param certType  The type of certificates the keystore holds
+     * @return          The loaded keystore
+     * @throws WSSecurityException  When the keystore could not be loaded
+     */
+    public static KeyStore getKeyStore(final CertType certType) throws WSSecurityException {
+        final Merlin crypto = (Merlin) getCrypto(certType);
+        return certType == CertType.trust ? crypto.getTrustStore() : crypto.getKeyStore();
+    }
+
+    /**
+     * Removes all cached Crypto instances so they will be recreated on next use.
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    private static Crypto get(final Properties config) throws WSSecurityException {
+        CachedCrypto cached = CACHE.get(config);
+        if (cached == null || !cached.isCurrent()) {
+            synchronized (CACHE) {
+                cached = CACHE.get(config);
+                if (cached == null || !cached.isCurrent()) {
+                    final List<File> files = new ArrayList<>();
+                    for (final String p : config.stringPropertyNames())
+                        if (p.endsWith(".file"))
+                            files.add(new File(config.getProperty(p)));
+                    cached = new CachedCrypto(config, files);
+                    CACHE.put(config, cached);
+                }
+            }
+        }
+        return cached.crypto;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.cert.CRL;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.holodeckb2b.common.config.InternalConfiguration;
+import org.holodeckb2b.module.HolodeckB2BCore;
+
+/**
+ * Provides the Certificate Revocation Lists (CRLs) from the local file configured by {@link
+ * InternalConfiguration#getCRLFile()} to the certificate path validation. The CRLs are made available as a {@link
+ * CertStore} that can be used by the WSS4J <code>Merlin</code> crypto implementation.
+ * <p>The file is checked for changes at the interval configured by {@link InternalConfiguration#getCRLRefreshInterval()
+ * }, by default every {@link #DEFAULT_REFRESH_INTERVAL} seconds. When the file has changed the CRLs are reloaded and the
+ * cached results of certificate validations in the {@link CertificateValidationCache} are removed as the revocation
+ * status of the certificates may have changed. When the file can not be read the previously loaded CRLs remain in use.
+ * <p>The thread that checks the file is only started when the CRLs are first requested and is stopped by {@link
+ * #stop()} when the Holodeck B2B Core is stopped.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class LocalCRLSource {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LocalCRLSource.class);
+
+    /**
+     * The default interval in seconds at which the CRL file is checked for changes
+     */
+    public static final int DEFAULT_REFRESH_INTERVAL = 3600;
+
+    /**
+     * The currently loaded CRLs. A copy-on-write list is used so the certificate store can be read while the CRLs are
+     * replaced.
+     */
+    private static final CopyOnWriteArrayList<CRL> CRLS = new CopyOnWriteArrayList<>();
+
+    /**
+     * The certificate store providing access to the loaded CRLs
+     */
+    private static CertStore certStore;
+
+    /**
+     * The file the CRLs are loaded from and its state when they were loaded
+     */
+    private static File     crlFile;
+    private static long     lastModified;
+    private static long     length;
+
+    /**
+     * The scheduler executing the refresh of the CRLs
+     */
+    private static ScheduledExecutorService scheduler;
+
+    private LocalCRLSource() {}
+
+    /**
+     * Gets the certificate store that provides the CRLs from the local CRL file.
+     *
+     * @return  The certificate store with the local CRLs, or<br>
+     *          <code>null</code> if no local CRL file is configured
+     */
+    public static synchronized CertStore getCertStore() {
+        final InternalConfiguration config = HolodeckB2BCore.getConfiguration();
+        final String path = config != null ? config.getCRLFile() : null;
+        if (path == null)
+            return null;
+
+        if (certStore == null || !new File(path).equals(crlFile)) {
+            stop();
+            crlFile = new File(path);
+            lastModified = -1;
+            length = -1;
+            try {
+                certStore = CertStore.getInstance("Collection", new CollectionCertStoreParameters(CRLS));
+            } catch (final Exception unsupported) {
+                log.error("Could not create certificate store for CRLs: " + unsupported.getMessage());
+                return null;
+            }
+            refresh();
+
+            final int interval = config.getCRLRefreshInterval() > 0 ? config.getCRLRefreshInterval()
+                                                                    : DEFAULT_REFRESH_INTERVAL;
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "hb2b-crl-refresh");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+        return certStore;
+    }
+
+    /**
+     * Reloads the CRLs when the CRL file has changed since it was last loaded.
+     *
+     * @return  <code>true</code> if the CRLs were reloaded, <code>false</code> otherwise
+     */
+    public static synchronized boolean refresh() {
+        if (crlFile == null || (crlFile.lastModified() == lastModified && crlFile.length() == length))
+            return false;
+
+        final long newLastModified = crlFile.lastModified();
+        final long newLength = crlFile.length();
+        final Collection<? extends CRL> loaded;
+        try (InputStream is = new FileInputStream(crlFile)) {
+            loaded = CertificateFactory.getInstance("X.509").generateCRLs(is);
+        } catch (final Exception readFailure) {
+            log.error("Could not load CRLs from " + crlFile + ": " + readFailure.getMessage());
+            return false;
+        }
+        // Add the new CRLs before removing the old ones so there is always a CRL available for the path validation
+        final List<CRL> removed = new ArrayList<>(CRLS);
+        removed.removeAll(loaded);
+        CRLS.addAllAbsent(loaded);
+        CRLS.removeAll(removed);
+        lastModified = newLastModified;
+        length = newLength;
+        log.info("Loaded " + loaded.size() + " CRLs from " + crlFile);
+
+        CertificateValidationCache.clear();
+        return true;
+    }
+
+    /**
+     * Stops the scheduled refresh of the CRLs and removes the loaded CRLs.
+     */
+    public static synchronized void stop() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+        scheduler = null;
+        certStore = null;
+        crlFile = null;
+        CRLS.clear();
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.Transform;
+import org.apache.axiom.util.base64.Base64Utils;
+import org.apache.axis2.context.MessageContext;
+import org.apache.wss4j.common.SecurityActionToken;
+import org.apache.wss4j.common.SignatureActionToken;
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.ext.Attachment;
+import org.apache.wss4j.common.ext.AttachmentRequestCallback;
+import org.apache.wss4j.common.ext.WSPasswordCallback;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.CRLFOutputStream;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.action.Action;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.handler.WSHandler;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.holodeckb2b.as4.compression.CompressionDataHandler;
+import org.holodeckb2b.common.security.PayloadDigest;
+import org.holodeckb2b.ebms3.constants.SecurityConstants;
+import org.holodeckb2b.interfaces.security.IPayloadDigest;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Is the WSS4J signature {@link Action} used by Holodeck B2B to sign messages. It does the same as the default WSS4J
+ * implementation but calculates the digests of the attachments in parallel before the signature is created. The WSS4J
+ * library itself digests the attachments one by one when the signature is computed and also reads each attachment
+ * completely into memory to make it available again after digesting.
+ * <p>The digest can only be calculated up front for attachments that are signed using the <i>Attachment-Content-
+ * Signature-Transform</i> and that do not contain XML, because XML content needs to be canonicalized. These other
+ * attachments are still digested by the WSS4J library. The digests are calculated using a shared thread pool with at
+ * most as many threads as there are processors available. The pool is created when it is first needed and stopped by
+ * {@link #shutdown()} when the Holodeck B2B Core is stopped.
+ * <p>For compressed attachments of which the compressed data is taken from the {@link
+ * org.holodeckb2b.as4.compression.CompressedPayloadStore} the digest saved in the store when the message was sent
+ * before is reused, and a newly calculated digest is saved there.
+ * <p>After the signature has been created the digests of all attachments are made available as a collection of {@link
+ * IPayloadDigest} objects in the message context property {@link SecurityConstants#ATTACHMENT_DIGESTS}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public class ParallelDigestSignatureAction implements Action {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ParallelDigestSignatureAction.class);
+
+    /**
+     * The thread pool used for calculating the digests, created when the first digest is calculated
+     */
+    private static ExecutorService digestPool;
+
+    /**
+     * Gets the thread pool used for calculating the digests, creating it when it does not exist yet.
+     *
+     * @return The thread pool
+     */
+    private static synchronized ExecutorService getDigestPool() {
+        if (digestPool == null)
+            digestPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()),
+                                                      new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "hb2b-digest-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        return digestPool;
+    }
+
+    /**
+     * Stops the thread pool used for calculating the digests. The digests already being calculated are completed. When
+     * a digest is calculated afterwards a new thread pool is created.
+     */
+    public static synchronized void shutdown() {
+        if (digestPool != null) {
+            digestPool.shutdown();
+            digestPool = null;
+        }
+    }
+
+    /**
+     * Creates the signature. This is the same as in {@link org.apache.wss4j.dom.action.SignatureAction} except that
+     * a {@link ParallelDigestSignature} is used for creating the signature.
+     */
+    @Override
+    public void execute(final WSHandler handler, final SecurityActionToken actionToken, final org.w3c.dom.Document doc,
+                        final RequestData reqData) throws WSSecurityException {
+        CallbackHandler callbackHandler = reqData.getCallbackHandler();
+        if (callbackHandler == null)
+            callbackHandler = handler.getPasswordCallbackHandler(reqData);
+
+        SignatureActionToken signatureToken = null;
+        if (actionToken instanceof SignatureActionToken)
+            signatureToken = (SignatureActionToken) actionToken;
+        if (signatureToken == null)
+            signatureToken = reqData.getSignatureToken();
+
+        final WSPasswordCallback passwordCallback = handler.getPasswordCB(signatureToken.getUser(),
+                                                                          WSConstants.SIGN, callbackHandler, reqData);
+        final ParallelDigestSignature wsSign = new ParallelDigestSignature(reqData.getWssConfig());
+        if (reqData.getMsgContext() instanceof MessageContext)
+            wsSign.setMessageContext((MessageContext) reqData.getMsgContext());
+
+        if (signatureToken.getKeyIdentifierId() != 0)
+            wsSign.setKeyIdentifierType(signatureToken.getKeyIdentifierId());
+        if (signatureToken.getSignatureAlgorithm() != null)
+            wsSign.setSignatureAlgorithm(signatureToken.getSignatureAlgorithm());
+        if (signatureToken.getDigestAlgorithm() != null)
+            wsSign.setDigestAlgo(signatureToken.getDigestAlgorithm());
+        if (signatureToken.getC14nAlgorithm() != null)
+            wsSign.setSigCanonicalization(signatureToken.getC14nAlgorithm());
+        wsSign.setIncludeSignatureToken(signatureToken.isIncludeToken());
+        wsSign.setUserInfo(signatureToken.getUser(), passwordCallback.getPassword());
+        wsSign.setUseSingleCertificate(signatureToken.isUseSingleCert());
+        if (passwordCallback.getKey() != null)
+            wsSign.setSecretKey(passwordCallback.getKey());
+        else if (signatureToken.getKey() != null)
+            wsSign.setSecretKey(signatureToken.getKey());
+        if (signatureToken.getTokenId() != null)
+            wsSign.setCustomTokenId(signatureToken.getTokenId());
+        if (signatureToken.getTokenType() != null)
+            wsSign.setCustomTokenValueType(signatureToken.getTokenType());
+        if (signatureToken.getSha1Value() != null)
+            wsSign.setEncrKeySha1value(signatureToken.getSha1Value());
+        wsSign.setAttachmentCallbackHandler(reqData.getAttachmentCallbackHandler());
+
+        try {
+            wsSign.prepare(doc, signatureToken.getCrypto(), reqData.getSecHeader());
+
+            Element siblingElementToPrepend = null;
+            boolean signBST = false;
+            List<WSEncryptionPart> parts = signatureToken.getParts();
+            if (parts == null)
+                parts = new ArrayList<>();
+            for (final WSEncryptionPart part : parts) {
+                if ("STRTransform".equals(part.getName()) && part.getId() == null) {
+                    part.setId(wsSign.getSecurityTokenReferenceURI());
+                } else if (reqData.isAppendSignatureAfterTimestamp()
+                           && WSConstants.WSU_NS.equals(part.getNamespace())
+                           && "Timestamp".equals(part.getName())) {
+                    final int originalSignatureActionIndex = reqData.getOriginalSignatureActionPosition();
+                    // Need to figure out where to put the Signature Element in the header
+                    if (originalSignatureActionIndex > 0) {
+                        final Element secHeader = reqData.getSecHeader().getSecurityHeader();
+                        Node lastChild = secHeader.getLastChild();
+                        int count = 0;
+                        while (lastChild != null && count < originalSignatureActionIndex) {
+                            while (lastChild != null && lastChild.getNodeType() != Node.ELEMENT_NODE)
+                                lastChild = lastChild.getPreviousSibling();
+                            count++;
+                        }
+                        if (lastChild instanceof Element)
+                            siblingElementToPrepend = (Element) lastChild;
+                    }
+                } else if (WSConstants.WSSE_NS.equals(part.getNamespace())
+                           && WSConstants.BINARY_TOKEN_LN.equals(part.getName())) {
+                    signBST = true;
+                }
+            }
+
+            if (signBST)
+                wsSign.prependBSTElementToHeader(reqData.getSecHeader());
+            if (parts.isEmpty())
+                parts.add(new WSEncryptionPart(reqData.getSoapConstants().getBodyQName().getLocalPart(),
+                                               reqData.getSoapConstants().getEnvelopeURI(), "Content"));
+            final List<Reference> referenceList = wsSign.addReferencesToSign(parts, reqData.getSecHeader());
+
+            if (signBST || reqData.isAppendSignatureAfterTimestamp() && siblingElementToPrepend == null)
+                wsSign.computeSignature(referenceList, false, null);
+            else
+                wsSign.computeSignature(referenceList, true, siblingElementToPrepend);
+            if (!signBST)
+                wsSign.prependBSTElementToHeader(reqData.getSecHeader());
+            reqData.getSignatureValues().add(wsSign.getSignatureValue());
+
+            if (reqData.getMsgContext() instanceof MessageContext)
+                ((MessageContext) reqData.getMsgContext()).setProperty(SecurityConstants.ATTACHMENT_DIGESTS,
+                                                                       getAttachmentDigests(referenceList));
+        } catch (final WSSecurityException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty", e,
+                                          "Error during Signature: ");
+        }
+    }
+
+    /**
+     * Gets the digests of the attachments from the list of references included in the signature.
+     *
+     * @param references    The references included in the signature
+     * @return              The digests of the attachments
+     */
+    private static List<IPayloadDigest> getAttachmentDigests(final List<Reference> references) {
+        final List<IPayloadDigest> digests = new ArrayList<>();
+        for (final Reference ref : references)
+            if (isAttachmentReference(ref) && ref.getDigestValue() != null)
+                digests.add(new PayloadDigest(ref.getURI(), Base64Utils.encode(ref.getDigestValue()),
+                                              ref.getDigestMethod().getAlgorithm()));
+        return digests;
+    }
+
+    private static boolean isAttachmentReference(final Reference ref) {
+        return ref.getURI() != null && ref.getURI().startsWith("cid:");
+    }
+
+    /**
+     * Checks whether the digest of the attachment can be calculated without the WSS4J transform. This is the case
+     * when the content transform is used and the attachment does not contain XML.
+     */
+    private static boolean canBeDigested(final Reference ref, final String mimeType) {
+        final List<?> transforms = ref.getTransforms();
+        if (transforms.size() != 1
+           || !WSConstants.SWA_ATTACHMENT_CONTENT_SIG_TRANS.equals(((Transform) transforms.get(0)).getAlgorithm()))
+            return false;
+        final String mt = mimeType != null ? mimeType.toLowerCase() : "";
+        return !(mt.startsWith("text/xml") || mt.startsWith("application/xml")
+                 || mt.matches("(application|image)/.*\\+xml.*"));
+    }
+
+    /**
+     * Calculates the digest of an attachment in the same way as the <i>Attachment-Content-Signature-Transform</i>
+     * does for non XML content, i.e. the octets of the content with line endings normalized to CRLF for text.
+     *
+     * @param attachment    The attachment to digest
+     * @param algorithm     The URI of the digest algorithm
+     * @return              The digest value
+     * @throws IOException  When the content of the attachment can not be read
+     * @throws NoSuchAlgorithmException When the digest algorithm is not supported
+     */
+    static byte[] digest(final Attachment attachment, final String algorithm)
+                                                                        throws IOException, NoSuchAlgorithmException {
+        final MessageDigest md = MessageDigest.getInstance(JCEMapper.translateURItoJCEID(algorithm));
+        final String mimeType = attachment.getMimeType() != null ? attachment.getMimeType().toLowerCase() : "";
+        OutputStream os = new DigestOutputStream(new OutputStream() {
+                                                    @Override
+                                                    public void write(final int b) {}
+
+                                                    @Override
+                                                    public void write(final byte[] b, final int off, final int len) {}
+                                                 }, md);
+        if (mimeType.startsWith("text/"))
+            os = new CRLFOutputStream(os);
+        try (InputStream is = attachment.getSourceStream()) {
+            final byte[] buffer = new byte[8192];
+            int r;
+            while ((r = is.read(buffer)) > 0)
+                os.write(buffer, 0, r);
+        }
+        os.flush();
+        return md.digest();
+    }
+
+    /**
+     * Extends the WSS4J signature builder to replace the references to the attachments with references that include
+     * the digest value which is calculated in parallel.
+     */
+    static class ParallelDigestSignature extends WSSecSignature {
+
+        private CallbackHandler attachmentCBHandler;
+
+        private MessageContext  msgContext;
+
+        ParallelDigestSignature(final WSSConfig config) {
+            super(config);
+        }
+
+        /**
+         * Sets the message context of the message being signed, used to get access to the data handlers of the
+         * attachments for reuse of stored digests.
+         */
+        void setMessageContext(final MessageContext mc) {
+            this.msgContext = mc;
+        }
+
+        @Override
+        public void setAttachmentCallbackHandler(final CallbackHandler attachmentCallbackHandler) {
+            super.setAttachmentCallbackHandler(attachmentCallbackHandler);
+            this.attachmentCBHandler = attachmentCallbackHandler;
+        }
+
+        @Override
+        public List<Reference> addReferencesToSign(final List<WSEncryptionPart> references,
+                                                   final WSSecHeader secHeader) throws WSSecurityException {
+            final List<Reference> referenceList = super.addReferencesToSign(references, secHeader);
+            if (attachmentCBHandler == null)
+                return referenceList;
+
+            // Start calculating the digests of the attachments that can be digested directly
+            // Digests already known from the compressed payload store are used directly
+            final List<Future<byte[]>> digests = new ArrayList<>(referenceList.size());
+            final List<byte[]> storedDigests = new ArrayList<>(referenceList.size());
+            int toDigest = 0, stored = 0;
+            for (final Reference ref : referenceList) {
+                Attachment attachment = null;
+                byte[] storedDigest = null;
+                if (isAttachmentReference(ref)) {
+                    final CompressionDataHandler cdh = getCompressionDataHandler(ref);
+                    if (cdh != null && canBeDigested(ref, cdh.getContentType()))
+                        storedDigest = cdh.getDigest(ref.getDigestMethod().getAlgorithm());
+                    if (storedDigest == null) {
+                        attachment = getAttachment(ref.getURI().substring(4));
+                        if (attachment != null && !canBeDigested(ref, attachment.getMimeType())) {
+                            closeQuietly(attachment);
+                            attachment = null;
+                        }
+                    }
+                }
+                storedDigests.add(storedDigest);
+                digests.add(attachment == null ? null : submit(attachment, ref.getDigestMethod().getAlgorithm()));
+                toDigest += attachment != null ? 1 : 0;
+                stored += storedDigest != null ? 1 : 0;
+            }
+            if (toDigest + stored == 0)
+                return referenceList;
+
+            log.debug("Calculating digests of " + toDigest + " attachments in parallel, reusing " + stored
+                      + " stored digests");
+            final List<Reference> result = new ArrayList<>(referenceList.size());
+            try {
+                for (int i = 0; i < referenceList.size(); i++) {
+                    final Reference ref = referenceList.get(i);
+                    final Future<byte[]> digest = digests.get(i);
+                    byte[] digestValue = storedDigests.get(i);
+                    if (digest != null) {
+                        digestValue = digest.get();
+                        // Save the digest so it can be reused when the message is resent
+                        final CompressionDataHandler cdh = getCompressionDataHandler(ref);
+                        if (cdh != null)
+                            cdh.setDigest(ref.getDigestMethod().getAlgorithm(), digestValue);
+                    }
+                    if (digestValue == null)
+                        result.add(ref);
+                    else
+                        result.add(signatureFactory.newReference(ref.getURI(), ref.getDigestMethod(),
+                                                                 ref.getTransforms(), ref.getType(), ref.getId(),
+                                                                 digestValue));
+                }
+            } catch (final InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, interrupted);
+            } catch (final ExecutionException digestFailure) {
+                final Throwable cause = digestFailure.getCause();
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE,
+                                              cause instanceof Exception ? (Exception) cause : digestFailure);
+            } finally {
+                for (final Future<byte[]> digest : digests)
+                    if (digest != null)
+                        digest.cancel(true);
+            }
+            return result;
+        }
+
+        /**
+         * Submits the calculation of the digest of the given attachment to the thread pool.
+         */
+        private static Future<byte[]> submit(final Attachment attachment, final String algorithm) {
+            return getDigestPool().submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return digest(attachment, algorithm);
+                }
+            });
+        }
+
+        /**
+         * Gets the compressing data handler of the attachment the given reference points to.
+         *
+         * @return  The {@link CompressionDataHandler} of the attachment, or <code>null</code> if the attachment is not
+         *          compressed or the message context is not available
+         */
+        private CompressionDataHandler getCompressionDataHandler(final Reference ref) {
+            if (msgContext == null)
+                return null;
+            final Object dh = msgContext.getAttachment(ref.getURI().substring(4));
+            return dh instanceof CompressionDataHandler ? (CompressionDataHandler) dh : null;
+        }
+
+        /**
+         * Gets the attachment with the given Content-Id using the attachment callback handler.
+         */
+        private Attachment getAttachment(final String cid) throws WSSecurityException {
+            final AttachmentRequestCallback request = new AttachmentRequestCallback();
+            request.setAttachmentId(cid);
+            try {
+                attachmentCBHandler.handle(new Callback[] { request });
+            } catch (final Exception e) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
+            }
+            final List<Attachment> attachments = request.getAttachments();
+            return attachments != null && !attachments.isEmpty() && cid.equals(attachments.get(0).getId()) ?
+                                                                                        attachments.get(0) : null;
+        }
+
+        private static void closeQuietly(final Attachment attachment) {
+            try {
+                if (attachment.getSourceStream() != null)
+                    attachment.getSourceStream().close();
+            } catch (final IOException ignored) {
+            }
+        }
+    }
+}
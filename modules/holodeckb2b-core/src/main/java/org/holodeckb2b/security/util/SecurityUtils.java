@@ -16,13 +16,10 @@
  */
 package org.holodeckb2b.security.util;
 
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -32,6 +29,7 @@ import javax.xml.namespace.QName;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.soap.SOAPHeaderBlock;
 import org.apache.axis2.context.MessageContext;
+import org.apache.wss4j.common.ext.WSSecurityException;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.ebms3.constants.SecurityConstants;
 import org.holodeckb2b.interfaces.config.IConfiguration;
@@ -190,30 +188,12 @@ public class SecurityUtils {
      *              <code>null</code> otherwise (not found or error during search)
      */
     public static String getKeystoreAlias(final X509Certificate cert) {
-        final IConfiguration config = HolodeckB2BCoreInterface.getConfiguration();
-        String alias = null;
-        FileInputStream fis = null;
-        char[]  keystorePwd;
-
         try {
-            // Get the password for accessing the keystore
-            keystorePwd = config.getPublicKeyStorePassword().toCharArray();
-            // Create and load the keystore
-            final KeyStore keyStore = KeyStore.getInstance("JKS");
-            fis = new java.io.FileInputStream(config.getPublicKeyStorePath());
-            keyStore.load(fis, keystorePwd);
-
-            // Get alias of certificate
-            alias = keyStore.getCertificateAlias(cert);
+            return CryptoCache.getKeyStore(CertType.pub).getCertificateAlias(cert);
         } catch (final Exception ex) {
             // Somehow the search for the certificate alias failed, so no reference available
-            alias = null;
-        } finally {
-            if (fis != null)
-                try { fis.close(); } catch (final IOException ex) {}
+            return null;
         }
-
-        return alias;
     }
 
     /**
@@ -273,22 +253,14 @@ public class SecurityUtils {
      * @since  3.0.0
      */
     public static boolean isPrivateKeyAvailable(final String alias, final String keyPassword) {
-        final   IConfiguration config = HolodeckB2BCoreInterface.getConfiguration();
-
-        try (FileInputStream fis = new java.io.FileInputStream(config.getPrivateKeyStorePath())) {
-            // Get the password for accessing the keystore
-            char[] keystorePwd = config.getPrivateKeyStorePassword().toCharArray();
-            // Create and load the keystore
-            final KeyStore keyStore = KeyStore.getInstance("JKS");
-            keyStore.load(fis, keystorePwd);
-
+        try {
+            final KeyStore keyStore = CryptoCache.getKeyStore(CertType.priv);
             // Check that the alias exists
             if (keyStore.containsAlias(alias)) {
                 return keyStore.getKey(alias, keyPassword.toCharArray()) != null;
             } else
                 return false;
-        } catch (IOException | NoSuchAlgorithmException | CertificateException | KeyStoreException |
-                 UnrecoverableKeyException ex) {
+        } catch (WSSecurityException | NoSuchAlgorithmException | KeyStoreException | UnrecoverableKeyException ex) {
             return false;
         }
     }
@@ -305,34 +277,20 @@ public class SecurityUtils {
      * @since  3.0.0
      */
     public static boolean isCertificateAvailable(final String alias, final boolean checkTrust) {
-        final   IConfiguration config = HolodeckB2BCoreInterface.getConfiguration();
         boolean found = false;
 
-        try (FileInputStream fis = new java.io.FileInputStream(config.getPublicKeyStorePath())) {
-            // Get the password for accessing the keystore
-            char[] keystorePwd = config.getPublicKeyStorePassword().toCharArray();
-            // Create and load the keystore
-            final KeyStore keyStore = KeyStore.getInstance("JKS");
-            keyStore.load(fis, keystorePwd);
-
+        try {
             // Check that the alias exists
-            found = keyStore.containsAlias(alias);
-        } catch (IOException | NoSuchAlgorithmException | CertificateException | KeyStoreException ex) {
+            found = CryptoCache.getKeyStore(CertType.pub).containsAlias(alias);
+        } catch (WSSecurityException | KeyStoreException ex) {
             found = false;
         }
 
         // Check the trust store if not found in the public keys keystore
         if (!found && checkTrust) {
-            try (FileInputStream fis = new java.io.FileInputStream(config.getTrustKeyStorePath())) {
-                // Get the password for accessing the keystore
-                char[] keystorePwd = config.getTrustKeyStorePassword().toCharArray();
-                // Create and load the keystore
-                final KeyStore keyStore = KeyStore.getInstance("JKS");
-                keyStore.load(fis, keystorePwd);
-
-                // Check that the alias exists
-                found = keyStore.containsAlias(alias);
-            } catch (IOException | NoSuchAlgorithmException | CertificateException | KeyStoreException ex) {
+            try {
+                found = CryptoCache.getKeyStore(CertType.trust).containsAlias(alias);
+            } catch (WSSecurityException | KeyStoreException ex) {
                 found = false;
             }
         }
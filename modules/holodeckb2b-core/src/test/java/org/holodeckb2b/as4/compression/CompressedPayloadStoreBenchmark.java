@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+
+/**
+ * Benchmark for the {@link CompressedPayloadStore}. It simulates sending a message with one payload file that is resent
+ * a number of times, where each (re)transmission compresses the payload again or uses the compressed data from the
+ * store.
+ * <p>The size of the payload in MB and the number of retries can be given as arguments, by default a 16 MB XML payload
+ * is resent 3 times.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class CompressedPayloadStoreBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    private static final OutputStream SINK = new OutputStream() {
+        @Override
+        public void write(final int b) {}
+        @Override
+        public void write(final byte[] b, final int off, final int len) {}
+    };
+
+    public static void main(final String[] args) throws Exception {
+        final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 16) * 1024 * 1024;
+        final int retries = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        final File payload = File.createTempFile("pl-", null);
+        try {
+            Files.write(payload.toPath(), createXML(size));
+            // Warm up
+            send(payload, retries, false);
+            send(payload, retries, true);
+
+            long withoutStore = 0, withStore = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                withoutStore += send(payload, retries, false);
+                withStore += send(payload, retries, true);
+            }
+            System.out.printf("Payload %d MB, %d retries%n", size / (1024 * 1024), retries);
+            System.out.printf("%-16s %10.1f ms%n", "without store", withoutStore / 1e6 / ITERATIONS);
+            System.out.printf("%-16s %10.1f ms%n", "with store", withStore / 1e6 / ITERATIONS);
+        } finally {
+            CompressedPayloadStore.remove(payload);
+            payload.delete();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Sends the payload once and resends it the given number of times.
+     *
+     * @return  The total time in nanoseconds
+     */
+    private static long send(final File payload, final int retries, final boolean useStore) throws IOException {
+        CompressedPayloadStore.remove(payload);
+        final long start = System.nanoTime();
+        for (int i = 0; i <= retries; i++) {
+            final CompressionDataHandler dh = new CompressionDataHandler(new DataHandler(new FileDataSource(payload)),
+                                                                         -1, -1);
+            if (useStore) {
+                final CompressedPayloadStore.Entry stored = CompressedPayloadStore.get(payload, -1);
+                dh.useStoreEntry(stored != null ? stored : CompressedPayloadStore.store(dh, payload, -1));
+            }
+            dh.writeTo(SINK);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static byte[] createXML(final int size) {
+        final Random r = new Random(1);
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<Invoice>\n");
+        while (sb.length() < size)
+            sb.append("  <Line id=\"").append(r.nextInt(100000)).append("\"><Item>Product ").append(r.nextInt(500))
+              .append("</Item><Quantity>").append(r.nextInt(100)).append("</Quantity></Line>\n");
+        return sb.substring(0, size).getBytes();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class CompressedPayloadStoreTest {
+
+    private static final String DIGEST_ALG = "http://www.w3.org/2001/04/xmlenc#sha256";
+
+    private File payload;
+
+    @Before
+    public void setUp() throws IOException {
+        payload = File.createTempFile("pl-", null);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            sb.append("<Line nr=\"").append(i).append("\"/>\n");
+        Files.write(payload.toPath(), sb.toString().getBytes());
+    }
+
+    @After
+    public void tearDown() {
+        CompressedPayloadStore.remove(payload);
+        payload.delete();
+    }
+
+    private CompressionDataHandler createHandler(final int level) {
+        return new CompressionDataHandler(new DataHandler(new FileDataSource(payload)), level, -1);
+    }
+
+    private static byte[] decompress(final File f) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPDecompressingInputStream gzis = new GZIPDecompressingInputStream(new FileInputStream(f))) {
+            final byte[] buffer = new byte[4096];
+            int r;
+            while ((r = gzis.read(buffer)) > 0)
+                baos.write(buffer, 0, r);
+        }
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testStoreAndGet() throws IOException {
+        assertNull(CompressedPayloadStore.get(payload, 6));
+
+        final CompressionDataHandler dh = createHandler(6);
+        final CompressedPayloadStore.Entry entry = CompressedPayloadStore.store(dh, payload, 6);
+        assertTrue(entry.getCompressedFile().exists());
+        assertArrayEquals(Files.readAllBytes(payload.toPath()), decompress(entry.getCompressedFile()));
+
+        final CompressedPayloadStore.Entry found = CompressedPayloadStore.get(payload, 6);
+        assertNotNull(found);
+        assertEquals(entry.getCompressedFile(), found.getCompressedFile());
+
+        // The data handler should use the stored data
+        final CompressionDataHandler reused = createHandler(6);
+        reused.useStoreEntry(found);
+        assertTrue(reused.isPrecompressed());
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        reused.writeTo(written);
+        assertArrayEquals(Files.readAllBytes(found.getCompressedFile().toPath()), written.toByteArray());
+    }
+
+    @Test
+    public void testInvalidation() throws IOException {
+        CompressedPayloadStore.store(createHandler(6), payload, 6);
+
+        // Another compression level should not use the entry
+        assertNull(CompressedPayloadStore.get(payload, 1));
+        assertNotNull(CompressedPayloadStore.get(payload, 6));
+
+        // Changing the payload should invalidate the entry
+        Files.write(payload.toPath(), "<Changed/>".getBytes());
+        payload.setLastModified(payload.lastModified() + 2000);
+        assertNull(CompressedPayloadStore.get(payload, 6));
+    }
+
+    @Test
+    public void testDigests() throws IOException {
+        final CompressionDataHandler dh = createHandler(-1);
+        assertNull(dh.getDigest(DIGEST_ALG));
+        // Digests are not saved when the data handler does not use the store
+        dh.setDigest(DIGEST_ALG, new byte[] { 1, 2, 3 });
+        assertNull(dh.getDigest(DIGEST_ALG));
+
+        dh.useStoreEntry(CompressedPayloadStore.store(dh, payload, -1));
+        assertNull(dh.getDigest(DIGEST_ALG));
+        dh.setDigest(DIGEST_ALG, new byte[] { 1, 2, 3 });
+
+        // The digest should also be available when the entry is read again
+        final CompressionDataHandler resent = createHandler(-1);
+        resent.useStoreEntry(CompressedPayloadStore.get(payload, -1));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, resent.getDigest(DIGEST_ALG));
+    }
+
+    @Test
+    public void testRemove() throws IOException {
+        final File compressed = CompressedPayloadStore.store(createHandler(6), payload, 6).getCompressedFile();
+        assertTrue(CompressedPayloadStore.remove(payload));
+        assertFalse(compressed.exists());
+        assertFalse(new File(payload.getPath() + CompressedPayloadStore.METADATA_EXT).exists());
+        assertNull(CompressedPayloadStore.get(payload, 6));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.activation.DataHandler;
+import org.apache.axiom.attachments.ByteArrayDataSource;
+
+/**
+ * Benchmark for the AS4 Compression Feature. It compresses and decompresses different types of payloads, XML, PDF
+ * like content (text mixed with already compressed binary streams) and a zip file, using the way compression was done
+ * before, i.e. a new <code>GZIPOutputStream</code> for every payload and decompression through a 2 kB buffer, and the
+ * {@link CompressionDataHandler} with pooled codecs at different compression levels.
+ * <p>The size of the payloads in kB can be given as argument, by default 1024 kB payloads are used.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class CompressionBenchmark {
+
+    private static final int ITERATIONS = 30;
+
+    public static void main(final String[] args) throws Exception {
+        final int size = (args.length == 1 ? Integer.parseInt(args[0]) : 1024) * 1024;
+        final String[] types = { "XML", "PDF", "ZIP" };
+        final byte[][] payloads = { createXML(size), createPDF(size), createZip(size) };
+
+        System.out.printf("%-5s %-14s %10s %12s %12s%n", "Type", "Method", "Ratio", "Compr. ms", "Decompr. ms");
+        for (int i = 0; i < types.length; i++) {
+            // Warm up
+            run(payloads[i], -2, 2);
+            run(payloads[i], Deflater.DEFAULT_COMPRESSION, 2);
+
+            report(types[i], "unpooled", payloads[i], run(payloads[i], -2, ITERATIONS));
+            report(types[i], "pooled", payloads[i], run(payloads[i], Deflater.DEFAULT_COMPRESSION, ITERATIONS));
+            report(types[i], "pooled L1", payloads[i], run(payloads[i], Deflater.BEST_SPEED, ITERATIONS));
+            report(types[i], "pooled L9", payloads[i], run(payloads[i], Deflater.BEST_COMPRESSION, ITERATIONS));
+        }
+        System.exit(0);
+    }
+
+    private static void report(final String type, final String method, final byte[] payload, final double[] r) {
+        System.out.printf("%-5s %-14s %10.3f %12.2f %12.2f%n", type, method, r[0] / payload.length, r[1], r[2]);
+    }
+
+    /**
+     * Runs the compression and decompression of the payload.
+     *
+     * @param payload       The payload data
+     * @param level         The compression level to use, -2 to use the unpooled JDK streams
+     * @param iterations    The number of iterations
+     * @return              The compressed size, average compression time and average decompression time in ms
+     */
+    private static double[] run(final byte[] payload, final int level, final int iterations) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length + 1024);
+        final OutputStream sink = new OutputStream() {
+            @Override
+            public void write(final int b) {}
+            @Override
+            public void write(final byte[] b, final int off, final int len) {}
+        };
+        long compressTime = 0, decompressTime = 0;
+        for (int i = 0; i < iterations; i++) {
+            compressed.reset();
+            long start = System.nanoTime();
+            if (level == -2) {
+                final GZIPOutputStream gzos = new GZIPOutputStream(compressed);
+                new DataHandler(new ByteArrayDataSource(payload, "application/octet-stream")).writeTo(gzos);
+                gzos.finish();
+            } else
+                new CompressionDataHandler(new DataHandler(new ByteArrayDataSource(payload,
+                                                                    "application/octet-stream")), level, -1)
+                                                                                                .writeTo(compressed);
+            compressTime += System.nanoTime() - start;
+
+            final byte[] gz = compressed.toByteArray();
+            start = System.nanoTime();
+            if (level == -2) {
+                try (InputStream gzis = new GZIPInputStream(new java.io.ByteArrayInputStream(gz))) {
+                    final byte[] buffer = new byte[2048];
+                    int r;
+                    while ((r = gzis.read(buffer)) > 0)
+                        sink.write(buffer, 0, r);
+                }
+            } else
+                new CompressionDataHandler(new DataHandler(new ByteArrayDataSource(gz, "application/gzip")),
+                                           "application/octet-stream").writeTo(sink);
+            decompressTime += System.nanoTime() - start;
+        }
+        return new double[] { compressed.size(), compressTime / 1e6 / iterations, decompressTime / 1e6 / iterations };
+    }
+
+    private static byte[] createXML(final int size) {
+        final Random r = new Random(1);
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<Invoice>\n");
+        while (sb.length() < size)
+            sb.append("  <Line id=\"").append(r.nextInt(100000)).append("\"><Item>Product ").append(r.nextInt(500))
+              .append("</Item><Quantity>").append(r.nextInt(100)).append("</Quantity><Price>")
+              .append(r.nextInt(10000) / 100.0).append("</Price></Line>\n");
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static byte[] createPDF(final int size) throws IOException {
+        // A PDF consists of text based objects and mostly deflated content streams, simulated here by random data
+        final Random r = new Random(2);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+        baos.write("%PDF-1.7\n".getBytes());
+        int obj = 1;
+        while (baos.size() < size) {
+            baos.write((obj++ + " 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] >>\nendobj\n")
+                                                                                                        .getBytes());
+            final byte[] stream = new byte[4096 + r.nextInt(8192)];
+            r.nextBytes(stream);
+            baos.write((obj++ + " 0 obj\n<< /Length " + stream.length + " /Filter /FlateDecode >>\nstream\n")
+                                                                                                        .getBytes());
+            baos.write(stream);
+            baos.write("\nendstream\nendobj\n".getBytes());
+        }
+        final byte[] pdf = new byte[size];
+        System.arraycopy(baos.toByteArray(), 0, pdf, 0, size);
+        return pdf;
+    }
+
+    private static byte[] createZip(final int size) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            zos.putNextEntry(new ZipEntry("invoice.xml"));
+            // Use enough XML so the zipped result has about the requested size
+            final byte[] xml = createXML(size * 8);
+            int written = 0;
+            while (baos.size() < size && written < xml.length) {
+                zos.write(xml, written, Math.min(65536, xml.length - written));
+                written += 65536;
+            }
+            zos.closeEntry();
+        }
+        return baos.toByteArray();
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.holodeckb2b.as4.compression;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -27,6 +28,7 @@ import org.junit.After;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -117,4 +119,16 @@ public class GZIPCompressingInputStreamTest {
                 decF.delete();
         }
     }
+
+    @Test
+    public void testDeflaterReturnedOnClose() throws IOException {
+        final GZIPCompressingInputStream cis = new GZIPCompressingInputStream(
+                                                                new ByteArrayInputStream(new byte[100]), 1, 1024);
+        final int idle = CodecPool.idleDeflaters();
+        cis.close();
+        assertTrue(CodecPool.idleDeflaters() == idle + 1 || idle == CodecPool.MAX_IDLE);
+        // Closing again should not release the deflater twice
+        cis.close();
+        assertTrue(CodecPool.idleDeflaters() <= idle + 1);
+    }
 }
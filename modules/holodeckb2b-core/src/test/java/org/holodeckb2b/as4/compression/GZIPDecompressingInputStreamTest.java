@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class GZIPDecompressingInputStreamTest {
+
+    private static byte[] createData(final int size) {
+        final StringBuilder sb = new StringBuilder();
+        final Random r = new Random(42);
+        while (sb.length() < size)
+            sb.append("<Line nr=\"").append(r.nextInt(1000)).append("\">Some text</Line>\n");
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static byte[] gzip(final byte[] data) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzos = new GZIPOutputStream(baos)) {
+            gzos.write(data);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] readAll(final InputStream is, final int chunk) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[chunk];
+        int r;
+        while ((r = is.read(buffer)) > 0)
+            baos.write(buffer, 0, r);
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testDecompressJDKFormat() throws IOException {
+        final byte[] data = createData(100000);
+        try (GZIPDecompressingInputStream gzis = new GZIPDecompressingInputStream(
+                                                                        new ByteArrayInputStream(gzip(data)), 512)) {
+            assertArrayEquals(data, readAll(gzis, 333));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final byte[] data = createData(50000);
+        for (int level = 0; level <= 9; level += 3) {
+            final byte[] compressed;
+            try (GZIPCompressingInputStream gzcis = new GZIPCompressingInputStream(new ByteArrayInputStream(data),
+                                                                                   level, 1024)) {
+                compressed = readAll(gzcis, 700);
+            }
+            try (GZIPDecompressingInputStream gzis = new GZIPDecompressingInputStream(
+                                                                            new ByteArrayInputStream(compressed))) {
+                assertArrayEquals(data, readAll(gzis, 4096));
+            }
+        }
+    }
+
+    @Test
+    public void testOptionalHeaderFields() throws IOException {
+        final byte[] data = createData(2000);
+        final byte[] compressed = gzip(data);
+        // Add a file name and comment to the header
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(compressed, 0, 3);
+        baos.write(compressed[3] | 8 | 16);
+        baos.write(compressed, 4, 6);
+        baos.write("payload.xml\0".getBytes());
+        baos.write("a comment\0".getBytes());
+        baos.write(compressed, 10, compressed.length - 10);
+
+        try (GZIPDecompressingInputStream gzis = new GZIPDecompressingInputStream(
+                                                                        new ByteArrayInputStream(baos.toByteArray()))) {
+            assertArrayEquals(data, readAll(gzis, 512));
+        }
+    }
+
+    @Test
+    public void testConcatenatedMembers() throws IOException {
+        final byte[] part1 = createData(3000);
+        final byte[] part2 = createData(7000);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(gzip(part1));
+        baos.write(gzip(part2));
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(part1);
+        expected.write(part2);
+
+        try (GZIPDecompressingInputStream gzis = new GZIPDecompressingInputStream(
+                                                                        new ByteArrayInputStream(baos.toByteArray()))) {
+            assertArrayEquals(expected.toByteArray(), readAll(gzis, 1000));
+        }
+    }
+
+    @Test
+    public void testCorruptTrailer() throws IOException {
+        final byte[] compressed = gzip(createData(5000));
+        compressed[compressed.length - 6] ^= 0x55;
+
+        try (GZIPDecompressingInputStream gzis = new GZIPDecompressingInputStream(
+                                                                        new ByteArrayInputStream(compressed))) {
+            readAll(gzis, 1024);
+            fail("Corrupt trailer not detected");
+        } catch (final ZipException expected) {
+        }
+    }
+
+    @Test
+    public void testNotGZIP() throws IOException {
+        try {
+            new GZIPDecompressingInputStream(new ByteArrayInputStream(createData(100)));
+            fail("Invalid header not detected");
+        } catch (final ZipException expected) {
+        }
+    }
+
+    @Test
+    public void testInflaterReturnedOnClose() throws IOException {
+        final GZIPDecompressingInputStream gzis = new GZIPDecompressingInputStream(
+                                                                        new ByteArrayInputStream(gzip(createData(10))));
+        final int idle = CodecPool.idleInflaters();
+        gzis.close();
+        assertTrue(CodecPool.idleInflaters() == idle + 1 || idle == CodecPool.MAX_IDLE);
+        // Closing again should not release the inflater twice
+        gzis.close();
+        assertTrue(CodecPool.idleInflaters() <= idle + 1);
+    }
+}
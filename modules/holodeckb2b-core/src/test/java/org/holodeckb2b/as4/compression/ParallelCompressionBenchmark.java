@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import javax.activation.DataHandler;
+import org.apache.axiom.attachments.ByteArrayDataSource;
+
+/**
+ * Benchmark for the parallel compression and decompression of payloads. It measures the throughput of messages with
+ * 1, 10 and 100 payloads when the payloads are (de)compressed one after another by the sending/receiving thread and
+ * when they are (de)compressed in parallel by the {@link ParallelCompressor}.
+ * <p>The size of the payloads in kB can be given as argument, by default 256 kB XML payloads are used.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class ParallelCompressionBenchmark {
+
+    private static final int ITERATIONS = 10;
+
+    private static final OutputStream SINK = new OutputStream() {
+        @Override
+        public void write(final int b) {}
+        @Override
+        public void write(final byte[] b, final int off, final int len) {}
+    };
+
+    public static void main(final String[] args) throws Exception {
+        final int size = (args.length == 1 ? Integer.parseInt(args[0]) : 256) * 1024;
+        final byte[] payload = createXML(size);
+        final byte[] compressed = compress(payload);
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+
+        System.out.printf("Processors: %d%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-9s %-12s %16s %16s%n", "Payloads", "Mode", "Compress MB/s", "Decompress MB/s");
+        for (final int n : new int[] { 1, 10, 100 }) {
+            // Warm up
+            send(payload, n, false, tmpDir);
+            send(payload, n, true, tmpDir);
+            receive(compressed, n, false, tmpDir);
+            receive(compressed, n, true, tmpDir);
+
+            for (final boolean parallel : new boolean[] { false, true }) {
+                long sendTime = 0, receiveTime = 0;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    sendTime += send(payload, n, parallel, tmpDir);
+                    receiveTime += receive(compressed, n, parallel, tmpDir);
+                }
+                final double mb = (double) ITERATIONS * n * size / (1024 * 1024);
+                System.out.printf("%-9d %-12s %16.1f %16.1f%n", n, parallel ? "parallel" : "sequential",
+                                  mb / (sendTime / 1e9), mb / (receiveTime / 1e9));
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Compresses the payloads of a message and writes them to a sink like done when the message is serialized.
+     *
+     * @return  The time it took in nanoseconds
+     */
+    private static long send(final byte[] payload, final int n, final boolean parallel, final File tmpDir)
+                                                                                                throws IOException {
+        final List<CompressionDataHandler> handlers = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            handlers.add(new CompressionDataHandler(new DataHandler(new ByteArrayDataSource(payload,
+                                                                                            "application/xml"))));
+        final List<File> files = new ArrayList<>(n);
+        final long start = System.nanoTime();
+        if (parallel && n > 1) {
+            for (int i = 0; i < n; i++)
+                files.add(File.createTempFile("gz-", null, tmpDir));
+            ParallelCompressor.precompress(handlers, files);
+        }
+        for (final CompressionDataHandler dh : handlers)
+            dh.writeTo(SINK);
+        final long time = System.nanoTime() - start;
+        for (final File f : files)
+            f.delete();
+        return time;
+    }
+
+    /**
+     * Decompresses the attachments of a message into files like done when the payloads are saved.
+     *
+     * @return  The time it took in nanoseconds
+     */
+    private static long receive(final byte[] compressed, final int n, final boolean parallel, final File tmpDir)
+                                                                                                throws IOException {
+        final List<Callable<Void>> saves = new ArrayList<>(n);
+        final List<File> files = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final CompressionDataHandler dh = new CompressionDataHandler(new DataHandler(
+                                            new ByteArrayDataSource(compressed, "application/gzip")), "application/xml");
+            final File f = File.createTempFile("pl-", null, tmpDir);
+            files.add(f);
+            saves.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(f), 65536)) {
+                        dh.writeTo(os);
+                    }
+                    return null;
+                }
+            });
+        }
+        final long start = System.nanoTime();
+        if (parallel && n > 1) {
+            final List<Future<Void>> results = ParallelCompressor.submitAll(saves);
+            for (final Future<Void> r : results)
+                ParallelCompressor.await(r);
+        } else
+            for (final Callable<Void> s : saves)
+                try {
+                    s.call();
+                } catch (final Exception e) {
+                    throw new IOException(e);
+                }
+        final long time = System.nanoTime() - start;
+        for (final File f : files)
+            f.delete();
+        return time;
+    }
+
+    private static byte[] compress(final byte[] payload) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new CompressionDataHandler(new DataHandler(new ByteArrayDataSource(payload, "application/xml"))).writeTo(baos);
+        return baos.toByteArray();
+    }
+
+    private static byte[] createXML(final int size) {
+        final Random r = new Random(1);
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<Invoice>\n");
+        while (sb.length() < size)
+            sb.append("  <Line id=\"").append(r.nextInt(100000)).append("\"><Item>Product ").append(r.nextInt(500))
+              .append("</Item><Quantity>").append(r.nextInt(100)).append("</Quantity></Line>\n");
+        return sb.substring(0, size).getBytes();
+    }
+}
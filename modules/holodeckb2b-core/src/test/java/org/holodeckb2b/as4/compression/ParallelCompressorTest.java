@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import org.apache.axiom.attachments.ByteArrayDataSource;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class ParallelCompressorTest {
+
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (final File f : files)
+            f.delete();
+    }
+
+    private static byte[] createData(final int i) {
+        final StringBuilder sb = new StringBuilder();
+        for (int l = 0; l < 1000 * (i + 1); l++)
+            sb.append("<Payload nr=\"").append(i).append("\" line=\"").append(l).append("\"/>\n");
+        return sb.toString().getBytes();
+    }
+
+    private static byte[] decompress(final InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        try (GZIPDecompressingInputStream gzis = new GZIPDecompressingInputStream(is)) {
+            int r;
+            while ((r = gzis.read(buffer)) > 0)
+                baos.write(buffer, 0, r);
+        }
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testPrecompress() throws IOException {
+        final List<byte[]> payloads = new ArrayList<>();
+        final List<CompressionDataHandler> handlers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            payloads.add(createData(i));
+            handlers.add(new CompressionDataHandler(new DataHandler(
+                                                new ByteArrayDataSource(payloads.get(i), "application/xml")), 1, -1));
+            files.add(File.createTempFile("gz-", null));
+        }
+
+        assertEquals(5, ParallelCompressor.precompress(handlers, files));
+
+        for (int i = 0; i < 5; i++) {
+            final CompressionDataHandler dh = handlers.get(i);
+            assertTrue(dh.isPrecompressed());
+            assertTrue(files.get(i).length() > 0);
+            // Both the stream and the written data should be the pre-compressed data
+            assertArrayEquals(payloads.get(i), decompress(dh.getInputStream()));
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            dh.writeTo(baos);
+            assertArrayEquals(payloads.get(i), decompress(new ByteArrayInputStream(baos.toByteArray())));
+        }
+    }
+
+    @Test
+    public void testFailedPrecompression() throws IOException {
+        final DataSource failingSource = new DataSource() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                throw new IOException("Unreadable");
+            }
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                throw new IOException("Read only");
+            }
+            @Override
+            public String getContentType() {
+                return "application/octet-stream";
+            }
+            @Override
+            public String getName() {
+                return "failing";
+            }
+        };
+        final List<CompressionDataHandler> handlers = Arrays.asList(
+                        new CompressionDataHandler(new DataHandler(failingSource)),
+                        new CompressionDataHandler(new DataHandler(new ByteArrayDataSource(createData(1), "text/xml"))));
+        files.add(File.createTempFile("gz-", null));
+        files.add(File.createTempFile("gz-", null));
+
+        assertEquals(1, ParallelCompressor.precompress(handlers, files));
+        assertFalse(handlers.get(0).isPrecompressed());
+        assertFalse(files.get(0).exists());
+        assertTrue(handlers.get(1).isPrecompressed());
+    }
+
+    @Test
+    public void testAwaitUnwrapsIOException() {
+        final List<Future<Void>> results = ParallelCompressor.submitAll(Arrays.asList(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                throw new IOException("Failed");
+            }
+        }));
+        try {
+            ParallelCompressor.await(results.get(0));
+            fail();
+        } catch (final IOException expected) {
+            assertEquals("Failed", expected.getMessage());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.as4.receptionawareness;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link RetransmissionScheduler}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class RetransmissionSchedulerTest {
+
+    private static final int OUTSTANDING = 100000;
+
+    private static HolodeckB2BTestCore core;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        core = new HolodeckB2BTestCore(RetransmissionSchedulerTest.class.getClassLoader().getResource("handlers")
+                                                                                          .getPath());
+        HolodeckB2BCoreInterface.setImplementation(core);
+    }
+
+    @Before
+    public void setUp() {
+        RetransmissionScheduler.clear();
+    }
+
+    @After
+    public void tearDown() {
+        RetransmissionScheduler.clear();
+    }
+
+    @Test
+    public void testOnlyDueMessagesWithManyOutstanding() throws Exception {
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < OUTSTANDING; i++)
+            RetransmissionScheduler.schedule("waiting-" + i, now + 3600000 + i);
+        for (int i = 0; i < 10; i++)
+            RetransmissionScheduler.schedule("due-" + i, now - i);
+
+        final List<String> due = RetransmissionScheduler.takeDue(0, TimeUnit.MILLISECONDS, 100);
+
+        // Only the due messages are returned, ordered by their deadline, the others stay scheduled
+        assertEquals(10, due.size());
+        for (int i = 0; i < 10; i++)
+            assertEquals("due-" + (9 - i), due.get(i));
+        assertEquals(OUTSTANDING, RetransmissionScheduler.size());
+        assertTrue(RetransmissionScheduler.takeDue(0, TimeUnit.MILLISECONDS, 100).isEmpty());
+    }
+
+    @Test
+    public void testMaxUnits() throws Exception {
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 25; i++)
+            RetransmissionScheduler.schedule("due-" + i, now - 1);
+
+        assertEquals(10, RetransmissionScheduler.takeDue(0, TimeUnit.MILLISECONDS, 10).size());
+        assertEquals(15, RetransmissionScheduler.takeDue(0, TimeUnit.MILLISECONDS, 100).size());
+    }
+
+    @Test
+    public void testRescheduleReplacesEarlierDeadline() throws Exception {
+        final long now = System.currentTimeMillis();
+        RetransmissionScheduler.schedule("msg-1", now - 1);
+        RetransmissionScheduler.schedule("msg-1", now + 3600000);
+        // Scheduling the same deadline twice must result in one check only
+        RetransmissionScheduler.schedule("msg-2", now - 1);
+        RetransmissionScheduler.schedule("msg-2", now - 1);
+
+        final List<String> due = RetransmissionScheduler.takeDue(0, TimeUnit.MILLISECONDS, 100);
+        assertEquals(1, due.size());
+        assertEquals("msg-2", due.get(0));
+        assertEquals(1, RetransmissionScheduler.size());
+    }
+
+    @Test
+    public void testNotDueBeforeDeadline() throws Exception {
+        RetransmissionScheduler.schedule("msg-1", System.currentTimeMillis() + 3600000);
+
+        assertTrue(RetransmissionScheduler.takeDue(10, TimeUnit.MILLISECONDS, 100).isEmpty());
+        assertEquals(1, RetransmissionScheduler.size());
+    }
+
+    @Test
+    public void testWaitingStopsWhenMessageBecomesDue() throws Exception {
+        RetransmissionScheduler.schedule("msg-1", System.currentTimeMillis() + 3600000);
+
+        final ExecutorService waiter = Executors.newSingleThreadExecutor();
+        try {
+            final Future<List<String>> result = waiter.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return RetransmissionScheduler.takeDue(1, TimeUnit.HOURS, 100);
+                }
+            });
+            // A message that is already due when scheduled must end the wait for the later deadline
+            RetransmissionScheduler.schedule("msg-2", System.currentTimeMillis() - 1);
+
+            final List<String> due = result.get(30, TimeUnit.SECONDS);
+            assertEquals(1, due.size());
+            assertEquals("msg-2", due.get(0));
+            assertEquals(1, RetransmissionScheduler.size());
+        } finally {
+            waiter.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNextRetryTimeSavedByWorker() throws Exception {
+        final StorageManager storageManager = core.getStorageManager();
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId(MessageIdGenerator.createMessageId());
+        final IUserMessageEntity userMsgEntity = storageManager.storeOutGoingMessageUnit(userMessage);
+        storageManager.setProcessingState(userMsgEntity, ProcessingState.AWAITING_RECEIPT);
+
+        RetransmissionScheduler.LISTENER.processingStateChanged(userMsgEntity, ProcessingState.AWAITING_RECEIPT);
+
+        // The message is scheduled but the time of the check is not saved by the thread that changed the state
+        assertEquals(1, RetransmissionScheduler.size());
+        assertEquals(1, RetransmissionScheduler.unsavedCount());
+        assertNull(getStored(userMessage.getMessageId()).getNextRetryTime());
+
+        assertEquals(1, RetransmissionScheduler.saveNextRetryTimes());
+
+        assertEquals(0, RetransmissionScheduler.unsavedCount());
+        // Without P-Mode the message is scheduled to be checked immediately
+        assertEquals(userMsgEntity.getCurrentProcessingState().getStartTime().getTime(),
+                     getStored(userMessage.getMessageId()).getNextRetryTime().getTime());
+        assertEquals(0, RetransmissionScheduler.saveNextRetryTimes());
+        // The entity object is not changed and can still be updated by the thread processing the message
+        assertNull(userMsgEntity.getNextRetryTime());
+        assertTrue(storageManager.setProcessingState(userMsgEntity, ProcessingState.AWAITING_RECEIPT,
+                                                     ProcessingState.DELIVERED));
+    }
+
+    private static IUserMessageEntity getStored(final String messageId) throws Exception {
+        return (IUserMessageEntity) core.getQueryManager().getMessageUnitsWithId(messageId).iterator().next();
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.holodeckb2b.core.testhelpers;
 
+import java.util.Collections;
+import java.util.Map;
 import org.apache.axis2.context.ConfigurationContext;
 import org.holodeckb2b.common.config.InternalConfiguration;
 
@@ -28,6 +30,9 @@ public class Config implements InternalConfiguration {
     private String  hb2b_home;
     private String  pmodeValidatorClass = null;
     private String  pmodeStorageClass = null;
+    private String  crlFile = null;
+    private int     crlRefreshInterval = -1;
+    private boolean parallelCompression = false;
 
     Config(final String homeDir) {
         hb2b_home = homeDir;
@@ -143,4 +148,76 @@ public class Config implements InternalConfiguration {
     public String getPersistencyProviderClass() {
         return "org.holodeckb2b.persistency.DefaultProvider";
     }
+
+    @Override
+    public Map<String, String> getPersistencyProviderParameters() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public int getMaxHTTPConnectionsPerHost() {
+        return -1;
+    }
+
+    @Override
+    public int getMaxHTTPConnections() {
+        return -1;
+    }
+
+    @Override
+    public int getHTTPIdleConnectionTimeout() {
+        return -1;
+    }
+
+    @Override
+    public boolean linkSubmittedPayloads() {
+        return false;
+    }
+
+    @Override
+    public int getCertificateValidationCacheTTL() {
+        return -1;
+    }
+
+    @Override
+    public String getCRLFile() {
+        return crlFile;
+    }
+
+    public void setCRLFile(final String crlFile) {
+        this.crlFile = crlFile;
+    }
+
+    @Override
+    public int getCRLRefreshInterval() {
+        return crlRefreshInterval;
+    }
+
+    public void setCRLRefreshInterval(final int interval) {
+        this.crlRefreshInterval = interval;
+    }
+
+    @Override
+    public boolean useParallelCompression() {
+        return parallelCompression;
+    }
+
+    public void setParallelCompression(final boolean parallel) {
+        this.parallelCompression = parallel;
+    }
+
+    @Override
+    public int getEventProcessorWorkers() {
+        return -1;
+    }
+
+    @Override
+    public int getEventProcessorQueueSize() {
+        return -1;
+    }
+
+    @Override
+    public String getEventProcessorFullQueuePolicy() {
+        return null;
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.axis2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.axis2.client.ServiceClient;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.holodeckb2b.axis2.Axis2Utils;
+
+/**
+ * Benchmark for the resources reused by the {@link Axis2Sender} when sending messages. It compares sending messages
+ * to a local stub endpoint using a new <code>HttpClient</code> for every message, which is what happened before, with
+ * using the shared client from the {@link HTTPConnectionPool}. It also compares the cost of creating a new {@link
+ * ServiceClient} with an anonymous service for every message with reusing the client.
+ * <p>The number of concurrent threads can be given as arguments, by default 1 and 8 threads are used.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class Axis2SenderBenchmark {
+
+    private static final int MESSAGES_PER_THREAD = 2000;
+
+    private static final int MESSAGE_SIZE = 4096;
+
+    private static final int SERVICE_CLIENTS = 20000;
+
+    public static void main(final String[] args) throws Exception {
+        final int[] threads = args.length > 0 ? new int[args.length] : new int[] { 1, 8 };
+        for (int i = 0; i < args.length; i++)
+            threads[i] = Integer.parseInt(args[i]);
+
+        final HttpServer server = startStubEndpoint();
+        final String url = "http://localhost:" + server.getAddress().getPort() + "/msh";
+        final HTTPConnectionPool pool = new HTTPConnectionPool(20, 100, 60);
+        try {
+            System.out.printf("%-8s %-12s %12s%n", "Threads", "HttpClient", "msgs/s");
+            for (final int t : threads) {
+                // Warm up
+                send(t, url, null);
+                send(t, url, pool);
+
+                report(t, "new", send(t, url, null));
+                report(t, "pooled", send(t, url, pool));
+            }
+
+            final ConfigurationContext configCtx = ConfigurationContextFactory.createEmptyConfigurationContext();
+            // Warm up
+            createServiceClients(configCtx, false);
+            createServiceClients(configCtx, true);
+
+            System.out.printf("%n%-14s %12s%n", "ServiceClient", "us/msg");
+            System.out.printf("%-14s %12.1f%n", "new", createServiceClients(configCtx, false) / 1e3 / SERVICE_CLIENTS);
+            System.out.printf("%-14s %12.1f%n", "reused", createServiceClients(configCtx, true) / 1e3 / SERVICE_CLIENTS);
+        } finally {
+            pool.shutdown();
+            server.stop(0);
+        }
+    }
+
+    private static void report(final int threads, final String name, final long nanos) {
+        System.out.printf("%-8d %-12s %12.0f%n", threads, name, threads * MESSAGES_PER_THREAD / (nanos / 1e9));
+    }
+
+    /**
+     * Starts the stub endpoint that reads the request and responds with a small XML document.
+     */
+    private static HttpServer startStubEndpoint() throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/msh", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try (InputStream in = exchange.getRequestBody()) {
+                    final byte[] buffer = new byte[8192];
+                    while (in.read(buffer) >= 0);
+                }
+                final byte[] response = "<ok/>".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Sends messages to the stub endpoint in the given number of threads.
+     *
+     * @param pool  The connection pool to use, or <code>null</code> if a new client should be used for every message
+     * @return  The total time in nanoseconds
+     */
+    private static long send(final int threads, final String url, final HTTPConnectionPool pool) throws Exception {
+        final String body = new String(new char[MESSAGE_SIZE]).replace('\0', 'x');
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int m = 0; m < MESSAGES_PER_THREAD; m++) {
+                            final HttpClient client = pool != null ? pool.getHttpClient() : new HttpClient();
+                            final PostMethod post = new PostMethod(url);
+                            try {
+                                post.setRequestEntity(new StringRequestEntity(body, "text/xml", "UTF-8"));
+                                if (client.executeMethod(post) != 200)
+                                    throw new IllegalStateException("Message not accepted");
+                                post.getResponseBodyAsString();
+                            } finally {
+                                post.releaseConnection();
+                            }
+                        }
+                        return null;
+                    }
+                });
+            final long start = System.nanoTime();
+            for (final Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Prepares the Axis2 client for sending a message, either using a new <code>ServiceClient</code> for every message
+     * or reusing one.
+     *
+     * @return  The total time in nanoseconds
+     */
+    private static long createServiceClients(final ConfigurationContext configCtx, final boolean reuse)
+                                                                                                    throws Exception {
+        final long start = System.nanoTime();
+        if (reuse) {
+            final ServiceClient sc = new ServiceClient(configCtx, Axis2Utils.createAnonymousService());
+            for (int i = 0; i < SERVICE_CLIENTS; i++)
+                sc.createClient(ServiceClient.ANON_OUT_IN_OP);
+            sc.cleanup();
+        } else
+            for (int i = 0; i < SERVICE_CLIENTS; i++) {
+                final ServiceClient sc = new ServiceClient(configCtx, Axis2Utils.createAnonymousService());
+                sc.createClient(ServiceClient.ANON_OUT_IN_OP);
+                sc.cleanup();
+            }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.axis2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the {@link HTTPConnectionPool} reuses the connections to a destination.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class HTTPConnectionPoolTest {
+
+    private HttpServer          server;
+    private String              url;
+    private final Set<Integer>  clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/msh", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                final byte[] response = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/msh";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception {
+        final HTTPConnectionPool pool = new HTTPConnectionPool(2, 10, 60);
+        try {
+            for (int i = 0; i < 20; i++) {
+                final PostMethod post = new PostMethod(url);
+                try {
+                    post.setRequestEntity(new StringRequestEntity("<message/>", "text/xml", "UTF-8"));
+                    assertEquals(200, pool.getHttpClient().executeMethod(post));
+                    post.getResponseBodyAsString();
+                } finally {
+                    post.releaseConnection();
+                }
+            }
+            assertEquals(1, clientPorts.size());
+            assertEquals(1, pool.getConnectionsInPool());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionClosed() throws Exception {
+        final HTTPConnectionPool pool = new HTTPConnectionPool(-1, -1, 1);
+        try {
+            final PostMethod post = new PostMethod(url);
+            try {
+                post.setRequestEntity(new StringRequestEntity("<message/>", "text/xml", "UTF-8"));
+                pool.getHttpClient().executeMethod(post);
+                post.getResponseBodyAsString();
+            } finally {
+                post.releaseConnection();
+            }
+            assertEquals(1, pool.getConnectionsInPool());
+
+            // The idle monitor checks every second, so the connection should be closed within a few seconds
+            final long end = System.currentTimeMillis() + 5000;
+            while (pool.getConnectionsInPool() > 0 && System.currentTimeMillis() < end)
+                Thread.sleep(100);
+            assertTrue(pool.getConnectionsInPool() == 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
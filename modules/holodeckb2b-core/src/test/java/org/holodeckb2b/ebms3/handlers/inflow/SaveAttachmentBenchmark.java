@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.handlers.inflow;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.Random;
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import org.apache.axiom.attachments.Attachments;
+
+/**
+ * Benchmark for saving attachments by the {@link SaveUserMsgAttachments} handler. It compares the new way of saving an
+ * attachment, using {@link SaveUserMsgAttachments#saveAttachment(DataHandler, File)}, with the previous way of writing
+ * the content using {@link DataHandler#writeTo(OutputStream)} for both attachments that are MIME parts read from a
+ * received message and for attachments that are already available in a file.
+ * <p>The payload sizes in MB can be given as arguments, by default 1, 100 and 2048 MB are used. As the benchmark writes
+ * multiple copies of the payloads, make sure there is enough space in the temp directory.
+ * <p>Run with for example <code>java -Xmx2g -cp ... org.holodeckb2b.ebms3.handlers.inflow.SaveAttachmentBenchmark</code>
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class SaveAttachmentBenchmark {
+
+    private static final String BOUNDARY = "MIMEBoundary";
+    private static final String CONTENT_TYPE = "multipart/related; boundary=" + BOUNDARY
+                                             + "; type=\"application/soap+xml\"; start=\"<root>\"";
+    private static final long MB = 1024 * 1024;
+
+    private interface SaveMethod {
+        void save(File mimeMessage, File payload, File target) throws IOException;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long[] sizes = args.length > 0 ? new long[args.length] : new long[] { 1, 100, 2048 };
+        for (int i = 0; i < args.length; i++)
+            sizes[i] = Long.parseLong(args[i]);
+
+        final File workDir = new File(System.getProperty("java.io.tmpdir"), "hb2b-attachment-benchmark");
+        workDir.mkdirs();
+        final File cacheDir = new File(workDir, "cache");
+        cacheDir.mkdirs();
+
+        System.out.printf("%-8s %-45s %10s %10s %12s%n", "Size", "Method", "ms", "MB/s", "Peak heap MB");
+        for (final long size : sizes) {
+            final File payload = new File(workDir, "payload.bin");
+            final File mimeMessage = new File(workDir, "message.mime");
+            createTestFiles(size * MB, payload, mimeMessage);
+            final int runs = size <= 100 ? 5 : 1;
+
+            if (size * MB < Runtime.getRuntime().maxMemory() / 3)
+                run(size, runs, "MIME part, writeTo, buffered in memory", new SaveMethod() {
+                    @Override
+                    public void save(final File msg, final File pl, final File target) throws IOException {
+                        try (InputStream is = new BufferedInputStream(new FileInputStream(msg));
+                             OutputStream os = new FileOutputStream(target)) {
+                            new Attachments(is, CONTENT_TYPE).getDataHandler("payload").writeTo(os);
+                        }
+                    }
+                }, mimeMessage, payload, workDir);
+            else
+                System.out.printf("%-8s %-45s %10s%n", size + "MB", "MIME part, writeTo, buffered in memory",
+                                  "skipped, does not fit in heap");
+            run(size, runs, "MIME part, writeTo, cached in file", new SaveMethod() {
+                @Override
+                public void save(final File msg, final File pl, final File target) throws IOException {
+                    try (InputStream is = new BufferedInputStream(new FileInputStream(msg));
+                         OutputStream os = new FileOutputStream(target)) {
+                        new Attachments(is, CONTENT_TYPE, true, cacheDir.getAbsolutePath(), "4000")
+                                                                            .getDataHandler("payload").writeTo(os);
+                    }
+                }
+            }, mimeMessage, payload, workDir);
+            run(size, runs, "MIME part, saveAttachment", new SaveMethod() {
+                @Override
+                public void save(final File msg, final File pl, final File target) throws IOException {
+                    try (InputStream is = new BufferedInputStream(new FileInputStream(msg))) {
+                        SaveUserMsgAttachments.saveAttachment(
+                                            new Attachments(is, CONTENT_TYPE).getDataHandler("payload"), target);
+                    }
+                }
+            }, mimeMessage, payload, workDir);
+            run(size, runs, "File, writeTo", new SaveMethod() {
+                @Override
+                public void save(final File msg, final File pl, final File target) throws IOException {
+                    try (OutputStream os = new FileOutputStream(target)) {
+                        new DataHandler(new FileDataSource(pl)).writeTo(os);
+                    }
+                }
+            }, mimeMessage, payload, workDir);
+            run(size, runs, "File, saveAttachment", new SaveMethod() {
+                @Override
+                public void save(final File msg, final File pl, final File target) throws IOException {
+                    SaveUserMsgAttachments.saveAttachment(new DataHandler(new FileDataSource(pl)), target);
+                }
+            }, mimeMessage, payload, workDir);
+
+            payload.delete();
+            mimeMessage.delete();
+        }
+        System.exit(0);
+    }
+
+    private static void run(final long size, final int runs, final String name, final SaveMethod method,
+                            final File mimeMessage, final File payload, final File workDir) throws IOException {
+        final long[] times = new long[runs];
+        long peakHeap = 0;
+        for (int i = 0; i < runs; i++) {
+            final File target = new File(workDir, "saved.bin");
+            System.gc();
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                pool.resetPeakUsage();
+            final long start = System.nanoTime();
+            method.save(mimeMessage, payload, target);
+            times[i] = System.nanoTime() - start;
+            long heap = 0;
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                if (pool.getType() == MemoryType.HEAP)
+                    heap += pool.getPeakUsage().getUsed();
+            peakHeap = Math.max(peakHeap, heap);
+            if (target.length() != payload.length())
+                throw new IllegalStateException("Saved payload has incorrect size: " + target.length());
+            target.delete();
+        }
+        Arrays.sort(times);
+        final double ms = times[runs / 2] / 1e6;
+        System.out.printf("%-8s %-45s %10.1f %10.1f %12d%n", size + "MB", name, ms, size / (ms / 1000),
+                          peakHeap / MB);
+    }
+
+    private static void createTestFiles(final long size, final File payload, final File mimeMessage)
+                                                                                                throws IOException {
+        final Random random = new Random(42);
+        final byte[] chunk = new byte[(int) MB];
+        try (OutputStream pl = new FileOutputStream(payload);
+             OutputStream msg = new FileOutputStream(mimeMessage)) {
+            msg.write(("--" + BOUNDARY + "\r\nContent-Type: application/soap+xml\r\nContent-ID: <root>\r\n\r\n"
+                      + "<root/>\r\n--" + BOUNDARY + "\r\nContent-Type: application/octet-stream\r\n"
+                      + "Content-Transfer-Encoding: binary\r\nContent-ID: <payload>\r\n\r\n").getBytes("US-ASCII"));
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                final int n = (int) Math.min(chunk.length, size - written);
+                pl.write(chunk, 0, n);
+                msg.write(chunk, 0, n);
+            }
+            msg.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes("US-ASCII"));
+        }
+    }
+}
@@ -17,11 +17,13 @@
 package org.holodeckb2b.ebms3.handlers.inflow;
 
 import org.apache.axiom.attachments.Attachments;
+import org.apache.axiom.attachments.ByteArrayDataSource;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axiom.soap.SOAPHeaderBlock;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.engine.Handler;
+import org.holodeckb2b.as4.compression.CompressionDataHandler;
 import org.holodeckb2b.as4.compression.CompressionFeature;
 import org.holodeckb2b.common.messagemodel.Payload;
 import org.holodeckb2b.common.messagemodel.UserMessage;
@@ -45,8 +47,16 @@ import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -162,4 +172,59 @@ public class SaveUserMsgAttachmentsTest {
         assertEquals(ProcessingState.READY_FOR_DELIVERY,
                 userMessageEntity.getCurrentProcessingState().getState());
     }
+
+    @Test
+    public void testSaveAttachmentFromMIMEPart() throws Exception {
+        final byte[] content = new byte[200 * 1024];
+        new Random(42).nextBytes(content);
+        final ByteArrayOutputStream mime = new ByteArrayOutputStream();
+        mime.write(("--MIMEBoundary\r\nContent-Type: application/soap+xml\r\nContent-ID: <root>\r\n\r\n"
+                  + "<root/>\r\n--MIMEBoundary\r\nContent-Type: application/octet-stream\r\n"
+                  + "Content-Transfer-Encoding: binary\r\nContent-ID: <payload>\r\n\r\n").getBytes("US-ASCII"));
+        mime.write(content);
+        mime.write("\r\n--MIMEBoundary--\r\n".getBytes("US-ASCII"));
+        final Attachments attachments = new Attachments(new ByteArrayInputStream(mime.toByteArray()),
+                                    "multipart/related; boundary=MIMEBoundary; type=\"application/soap+xml\"; "
+                                    + "start=\"<root>\"");
+
+        final File target = File.createTempFile("pl-", null);
+        try {
+            SaveUserMsgAttachments.saveAttachment(attachments.getDataHandler("payload"), target);
+            assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        } finally {
+            target.delete();
+        }
+    }
+
+    @Test
+    public void testSaveFileAttachment() throws Exception {
+        final File source = new File(baseDir, "flower.jpg");
+        final File target = File.createTempFile("pl-", null);
+        try {
+            SaveUserMsgAttachments.saveAttachment(new DataHandler(new FileDataSource(source)), target);
+            assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(target.toPath()));
+        } finally {
+            target.delete();
+        }
+    }
+
+    @Test
+    public void testSaveCompressedAttachment() throws Exception {
+        final byte[] content = Files.readAllBytes(new File(baseDir, "dandelion.jpg").toPath());
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(compressed)) {
+            gz.write(content);
+        }
+        final DataHandler source = new DataHandler(new ByteArrayDataSource(compressed.toByteArray(),
+                                                                    CompressionFeature.COMPRESSED_CONTENT_TYPE));
+
+        final File target = File.createTempFile("pl-", null);
+        try {
+            // The data source of the decompressing data handler is the compressed content, so should not be copied
+            SaveUserMsgAttachments.saveAttachment(new CompressionDataHandler(source, "image/jpeg"), target);
+            assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        } finally {
+            target.delete();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.util;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.engine.Handler;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.util.MessageIdGenerator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.dao.StorageManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the {@link UnitOfWorkHandler} collects the updates made during the processing of a message and that they
+ * are saved by the {@link CommitUnitOfWorkHandler} or when the flow is completed.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class UnitOfWorkHandlerTest {
+
+    private static HolodeckB2BTestCore core;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        core = new HolodeckB2BTestCore(UnitOfWorkHandlerTest.class.getClassLoader().getResource("handlers")
+                                                                                   .getPath());
+        HolodeckB2BCoreInterface.setImplementation(core);
+    }
+
+    @Test
+    public void testUpdatesSavedOnFlowComplete() throws Exception {
+        final MessageContext mc = new MessageContext();
+        mc.setServerSide(true);
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        final UnitOfWorkHandler handler = new UnitOfWorkHandler();
+        assertEquals(Handler.InvocationResponse.CONTINUE, handler.invoke(mc));
+
+        final StorageManager storageManager = core.getStorageManager();
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId(MessageIdGenerator.createMessageId());
+        final IUserMessageEntity userMsgEntity = storageManager.storeIncomingMessageUnit(userMessage);
+        storageManager.setPModeId(userMsgEntity, "unit-of-work-test");
+        storageManager.setProcessingState(userMsgEntity, ProcessingState.RECEIVED, ProcessingState.PROCESSING);
+
+        // The updates should only be visible on the entity object
+        assertEquals(ProcessingState.PROCESSING, userMsgEntity.getCurrentProcessingState().getState());
+        IMessageUnitEntity stored = core.getQueryManager().getMessageUnitsWithId(userMessage.getMessageId())
+                                                           .iterator().next();
+        assertNull(stored.getPModeId());
+        assertEquals(ProcessingState.RECEIVED, stored.getCurrentProcessingState().getState());
+
+        handler.flowComplete(mc);
+
+        stored = core.getQueryManager().getMessageUnitsWithId(userMessage.getMessageId()).iterator().next();
+        assertEquals("unit-of-work-test", stored.getPModeId());
+        assertEquals(ProcessingState.PROCESSING, stored.getCurrentProcessingState().getState());
+    }
+
+    @Test
+    public void testUpdatesSavedBeforeResponse() throws Exception {
+        final MessageContext mc = new MessageContext();
+        mc.setServerSide(true);
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, new UnitOfWorkHandler().invoke(mc));
+
+        final StorageManager storageManager = core.getStorageManager();
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId(MessageIdGenerator.createMessageId());
+        final IUserMessageEntity userMsgEntity = storageManager.storeIncomingMessageUnit(userMessage);
+        storageManager.setProcessingState(userMsgEntity, ProcessingState.RECEIVED, ProcessingState.PROCESSING);
+        storageManager.setProcessingState(userMsgEntity, ProcessingState.DELIVERED);
+
+        // The commit handler at the end of the phase must save the updates, before the flow is completed
+        assertEquals(Handler.InvocationResponse.CONTINUE, new CommitUnitOfWorkHandler().invoke(mc));
+
+        final IMessageUnitEntity stored = core.getQueryManager().getMessageUnitsWithId(userMessage.getMessageId())
+                                                                 .iterator().next();
+        assertEquals(ProcessingState.DELIVERED, stored.getCurrentProcessingState().getState());
+    }
+
+    @Test
+    public void testCommitFailureStopsProcessing() throws Exception {
+        final MessageContext mc = new MessageContext();
+        mc.setServerSide(true);
+        mc.setFLOW(MessageContext.IN_FLOW);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, new UnitOfWorkHandler().invoke(mc));
+
+        final StorageManager storageManager = core.getStorageManager();
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId(MessageIdGenerator.createMessageId());
+        final IUserMessageEntity userMsgEntity = storageManager.storeIncomingMessageUnit(userMessage);
+        storageManager.setProcessingState(userMsgEntity, ProcessingState.RECEIVED, ProcessingState.PROCESSING);
+
+        // Another thread changes the message unit, so the updates of the unit of work can not be saved
+        final Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final IMessageUnitEntity stored = core.getQueryManager()
+                                                          .getMessageUnitsWithId(userMessage.getMessageId())
+                                                          .iterator().next();
+                    core.getStorageManager().setProcessingState(stored, ProcessingState.FAILURE);
+                } catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        other.start();
+        other.join();
+
+        try {
+            new CommitUnitOfWorkHandler().invoke(mc);
+            fail("Processing should fail when the updates can not be saved");
+        } catch (final AxisFault expected) {
+            // The failure must stop the processing of the message
+        }
+    }
+}
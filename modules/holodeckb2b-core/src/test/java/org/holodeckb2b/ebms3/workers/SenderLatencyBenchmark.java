@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.workers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+
+/**
+ * Benchmark for the latency between the moment a message unit becomes ready to push and the moment the {@link
+ * SenderWorker} starts sending it, comparing the worker polling the database at a fixed interval with the worker taking
+ * the message units from the {@link ReadyToPushQueue}. The database and the actual sending are simulated.
+ * <p>The polling interval in seconds and the number of message units can be given as arguments, by default the 10
+ * seconds of the default configuration is used and 20 message units are submitted at random moments.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class SenderLatencyBenchmark {
+
+    /**
+     * Sender worker using a simulated database and recording the latency of each message unit
+     */
+    static class BenchmarkSenderWorker extends SenderWorker {
+        final ConcurrentLinkedQueue<IMessageUnitEntity> database = new ConcurrentLinkedQueue<>();
+        final Map<String, Long>     readyAt = new ConcurrentHashMap<>();
+        final List<Long>            latencies = new ArrayList<>();
+        CountDownLatch              allSent;
+
+        void submit(final IMessageUnitEntity msgUnit, final boolean signal) {
+            readyAt.put(msgUnit.getMessageId(), System.nanoTime());
+            database.add(msgUnit);
+            if (signal)
+                ReadyToPushQueue.signal(msgUnit);
+        }
+
+        @Override
+        List<IMessageUnitEntity> getWaitingMessageUnits(final IMessageUnitEntity lastMsgUnit) {
+            final List<IMessageUnitEntity> page = new ArrayList<>();
+            IMessageUnitEntity msgUnit;
+            while (page.size() < PAGE_SIZE && (msgUnit = database.poll()) != null)
+                page.add(msgUnit);
+            return page;
+        }
+
+        @Override
+        boolean claimForSending(final IMessageUnitEntity msgUnit) {
+            // Simulates the change of the processing state, which succeeds only when not sent yet
+            database.remove(msgUnit);
+            return readyAt.containsKey(msgUnit.getMessageId());
+        }
+
+        @Override
+        String getDestination(final IMessageUnitEntity msgUnit) {
+            return msgUnit.getPModeId();
+        }
+
+        @Override
+        void send(final IMessageUnitEntity msgUnit) {
+            final Long ready = readyAt.remove(msgUnit.getMessageId());
+            if (ready != null) {
+                synchronized (latencies) {
+                    latencies.add(System.nanoTime() - ready);
+                }
+                allSent.countDown();
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int interval = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final int msgUnits = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.printf("%d message units, polling interval %d s%n", msgUnits, interval);
+        report("polling", run(false, interval, msgUnits));
+        report("event driven", run(true, interval, msgUnits));
+        System.exit(0);
+    }
+
+    /**
+     * Submits the given number of message units at random moments spread over twice the polling interval.
+     *
+     * @return  The latencies in nanoseconds
+     */
+    private static List<Long> run(final boolean eventDriven, final int interval, final int n) throws Exception {
+        ReadyToPushQueue.clear();
+        final BenchmarkSenderWorker worker = new BenchmarkSenderWorker();
+        final Map<String, String> parameters = new HashMap<>();
+        if (eventDriven)
+            parameters.put(SenderWorker.P_RECONCILIATION_INTERVAL, "300");
+        worker.setParameters(parameters);
+        worker.allSent = new CountDownLatch(n);
+
+        // Run the worker as the worker pool would
+        final ScheduledExecutorService pool = Executors.newSingleThreadScheduledExecutor();
+        if (eventDriven)
+            pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    while (!Thread.currentThread().isInterrupted())
+                        worker.run();
+                }
+            });
+        else
+            pool.scheduleWithFixedDelay(worker, 0, interval, TimeUnit.SECONDS);
+
+        final Random r = new Random(1);
+        for (int i = 0; i < n; i++) {
+            Thread.sleep(r.nextInt(2 * interval * 1000 / n + 1));
+            worker.submit(createMessageUnit("msg-" + i), eventDriven);
+        }
+        worker.allSent.await(3 * interval, TimeUnit.SECONDS);
+        pool.shutdownNow();
+        return worker.latencies;
+    }
+
+    private static void report(final String label, final List<Long> latencies) {
+        long total = 0, max = 0;
+        for (final long l : latencies) {
+            total += l;
+            max = Math.max(max, l);
+        }
+        System.out.printf("%-14s avg %10.1f ms   max %10.1f ms%n", label, total / 1e6 / latencies.size(), max / 1e6);
+    }
+
+    private static IMessageUnitEntity createMessageUnit(final String msgId) {
+        return (IMessageUnitEntity) Proxy.newProxyInstance(SenderLatencyBenchmark.class.getClassLoader(),
+                                                            new Class<?>[] { IMessageUnitEntity.class },
+                                                            new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                switch (method.getName()) {
+                    case "getPModeId" : return "pmode";
+                    case "getMessageId" : return msgId;
+                    case "toString" : return msgId;
+                    case "hashCode" : return msgId.hashCode();
+                    case "equals" : return proxy == args[0];
+                    default: return null;
+                }
+            }
+        });
+    }
+}
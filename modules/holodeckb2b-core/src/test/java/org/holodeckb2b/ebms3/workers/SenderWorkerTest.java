@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.ebms3.workers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.interfaces.workerpool.TaskConfigurationException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the dispatching of message units by the {@link SenderWorker}. The actual claiming and sending of the message
+ * units is replaced by a test implementation.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class SenderWorkerTest {
+
+    /**
+     * Sender worker that "sends" a message unit by waiting for the given time or until the destination is opened
+     */
+    static class TestSenderWorker extends SenderWorker {
+        final Map<String, CountDownLatch>   blocked = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger>    current = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger>    maxPerDest = new ConcurrentHashMap<>();
+        final AtomicInteger                 currentTotal = new AtomicInteger();
+        final AtomicInteger                 maxTotal = new AtomicInteger();
+        final AtomicInteger                 claimed = new AtomicInteger();
+        final Map<String, AtomicInteger>    sent = new ConcurrentHashMap<>();
+        final List<IMessageUnitEntity>      waiting = new ArrayList<>();
+        final AtomicInteger                 dbChecks = new AtomicInteger();
+        final AtomicInteger                 interrupted = new AtomicInteger();
+        final List<IMessageUnitEntity>      released = new ArrayList<>();
+        int     claimFailEvery = 0;
+        long    sendTime = 0;
+
+        @Override
+        List<IMessageUnitEntity> getWaitingMessageUnits(final IMessageUnitEntity lastMsgUnit) {
+            dbChecks.incrementAndGet();
+            final List<IMessageUnitEntity> page = new ArrayList<>(waiting);
+            waiting.clear();
+            return page;
+        }
+
+        @Override
+        boolean claimForSending(final IMessageUnitEntity msgUnit) {
+            return claimFailEvery == 0 || claimed.incrementAndGet() % claimFailEvery != 0;
+        }
+
+        @Override
+        void releaseClaim(final IMessageUnitEntity msgUnit) {
+            synchronized (released) {
+                released.add(msgUnit);
+            }
+        }
+
+        @Override
+        String getDestination(final IMessageUnitEntity msgUnit) {
+            return msgUnit.getPModeId();
+        }
+
+        @Override
+        void send(final IMessageUnitEntity msgUnit) {
+            final String dest = msgUnit.getPModeId();
+            final int total = currentTotal.incrementAndGet();
+            final int perDest = counter(current, dest).incrementAndGet();
+            updateMax(maxTotal, total);
+            updateMax(counter(maxPerDest, dest), perDest);
+            try {
+                final CountDownLatch latch = blocked.get(dest);
+                if (latch != null)
+                    latch.await(10, TimeUnit.SECONDS);
+                else if (sendTime > 0)
+                    Thread.sleep(sendTime);
+            } catch (final InterruptedException cancelled) {
+                interrupted.incrementAndGet();
+                Thread.currentThread().interrupt();
+            } finally {
+                counter(current, dest).decrementAndGet();
+                currentTotal.decrementAndGet();
+                counter(sent, dest).incrementAndGet();
+            }
+        }
+
+        int getSent(final String dest) {
+            return counter(sent, dest).get();
+        }
+
+        private static synchronized AtomicInteger counter(final Map<String, AtomicInteger> map, final String dest) {
+            AtomicInteger c = map.get(dest);
+            if (c == null) {
+                c = new AtomicInteger();
+                map.put(dest, c);
+            }
+            return c;
+        }
+
+        private static void updateMax(final AtomicInteger max, final int value) {
+            int m;
+            while ((m = max.get()) < value && !max.compareAndSet(m, value));
+        }
+    }
+
+    @Test
+    public void testSequentialByDefault() throws Exception {
+        final TestSenderWorker worker = new TestSenderWorker();
+        worker.setParameters(null);
+
+        worker.dispatch(createMessageUnits(new String[] {"A", "B"}, 5));
+
+        // Without concurrency all messages are sent by the worker thread itself, so are all done
+        assertEquals(5, worker.getSent("A"));
+        assertEquals(5, worker.getSent("B"));
+        assertEquals(1, worker.maxTotal.get());
+    }
+
+    @Test
+    public void testConcurrencyLimits() throws Exception {
+        final TestSenderWorker worker = new TestSenderWorker();
+        worker.setParameters(createParameters("4", "2"));
+        worker.sendTime = 20;
+
+        worker.dispatch(createMessageUnits(new String[] {"A", "B", "C"}, 10));
+        waitUntilSent(worker, new String[] {"A", "B", "C"}, 10);
+
+        assertEquals(4, worker.maxTotal.get());
+        for (final String dest : new String[] {"A", "B", "C"})
+            assertTrue(worker.maxPerDest.get(dest).get() <= 2);
+    }
+
+    @Test
+    public void testSlowDestinationDoesNotBlockOthers() throws Exception {
+        final TestSenderWorker worker = new TestSenderWorker();
+        worker.setParameters(createParameters("3", "2"));
+        final CountDownLatch slowDestination = new CountDownLatch(1);
+        worker.blocked.put("slow", slowDestination);
+
+        final List<IMessageUnitEntity> msgUnits = createMessageUnits(new String[] {"slow"}, 2);
+        msgUnits.addAll(createMessageUnits(new String[] {"fast"}, 10));
+        // Dispatch in separate thread as dispatching the remaining messages of the slow destination must wait
+        final Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    worker.dispatch(msgUnits);
+                } catch (final Exception e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        dispatcher.start();
+
+        waitUntilSent(worker, new String[] {"fast"}, 10);
+        assertEquals(0, worker.getSent("slow"));
+
+        slowDestination.countDown();
+        dispatcher.join(10000);
+        waitUntilSent(worker, new String[] {"slow"}, 2);
+    }
+
+    @Test
+    public void testFailedClaimReleasesSlot() throws Exception {
+        final TestSenderWorker worker = new TestSenderWorker();
+        worker.setParameters(createParameters("2", "1"));
+        worker.claimFailEvery = 2;
+
+        worker.dispatch(createMessageUnits(new String[] {"A"}, 10));
+        waitUntilSent(worker, new String[] {"A"}, 5);
+        Thread.sleep(100);
+        assertEquals(5, worker.getSent("A"));
+    }
+
+    @Test
+    public void testPollsDatabaseByDefault() throws Exception {
+        final TestSenderWorker worker = new TestSenderWorker();
+        worker.setParameters(null);
+        worker.waiting.addAll(createMessageUnits(new String[] {"A"}, 3));
+        ReadyToPushQueue.signal(createMessageUnits(new String[] {"B"}, 1).get(0));
+
+        worker.doProcessing();
+
+        assertEquals(3, worker.getSent("A"));
+        // The queue is not used and therefore cleared
+        assertEquals(0, worker.getSent("B"));
+        assertEquals(0, ReadyToPushQueue.size());
+    }
+
+    @Test
+    public void testSendsSignalledMessageUnits() throws Exception {
+        ReadyToPushQueue.clear();
+        final TestSenderWorker worker = new TestSenderWorker();
+        final Map<String, String> parameters = createParameters("2", null);
+        parameters.put(SenderWorker.P_RECONCILIATION_INTERVAL, "60");
+        worker.setParameters(parameters);
+        worker.waiting.addAll(createMessageUnits(new String[] {"waiting"}, 2));
+
+        final Thread workerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted())
+                    worker.run();
+            }
+        });
+        workerThread.start();
+        try {
+            // The first run checks the database for message units that were waiting already
+            waitUntilSent(worker, new String[] {"waiting"}, 2);
+
+            // Only the change to READY_TO_PUSH should add the message units to the queue
+            for (final IMessageUnitEntity msgUnit : createMessageUnits(new String[] {"A", "B"}, 5)) {
+                ReadyToPushQueue.LISTENER.processingStateChanged(msgUnit, ProcessingState.SUBMITTED);
+                ReadyToPushQueue.LISTENER.processingStateChanged(msgUnit, ProcessingState.READY_TO_PUSH);
+            }
+            waitUntilSent(worker, new String[] {"A", "B"}, 5);
+            // The database must not be checked again before the reconciliation interval has passed
+            assertEquals(1, worker.dbChecks.get());
+        } finally {
+            workerThread.interrupt();
+            workerThread.join(10000);
+        }
+        assertTrue(!workerThread.isAlive());
+    }
+
+    @Test
+    public void testChecksDatabaseAfterOverflow() throws Exception {
+        ReadyToPushQueue.clear();
+        final TestSenderWorker worker = new TestSenderWorker();
+        final Map<String, String> parameters = createParameters("2", null);
+        parameters.put(SenderWorker.P_RECONCILIATION_INTERVAL, "60");
+        worker.setParameters(parameters);
+        // The first run checks the database, the signalled message unit ensures it does not wait for the next one
+        ReadyToPushQueue.signal(createMessageUnits(new String[] {"B"}, 1).get(0));
+        worker.doProcessing();
+        assertEquals(1, worker.dbChecks.get());
+        waitUntilSent(worker, new String[] {"B"}, 1);
+
+        final List<IMessageUnitEntity> msgUnits = createMessageUnits(new String[] {"A"},
+                                                                     ReadyToPushQueue.MAX_QUEUED + 1);
+        for (final IMessageUnitEntity msgUnit : msgUnits)
+            ReadyToPushQueue.signal(msgUnit);
+        worker.waiting.addAll(msgUnits);
+
+        // The message unit that did not fit in the queue must be found directly in the database
+        worker.doProcessing();
+        assertEquals(2, worker.dbChecks.get());
+        assertEquals(0, ReadyToPushQueue.size());
+        waitUntilSent(worker, new String[] {"A"}, ReadyToPushQueue.MAX_QUEUED + 1);
+    }
+
+    @Test
+    public void testStopWaitsForSends() throws Exception {
+        final TestSenderWorker worker = new TestSenderWorker();
+        worker.setParameters(createParameters("2", null));
+        worker.sendTime = 200;
+
+        worker.dispatch(createMessageUnits(new String[] {"A"}, 2));
+        worker.stop(10);
+
+        // The messages being sent must be completely sent when the worker is stopped
+        assertEquals(2, worker.getSent("A"));
+        assertEquals(0, worker.interrupted.get());
+        assertTrue(worker.released.isEmpty());
+    }
+
+    @Test
+    public void testStopCancelsSends() throws Exception {
+        final TestSenderWorker worker = new TestSenderWorker();
+        worker.setParameters(createParameters("2", null));
+        worker.blocked.put("blocked", new CountDownLatch(1));
+
+        final List<IMessageUnitEntity> blockedMsgUnits = createMessageUnits(new String[] {"blocked"}, 2);
+        worker.dispatch(blockedMsgUnits);
+        worker.stop(0);
+
+        // The sends that did not finish in time must be interrupted and their message units released
+        waitUntilSent(worker, new String[] {"blocked"}, 2);
+        assertEquals(2, worker.interrupted.get());
+        assertEquals(2, worker.released.size());
+        for (final IMessageUnitEntity msgUnit : blockedMsgUnits)
+            assertTrue(containsSame(worker.released, msgUnit));
+
+        // Message units dispatched after the worker was stopped must not be sent but left for the next run
+        final List<IMessageUnitEntity> msgUnits = createMessageUnits(new String[] {"A"}, 1);
+        worker.dispatch(msgUnits);
+        assertEquals(0, worker.getSent("A"));
+        assertEquals(3, worker.released.size());
+        assertSame(msgUnits.get(0), worker.released.get(2));
+    }
+
+    @Test
+    public void testInvalidParameter() {
+        try {
+            new TestSenderWorker().setParameters(createParameters("zero", null));
+            fail("Invalid parameter value should be rejected");
+        } catch (final TaskConfigurationException expected) {}
+        try {
+            new TestSenderWorker().setParameters(createParameters("0", null));
+            fail("Invalid parameter value should be rejected");
+        } catch (final TaskConfigurationException expected) {}
+    }
+
+    private static void waitUntilSent(final TestSenderWorker worker, final String[] destinations, final int n)
+                                                                                        throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        for (final String dest : destinations) {
+            while (worker.getSent(dest) < n && System.currentTimeMillis() < end)
+                Thread.sleep(10);
+            assertEquals(n, worker.getSent(dest));
+        }
+    }
+
+    private static boolean containsSame(final List<IMessageUnitEntity> msgUnits, final IMessageUnitEntity msgUnit) {
+        for (final IMessageUnitEntity m : msgUnits)
+            if (m == msgUnit)
+                return true;
+        return false;
+    }
+
+    private static Map<String, String> createParameters(final String maxTotal, final String maxPerDest) {
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put(SenderWorker.P_MAX_CONCURRENT_SENDS, maxTotal);
+        if (maxPerDest != null)
+            parameters.put(SenderWorker.P_MAX_CONCURRENT_PER_DEST, maxPerDest);
+        return parameters;
+    }
+
+    /**
+     * Creates message units for each given destination. The destination is used as P-Mode id.
+     */
+    private static List<IMessageUnitEntity> createMessageUnits(final String[] destinations, final int n) {
+        final List<IMessageUnitEntity> msgUnits = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            for (final String dest : destinations) {
+                final String msgId = dest + "-" + i;
+                msgUnits.add((IMessageUnitEntity) Proxy.newProxyInstance(SenderWorkerTest.class.getClassLoader(),
+                                                            new Class<?>[] { IMessageUnitEntity.class },
+                                                            new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        switch (method.getName()) {
+                            case "getPModeId" : return dest;
+                            case "getMessageId" : return msgId;
+                            case "toString" : return msgId;
+                            default: return null;
+                        }
+                    }
+                }));
+            }
+        return msgUnits;
+    }
+}
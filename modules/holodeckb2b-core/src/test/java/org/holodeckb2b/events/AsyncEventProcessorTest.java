@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEvent;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandler;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandlerFactory;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.pmode.helpers.EventHandlerConfig;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class AsyncEventProcessorTest {
+
+    private static final String PMODE_ID = "async-events-pmode";
+
+    private static HolodeckB2BTestCore core;
+
+    /*
+     * The number of times a factory was initialized
+     */
+    private static final AtomicInteger initCount = new AtomicInteger();
+    /*
+     * The number of threads currently in and the maximum number of threads at the same time in createHandler()
+     */
+    private static final AtomicInteger creating = new AtomicInteger();
+    private static final AtomicInteger maxCreating = new AtomicInteger();
+    /*
+     * The events handled by the handlers and the threads that handled them
+     */
+    private static final List<IMessageProcessingEvent> handled = Collections.synchronizedList(
+                                                                        new ArrayList<IMessageProcessingEvent>());
+    private static final List<Thread> handlerThreads = Collections.synchronizedList(new ArrayList<Thread>());
+    /*
+     * When set the workers of the asynchronous processor wait for it before handling an event
+     */
+    private static volatile CountDownLatch gate;
+
+    private AsyncEventProcessor processor;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        core = new HolodeckB2BTestCore(AsyncEventProcessorTest.class.getClassLoader().getResource("handlers")
+                                                                                      .getPath());
+        HolodeckB2BCoreInterface.setImplementation(core);
+
+        final EventHandlerConfig eventConfig = new EventHandlerConfig();
+        eventConfig.setFactoryClass(TestHandlerFactory.class.getName());
+        final Leg leg = new Leg();
+        leg.addMessageProcessingEventConfiguration(eventConfig);
+        final PMode pmode = new PMode();
+        pmode.setId(PMODE_ID);
+        pmode.addLeg(leg);
+        core.getPModeSet().add(pmode);
+    }
+
+    @Before
+    public void setUp() {
+        initCount.set(0);
+        maxCreating.set(0);
+        handled.clear();
+        handlerThreads.clear();
+        gate = null;
+    }
+
+    @After
+    public void tearDown() {
+        if (gate != null)
+            gate.countDown();
+        if (processor != null)
+            processor.shutdown(10);
+    }
+
+    private static IMessageProcessingEvent createEvent(final int i) {
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId("async-event-test-" + i);
+        userMessage.setPModeId(PMODE_ID);
+        return new MessageUnitPurgedEvent(userMessage);
+    }
+
+    private static List<IMessageProcessingEvent> raiseEvents(final IMessageProcessingEventProcessor processor,
+                                                             final int n) {
+        final List<IMessageProcessingEvent> events = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final IMessageProcessingEvent event = createEvent(i);
+            events.add(event);
+            processor.raiseEvent(event, null);
+        }
+        return events;
+    }
+
+    @Test
+    public void testSyncFactoryInitializedOnce() {
+        final List<IMessageProcessingEvent> events = raiseEvents(new SyncEventProcessor(), 10);
+
+        assertEquals(1, initCount.get());
+        assertEquals(events, handled);
+        for (final Thread t : handlerThreads)
+            assertEquals(Thread.currentThread(), t);
+    }
+
+    @Test
+    public void testHandledInOrderByWorker() {
+        processor = new AsyncEventProcessor(4, 100, AsyncEventProcessor.FullQueuePolicy.BLOCK);
+        final List<IMessageProcessingEvent> events = raiseEvents(processor, 50);
+        processor.shutdown(10);
+
+        assertEquals(1, initCount.get());
+        assertEquals(events, handled);
+        for (final Thread t : handlerThreads) {
+            assertFalse(Thread.currentThread().equals(t));
+            assertTrue(t.getName().startsWith("hb2b-events-"));
+        }
+    }
+
+    @Test
+    public void testCreateHandlerNotCalledConcurrently() throws Exception {
+        // The cached factory is shared by all threads raising events
+        final SyncEventProcessor syncProcessor = new SyncEventProcessor();
+        final Thread[] raisers = new Thread[4];
+        for (int i = 0; i < raisers.length; i++) {
+            raisers[i] = new Thread() {
+                @Override
+                public void run() {
+                    raiseEvents(syncProcessor, 10);
+                }
+            };
+            raisers[i].start();
+        }
+        for (final Thread t : raisers)
+            t.join(10000);
+
+        assertEquals(1, initCount.get());
+        assertEquals(40, handled.size());
+        assertEquals(1, maxCreating.get());
+    }
+
+    @Test
+    public void testRaiseDoesNotWaitForHandler() throws Exception {
+        gate = new CountDownLatch(1);
+        processor = new AsyncEventProcessor(1, 10, AsyncEventProcessor.FullQueuePolicy.BLOCK);
+        final List<IMessageProcessingEvent> events = raiseEvents(processor, 5);
+
+        // The handler is still waiting for the gate, but the events have been raised
+        assertTrue(handled.isEmpty());
+        gate.countDown();
+        processor.shutdown(10);
+        assertEquals(events, handled);
+    }
+
+    @Test
+    public void testDiscardWhenFull() throws Exception {
+        gate = new CountDownLatch(1);
+        processor = new AsyncEventProcessor(1, 1, AsyncEventProcessor.FullQueuePolicy.DISCARD);
+        // First event is taken by the worker, second is queued and third does not fit
+        final List<IMessageProcessingEvent> events = raiseEvents(processor, 3);
+        gate.countDown();
+        processor.shutdown(10);
+
+        assertEquals(events.subList(0, 2), handled);
+    }
+
+    @Test
+    public void testCallerRunsWhenFull() throws Exception {
+        gate = new CountDownLatch(1);
+        processor = new AsyncEventProcessor(1, 1, AsyncEventProcessor.FullQueuePolicy.CALLER_RUNS);
+        final List<IMessageProcessingEvent> events = raiseEvents(processor, 3);
+
+        // The third event is handled directly by the raising thread
+        assertEquals(1, handled.size());
+        assertEquals(events.get(2), handled.get(0));
+        assertEquals(Thread.currentThread(), handlerThreads.get(0));
+
+        gate.countDown();
+        processor.shutdown(10);
+        assertEquals(3, handled.size());
+    }
+
+    @Test
+    public void testBlockWhenFull() throws Exception {
+        gate = new CountDownLatch(1);
+        processor = new AsyncEventProcessor(1, 1, AsyncEventProcessor.FullQueuePolicy.BLOCK);
+        final List<IMessageProcessingEvent> events = raiseEvents(processor, 2);
+        final IMessageProcessingEvent third = createEvent(3);
+        final Thread raiser = new Thread() {
+            @Override
+            public void run() {
+                processor.raiseEvent(third, null);
+            }
+        };
+        raiser.start();
+        raiser.join(500);
+        // The thread raising the third event must wait until there is room in the queue
+        assertTrue(raiser.isAlive());
+
+        gate.countDown();
+        raiser.join(10000);
+        assertFalse(raiser.isAlive());
+        processor.shutdown(10);
+        events.add(third);
+        assertEquals(events, handled);
+    }
+
+    @Test
+    public void testShutdown() {
+        processor = new AsyncEventProcessor(2, 10, AsyncEventProcessor.FullQueuePolicy.BLOCK);
+        raiseEvents(processor, 5);
+        processor.shutdown(10);
+        final int handledBeforeShutdown = handled.size();
+        assertEquals(5, handledBeforeShutdown);
+
+        // Events raised after shutdown are not handled anymore
+        raiseEvents(processor, 2);
+        assertEquals(handledBeforeShutdown, handled.size());
+    }
+
+    public static class TestHandlerFactory implements IMessageProcessingEventHandlerFactory<TestHandler> {
+
+        @Override
+        public void init(final Map<String, ?> settings) {
+            initCount.incrementAndGet();
+        }
+
+        @Override
+        public TestHandler createHandler() {
+            final int c = creating.incrementAndGet();
+            int m;
+            while ((m = maxCreating.get()) < c && !maxCreating.compareAndSet(m, c));
+            try {
+                Thread.sleep(1);
+            } catch (final InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            creating.decrementAndGet();
+            return new TestHandler();
+        }
+    }
+
+    public static class TestHandler implements IMessageProcessingEventHandler {
+
+        @Override
+        public void handleEvent(final IMessageProcessingEvent event) throws IllegalArgumentException {
+            final CountDownLatch g = gate;
+            if (g != null && Thread.currentThread().getName().startsWith("hb2b-events-")) {
+                try {
+                    g.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            handlerThreads.add(Thread.currentThread());
+            handled.add(event);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.events;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEvent;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventConfiguration;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandler;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventHandlerFactory;
+import org.holodeckb2b.interfaces.events.IMessageProcessingEventProcessor;
+import org.holodeckb2b.pmode.helpers.EventHandlerConfig;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+
+/**
+ * Benchmark for the processing of message processing events. It simulates the processing of messages that each
+ * take some time and raise one event. It measures the time it takes to raise the event, which is the time added to the
+ * processing of the message unit, and the time until all messages are processed and all events are handled when the
+ * event handler is slow. The event processors compared are:<ul>
+ * <li>the synchronous processor that creates and initializes the handler factory for each event (the old behaviour),
+ * </li>
+ * <li>the {@link SyncEventProcessor} that reuses the initialized factory and</li>
+ * <li>the {@link AsyncEventProcessor}.</li></ul>
+ * <p>The number of messages, the time in milliseconds the processing of a message takes, the time the handler needs to
+ * handle an event and the time the factory needs to initialize can be given as arguments, by default 1000 messages,
+ * 3 ms, 2 ms and 1 ms are used.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class EventProcessorBenchmark {
+
+    private static final String PMODE_ID = "event-benchmark-pmode";
+
+    private static long messageDelay;
+    private static volatile long handlerDelay;
+    private static volatile long initDelay;
+    private static volatile CountDownLatch handledEvents;
+
+    public static void main(final String[] args) throws Exception {
+        final int numEvents = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        messageDelay = args.length > 1 ? Long.parseLong(args[1]) : 3;
+        handlerDelay = args.length > 2 ? Long.parseLong(args[2]) : 2;
+        initDelay = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        final HolodeckB2BTestCore core = new HolodeckB2BTestCore(EventProcessorBenchmark.class.getClassLoader()
+                                                                        .getResource("handlers").getPath());
+        HolodeckB2BCoreInterface.setImplementation(core);
+        final EventHandlerConfig eventConfig = new EventHandlerConfig();
+        eventConfig.setFactoryClass(BenchmarkHandlerFactory.class.getName());
+        final Leg leg = new Leg();
+        leg.addMessageProcessingEventConfiguration(eventConfig);
+        final PMode pmode = new PMode();
+        pmode.setId(PMODE_ID);
+        pmode.addLeg(leg);
+        core.getPModeSet().add(pmode);
+
+        System.out.printf("%d messages, message processing %d ms, handler %d ms, factory initialization %d ms%n",
+                          numEvents, messageDelay, handlerDelay, initDelay);
+        System.out.printf("%-22s %16s %16s%n", "Processor", "Raise (us/event)", "All handled (s)");
+        run("sync, no factory cache", new UncachedSyncEventProcessor(), numEvents);
+        run("sync", new SyncEventProcessor(), numEvents);
+        final AsyncEventProcessor async = new AsyncEventProcessor(AsyncEventProcessor.DEFAULT_WORKERS,
+                                                                  AsyncEventProcessor.DEFAULT_QUEUE_SIZE,
+                                                                  AsyncEventProcessor.FullQueuePolicy.BLOCK);
+        run("async", async, numEvents);
+        async.shutdown(10);
+        System.exit(0);
+    }
+
+    private static void run(final String name, final IMessageProcessingEventProcessor processor, final int n)
+                                                                                    throws InterruptedException {
+        // Warm up
+        handledEvents = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++)
+            processor.raiseEvent(createEvent(i), null);
+        handledEvents.await(60, TimeUnit.SECONDS);
+
+        handledEvents = new CountDownLatch(n);
+        long raiseTime = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            sleep(messageDelay);
+            final IMessageProcessingEvent event = createEvent(i);
+            final long t = System.nanoTime();
+            processor.raiseEvent(event, null);
+            raiseTime += System.nanoTime() - t;
+        }
+        handledEvents.await(10, TimeUnit.MINUTES);
+        final long total = System.nanoTime() - start;
+        System.out.printf("%-22s %16.1f %16.2f%n", name, raiseTime / 1e3 / n, total / 1e9);
+    }
+
+    private static IMessageProcessingEvent createEvent(final int i) {
+        final UserMessage userMessage = new UserMessage();
+        userMessage.setMessageId("event-benchmark-" + i);
+        userMessage.setPModeId(PMODE_ID);
+        return new MessageUnitPurgedEvent(userMessage);
+    }
+
+    private static void sleep(final long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (final InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Synchronous processor that creates and initializes a new factory for each event, as was done before the
+     * factories were cached.
+     */
+    static class UncachedSyncEventProcessor extends SyncEventProcessor {
+        @Override
+        protected void handleEvent(final IMessageProcessingEventConfiguration handlerCfg,
+                                   final IMessageProcessingEvent event) {
+            try {
+                final IMessageProcessingEventHandlerFactory factory = (IMessageProcessingEventHandlerFactory)
+                                                            Class.forName(handlerCfg.getFactoryClass()).newInstance();
+                factory.init(handlerCfg.getHandlerSettings());
+                factory.createHandler().handleEvent(event);
+            } catch (final Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    public static class BenchmarkHandlerFactory implements IMessageProcessingEventHandlerFactory<BenchmarkHandler> {
+
+        @Override
+        public void init(final Map<String, ?> settings) {
+            sleep(initDelay);
+        }
+
+        @Override
+        public BenchmarkHandler createHandler() {
+            return new BenchmarkHandler();
+        }
+    }
+
+    public static class BenchmarkHandler implements IMessageProcessingEventHandler {
+
+        @Override
+        public void handleEvent(final IMessageProcessingEvent event) throws IllegalArgumentException {
+            sleep(handlerDelay);
+            handledEvents.countDown();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.interfaces.pmode.PModeSetException;
+import org.holodeckb2b.pmode.helpers.Agreement;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link InMemoryPModeSet}, including concurrent changes and reads of the set.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class InMemoryPModeSetTest {
+
+    private static final int NUM_PMODES = 50;
+    private static final int NUM_READERS = 8;
+    private static final int NUM_RELOADS = 200;
+
+    @Test
+    public void testAddReplaceRemove() throws PModeSetException {
+        final InMemoryPModeSet pmodeSet = new InMemoryPModeSet();
+
+        final PMode p1 = createPMode("pm-1", 0);
+        assertEquals("pm-1", pmodeSet.add(p1));
+        assertSame(p1, pmodeSet.get("pm-1"));
+
+        try {
+            pmodeSet.add(createPMode("pm-1", 1));
+            fail("Adding a P-Mode with existing id should fail");
+        } catch (PModeSetException expected) {}
+
+        // A P-Mode without id should get one assigned and keep it after other changes
+        final String generatedId = pmodeSet.add(createPMode(null, 0));
+        assertNotNull(generatedId);
+        final PMode p1v2 = createPMode("pm-1", 1);
+        pmodeSet.replace(p1v2);
+        assertSame(p1v2, pmodeSet.get("pm-1"));
+        assertTrue(pmodeSet.containsId(generatedId));
+
+        try {
+            pmodeSet.replace(createPMode("pm-2", 0));
+            fail("Replacing a non existing P-Mode should fail");
+        } catch (PModeSetException expected) {}
+
+        pmodeSet.remove("pm-1");
+        assertNull(pmodeSet.get("pm-1"));
+        assertEquals(1, pmodeSet.getAll().size());
+
+        pmodeSet.removeAll();
+        assertTrue(pmodeSet.getAll().isEmpty());
+    }
+
+    @Test
+    public void testSnapshotNotChanged() throws PModeSetException {
+        final InMemoryPModeSet pmodeSet = new InMemoryPModeSet();
+        pmodeSet.add(createPMode("pm-1", 0));
+
+        final PModeSetSnapshot snapshot = pmodeSet.getSnapshot();
+        pmodeSet.add(createPMode("pm-2", 0));
+        pmodeSet.remove("pm-1");
+
+        assertEquals(1, snapshot.size());
+        assertTrue(snapshot.containsId("pm-1"));
+        assertFalse(snapshot.containsId("pm-2"));
+        assertTrue(pmodeSet.getSnapshot().getVersion() > snapshot.getVersion());
+
+        try {
+            snapshot.add(createPMode("pm-3", 0));
+            fail("A snapshot should not be changeable");
+        } catch (PModeSetException expected) {}
+    }
+
+    @Test
+    public void testConcurrentReloadAndLookup() throws Exception {
+        final InMemoryPModeSet pmodeSet = new InMemoryPModeSet();
+        for (int i = 0; i < NUM_PMODES; i++)
+            pmodeSet.add(createPMode("pm-" + i, 0));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_READERS + 1);
+        final CountDownLatch reloadsDone = new CountDownLatch(1);
+        final List<Future<Integer>> readers = new ArrayList<>();
+
+        // The "watcher" which reloads all P-Modes, each reload using a new "generation" of the P-Modes
+        final Future<Integer> reloader = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                try {
+                    for (int r = 1; r <= NUM_RELOADS; r++) {
+                        for (int i = 0; i < NUM_PMODES; i++)
+                            pmodeSet.replace(createPMode("pm-" + i, r));
+                        // Also add and remove a P-Mode to change the size of the set
+                        pmodeSet.add(createPMode("tmp", r));
+                        pmodeSet.remove("tmp");
+                    }
+                    return NUM_RELOADS;
+                } finally {
+                    reloadsDone.countDown();
+                }
+            }
+        });
+
+        for (int t = 0; t < NUM_READERS; t++)
+            readers.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int lookups = 0;
+                    long lastVersion = -1;
+                    do {
+                        final PModeSetSnapshot snapshot = pmodeSet.getSnapshot();
+                        assertTrue("Version decreased", snapshot.getVersion() >= lastVersion);
+                        lastVersion = snapshot.getVersion();
+
+                        // All iterations over the pinned snapshot must give the same result
+                        final int size = snapshot.size();
+                        int count = 0;
+                        for (final IPMode p : snapshot.getAll()) {
+                            assertSame(p, snapshot.get(p.getId()));
+                            count++;
+                        }
+                        assertEquals(size, count);
+                        assertTrue(size == NUM_PMODES || size == NUM_PMODES + 1);
+
+                        // And lookups on the live set should never fail
+                        for (int i = 0; i < NUM_PMODES; i++)
+                            assertNotNull(pmodeSet.get("pm-" + i));
+                        for (final IPMode p : pmodeSet.getAll())
+                            assertNotNull(p.getId());
+                        lookups++;
+                    } while (reloadsDone.getCount() > 0);
+                    return lookups;
+                }
+            }));
+
+        assertEquals(Integer.valueOf(NUM_RELOADS), reloader.get(60, TimeUnit.SECONDS));
+        for (final Future<Integer> reader : readers)
+            assertTrue(reader.get(60, TimeUnit.SECONDS) > 0);
+        executor.shutdown();
+
+        // Finally all P-Modes in the set should be of the last generation
+        for (final IPMode p : pmodeSet.getAll())
+            assertEquals(Integer.toString(NUM_RELOADS), p.getAgreement().getName());
+        assertEquals(NUM_PMODES, pmodeSet.getAll().size());
+    }
+
+    private static PMode createPMode(final String id, final int generation) {
+        final PMode p = new PMode();
+        p.setId(id);
+        // Use the agreement name to indicate the "generation" of the P-Mode
+        final Agreement agreement = new Agreement();
+        agreement.setName(Integer.toString(generation));
+        p.setAgreement(agreement);
+        return p;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.holodeckb2b.common.messagemodel.CollaborationInfo;
+import org.holodeckb2b.common.messagemodel.TradingPartner;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.general.EbMSConstants;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.pmode.helpers.BusinessInfo;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.holodeckb2b.pmode.helpers.PartnerConfig;
+import org.holodeckb2b.pmode.helpers.PartyId;
+import org.holodeckb2b.pmode.helpers.Service;
+import org.holodeckb2b.pmode.helpers.UserMessageFlow;
+
+/**
+ * Benchmark for finding the P-Mode of a received User Message. It compares evaluating all deployed P-Modes, which is
+ * what {@link PModeFinder#forReceivedUserMessage(org.holodeckb2b.interfaces.messagemodel.IUserMessage)} did before,
+ * with only evaluating the candidates returned by the {@link PModeMatchingIndex}.
+ * <p>Each P-Mode has its own party and uses one of 50 services and 7 actions. The numbers of deployed P-Modes can be
+ * given as arguments, by default 10, 1,000 and 10,000 P-Modes are used.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PModeFinderBenchmark {
+
+    private static final int SERVICES = 50;
+    private static final int ACTIONS = 7;
+
+    private static final int MESSAGES = 1000;
+
+    /*
+     * The messages are searched repeatedly for small P-Mode sets so the measured time is large enough
+     */
+    private static final int MIN_SEARCHES_PER_PMODE = 10000;
+
+    private static final int WARM_UP_ROUNDS = 5;
+
+    public static void main(final String[] args) {
+        final int[] sizes = args.length > 0 ? new int[args.length] : new int[] { 10, 1000, 10000 };
+        for (int i = 0; i < args.length; i++)
+            sizes[i] = Integer.parseInt(args[i]);
+
+        System.out.printf("%-8s %-8s %12s%n", "P-Modes", "Search", "us/msg");
+        for (final int n : sizes) {
+            final List<IPMode> allPModes = new ArrayList<>(n);
+            final PModeMatchingIndex index = new PModeMatchingIndex();
+            for (int i = 0; i < n; i++) {
+                final PMode p = createPMode("pm-" + i, "svc-" + (i % SERVICES), "act-" + (i % ACTIONS), "party-" + i);
+                allPModes.add(p);
+                index.add(p.getId(), p);
+            }
+            final UserMessage[] messages = new UserMessage[MESSAGES];
+            for (int m = 0; m < MESSAGES; m++) {
+                final int i = (m * 7919) % n;
+                messages[m] = createUserMessage("svc-" + (i % SERVICES), "act-" + (i % ACTIONS), "party-" + i);
+            }
+
+            final int rounds = Math.max(1, MIN_SEARCHES_PER_PMODE / n);
+
+            // Warm up
+            for (int w = 0; w < WARM_UP_ROUNDS; w++) {
+                runLinear(allPModes, messages, rounds);
+                runIndexed(index, messages, rounds);
+            }
+
+            report(n, "linear", runLinear(allPModes, messages, rounds), rounds);
+            report(n, "indexed", runIndexed(index, messages, rounds), rounds);
+        }
+    }
+
+    private static void report(final int pmodes, final String name, final long nanos, final int rounds) {
+        System.out.printf("%-8d %-8s %12.2f%n", pmodes, name, nanos / 1e3 / MESSAGES / rounds);
+    }
+
+    /**
+     * Finds the P-Mode of each message the given number of times by evaluating all P-Modes.
+     *
+     * @return  The total time in nanoseconds
+     */
+    private static long runLinear(final List<IPMode> allPModes, final UserMessage[] messages, final int rounds) {
+        final long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (final UserMessage um : messages)
+                if (findBestMatch(allPModes, um) == null)
+                    throw new IllegalStateException("No P-Mode found");
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Finds the P-Mode of each message the given number of times by only evaluating the candidates from the index.
+     *
+     * @return  The total time in nanoseconds
+     */
+    private static long runIndexed(final PModeMatchingIndex index, final UserMessage[] messages, final int rounds) {
+        final long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (final UserMessage um : messages)
+                if (findBestMatch(index.getCandidates(um), um) == null)
+                    throw new IllegalStateException("No P-Mode found");
+        return System.nanoTime() - start;
+    }
+
+    private static IPMode findBestMatch(final Collection<IPMode> pmodes, final UserMessage um) {
+        IPMode hPMode = null; int hValue = 0;
+        for (final IPMode p : pmodes) {
+            if (PModeFinder.isForSendingUserMessages(p))
+                continue;
+            final int cValue = PModeFinder.calculateMatch(p, um);
+            if (cValue > hValue) {
+                hValue = cValue;
+                hPMode = p;
+            }
+        }
+        return hPMode;
+    }
+
+    private static PMode createPMode(final String id, final String svc, final String action, final String party) {
+        final PMode p = new PMode();
+        p.setId(id);
+        p.setMep(EbMSConstants.ONE_WAY_MEP);
+        p.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+
+        final PartnerConfig responder = new PartnerConfig();
+        final PartyId pid = new PartyId();
+        pid.setId(party);
+        responder.addPartyId(pid);
+        p.setResponder(responder);
+
+        final BusinessInfo bi = new BusinessInfo();
+        final Service service = new Service();
+        service.setName(svc);
+        bi.setService(service);
+        bi.setAction(action);
+        final UserMessageFlow flow = new UserMessageFlow();
+        flow.setBusinnessInfo(bi);
+        final Leg leg = new Leg();
+        leg.setUserMessageFlow(flow);
+        p.addLeg(leg);
+
+        return p;
+    }
+
+    private static UserMessage createUserMessage(final String svc, final String action, final String party) {
+        final UserMessage um = new UserMessage();
+        final CollaborationInfo ci = new CollaborationInfo();
+        ci.setService(new org.holodeckb2b.common.messagemodel.Service(svc));
+        ci.setAction(action);
+        um.setCollaborationInfo(ci);
+        um.setSender(new TradingPartner());
+        final TradingPartner receiver = new TradingPartner();
+        receiver.addPartyId(new org.holodeckb2b.common.messagemodel.PartyId(party, null));
+        um.setReceiver(receiver);
+        return um;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.holodeckb2b.ebms3.constants.SecurityConstants;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.pmode.PModeLookupCache.LookupType;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.holodeckb2b.security.tokens.IAuthenticationInfo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the {@link PModeLookupCache}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PModeLookupCacheTest {
+
+    @Test
+    public void testCacheAndInvalidate() {
+        final PModeLookupCache cache = new PModeLookupCache();
+        final Collection<IPMode> result = new ArrayList<>();
+        result.add(new PMode());
+
+        assertNull(cache.get(LookupType.ERRORS_TO, "http://localhost/errors"));
+        final Collection<IPMode> cached = cache.put(cache.getVersion(), LookupType.ERRORS_TO,
+                                                    "http://localhost/errors", result);
+        assertSame(cached, cache.get(LookupType.ERRORS_TO, "http://localhost/errors"));
+        // The same key for another lookup type should not result in a hit
+        assertNull(cache.get(LookupType.RECEIPTS_TO, "http://localhost/errors"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.invalidate();
+        assertNull(cache.get(LookupType.ERRORS_TO, "http://localhost/errors"));
+    }
+
+    @Test
+    public void testStaleResultNotCached() {
+        final PModeLookupCache cache = new PModeLookupCache();
+        final long version = cache.getVersion();
+
+        // The P-Mode set changes while the lookup is executed
+        cache.invalidate();
+        cache.put(version, LookupType.RECEIPTS_TO, "http://localhost/receipts", new ArrayList<IPMode>());
+
+        assertNull(cache.get(LookupType.RECEIPTS_TO, "http://localhost/receipts"));
+    }
+
+    @Test
+    public void testPullingKey() {
+        final String key = PModeLookupCache.getPullingKey(null, "http://test.holodeck-b2b.org/mpc");
+        assertNotNull(key);
+        assertEquals(key, PModeLookupCache.getPullingKey(new HashMap<String, IAuthenticationInfo>(),
+                                                         "http://TEST.holodeck-b2b.org/mpc"));
+        assertFalse(key.equals(PModeLookupCache.getPullingKey(null, "http://test.holodeck-b2b.org/mpc/sub")));
+        assertFalse(key.equals(PModeLookupCache.getPullingKey(null, null)));
+
+        // Unknown types of authentication info should not be cached
+        final Map<String, IAuthenticationInfo> authInfo = new HashMap<>();
+        authInfo.put(SecurityConstants.SIGNATURE, new IAuthenticationInfo() {});
+        assertNull(PModeLookupCache.getPullingKey(authInfo, "http://test.holodeck-b2b.org/mpc"));
+    }
+}
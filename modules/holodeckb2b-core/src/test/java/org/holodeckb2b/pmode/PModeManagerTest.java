@@ -17,11 +17,17 @@
 package org.holodeckb2b.pmode;
 
 import org.holodeckb2b.common.config.InternalConfiguration;
+import org.holodeckb2b.common.messagemodel.CollaborationInfo;
+import org.holodeckb2b.common.messagemodel.TradingPartner;
+import org.holodeckb2b.common.messagemodel.UserMessage;
 import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
 import org.holodeckb2b.interfaces.general.EbMSConstants;
 import org.holodeckb2b.interfaces.pmode.PModeSetException;
+import org.holodeckb2b.pmode.helpers.BusinessInfo;
 import org.holodeckb2b.pmode.helpers.Leg;
 import org.holodeckb2b.pmode.helpers.PMode;
+import org.holodeckb2b.pmode.helpers.Service;
+import org.holodeckb2b.pmode.helpers.UserMessageFlow;
 import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
 import org.junit.After;
 import org.junit.Before;
@@ -92,4 +98,69 @@ public class PModeManagerTest {
 
         assertTrue(manager.containsId("123"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPinnedSnapshot() throws PModeSetException {
+        validPMode.setId("pinned");
+        validPMode.setMep(EbMSConstants.ONE_WAY_MEP);
+        validPMode.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+        validPMode.addLeg(new Leg());
+
+        final PModeSetSnapshot before = manager.getSnapshot();
+        assertFalse(before.containsId("pinned"));
+        manager.add(validPMode);
+
+        // The pinned snapshot does not change, but a new one contains the added P-Mode
+        assertFalse(before.containsId("pinned"));
+        final PModeSetSnapshot after = manager.getSnapshot();
+        assertTrue(after.containsId("pinned"));
+        assertTrue(after.getVersion() > before.getVersion());
+
+        manager.remove("pinned");
+        assertTrue(after.containsId("pinned"));
+        assertFalse(manager.getSnapshot().containsId("pinned"));
+    }
+
+    @Test
+    public void testPrePopulatedStorageIndexed() {
+        final PModeManager prePopulatedManager = new PModeManager(null, PrePopulatedPModeSet.class.getName());
+        assertTrue(prePopulatedManager.containsId(PrePopulatedPModeSet.PMODE_ID));
+
+        final UserMessage um = new UserMessage();
+        final CollaborationInfo ci = new CollaborationInfo();
+        ci.setService(new org.holodeckb2b.common.messagemodel.Service("svc-pre"));
+        ci.setAction("act-pre");
+        um.setCollaborationInfo(ci);
+        um.setSender(new TradingPartner());
+        um.setReceiver(new TradingPartner());
+
+        assertTrue(prePopulatedManager.getMatchingCandidates(um)
+                                      .contains(prePopulatedManager.get(PrePopulatedPModeSet.PMODE_ID)));
+    }
+
+    /**
+     * P-Mode storage that already contains a P-Mode when created, like a persistent store would.
+     */
+    public static class PrePopulatedPModeSet extends InMemoryPModeSet {
+
+        static final String PMODE_ID = "pre-populated";
+
+        public PrePopulatedPModeSet() throws PModeSetException {
+            final PMode p = new PMode();
+            p.setId(PMODE_ID);
+            p.setMep(EbMSConstants.ONE_WAY_MEP);
+            p.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+            final BusinessInfo bi = new BusinessInfo();
+            final Service svc = new Service();
+            svc.setName("svc-pre");
+            bi.setService(svc);
+            bi.setAction("act-pre");
+            final UserMessageFlow flow = new UserMessageFlow();
+            flow.setBusinnessInfo(bi);
+            final Leg leg = new Leg();
+            leg.setUserMessageFlow(flow);
+            p.addLeg(leg);
+            add(p);
+        }
+    }
+}
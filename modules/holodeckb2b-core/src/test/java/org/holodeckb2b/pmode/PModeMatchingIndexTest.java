@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.pmode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.holodeckb2b.common.messagemodel.CollaborationInfo;
+import org.holodeckb2b.common.messagemodel.TradingPartner;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.general.EbMSConstants;
+import org.holodeckb2b.interfaces.pmode.ILeg;
+import org.holodeckb2b.interfaces.pmode.IPMode;
+import org.holodeckb2b.pmode.helpers.BusinessInfo;
+import org.holodeckb2b.pmode.helpers.Leg;
+import org.holodeckb2b.pmode.helpers.PMode;
+import org.holodeckb2b.pmode.helpers.PartnerConfig;
+import org.holodeckb2b.pmode.helpers.PartyId;
+import org.holodeckb2b.pmode.helpers.Protocol;
+import org.holodeckb2b.pmode.helpers.Service;
+import org.holodeckb2b.pmode.helpers.UserMessageFlow;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link PModeMatchingIndex} returns all P-Modes that can match a User Message, so that finding the
+ * P-Mode using the index gives the same result as evaluating all P-Modes.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PModeMatchingIndexTest {
+
+    private static final String[] SERVICES = { null, "svc-1", "svc-2" };
+    private static final String[] ACTIONS = { null, "act-1", "act-2" };
+    private static final String[] PARTIES = { null, "party-1", "party-2" };
+
+    private PModeMatchingIndex  index;
+    private List<IPMode>        allPModes;
+
+    @Before
+    public void setUp() {
+        index = new PModeMatchingIndex();
+        allPModes = new ArrayList<>();
+
+        int i = 0;
+        for (final String svc : SERVICES)
+            for (final String action : ACTIONS)
+                for (final String party : PARTIES) {
+                    final PMode p = createPMode("pm-" + i++, svc, action, party);
+                    index.add(p.getId(), p);
+                    allPModes.add(p);
+                }
+    }
+
+    @Test
+    public void testSameResultAsFullScan() {
+        for (final String svc : SERVICES)
+            for (final String action : ACTIONS)
+                for (final String party : PARTIES) {
+                    final UserMessage um = createUserMessage(svc != null ? svc : "other-svc", action,
+                                                             party != null ? party : "other-party");
+                    // When multiple P-Modes match equally well either can be selected, so compare the match value
+                    assertEquals(getMatchValue(findBestMatch(allPModes, um), um),
+                                 getMatchValue(findBestMatch(index.getCandidates(um), um), um));
+                }
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        final UserMessage um = createUserMessage("svc-1", "act-1", "party-1");
+        final IPMode bestMatch = findBestMatch(index.getCandidates(um), um);
+        assertNotNull(bestMatch);
+
+        // Replace the best matching P-Mode with one that has a different action
+        final PMode changed = createPMode(bestMatch.getId(), "svc-1", "act-2", "party-1");
+        index.add(changed.getId(), changed);
+        assertEquals(allPModes.size(), index.size());
+        assertFalse(index.getCandidates(um).contains(bestMatch));
+        assertFalse(index.getCandidates(um).contains(changed));
+
+        index.remove(changed.getId());
+        assertEquals(allPModes.size() - 1, index.size());
+        assertFalse(index.getCandidates(createUserMessage("svc-1", "act-2", "party-1")).contains(changed));
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.getCandidates(um).isEmpty());
+    }
+
+    @Test
+    public void testSendingPModeNotIndexed() {
+        final PMode p = createPMode("sending-pmode", "svc-1", "act-1", "party-1");
+        final Protocol protocol = new Protocol();
+        protocol.setAddress("http://localhost:8080/msh");
+        p.getLeg(ILeg.Label.REQUEST).setProtocol(protocol);
+
+        index.add(p.getId(), p);
+        assertFalse(index.getCandidates(createUserMessage("svc-1", "act-1", "party-1")).contains(p));
+    }
+
+    private static IPMode findBestMatch(final Collection<IPMode> pmodes, final UserMessage um) {
+        IPMode hPMode = null; int hValue = 0;
+        for (final IPMode p : pmodes) {
+            if (PModeFinder.isForSendingUserMessages(p))
+                continue;
+            final int cValue = PModeFinder.calculateMatch(p, um);
+            if (cValue > hValue) {
+                hValue = cValue;
+                hPMode = p;
+            }
+        }
+        return hPMode;
+    }
+
+    private static int getMatchValue(final IPMode p, final UserMessage um) {
+        return p != null ? PModeFinder.calculateMatch(p, um) : 0;
+    }
+
+    private static PMode createPMode(final String id, final String svc, final String action, final String party) {
+        final PMode p = new PMode();
+        p.setId(id);
+        p.setMep(EbMSConstants.ONE_WAY_MEP);
+        p.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+
+        if (party != null) {
+            final PartnerConfig responder = new PartnerConfig();
+            final PartyId pid = new PartyId();
+            pid.setId(party);
+            responder.addPartyId(pid);
+            p.setResponder(responder);
+        }
+
+        final BusinessInfo bi = new BusinessInfo();
+        if (svc != null) {
+            final Service service = new Service();
+            service.setName(svc);
+            bi.setService(service);
+        }
+        bi.setAction(action);
+        final UserMessageFlow flow = new UserMessageFlow();
+        flow.setBusinnessInfo(bi);
+        final Leg leg = new Leg();
+        leg.setUserMessageFlow(flow);
+        p.addLeg(leg);
+
+        return p;
+    }
+
+    private static UserMessage createUserMessage(final String svc, final String action, final String party) {
+        final UserMessage um = new UserMessage();
+        final CollaborationInfo ci = new CollaborationInfo();
+        ci.setService(new org.holodeckb2b.common.messagemodel.Service(svc));
+        ci.setAction(action);
+        um.setCollaborationInfo(ci);
+        um.setSender(new TradingPartner());
+        final TradingPartner receiver = new TradingPartner();
+        receiver.addPartyId(new org.holodeckb2b.common.messagemodel.PartyId(party, null));
+        um.setReceiver(receiver);
+        return um;
+    }
+}
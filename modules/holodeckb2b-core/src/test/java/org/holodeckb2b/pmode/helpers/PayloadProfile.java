@@ -16,14 +16,17 @@
  */
 package org.holodeckb2b.pmode.helpers;
 
-import org.holodeckb2b.interfaces.as4.pmode.IAS4PayloadProfile;
+import org.holodeckb2b.interfaces.as4.pmode.IAS4CompressionSettings;
 
 /**
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
-public class PayloadProfile implements IAS4PayloadProfile {
+public class PayloadProfile implements IAS4CompressionSettings {
 
     private String  compressionType;
+    private int     compressionLevel = -1;
+    private int     compressionBufferSize = -1;
+    private long    compressionThreshold = -1;
 
     @Override
     public String getCompressionType() {
@@ -33,4 +36,31 @@ public class PayloadProfile implements IAS4PayloadProfile {
     public void setCompressionType(final String compressionType) {
         this.compressionType = compressionType;
     }
+
+    @Override
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(final int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    @Override
+    public int getCompressionBufferSize() {
+        return compressionBufferSize;
+    }
+
+    public void setCompressionBufferSize(final int compressionBufferSize) {
+        this.compressionBufferSize = compressionBufferSize;
+    }
+
+    @Override
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(final long compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
 }
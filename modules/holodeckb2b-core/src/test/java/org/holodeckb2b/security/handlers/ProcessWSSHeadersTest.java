@@ -16,28 +16,52 @@
  */
 package org.holodeckb2b.security.handlers;
 
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
 import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMXMLBuilderFactory;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axiom.soap.SOAPHeaderBlock;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.engine.Handler;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.validate.NoOpValidator;
+import org.holodeckb2b.as4.receptionawareness.DetectDuplicateUserMessages;
+import org.holodeckb2b.axis2.Axis2Utils;
 import org.holodeckb2b.common.messagemodel.UserMessage;
 import org.holodeckb2b.common.mmd.xml.MessageMetaData;
+import org.holodeckb2b.common.util.KeyValuePair;
 import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
 import org.holodeckb2b.core.testhelpers.TestUtils;
 import org.holodeckb2b.ebms3.constants.MessageContextProperties;
 import org.holodeckb2b.ebms3.constants.SecurityConstants;
+import org.holodeckb2b.ebms3.handlers.inflow.DeliverUserMessage;
 import org.holodeckb2b.ebms3.packaging.Messaging;
 import org.holodeckb2b.ebms3.packaging.SOAPEnv;
 import org.holodeckb2b.ebms3.packaging.UserMessageElement;
 import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
 import org.holodeckb2b.interfaces.general.EbMSConstants;
 import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.module.HolodeckB2BCore;
 import org.holodeckb2b.pmode.helpers.*;
+import org.holodeckb2b.security.callbackhandlers.PasswordCallbackHandler;
+import org.holodeckb2b.security.util.CertificateValidationCache;
+import org.holodeckb2b.security.util.CryptoCache;
+import org.holodeckb2b.security.util.SecurityUtils;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.w3c.dom.Document;
 
 import static org.junit.Assert.*;
 
@@ -48,6 +72,10 @@ import static org.junit.Assert.*;
  */
 public class ProcessWSSHeadersTest {
 
+    private static final String SIG_CACHE_PMODE_ID = "signature-cache-pmode";
+
+    private static final String BUSINESS_CONTENT = "Business content";
+
     private static String baseDir;
 
     private static HolodeckB2BTestCore core;
@@ -153,4 +181,215 @@ public class ProcessWSSHeadersTest {
 
         assertNotNull(mc.getProperty(SecurityConstants.MC_AUTHENTICATION_INFO));
     }
+
+    @Test
+    public void testSignedAndEncryptedMessage() throws Exception {
+        MessageMetaData mmd = TestUtils.getMMD("security/handlers/full_mmd.xml", this);
+        // Create the message to send with a payload in the body
+        SOAPEnvelope env = SOAPEnv.createEnvelope(SOAPEnv.SOAPVersion.SOAP_12);
+        SOAPHeaderBlock headerBlock = Messaging.createElement(env);
+        UserMessage um = UserMessageElement.readElement(UserMessageElement.createElement(headerBlock, mmd));
+        OMFactory f = env.getOMFactory();
+        OMElement payload = f.createOMElement(new QName("http://holodeck-b2b.org/test", "payload", "pl"));
+        payload.setText("Confidential content");
+        env.getBody().addChild(payload);
+
+        MessageContext outMC = new MessageContext();
+        outMC.setFLOW(MessageContext.OUT_FLOW);
+        outMC.setEnvelope(env);
+        outMC.setProperty(MessageContextProperties.OUT_USER_MESSAGE, core.getStorageManager()
+                                                                                .storeOutGoingMessageUnit(um));
+        outMC.setProperty(SecurityConstants.ADD_SECURITY_HEADERS, Boolean.TRUE);
+        SigningConfig sigConfig = new SigningConfig();
+        sigConfig.setKeystoreAlias("exampleca");
+        sigConfig.setCertificatePassword("ExampleCA");
+        outMC.setProperty(SecurityConstants.SIGNATURE, sigConfig);
+        EncryptionConfig encConfig = new EncryptionConfig();
+        encConfig.setKeystoreAlias("partyb");
+        encConfig.setCertificatePassword("ExampleB");
+        outMC.setProperty(SecurityConstants.ENCRYPTION, encConfig);
+        outMC.setProperty(SecurityConstants.ENCRYPT_BODY, Boolean.TRUE);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, new CreateWSSHeaders().invoke(outMC));
+        final String sentMessage = outMC.getEnvelope().toString();
+        assertFalse(sentMessage.contains("Confidential content"));
+
+        // Process the received message directly with WSS4J as the handler would reject the signature because the
+        // test certificates have expired. This still checks that the conversions between Axiom and DOM keep the
+        // signed and encrypted content intact
+        MessageContext mc = new MessageContext();
+        mc.setEnvelope(OMXMLBuilderFactory.createSOAPModelBuilder(new StringReader(sentMessage)).getSOAPEnvelope());
+        Document domEnvelope = Axis2Utils.convertToDOM(mc);
+
+        WSSConfig wssConfig = WSSConfig.getNewInstance();
+        wssConfig.setValidator(WSSecurityEngine.SIGNATURE, new NoOpValidator());
+        WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(wssConfig);
+        RequestData requestData = new RequestData();
+        requestData.setWssConfig(wssConfig);
+        requestData.setDisableBSPEnforcement(true);
+        requestData.setSigVerCrypto(CryptoCache.getSignatureVerificationCrypto());
+        requestData.setDecCrypto(CryptoCache.getCrypto(SecurityUtils.CertType.priv));
+        PasswordCallbackHandler pwdCallback = new PasswordCallbackHandler();
+        pwdCallback.addUser("partyb", "ExampleB");
+        requestData.setCallbackHandler(pwdCallback);
+
+        List<Integer> actions = new ArrayList<>();
+        for (WSSecurityEngineResult r : engine.processSecurityHeader(domEnvelope, null, requestData))
+            actions.add((Integer) r.get(WSSecurityEngineResult.TAG_ACTION));
+        assertTrue(actions.contains(WSConstants.SIGN));
+        assertTrue(actions.contains(WSConstants.ENCR));
+
+        mc.setEnvelope(Axis2Utils.convertToAxiom(domEnvelope));
+        OMElement decryptedPayload = mc.getEnvelope().getBody().getFirstElement();
+        assertEquals(payload.getQName(), decryptedPayload.getQName());
+        assertEquals("Confidential content", decryptedPayload.getText());
+        assertNotNull(Messaging.getElement(mc.getEnvelope()));
+    }
+
+    @Test
+    public void testDeliveredDuplicateAlwaysVerified() throws Exception {
+        CertificateValidationCache.clear();
+        final UserMessage um = createUserMessage("delivered-duplicate@test.holodeck-b2b.org");
+        final String sentMessage = createSignedMessage(um);
+
+        // The first message is fully verified and then delivered
+        MessageContext mc = receive(sentMessage, um);
+        assertSignatureVerified(mc);
+        HolodeckB2BCore.getStorageManager().setProcessingState(getUserMessage(mc), ProcessingState.DELIVERED);
+
+        // The re-sent message is a duplicate and not delivered again
+        mc = receive(sentMessage, um);
+        assertSignatureVerified(mc);
+        assertEquals(ProcessingState.DUPLICATE, processDelivery(mc));
+
+        // Only the validation of the certificate is reused, so a change in the signed content of a duplicate is
+        // still detected
+        mc = receive(sentMessage.replace(BUSINESS_CONTENT, "Altered content"), um);
+        final KeyValuePair<?, ?> failure = (KeyValuePair<?, ?>)
+                                                        mc.getProperty(SecurityConstants.INVALID_DEFAULT_HEADER);
+        assertNotNull(failure);
+        assertEquals(SecurityConstants.WSS_FAILURES.SIGNATURE, failure.getKey());
+        assertNull(mc.getProperty(SecurityConstants.MC_AUTHENTICATION_INFO));
+    }
+
+    @Test
+    public void testNotDeliveredMessageAlwaysVerified() throws Exception {
+        CertificateValidationCache.clear();
+        final UserMessage um = createUserMessage("not-delivered@test.holodeck-b2b.org");
+        final String sentMessage = createSignedMessage(um);
+
+        assertSignatureVerified(receive(sentMessage, um));
+
+        // As the first message was not delivered a re-sent message with changed content must be fully verified
+        final MessageContext mc = receive(sentMessage.replace(BUSINESS_CONTENT, "Altered content"), um);
+        final KeyValuePair<?, ?> failure = (KeyValuePair<?, ?>)
+                                                        mc.getProperty(SecurityConstants.INVALID_DEFAULT_HEADER);
+        assertNotNull(failure);
+        assertEquals(SecurityConstants.WSS_FAILURES.SIGNATURE, failure.getKey());
+        assertNull(mc.getProperty(SecurityConstants.MC_AUTHENTICATION_INFO));
+
+        // And the unchanged message is still accepted
+        assertSignatureVerified(receive(sentMessage, um));
+    }
+
+    /**
+     * Creates a User Message with the given message id that uses the P-Mode with duplicate detection enabled.
+     */
+    private UserMessage createUserMessage(final String messageId) throws Exception {
+        if (!core.getPModeSet().containsId(SIG_CACHE_PMODE_ID)) {
+            PMode pmode = new PMode();
+            pmode.setId(SIG_CACHE_PMODE_ID);
+            pmode.setMep(EbMSConstants.ONE_WAY_MEP);
+            pmode.setMepBinding(EbMSConstants.ONE_WAY_PUSH);
+            Leg leg = new Leg();
+            ReceptionAwarenessConfig raConfig = new ReceptionAwarenessConfig();
+            raConfig.setDuplicateDetection(true);
+            leg.setReceptionAwareness(raConfig);
+            pmode.addLeg(leg);
+
+            SigningConfig sigConfig = new SigningConfig();
+            sigConfig.setKeystoreAlias("partyf");
+            sigConfig.setCertificatePassword("ExampleF");
+            sigConfig.setRevocationCheck(false);
+            SecurityConfig secConfig = new SecurityConfig();
+            secConfig.setSignatureConfiguration(sigConfig);
+            PartnerConfig initiator = new PartnerConfig();
+            initiator.setSecurityConfiguration(secConfig);
+            pmode.setInitiator(initiator);
+            PartnerConfig responder = new PartnerConfig();
+            responder.setSecurityConfiguration(secConfig);
+            pmode.setResponder(responder);
+
+            core.getPModeSet().add(pmode);
+        }
+
+        UserMessage um = new UserMessage(TestUtils.getMMD("security/handlers/full_mmd.xml", this));
+        um.setMessageId(messageId);
+        um.setPModeId(SIG_CACHE_PMODE_ID);
+        return um;
+    }
+
+    /**
+     * Creates the signed message for the given User Message with a payload in the SOAP Body.
+     */
+    private String createSignedMessage(final UserMessage um) throws Exception {
+        SOAPEnvelope env = SOAPEnv.createEnvelope(SOAPEnv.SOAPVersion.SOAP_12);
+        UserMessageElement.createElement(Messaging.createElement(env), um);
+        OMElement payload = env.getOMFactory().createOMElement(
+                                                    new QName("http://holodeck-b2b.org/test", "payload", "pl"));
+        payload.setText(BUSINESS_CONTENT);
+        env.getBody().addChild(payload);
+
+        MessageContext outMC = new MessageContext();
+        outMC.setFLOW(MessageContext.OUT_FLOW);
+        outMC.setEnvelope(env);
+        outMC.setProperty(MessageContextProperties.OUT_USER_MESSAGE, core.getStorageManager()
+                                                                                .storeOutGoingMessageUnit(um));
+        outMC.setProperty(SecurityConstants.ADD_SECURITY_HEADERS, Boolean.TRUE);
+        SigningConfig sigConfig = new SigningConfig();
+        sigConfig.setKeystoreAlias("partyf");
+        sigConfig.setCertificatePassword("ExampleF");
+        outMC.setProperty(SecurityConstants.SIGNATURE, sigConfig);
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, new CreateWSSHeaders().invoke(outMC));
+        return outMC.getEnvelope().toString();
+    }
+
+    /**
+     * Processes the security headers of the given message as received message containing the given User Message.
+     */
+    private MessageContext receive(final String message, final UserMessage um) throws Exception {
+        MessageContext mc = new MessageContext();
+        mc.setFLOW(MessageContext.IN_FLOW);
+        mc.setEnvelope(OMXMLBuilderFactory.createSOAPModelBuilder(new StringReader(message)).getSOAPEnvelope());
+        mc.setProperty(MessageContextProperties.IN_USER_MESSAGE, core.getStorageManager()
+                                                                                .storeIncomingMessageUnit(um));
+
+        assertEquals(Handler.InvocationResponse.CONTINUE, setupWSSProcessingHandler.invoke(mc));
+        assertEquals(Handler.InvocationResponse.CONTINUE, handler.invoke(mc));
+        return mc;
+    }
+
+    /**
+     * Executes the duplicate detection and delivery of the received User Message.
+     *
+     * @return The processing state of the User Message after delivery
+     */
+    private ProcessingState processDelivery(final MessageContext mc) throws Exception {
+        assertEquals(Handler.InvocationResponse.CONTINUE, new DetectDuplicateUserMessages().invoke(mc));
+        assertEquals(Handler.InvocationResponse.CONTINUE, new DeliverUserMessage().invoke(mc));
+        return getUserMessage(mc).getCurrentProcessingState().getState();
+    }
+
+    private static IUserMessageEntity getUserMessage(final MessageContext mc) {
+        return (IUserMessageEntity) mc.getProperty(MessageContextProperties.IN_USER_MESSAGE);
+    }
+
+    private static void assertSignatureVerified(final MessageContext mc) {
+        assertNull(mc.getProperty(SecurityConstants.INVALID_DEFAULT_HEADER));
+        final Map<?, ?> authInfo = (Map<?, ?>) mc.getProperty(SecurityConstants.MC_AUTHENTICATION_INFO);
+        assertNotNull(authInfo);
+        assertNotNull(authInfo.get(SecurityConstants.SIGNATURE));
+    }
 }
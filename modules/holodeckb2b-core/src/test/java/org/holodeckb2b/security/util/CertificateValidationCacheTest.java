@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CRL;
+import java.security.cert.CertStore;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLSelector;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.holodeckb2b.core.testhelpers.Config;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link CertificateValidationCache} and the loading of local CRLs by the {@link LocalCRLSource}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class CertificateValidationCacheTest {
+
+    private Config  config;
+    private Path    crlFile;
+
+    @Before
+    public void setUp() throws Exception {
+        final HolodeckB2BTestCore core = new HolodeckB2BTestCore(
+                            CertificateValidationCacheTest.class.getClassLoader().getResource("security").getPath());
+        HolodeckB2BCoreInterface.setImplementation(core);
+        config = (Config) core.getConfiguration();
+        crlFile = Files.createTempFile("hb2b-crls", ".pem");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        LocalCRLSource.stop();
+        CertificateValidationCache.clear();
+        CryptoCache.clear();
+        Files.deleteIfExists(crlFile);
+    }
+
+    @Test
+    public void testValidationResults() throws Exception {
+        final Crypto crypto = CryptoCache.getSignatureVerificationCrypto();
+        final X509Certificate[] partyA = getCertificates("partya");
+        final X509Certificate[] partyB = getCertificates("partyb");
+
+        assertNull(CertificateValidationCache.get(partyA, crypto, false));
+        CertificateValidationCache.put(partyA, crypto, false, null);
+        assertTrue(CertificateValidationCache.get(partyA, crypto, false).isTrusted());
+        // Revocation was not checked and another certificate should not be trusted
+        assertNull(CertificateValidationCache.get(partyA, crypto, true));
+        assertNull(CertificateValidationCache.get(partyB, crypto, false));
+        // Nor should the result be used with other trust stores
+        assertNull(CertificateValidationCache.get(partyA, CryptoCache.getCrypto(SecurityUtils.CertType.pub), false));
+
+        // A validation including revocation check can also be used without
+        CertificateValidationCache.put(partyA, crypto, true, null);
+        assertTrue(CertificateValidationCache.get(partyA, crypto, true).isTrusted());
+        assertTrue(CertificateValidationCache.get(partyA, crypto, false).isTrusted());
+
+        // But a failure in the revocation check not
+        final WSSecurityException revoked = new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
+        CertificateValidationCache.put(partyB, crypto, true, revoked);
+        assertFalse(CertificateValidationCache.get(partyB, crypto, true).isTrusted());
+        assertSame(revoked, CertificateValidationCache.get(partyB, crypto, true).getFailure());
+        assertNull(CertificateValidationCache.get(partyB, crypto, false));
+
+        CertificateValidationCache.clear();
+        assertNull(CertificateValidationCache.get(partyA, crypto, false));
+    }
+
+    @Test
+    public void testNoCRLFile() throws Exception {
+        assertNull(LocalCRLSource.getCertStore());
+    }
+
+    @Test
+    public void testLoadAndRefreshCRLs() throws Exception {
+        final Path crls = Paths.get(CertificateValidationCacheTest.class.getClassLoader().getResource("security/crls")
+                                                                                                        .toURI());
+        Files.copy(crls.resolve("crl1.pem"), crlFile, StandardCopyOption.REPLACE_EXISTING);
+        config.setCRLFile(crlFile.toString());
+
+        final CertStore certStore = LocalCRLSource.getCertStore();
+        assertNotNull(certStore);
+        assertSame(certStore, LocalCRLSource.getCertStore());
+        X509CRL crl = getCRL(certStore);
+        assertNotNull(crl.getRevokedCertificate(getSerialNumber("partyc")));
+        assertNull(crl.getRevokedCertificate(getSerialNumber("partyd")));
+
+        // Nothing changed, so nothing should be reloaded
+        assertFalse(LocalCRLSource.refresh());
+
+        // The CRLs are attached to the Crypto instance when it is created
+        CryptoCache.clear();
+        final Crypto crypto = CryptoCache.getSignatureVerificationCrypto();
+        assertSame(certStore, ((Merlin) crypto).getCRLCertStore());
+
+        // Reloading the CRLs should remove the cached validation results
+        CertificateValidationCache.put(getCertificates("partyd"), crypto, true, null);
+        Files.copy(crls.resolve("crl2.pem"), crlFile, StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(LocalCRLSource.refresh());
+        assertNull(CertificateValidationCache.get(getCertificates("partyd"), crypto, true));
+        crl = getCRL(certStore);
+        assertNotNull(crl.getRevokedCertificate(getSerialNumber("partyc")));
+        assertNotNull(crl.getRevokedCertificate(getSerialNumber("partyd")));
+
+        // When the file can not be read the loaded CRLs stay in use
+        Files.write(crlFile, "invalid".getBytes());
+        assertFalse(LocalCRLSource.refresh());
+        assertEquals(crl, getCRL(certStore));
+    }
+
+    private static X509CRL getCRL(final CertStore certStore) throws Exception {
+        final Collection<? extends CRL> crls = certStore.getCRLs(new X509CRLSelector());
+        assertEquals(1, crls.size());
+        return (X509CRL) crls.iterator().next();
+    }
+
+    private static BigInteger getSerialNumber(final String alias) throws Exception {
+        return getCertificates(alias)[0].getSerialNumber();
+    }
+
+    private static X509Certificate[] getCertificates(final String alias) throws Exception {
+        final CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return CryptoCache.getCrypto(SecurityUtils.CertType.pub).getX509Certificates(cryptoType);
+    }
+}
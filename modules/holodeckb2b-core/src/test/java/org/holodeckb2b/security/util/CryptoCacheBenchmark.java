@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.wss4j.dom.validate.NoOpValidator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Benchmark for the signing and verification of messages using the WSS4J library. It compares creating the {@link
+ * Crypto} instances from the crypto configuration for every message, which is what happened before when the handlers
+ * only registered the configuration, with using the shared instances provided by the {@link CryptoCache}.
+ * <p>The number of concurrent threads can be given as arguments, by default 1 and 4 threads are used. The keystores
+ * from the test resources are used, signing with the <i>partya</i> key. As the test certificates have expired the trust
+ * validation of the signing certificate is disabled.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class CryptoCacheBenchmark {
+
+    private static final String ENVELOPE =
+        "<S12:Envelope xmlns:S12=\"http://www.w3.org/2003/05/soap-envelope\"><S12:Header/>"
+      + "<S12:Body><payload xmlns=\"http://holodeck-b2b.org/test\">Content to sign</payload></S12:Body>"
+      + "</S12:Envelope>";
+
+    private static final int MESSAGES_PER_THREAD = 500;
+
+    private interface CryptoSource {
+        Crypto getSigningCrypto() throws Exception;
+
+        Crypto getVerificationCrypto() throws Exception;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int[] threads = args.length > 0 ? new int[args.length] : new int[] { 1, 4 };
+        for (int i = 0; i < args.length; i++)
+            threads[i] = Integer.parseInt(args[i]);
+
+        HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore(
+                                    CryptoCacheBenchmark.class.getClassLoader().getResource("security").getPath()));
+
+        final CryptoSource perMessage = new CryptoSource() {
+            @Override
+            public Crypto getSigningCrypto() throws Exception {
+                return CryptoFactory.getInstance(SecurityUtils.createCryptoConfig(SecurityUtils.CertType.priv));
+            }
+
+            @Override
+            public Crypto getVerificationCrypto() throws Exception {
+                final Properties config = SecurityUtils.createCryptoConfig(SecurityUtils.CertType.pub);
+                config.putAll(SecurityUtils.createCryptoConfig(SecurityUtils.CertType.trust));
+                return CryptoFactory.getInstance(config);
+            }
+        };
+        final CryptoSource cached = new CryptoSource() {
+            @Override
+            public Crypto getSigningCrypto() throws Exception {
+                return CryptoCache.getCrypto(SecurityUtils.CertType.priv);
+            }
+
+            @Override
+            public Crypto getVerificationCrypto() throws Exception {
+                return CryptoCache.getSignatureVerificationCrypto();
+            }
+        };
+
+        System.out.printf("%-8s %-12s %12s %12s%n", "Threads", "Crypto", "msgs/s", "ms/msg");
+        for (final int t : threads) {
+            // Warm up
+            run(t, perMessage);
+            run(t, cached);
+
+            report(t, "per message", run(t, perMessage));
+            report(t, "cached", run(t, cached));
+        }
+        // The test core starts threads that would otherwise keep the JVM running
+        System.exit(0);
+    }
+
+    private static void report(final int threads, final String name, final long nanos) {
+        final int messages = threads * MESSAGES_PER_THREAD;
+        System.out.printf("%-8d %-12s %12.0f %12.3f%n", threads, name, messages / (nanos / 1e9),
+                          nanos / 1e6 / messages * threads);
+    }
+
+    /**
+     * Signs and verifies the test message in the given number of threads.
+     *
+     * @return  The total time in nanoseconds
+     */
+    private static long run(final int threads, final CryptoSource source) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int m = 0; m < MESSAGES_PER_THREAD; m++)
+                            signAndVerify(source);
+                        return null;
+                    }
+                });
+            final long start = System.nanoTime();
+            for (final Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void signAndVerify(final CryptoSource source) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(ENVELOPE)));
+
+        final WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        final WSSecSignature signature = new WSSecSignature();
+        signature.setUserInfo("partya", "ExampleA");
+        signature.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        signature.build(doc, source.getSigningCrypto(), secHeader);
+
+        final WSSConfig config = WSSConfig.getNewInstance();
+        config.setValidator(WSSecurityEngine.SIGNATURE, new NoOpValidator());
+        final WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(config);
+        final RequestData requestData = new RequestData();
+        requestData.setWssConfig(config);
+        requestData.setDisableBSPEnforcement(true);
+        // Replay detection is disabled by Holodeck B2B as well
+        requestData.setEnableTimestampReplayCache(false);
+        requestData.setEnableNonceReplayCache(false);
+        requestData.setSigVerCrypto(source.getVerificationCrypto());
+        if (engine.processSecurityHeader(doc, null, requestData).isEmpty())
+            throw new IllegalStateException("Signature not processed");
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the sharing and reloading of the WSS4J Crypto instances by the {@link CryptoCache}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class CryptoCacheTest {
+
+    private Path    keystoreDir;
+
+    @Before
+    public void setUp() throws Exception {
+        // Use a copy of the keystores so they can be changed by the tests
+        keystoreDir = Files.createTempDirectory("hb2b-keystores");
+        final Path source = Paths.get(CryptoCacheTest.class.getClassLoader().getResource("security").toURI());
+        for (final String ks : new String[] { "privatekeys.jks", "publickeys.jks", "trustedcerts.jks" })
+            Files.copy(source.resolve(ks), keystoreDir.resolve(ks));
+
+        HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore(keystoreDir.toString()));
+        CryptoCache.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CryptoCache.clear();
+        for (final File f : keystoreDir.toFile().listFiles())
+            f.delete();
+        Files.delete(keystoreDir);
+    }
+
+    @Test
+    public void testSharedInstance() throws Exception {
+        final Crypto privCrypto = CryptoCache.getCrypto(SecurityUtils.CertType.priv);
+        assertSame(privCrypto, CryptoCache.getCrypto(SecurityUtils.CertType.priv));
+        assertNotSame(privCrypto, CryptoCache.getCrypto(SecurityUtils.CertType.pub));
+
+        final Crypto sigVerCrypto = CryptoCache.getSignatureVerificationCrypto();
+        assertSame(sigVerCrypto, CryptoCache.getSignatureVerificationCrypto());
+
+        assertTrue(SecurityUtils.isPrivateKeyAvailable("partya", "ExampleA"));
+        assertFalse(SecurityUtils.isPrivateKeyAvailable("partya", "wrong"));
+        assertTrue(SecurityUtils.isCertificateAvailable("exampleca", true));
+        assertFalse(SecurityUtils.isCertificateAvailable("exampleca", false));
+    }
+
+    @Test
+    public void testReloadOnChange() throws Exception {
+        final Crypto pubCrypto = CryptoCache.getCrypto(SecurityUtils.CertType.pub);
+        assertTrue(SecurityUtils.isCertificateAvailable("partyc", false));
+
+        // Remove a certificate from the keystore, using a temp file so the keystore file is replaced at once
+        final File ksFile = keystoreDir.resolve("publickeys.jks").toFile();
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (FileInputStream fis = new FileInputStream(ksFile)) {
+            keyStore.load(fis, "nosecrets".toCharArray());
+        }
+        keyStore.deleteEntry("partyc");
+        final File newFile = keystoreDir.resolve("publickeys.new").toFile();
+        try (FileOutputStream fos = new FileOutputStream(newFile)) {
+            keyStore.store(fos, "nosecrets".toCharArray());
+        }
+        // Ensure the modification time differs even on file systems with a coarse timestamp resolution
+        newFile.setLastModified(ksFile.lastModified() + 2000);
+        Files.move(newFile.toPath(), ksFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        assertNotSame(pubCrypto, CryptoCache.getCrypto(SecurityUtils.CertType.pub));
+        assertFalse(SecurityUtils.isCertificateAvailable("partyc", false));
+        assertTrue(SecurityUtils.isCertificateAvailable("partyd", false));
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.activation.DataHandler;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.axiom.attachments.ByteArrayDataSource;
+import org.apache.axis2.context.MessageContext;
+import org.apache.wss4j.common.SignatureActionToken;
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.handler.WSHandler;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.apache.wss4j.dom.validate.NoOpValidator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.ebms3.constants.SecurityConstants;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.security.IPayloadDigest;
+import org.holodeckb2b.security.callbackhandlers.AttachmentCallbackHandler;
+import org.holodeckb2b.security.callbackhandlers.PasswordCallbackHandler;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the creation of a signature with attachments by the {@link ParallelDigestSignatureAction}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class ParallelDigestSignatureActionTest {
+
+    private static final String ENVELOPE =
+        "<S12:Envelope xmlns:S12=\"http://www.w3.org/2003/05/soap-envelope\"><S12:Header/>"
+      + "<S12:Body><payload xmlns=\"http://holodeck-b2b.org/test\">Content to sign</payload></S12:Body>"
+      + "</S12:Envelope>";
+
+    @BeforeClass
+    public static void setUpClass() {
+        HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore(
+                        ParallelDigestSignatureActionTest.class.getClassLoader().getResource("security").getPath()));
+        WSSConfig.init();
+    }
+
+    @Test
+    public void testSameDigestsAsWSS4J() throws Exception {
+        final Document doc = parse();
+        final MessageContext mc = createMessageContext();
+        signWithAction(doc, mc);
+
+        final Document expDoc = parse();
+        final MessageContext expMC = createMessageContext();
+        final WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(expDoc);
+        final WSSecSignature signature = new WSSecSignature();
+        signature.setUserInfo("partya", "ExampleA");
+        signature.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        signature.setAttachmentCallbackHandler(new AttachmentCallbackHandler(expMC));
+        signature.setParts(getParts());
+        signature.build(expDoc, CryptoCache.getCrypto(SecurityUtils.CertType.priv), secHeader);
+
+        final Map<String, String> expected = getDigests(expDoc);
+        final Map<String, String> actual = getDigests(doc);
+        assertEquals(4, expected.size());
+        assertEquals(expected, actual);
+
+        @SuppressWarnings("unchecked")
+        final Collection<IPayloadDigest> digests =
+                                    (Collection<IPayloadDigest>) mc.getProperty(SecurityConstants.ATTACHMENT_DIGESTS);
+        assertNotNull(digests);
+        assertEquals(4, digests.size());
+        for (final IPayloadDigest d : digests) {
+            assertEquals(expected.get(d.getURI()), d.getDigestValue());
+            assertEquals(WSConstants.SHA1, d.getDigestAlgorithm());
+        }
+    }
+
+    @Test
+    public void testVerifySignature() throws Exception {
+        final Document doc = parse();
+        final MessageContext mc = createMessageContext();
+        signWithAction(doc, mc);
+
+        final WSSConfig config = WSSConfig.getNewInstance();
+        config.setValidator(WSSecurityEngine.SIGNATURE, new NoOpValidator());
+        final WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(config);
+        final RequestData requestData = new RequestData();
+        requestData.setWssConfig(config);
+        requestData.setDisableBSPEnforcement(true);
+        requestData.setEnableTimestampReplayCache(false);
+        requestData.setEnableNonceReplayCache(false);
+        requestData.setSigVerCrypto(CryptoCache.getSignatureVerificationCrypto());
+        requestData.setAttachmentCallbackHandler(new AttachmentCallbackHandler(mc));
+
+        final List<WSSecurityEngineResult> results = engine.processSecurityHeader(doc, null, requestData);
+        assertFalse(results.isEmpty());
+        assertEquals(WSConstants.SIGN, results.get(0).get(WSSecurityEngineResult.TAG_ACTION));
+
+        // Changing an attachment should make the signature invalid
+        final Document doc2 = parse();
+        final MessageContext mc2 = createMessageContext();
+        signWithAction(doc2, mc2);
+        mc2.addAttachment("binary-2", new DataHandler(new ByteArrayDataSource(new byte[1000],
+                                                                              "application/octet-stream")));
+        requestData.setAttachmentCallbackHandler(new AttachmentCallbackHandler(mc2));
+        try {
+            engine.processSecurityHeader(doc2, null, requestData);
+            assertTrue("Changed attachment not detected", false);
+        } catch (final Exception invalidSignature) {
+            // Expected
+        }
+    }
+
+    private static void signWithAction(final Document doc, final MessageContext mc) throws Exception {
+        final WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        final SignatureActionToken token = new SignatureActionToken();
+        token.setUser("partya");
+        token.setCrypto(CryptoCache.getCrypto(SecurityUtils.CertType.priv));
+        token.setKeyIdentifierId(WSConstants.ISSUER_SERIAL);
+        token.setParts(getParts());
+
+        final PasswordCallbackHandler pwdCBHandler = new PasswordCallbackHandler();
+        pwdCBHandler.addUser("partya", "ExampleA");
+
+        final RequestData reqData = new RequestData();
+        reqData.setWssConfig(WSSConfig.getNewInstance());
+        reqData.setMsgContext(mc);
+        reqData.setSecHeader(secHeader);
+        reqData.setSoapConstants(WSSecurityUtil.getSOAPConstants(doc.getDocumentElement()));
+        reqData.setCallbackHandler(pwdCBHandler);
+        reqData.setAttachmentCallbackHandler(new AttachmentCallbackHandler(mc));
+
+        new ParallelDigestSignatureAction().execute(new EmptyHandler(), token, doc, reqData);
+    }
+
+    private static List<WSEncryptionPart> getParts() {
+        final List<WSEncryptionPart> parts = new ArrayList<>();
+        parts.add(new WSEncryptionPart("Body", "http://www.w3.org/2003/05/soap-envelope", "Content"));
+        parts.add(new WSEncryptionPart("cid:Attachments", "Content"));
+        return parts;
+    }
+
+    /**
+     * Creates a message context with two binary attachments, a text one with LF line endings that need to be
+     * normalized and an XML one that will be digested by WSS4J.
+     */
+    private static MessageContext createMessageContext() {
+        final Random random = new Random(42);
+        final MessageContext mc = new MessageContext();
+        for (int i = 1; i <= 2; i++) {
+            final byte[] content = new byte[50000];
+            random.nextBytes(content);
+            mc.addAttachment("binary-" + i, new DataHandler(new ByteArrayDataSource(content,
+                                                                                   "application/octet-stream")));
+        }
+        mc.addAttachment("text", new DataHandler(new ByteArrayDataSource("line 1\nline 2\r\nline 3\n".getBytes(),
+                                                                          "text/plain")));
+        mc.addAttachment("xml", new DataHandler(new ByteArrayDataSource(
+                                         "<doc xmlns=\"urn:test\"   a='1'><e/></doc>".getBytes(), "application/xml")));
+        return mc;
+    }
+
+    private static Document parse() throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(ENVELOPE)));
+    }
+
+    /**
+     * Gets the digests of the attachments from the signature. The body is skipped as its digest depends on the
+     * generated wsu:Id.
+     */
+    private static Map<String, String> getDigests(final Document doc) {
+        final Map<String, String> digests = new HashMap<>();
+        final NodeList refs = doc.getElementsByTagNameNS(SecurityConstants.DSIG_NAMESPACE_URI, "Reference");
+        for (int i = 0; i < refs.getLength(); i++) {
+            final Element ref = (Element) refs.item(i);
+            final String uri = ref.getAttribute("URI");
+            if (uri.startsWith("cid:"))
+                digests.put(uri, ref.getElementsByTagNameNS(SecurityConstants.DSIG_NAMESPACE_URI, "DigestValue")
+                                    .item(0).getTextContent());
+        }
+        return digests;
+    }
+
+    /**
+     * Handler that provides no configuration, all is set directly on the request data.
+     */
+    private static class EmptyHandler extends WSHandler {
+        @Override
+        public Object getOption(final String key) {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(final Object msgContext, final String key) {
+            return null;
+        }
+
+        @Override
+        public void setProperty(final Object msgContext, final String key, final Object value) {
+        }
+
+        @Override
+        public String getPassword(final Object msgContext) {
+            return null;
+        }
+
+        @Override
+        public void setPassword(final Object msgContext, final String password) {
+        }
+    }
+}
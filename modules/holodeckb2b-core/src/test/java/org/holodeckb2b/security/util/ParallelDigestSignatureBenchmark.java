@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.activation.DataHandler;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.axiom.attachments.ByteArrayDataSource;
+import org.apache.axis2.context.MessageContext;
+import org.apache.wss4j.common.SignatureActionToken;
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.action.Action;
+import org.apache.wss4j.dom.action.SignatureAction;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.handler.WSHandler;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.security.callbackhandlers.AttachmentCallbackHandler;
+import org.holodeckb2b.security.callbackhandlers.PasswordCallbackHandler;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Benchmark for signing a message with many medium sized attachments. It compares the default WSS4J {@link
+ * SignatureAction} with the {@link ParallelDigestSignatureAction}.
+ * <p>The number of attachments and their size in kB can be given as arguments, by default messages with 20 attachments
+ * of 500 kB and 100 attachments of 100 kB are signed.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class ParallelDigestSignatureBenchmark {
+
+    private static final String ENVELOPE =
+        "<S12:Envelope xmlns:S12=\"http://www.w3.org/2003/05/soap-envelope\"><S12:Header/>"
+      + "<S12:Body/></S12:Envelope>";
+
+    private static final int ITERATIONS = 20;
+
+    public static void main(final String[] args) throws Exception {
+        final int[][] sets = args.length == 2 ? new int[][] { { Integer.parseInt(args[0]), Integer.parseInt(args[1]) } }
+                                              : new int[][] { { 20, 500 }, { 100, 100 } };
+
+        HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore(
+                        ParallelDigestSignatureBenchmark.class.getClassLoader().getResource("security").getPath()));
+        WSSConfig.init();
+
+        System.out.printf("Processors: %d%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-12s %-10s %-10s %12s%n", "Attachments", "Size (kB)", "Action", "ms/msg");
+        for (final int[] set : sets) {
+            final byte[][] contents = createContents(set[0], set[1] * 1024);
+            // Warm up
+            run(new SignatureAction(), contents);
+            run(new ParallelDigestSignatureAction(), contents);
+
+            report(set, "WSS4J", run(new SignatureAction(), contents));
+            report(set, "parallel", run(new ParallelDigestSignatureAction(), contents));
+        }
+        // The test core starts threads that would otherwise keep the JVM running
+        System.exit(0);
+    }
+
+    private static void report(final int[] set, final String name, final long nanos) {
+        System.out.printf("%-12d %-10d %-10s %12.2f%n", set[0], set[1], name, nanos / 1e6 / ITERATIONS);
+    }
+
+    private static byte[][] createContents(final int count, final int size) {
+        final Random random = new Random(42);
+        final byte[][] contents = new byte[count][size];
+        for (final byte[] c : contents)
+            random.nextBytes(c);
+        return contents;
+    }
+
+    /**
+     * Signs a message with the given attachments {@link #ITERATIONS} times using the given action.
+     *
+     * @return  The total time in nanoseconds
+     */
+    private static long run(final Action action, final byte[][] contents) throws Exception {
+        long time = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final MessageContext mc = new MessageContext();
+            for (int a = 0; a < contents.length; a++)
+                mc.addAttachment("att-" + a, new DataHandler(new ByteArrayDataSource(contents[a],
+                                                                                    "application/octet-stream")));
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            final Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(ENVELOPE)));
+            final WSSecHeader secHeader = new WSSecHeader();
+            secHeader.insertSecurityHeader(doc);
+
+            final SignatureActionToken token = new SignatureActionToken();
+            token.setUser("partya");
+            token.setCrypto(CryptoCache.getCrypto(SecurityUtils.CertType.priv));
+            token.setKeyIdentifierId(WSConstants.ISSUER_SERIAL);
+            token.setDigestAlgorithm(WSConstants.SHA256);
+            final List<WSEncryptionPart> parts = new ArrayList<>();
+            parts.add(new WSEncryptionPart("Body", "http://www.w3.org/2003/05/soap-envelope", "Content"));
+            parts.add(new WSEncryptionPart("cid:Attachments", "Content"));
+            token.setParts(parts);
+
+            final PasswordCallbackHandler pwdCBHandler = new PasswordCallbackHandler();
+            pwdCBHandler.addUser("partya", "ExampleA");
+            final RequestData reqData = new RequestData();
+            reqData.setWssConfig(WSSConfig.getNewInstance());
+            reqData.setMsgContext(mc);
+            reqData.setSecHeader(secHeader);
+            reqData.setSoapConstants(WSSecurityUtil.getSOAPConstants(doc.getDocumentElement()));
+            reqData.setCallbackHandler(pwdCBHandler);
+            reqData.setAttachmentCallbackHandler(new AttachmentCallbackHandler(mc));
+
+            final long start = System.nanoTime();
+            action.execute(HANDLER, token, doc, reqData);
+            time += System.nanoTime() - start;
+        }
+        return time;
+    }
+
+    private static final WSHandler HANDLER = new WSHandler() {
+        @Override
+        public Object getOption(final String key) {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(final Object msgContext, final String key) {
+            return null;
+        }
+
+        @Override
+        public void setProperty(final Object msgContext, final String key, final Object value) {
+        }
+
+        @Override
+        public String getPassword(final Object msgContext) {
+            return null;
+        }
+
+        @Override
+        public void setPassword(final Object msgContext, final String password) {
+        }
+    };
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.security.util;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.apache.wss4j.dom.validate.SignatureTrustValidator;
+import org.apache.wss4j.dom.validate.Validator;
+import org.holodeckb2b.core.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Benchmark for the verification of signed messages that are received repeatedly, as happens when a partner
+ * retransmits a message. It compares the default WSS4J {@link SignatureTrustValidator}, which validates the path of
+ * the signing certificate for every message, with the {@link CachingSignatureTrustValidator} that reuses the results
+ * kept in the {@link CertificateValidationCache}. In both cases the signature and its references are fully verified,
+ * which is checked for every message.
+ * <p>The number of concurrent threads can be given as arguments, by default 1 and 4 threads are used. The keystores
+ * from the test resources are used, signing with the <i>partyf</i> key whose certificate is trusted.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class SignatureTrustBenchmark {
+
+    private static final String ENVELOPE =
+        "<S12:Envelope xmlns:S12=\"http://www.w3.org/2003/05/soap-envelope\"><S12:Header/>"
+      + "<S12:Body><payload xmlns=\"http://holodeck-b2b.org/test\">Content to sign</payload></S12:Body>"
+      + "</S12:Envelope>";
+
+    private static final int MESSAGES_PER_THREAD = 500;
+
+    public static void main(final String[] args) throws Exception {
+        final int[] threads = args.length > 0 ? new int[args.length] : new int[] { 1, 4 };
+        for (int i = 0; i < args.length; i++)
+            threads[i] = Integer.parseInt(args[i]);
+
+        HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore(
+                                    SignatureTrustBenchmark.class.getClassLoader().getResource("security").getPath()));
+
+        final String signedMessage = createSignedMessage();
+
+        System.out.printf("%-8s %-12s %12s %12s%n", "Threads", "Validator", "msgs/s", "ms/msg");
+        for (final int t : threads) {
+            // Warm up
+            run(t, signedMessage, new SignatureTrustValidator());
+            run(t, signedMessage, new CachingSignatureTrustValidator());
+
+            report(t, "default", run(t, signedMessage, new SignatureTrustValidator()));
+            CertificateValidationCache.clear();
+            report(t, "cached", run(t, signedMessage, new CachingSignatureTrustValidator()));
+        }
+        // The test core starts threads that would otherwise keep the JVM running
+        System.exit(0);
+    }
+
+    private static void report(final int threads, final String name, final long nanos) {
+        final int messages = threads * MESSAGES_PER_THREAD;
+        System.out.printf("%-8d %-12s %12.0f %12.3f%n", threads, name, messages / (nanos / 1e9),
+                          nanos / 1e6 / messages * threads);
+    }
+
+    /**
+     * Verifies the signed message in the given number of threads using the given validator for the trust in the
+     * signing certificate.
+     *
+     * @return  The total time in nanoseconds
+     */
+    private static long run(final int threads, final String message, final Validator validator) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int m = 0; m < MESSAGES_PER_THREAD; m++)
+                            verify(message, validator);
+                        return null;
+                    }
+                });
+            final long start = System.nanoTime();
+            for (final Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String createSignedMessage() throws Exception {
+        final Document doc = parse(ENVELOPE);
+        final WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        final WSSecSignature signature = new WSSecSignature();
+        signature.setUserInfo("partyf", "ExampleF");
+        signature.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+        signature.build(doc, CryptoCache.getCrypto(SecurityUtils.CertType.priv), secHeader);
+
+        final StringWriter result = new StringWriter();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(result));
+        return result.toString();
+    }
+
+    private static void verify(final String message, final Validator validator) throws Exception {
+        final WSSConfig config = WSSConfig.getNewInstance();
+        config.setValidator(WSSecurityEngine.SIGNATURE, validator);
+        final WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(config);
+        final RequestData requestData = new RequestData();
+        requestData.setWssConfig(config);
+        requestData.setDisableBSPEnforcement(true);
+        // Replay detection is disabled by Holodeck B2B as well
+        requestData.setEnableTimestampReplayCache(false);
+        requestData.setEnableNonceReplayCache(false);
+        requestData.setSigVerCrypto(CryptoCache.getSignatureVerificationCrypto());
+
+        final WSSecurityEngineResult result = WSSecurityUtil.fetchActionResult(
+                                            engine.processSecurityHeader(parse(message), null, requestData),
+                                            WSConstants.SIGN);
+        @SuppressWarnings("unchecked")
+        final List<WSDataRef> refs = result != null ?
+                            (List<WSDataRef>) result.get(WSSecurityEngineResult.TAG_DATA_REF_URIS) : null;
+        if (refs == null || refs.isEmpty())
+            throw new IllegalStateException("Signature references not verified");
+    }
+
+    private static Document parse(final String xml) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+}
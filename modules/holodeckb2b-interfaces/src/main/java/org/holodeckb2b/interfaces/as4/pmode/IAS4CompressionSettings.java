@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.interfaces.as4.pmode;
+
+/**
+ * Is an optional extension of the {@link IAS4PayloadProfile} interface to include settings that tune the compression
+ * of the payloads when the AS4 Compression Feature is used. When the payload profile of a P-Mode does not implement
+ * this interface the default settings are used, i.e. the default compression level and buffer size are used and all
+ * payloads are compressed.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public interface IAS4CompressionSettings extends IAS4PayloadProfile {
+
+    /**
+     * Gets the compression level to use when compressing the payloads. The level must be in the range 0 (no
+     * compression) to 9 (best compression), a lower level results in faster but less effective compression.
+     *
+     * @return  The compression level to use, or -1 if the default level of the gzip algorithm should be used
+     */
+    public int getCompressionLevel();
+
+    /**
+     * Gets the size in bytes of the buffers used when compressing and decompressing the payload data.
+     *
+     * @return  The size of the buffers to use, or a value &lt;= 0 if the default size should be used
+     */
+    public int getCompressionBufferSize();
+
+    /**
+     * Gets the minimum size in bytes a payload must have to be compressed. Payloads smaller than this threshold are
+     * sent uncompressed as compressing them would not result in a meaningful size reduction.
+     * <p>NOTE: This is an exception to the general rule that Holodeck B2B compresses all payloads regardless of their
+     * content, see {@link IAS4PayloadProfile#getCompressionType()}.
+     *
+     * @return  The minimum size of payloads that should be compressed, or a value &lt;= 0 if all payloads should be
+     *          compressed
+     */
+    public long getCompressionThreshold();
+}
@@ -21,6 +21,11 @@ import java.util.Map;
 /**
  * Defines the interface for the factory classes that are responsible for creating and configuring the {@link
  * IMessageProcessingEventHandler}s.
+ * <p>NOTE: Since version HB2B_NEXT_VERSION an initialized factory is reused for all events that are handled using the
+ * same event configuration and can be used by multiple threads at the same time. Holodeck B2B ensures that the {@link
+ * #createHandler()} method is not called concurrently on the same factory instance, but the created handlers can be
+ * used concurrently. Therefore a factory that reuses handler objects must ensure these are thread safe, otherwise it
+ * must create a new handler object for each call.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @param <T>   The type of event handler the implementing factory class can create
@@ -42,6 +47,8 @@ public interface IMessageProcessingEventHandlerFactory<T extends IMessageProcess
     /**
      * Gets a {@link IMessageProcessingEventHandler} object for handling an event. It is up to the factory
      * implementation to decide whether a new object must be created or that an existing handler object can be reused.
+     * As the returned handler may be used while other handlers created by this factory are handling events, an
+     * existing handler object should only be reused when it is thread safe.
      *
      * @return A instance of class <code>T</code> ready for handling an event.
      * @throws MessageProccesingEventHandlingException When the factory is unable to to create event handlers.
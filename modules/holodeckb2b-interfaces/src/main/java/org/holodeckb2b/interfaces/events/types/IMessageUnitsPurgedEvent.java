@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.interfaces.events.types;
+
+import java.util.Collection;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+
+/**
+ * Is the <i>message processing event</i> that indicates that a group of message units is deleted from the Holodeck B2B
+ * Core message database because the period for maintaining their meta-data has expired. It can be used by the
+ * <i>"purge"</i> worker instead of raising an {@link IMessageUnitPurgedEvent} for each message unit when it removes
+ * many message units at once.
+ * <p>All message units in the event are governed by the same P-Mode, so the event handlers configured in that P-Mode
+ * apply to all of them. As the event is also an {@link IMessageUnitPurgedEvent} it is passed to the handlers configured
+ * for that event. The {@link #getSubject() subject} of the event is the first of the purged message units, handlers
+ * should use {@link #getPurgedMessageUnits()} to get all of them.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public interface IMessageUnitsPurgedEvent extends IMessageUnitPurgedEvent {
+
+    /**
+     * Gets the message units that were purged.
+     *
+     * @return The purged message units, including the subject of the event
+     */
+    public Collection<IMessageUnit> getPurgedMessageUnits();
+}
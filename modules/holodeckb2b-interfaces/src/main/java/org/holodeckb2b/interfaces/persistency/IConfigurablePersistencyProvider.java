@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.interfaces.persistency;
+
+import java.util.Map;
+
+/**
+ * Extends the {@link IPersistencyProvider} interface for persistency providers that can be configured using parameters
+ * in the Holodeck B2B configuration file. All parameters whose name starts with <i>"Persistency."</i> are passed to
+ * the provider when it is initialized. The Holodeck B2B Core will call {@link #init(Map)} instead of {@link #init()}
+ * on providers that implement this interface.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  HB2B_NEXT_VERSION
+ */
+public interface IConfigurablePersistencyProvider extends IPersistencyProvider {
+
+    /**
+     * Initializes the persistency provider using the given configuration parameters. It MUST ensure that all
+     * information that is needed to create the DAO factory objects is available and correct.
+     *
+     * @param parameters    The configuration parameters for the provider, with the <i>"Persistency."</i> prefix
+     *                      removed from their names. May be empty if no parameters are configured.
+     * @throws PersistenceException     When the initialization of the provider can not be completed, for example
+     *                                  because a parameter has an invalid value. The exception message SHOULD include
+     *                                  a clear indication of what caused the init failure.
+     */
+    void init(Map<String, String> parameters) throws PersistenceException;
+}
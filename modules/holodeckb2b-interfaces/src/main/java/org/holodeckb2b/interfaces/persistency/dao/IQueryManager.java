@@ -58,6 +58,40 @@ public interface IQueryManager {
                                                                         final ProcessingState[] states)
                                                                                         throws PersistenceException;
 
+    /**
+     * Retrieves a limited number of message units of the specified type that are in one of the given states and are
+     * flowing in the specified direction. The message units are sorted on their timestamp starting with the oldest
+     * message units. Message units with the same timestamp are sorted in a fixed, implementation specific order.
+     * <p>This method should be used instead of {@link #getMessageUnitsInState(Class, IMessageUnit.Direction,
+     * ProcessingState[])} when the number of message units in the given states may be large. To retrieve the next set
+     * of message units the last message unit of the previous result must be supplied as the <code>startAfter</code>
+     * parameter. As the retrieval is based on the position of this message unit in the sort order the next result will
+     * be correct even if the processing state of message units in previous results has changed.
+     * <br><b>NOTE:</b> The entity objects in the resulting collection may not be completely loaded! Before a message
+     * unit is going to be processed it must be checked if it is loaded completely.
+     *
+     * @param <T>           Limits the <code>type</code> parameter to only message unit classes
+     * @param <V>           The returned objects will be entity objects. V and T will share the same parent type.
+     * @param type          The type of message units to retrieve specified by the interface they implement
+     * @param direction     The direction of the message units to retrieve
+     * @param states        Array of processing states that the message units to retrieve should be in
+     * @param startAfter    The last message unit of the previous result, or <code>null</code> to start with the
+     *                      oldest message unit
+     * @param maxResults    The maximum number of message units to return, must be positive
+     * @return              A list of at most <code>maxResults</code> entity objects representing the message units of
+     *                      the specified type that are in one of the given states and are positioned after
+     *                      <code>startAfter</code>,<br>or <code>null</code> when no such message units are found.
+     * @throws PersistenceException When a problem occurs during the retrieval of the message units
+     * @since HB2B_NEXT_VERSION
+     */
+    <T extends IMessageUnit, V extends IMessageUnitEntity> List<V>
+                                                 getMessageUnitsInState(final Class<T> type,
+                                                                        final IMessageUnit.Direction direction,
+                                                                        final ProcessingState[] states,
+                                                                        final IMessageUnitEntity startAfter,
+                                                                        final int maxResults)
+                                                                                        throws PersistenceException;
+
     /**
      * Retrieves all message units with the given <code>MessageId</code>.
      * <p>Although messageIds should be unique there can exist multiple <code>MessageUnits</code> with the same
@@ -85,6 +119,32 @@ public interface IQueryManager {
     Collection<IMessageUnitEntity> getMessageUnitsWithLastStateChangedBefore(final Date maxLastChangeDate)
                                                                                         throws PersistenceException;
 
+    /**
+     * Retrieves a limited number of message units of which the last change in processing state occurred before the
+     * given date and time. The message units are sorted in a fixed, implementation specific order.
+     * <p>This method should be used instead of {@link #getMessageUnitsWithLastStateChangedBefore(Date)} when the number
+     * of message units may be large, for example when purging old message units. To retrieve the next set of message
+     * units the last message unit of the previous result must be supplied as the <code>startAfter</code> parameter. This
+     * message unit may already have been deleted from the database.
+     * <br><b>NOTE:</b> Contrary to the other query methods the entity objects in the resulting list are completely
+     * loaded.
+     *
+     * @param maxLastChangeDate The latest date of a processing state change that is to be included in the result
+     * @param startAfter        The last message unit of the previous result, or <code>null</code> to start with the
+     *                          first message unit
+     * @param maxResults        The maximum number of message units to return, must be positive
+     * @return                  A list of at most <code>maxResults</code> entity objects representing the message units
+     *                          which processing state changed at latest at the given date and which are positioned
+     *                          after <code>startAfter</code>,<br>or <code>null</code> when no such message units are
+     *                          found.
+     * @throws PersistenceException If an error occurs while retrieving the message units from the database
+     * @since HB2B_NEXT_VERSION
+     */
+    List<IMessageUnitEntity> getMessageUnitsWithLastStateChangedBefore(final Date maxLastChangeDate,
+                                                                       final IMessageUnitEntity startAfter,
+                                                                       final int maxResults)
+                                                                                        throws PersistenceException;
+
     /**
      * Retrieves all message units of the specified type and that are in the given state and which processing is defined
      * by a P-Mode with one of the given P-Mode ids. The message units are ordered ascending on the timestamp of the
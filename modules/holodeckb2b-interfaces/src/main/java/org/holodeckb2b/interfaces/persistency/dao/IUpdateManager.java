@@ -17,6 +17,8 @@
 package org.holodeckb2b.interfaces.persistency.dao;
 
 import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
@@ -34,6 +36,8 @@ import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
  * Also implementations must take into account the "<i>completely loaded</i>" state of the message unit entity when
  * updates are performed, i.e. when all information of the updated message unit entity was loaded before the update it
  * should still be loaded after performing the update.
+ * <p>Since version HB2B_NEXT_VERSION the update manager supports <i>units of work</i> in which the updates executed by
+ * a thread are collected and saved together in one transaction, see {@link #startUnitOfWork()}.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
@@ -122,6 +126,54 @@ public interface IUpdateManager {
     void setAddSOAPFault(final IErrorMessageEntity errorMessage, final boolean addSOAPFault)
                                                                                         throws PersistenceException;
 
+    /**
+     * Sets the times at which the outgoing User Messages must be checked for retransmission, see {@link
+     * IUserMessageEntity#getNextRetryTime()}.
+     * <p>As this information is only used to schedule the checks after a restart, the times are written directly to
+     * the database. The update does not change the version of the User Messages, so it does not conflict with other
+     * updates of the same messages, and it is not part of the <i>unit of work</i> of the current thread. Also the entity
+     * objects already loaded are not changed.
+     *
+     * @param nextRetryTimes    The times of the next retransmission check, mapped by the message id of the outgoing
+     *                          User Message they apply to
+     * @throws PersistenceException  If an error occurs when updating the times of the next retransmission check
+     * @since HB2B_NEXT_VERSION
+     */
+    void setNextRetryTimes(final Map<String, Date> nextRetryTimes) throws PersistenceException;
+
+    /**
+     * Starts a unit of work for the current thread. Until the unit of work is committed the updates of the message
+     * units "owned" by the unit of work are not directly saved to the database but are collected and saved together
+     * when the unit of work is committed. The unit of work owns a message unit when it was stored or its processing
+     * state was successfully changed in the unit of work. The changes are however directly applied to the given entity
+     * objects so they reflect the new meta-data. Other entity objects, for example retrieved by a query, will only show
+     * the changes after commit.
+     * <p>New message units are still saved directly when {@link #storeMessageUnit(IMessageUnit)} is called.
+     * <p>Updates of message units that are not owned by the unit of work, for example the change of the processing state
+     * of a sent message unit to which a received signal refers, are directly saved to the database as without unit of
+     * work, because other threads may be processing these message units. When the processing state of such a message
+     * unit was changed successfully the unit of work owns it.
+     * <p>For an owned message unit a change of processing state that requires the message unit to be in a specific
+     * state is checked on the entity object. Whether another thread changed the message unit in the meantime is checked
+     * when the unit of work is committed, which then fails.
+     * <p>If the current thread already has an active unit of work, it is committed before the new one is started.
+     *
+     * @throws PersistenceException When the active unit of work of the thread could not be committed
+     * @since HB2B_NEXT_VERSION
+     */
+    void startUnitOfWork() throws PersistenceException;
+
+    /**
+     * Saves all the updates collected in the unit of work of the current thread in one transaction and ends the unit
+     * of work. When the thread has no active unit of work nothing is done.
+     * <p>The unit of work is ended also when saving the updates fails.
+     *
+     * @throws PersistenceException When an error occurs saving the updates to the database or when a message unit
+     *                              owned by the unit of work was changed by another thread
+     * @since HB2B_NEXT_VERSION
+     */
+    void commitUnitOfWork() throws PersistenceException;
+
     /**
      * Deletes the meta-data of the given message unit from the database.
      *
@@ -129,4 +181,16 @@ public interface IUpdateManager {
      * @throws PersistenceException     When a problem occurs while removing the message unit from the database.
      */
     void deleteMessageUnit(IMessageUnitEntity messageUnit) throws PersistenceException;
+
+    /**
+     * Deletes the meta-data of all given message units from the database. The message units are deleted in one
+     * transaction, so either all or none of them are removed.
+     * <p>This method should be used instead of {@link #deleteMessageUnit(IMessageUnitEntity)} when a large number of
+     * message units must be removed, for example when purging old message units.
+     *
+     * @param messageUnits      The {@link IMessageUnitEntity} objects to be deleted
+     * @throws PersistenceException     When a problem occurs while removing the message units from the database.
+     * @since HB2B_NEXT_VERSION
+     */
+    void deleteMessageUnits(Collection<IMessageUnitEntity> messageUnits) throws PersistenceException;
 }
@@ -16,7 +16,9 @@
  */
 package org.holodeckb2b.interfaces.persistency.entities;
 
+import java.util.Date;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
 
 /**
  * This interface is used to indicate that the <i>User Message</i> message unit meta-data is stored by the persistency
@@ -32,4 +34,23 @@ import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
  */
 public interface IUserMessageEntity extends IMessageUnitEntity, IUserMessage {
 
+    /**
+     * Gets the number of times the User Message has been sent, i.e. the number of times its processing state was
+     * changed to {@link ProcessingState#SENDING}. This also includes the attempts that failed on the transport level.
+     * <p>The counter MUST be updated together with the change of the processing state so it is consistent with the
+     * state history.
+     *
+     * @return  The number of transmissions of the User Message
+     * @since HB2B_NEXT_VERSION
+     */
+    int getNumberOfTransmissions();
+
+    /**
+     * Gets the time at which the User Message must be checked for retransmission because no Receipt was received for
+     * it. This is set when the User Message has been sent and is waiting for a Receipt.
+     *
+     * @return  The time of the next retransmission check, <code>null</code> if not set
+     * @since HB2B_NEXT_VERSION
+     */
+    Date getNextRetryTime();
 }
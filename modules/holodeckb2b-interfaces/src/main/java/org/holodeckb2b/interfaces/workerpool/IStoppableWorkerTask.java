@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.interfaces.workerpool;
+
+/**
+ * Is an interface for worker tasks that hand over work to threads of their own, for example to execute it
+ * concurrently. As the WorkerPool only manages the threads that run the task it informs the task when it is stopped so
+ * the task can finish or cancel the work still being executed by its own threads.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public interface IStoppableWorkerTask extends IWorkerTask {
+
+    /**
+     * Is called by the WorkerPool when the task is removed from the pool or when the pool is stopped, after the task
+     * itself is stopped from running. The task should wait at most the given time for the work still in progress to
+     * finish and cancel it when it does not finish in time.
+     *
+     * @param delay The time in seconds to wait for the work in progress to finish
+     */
+    public void stop(int delay);
+}
@@ -16,14 +16,18 @@
  */
 package org.holodeckb2b.persistency;
 
+import java.util.Map;
 import org.holodeckb2b.common.constants.ProductId;
-import org.holodeckb2b.interfaces.persistency.IPersistencyProvider;
+import org.holodeckb2b.interfaces.persistency.IConfigurablePersistencyProvider;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.dao.IDAOFactory;
 import org.holodeckb2b.interfaces.persistency.dao.IQueryManager;
 import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
 import org.holodeckb2b.persistency.managers.QueryManager;
 import org.holodeckb2b.persistency.managers.UpdateManager;
+import org.holodeckb2b.persistency.util.EntityManagerUtil;
+import org.holodeckb2b.persistency.util.ProviderConfiguration;
+import org.holodeckb2b.persistency.util.SchemaUpgrade;
 
 /**
  *
@@ -31,7 +35,7 @@ import org.holodeckb2b.persistency.managers.UpdateManager;
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
  */
-public class DefaultProvider implements IPersistencyProvider {
+public class DefaultProvider implements IConfigurablePersistencyProvider {
 
     @Override
     public String getName() {
@@ -42,6 +46,23 @@ public class DefaultProvider implements IPersistencyProvider {
 
     @Override
     public void init() throws PersistenceException {
+        init(null);
+    }
+
+    /**
+     * Initializes the provider using the given parameters. These can be used to configure the data source and
+     * Hibernate settings, see {@link ProviderConfiguration} for the supported parameters.
+     *
+     * @param parameters    The configuration parameters for the provider, may be <code>null</code> or empty to use
+     *                      the default embedded Derby database
+     * @throws PersistenceException When the parameters are invalid or the database can not be initialized
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public void init(final Map<String, String> parameters) throws PersistenceException {
+        EntityManagerUtil.init(parameters);
+        // Ensure message units stored by a previous version also have their current state and transmissions set
+        SchemaUpgrade.upgrade();
     }
 
     /**
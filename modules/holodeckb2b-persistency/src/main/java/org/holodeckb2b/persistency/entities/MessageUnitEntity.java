@@ -66,6 +66,16 @@ public abstract class MessageUnitEntity<T extends MessageUnit> implements IMessa
         return jpaEntityObject.getOID();
     }
 
+    /**
+     * Gets the JPA object that is being proxied.
+     *
+     * @return  The proxied message unit JPA object
+     * @since HB2B_NEXT_VERSION
+     */
+    public T getJPAObject() {
+        return jpaEntityObject;
+    }
+
     /**
      * Updates the JPA object that is being proxied.
      *
@@ -17,6 +17,7 @@
 package org.holodeckb2b.persistency.entities;
 
 import java.util.Collection;
+import java.util.Date;
 import org.holodeckb2b.interfaces.general.IProperty;
 import org.holodeckb2b.interfaces.general.ITradingPartner;
 import org.holodeckb2b.interfaces.messagemodel.ICollaborationInfo;
@@ -65,4 +66,14 @@ public class UserMessageEntity extends MessageUnitEntity<UserMessage> implements
     public Collection<IPayload> getPayloads() {
         return jpaEntityObject.getPayloads();
     }
+
+    @Override
+    public int getNumberOfTransmissions() {
+        return jpaEntityObject.getNumberOfTransmissions();
+    }
+
+    @Override
+    public Date getNextRetryTime() {
+        return jpaEntityObject.getNextRetryTime();
+    }
 }
@@ -22,13 +22,17 @@ import java.util.Date;
 import java.util.List;
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
+import javax.persistence.PrePersist;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
@@ -37,6 +41,7 @@ import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
 import org.holodeckb2b.interfaces.pmode.ILeg.Label;
 import org.holodeckb2b.interfaces.processingmodel.IMessageUnitProcessingState;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
 
 /**
  * Is the JPA persistency class to store the generic information that applies to all ebMS message unit types as
@@ -46,7 +51,14 @@ import org.holodeckb2b.interfaces.processingmodel.IMessageUnitProcessingState;
  * @since  3.0.0
  */
 @Entity
-@Table(name = "MSG_UNIT")
+@Table(name = "MSG_UNIT", indexes = {
+            @Index(name = "IDX_MU_MESSAGE_ID", columnList = "MESSAGE_ID, DIRECTION"),
+            @Index(name = "IDX_MU_REF_TO_MSG_ID", columnList = "REF_TO_MSG_ID"),
+            @Index(name = "IDX_MU_PMODE_ID", columnList = "PMODE_ID, CURRENT_STATE"),
+            @Index(name = "IDX_MU_TIMESTAMP", columnList = "MU_TIMESTAMP"),
+            @Index(name = "IDX_MU_CURRENT_STATE", columnList = "CURRENT_STATE, DIRECTION, MU_TIMESTAMP"),
+            @Index(name = "IDX_MU_CURRENT_STATE_START", columnList = "CURRENT_STATE_START")
+        })
 @Inheritance(strategy = InheritanceType.JOINED)
 public abstract class MessageUnit implements IMessageUnit, Serializable {
 
@@ -58,6 +70,16 @@ public abstract class MessageUnit implements IMessageUnit, Serializable {
         return OID;
     }
 
+    /**
+     * Gets the version of the object as used for optimistic locking.
+     *
+     * @return  The current version of this message unit object
+     * @since HB2B_NEXT_VERSION
+     */
+    public long getVersion() {
+        return VERSION;
+    }
+
     @Override
     public Direction getDirection() {
         return DIRECTION;
@@ -112,6 +134,21 @@ public abstract class MessageUnit implements IMessageUnit, Serializable {
         newState.setSeqNumber(states.size());
         newState.setMessageUnit(this);
         states.add(newState);
+        updateCurrentState();
+    }
+
+    /**
+     * Copies the state and start time of the last processing state to the current state fields, so queries do not
+     * need to search the complete state history. Also called just before the message unit is first saved to ensure the
+     * current state fields are consistent with the processing states.
+     *
+     * @since HB2B_NEXT_VERSION
+     */
+    @PrePersist
+    protected void updateCurrentState() {
+        final IMessageUnitProcessingState currentState = getCurrentProcessingState();
+        CURRENT_STATE = currentState != null ? currentState.getState() : null;
+        CURRENT_STATE_START = currentState != null ? currentState.getStartTime() : null;
     }
 
     @Override
@@ -206,6 +243,18 @@ public abstract class MessageUnit implements IMessageUnit, Serializable {
     @Temporal(TemporalType.TIMESTAMP)
     private Date    MU_TIMESTAMP;
 
+    /*
+     * Copy of the state and start time of the last processing state of the message unit. These are maintained by
+     * {@link #setProcessingState(IMessageUnitProcessingState)} so the message units in a certain state can be found
+     * without searching through the complete state history.
+     * @since HB2B_NEXT_VERSION
+     */
+    @Enumerated(EnumType.STRING)
+    private ProcessingState CURRENT_STATE;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date    CURRENT_STATE_START;
+
     @OneToMany(mappedBy = "msgUnit", targetEntity = MessageUnitProcessingState.class,
                 cascade = CascadeType.ALL, fetch = FetchType.EAGER)
     @OrderBy("PROC_STATE_NUM")
@@ -24,6 +24,7 @@ import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
@@ -39,7 +40,9 @@ import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
  * @since  3.0.0
  */
 @Entity
-@Table(name="MSG_STATE")
+@Table(name="MSG_STATE", indexes = {
+            @Index(name = "IDX_MS_MSG_UNIT_STATE", columnList = "msgUnit_OID, STATE")
+        })
 public class MessageUnitProcessingState implements IMessageUnitProcessingState, Serializable {
 
     @Override
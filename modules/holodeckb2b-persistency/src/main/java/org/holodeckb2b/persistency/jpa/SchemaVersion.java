@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.jpa;
+
+import java.io.Serializable;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Is the JPA entity class that records up to which version the data in the database has been upgraded by the {@link
+ * org.holodeckb2b.persistency.util.SchemaUpgrade}. The table contains only one row, identified by {@link #ID}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  HB2B_NEXT_VERSION
+ */
+@Entity
+@Table(name = "SCHEMA_VERSION")
+public class SchemaVersion implements Serializable {
+
+    /**
+     * The id of the row holding the schema version
+     */
+    public static final int ID = 1;
+
+    public int getVersion() {
+        return VERSION;
+    }
+
+    public void setVersion(final int version) {
+        VERSION = version;
+    }
+
+    /*
+     * Constructors
+     */
+    public SchemaVersion() {}
+
+    /**
+     * Creates the row for the given schema version.
+     *
+     * @param version   The version of the schema
+     */
+    public SchemaVersion(final int version) {
+        this.OID = ID;
+        this.VERSION = version;
+    }
+
+    /*
+     * Fields
+     *
+     * NOTE: The JPA @Column annotation is not used so the attribute names are
+     * used as column names. Therefor the attribute names are in CAPITAL.
+     */
+
+    /*
+     * Technical object id acting as the primary key
+     */
+    @Id
+    private int     OID;
+
+    private int     VERSION;
+}
@@ -19,6 +19,7 @@ package org.holodeckb2b.persistency.jpa;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +37,8 @@ import javax.persistence.MapKeyColumn;
 import javax.persistence.MapKeyEnumerated;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.general.EbMSConstants;
 import org.holodeckb2b.interfaces.general.IProperty;
@@ -43,6 +46,8 @@ import org.holodeckb2b.interfaces.general.ITradingPartner;
 import org.holodeckb2b.interfaces.messagemodel.ICollaborationInfo;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.processingmodel.IMessageUnitProcessingState;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
 
 /**
  * Is the JPA entity class for storing the meta-data of an ebMS <i>User Message</i> message unit as described by the
@@ -165,6 +170,48 @@ public class UserMessage extends MessageUnit implements IUserMessage, Serializab
         }
     }
 
+    /**
+     * Adds the new processing state to the User Message. When the new state is {@link ProcessingState#SENDING} the
+     * number of transmissions is incremented. As this is done in the same update as the processing state change the
+     * counter is always consistent with the state history.
+     *
+     * @param state     The new processing state
+     * @since HB2B_NEXT_VERSION
+     */
+    @Override
+    public void setProcessingState(final IMessageUnitProcessingState state) {
+        super.setProcessingState(state);
+        if (state.getState() == ProcessingState.SENDING)
+            TRANSMISSIONS = getNumberOfTransmissions() + 1;
+    }
+
+    /**
+     * Gets the number of times the User Message has been sent, i.e. the number of times its processing state was
+     * changed to {@link ProcessingState#SENDING}.
+     *
+     * @return  The number of transmissions
+     * @since HB2B_NEXT_VERSION
+     */
+    public int getNumberOfTransmissions() {
+        return TRANSMISSIONS != null ? TRANSMISSIONS : 0;
+    }
+
+    /**
+     * @return  The time at which the User Message must be checked for retransmission, <code>null</code> if not set
+     * @since HB2B_NEXT_VERSION
+     */
+    public Date getNextRetryTime() {
+        return NEXT_RETRY;
+    }
+
+    /**
+     * @param nextRetry The time at which the User Message must be checked for retransmission
+     * @since HB2B_NEXT_VERSION
+     */
+    public void setNextRetryTime(final Date nextRetry) {
+        NEXT_RETRY = nextRetry;
+    }
+
     /*
      * Constructors
      */
@@ -239,4 +286,17 @@ public class UserMessage extends MessageUnit implements IUserMessage, Serializab
     @ElementCollection(targetClass = Property.class)
     @CollectionTable(name="UM_PROPERTIES")
     private List<IProperty>      properties;
+
+    /*
+     * The number of times the user message was sent and the time at which it must be checked for retransmission. These
+     * are stored with the user message so the retransmission logic does not need to search the state history. The
+     * number of transmissions is nullable so the column can be added to an existing database, see {@link
+     * org.holodeckb2b.persistency.util.SchemaUpgrade#populateTransmissions()}. It is not initialised here as the
+     * transmissions are already counted by the super class constructor when copying the processing states.
+     * @since HB2B_NEXT_VERSION
+     */
+    private Integer             TRANSMISSIONS;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date                NEXT_RETRY;
 }
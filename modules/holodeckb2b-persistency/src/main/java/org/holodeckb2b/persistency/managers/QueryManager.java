@@ -16,13 +16,16 @@
  */
 package org.holodeckb2b.persistency.managers;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
 import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.general.IProperty;
 import org.holodeckb2b.interfaces.messagemodel.IErrorMessage;
@@ -56,17 +59,64 @@ public class QueryManager implements IQueryManager {
 
         Class jpaEntityClass = JPAEntityHelper.determineJPAClass(type);
         final String queryString = "SELECT mu "
-                                 + "FROM " + jpaEntityClass.getSimpleName()  + " mu JOIN FETCH mu.states s1 "
+                                 + "FROM " + jpaEntityClass.getSimpleName()  + " mu LEFT JOIN FETCH mu.states "
                                  + "WHERE mu.DIRECTION = :direction "
-                                 + "AND s1.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM mu.states s2) "
-                                 + "AND s1.STATE IN :states "
+                                 + "AND mu.CURRENT_STATE IN :states "
                                  + "ORDER BY mu.MU_TIMESTAMP";
         try {
             em.getTransaction().begin();
-            jpaResult = em.createQuery(queryString, jpaEntityClass)
-                                    .setParameter("direction", direction)
-                                    .setParameter("states", Arrays.asList(states))
-                                    .getResultList();
+            jpaResult = removeDuplicates(em.createQuery(queryString, jpaEntityClass)
+                                            .setParameter("direction", direction)
+                                            .setParameter("states", Arrays.asList(states))
+                                            .getResultList());
+        } catch (final Exception e) {
+            // Something went wrong during query execution
+            throw new PersistenceException("Could not execute query \"getMessageUnitsInState\"", e);
+        } finally {
+            em.getTransaction().commit();
+            em.close();
+        }
+
+        return JPAEntityHelper.wrapInEntity(jpaResult);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Message units with the same timestamp are ordered on their OID. Contrary to {@link
+     * #getMessageUnitsInState(Class, IMessageUnit.Direction, ProcessingState[])} the processing states are not fetched
+     * in the same query, so the database can apply the limit on the number of results.
+     */
+    @Override
+    public <T extends IMessageUnit, V extends IMessageUnitEntity> List<V> getMessageUnitsInState(Class<T> type,
+                                            IMessageUnit.Direction direction, ProcessingState[] states,
+                                            IMessageUnitEntity startAfter, int maxResults) throws PersistenceException {
+        if (maxResults <= 0)
+            throw new IllegalArgumentException("Maximum number of results must be positive");
+        if (startAfter != null && !(startAfter instanceof MessageUnitEntity))
+            throw new IllegalArgumentException("Start position must be message unit entity of this provider");
+
+        List<T> jpaResult = null;
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+
+        Class jpaEntityClass = JPAEntityHelper.determineJPAClass(type);
+        final StringBuilder queryString = new StringBuilder("SELECT mu ")
+                          .append("FROM ").append(jpaEntityClass.getSimpleName()).append(" mu ")
+                          .append("WHERE mu.DIRECTION = :direction ")
+                          .append("AND mu.CURRENT_STATE IN :states ");
+        if (startAfter != null)
+            queryString.append("AND (mu.MU_TIMESTAMP > :startTime ")
+                       .append("     OR (mu.MU_TIMESTAMP = :startTime AND mu.OID > :startOID)) ");
+        queryString.append("ORDER BY mu.MU_TIMESTAMP, mu.OID");
+        try {
+            em.getTransaction().begin();
+            final TypedQuery query = em.createQuery(queryString.toString(), jpaEntityClass)
+                                        .setParameter("direction", direction)
+                                        .setParameter("states", Arrays.asList(states))
+                                        .setMaxResults(maxResults);
+            if (startAfter != null)
+                query.setParameter("startTime", startAfter.getTimestamp(), TemporalType.TIMESTAMP)
+                     .setParameter("startOID", ((MessageUnitEntity) startAfter).getOID());
+            jpaResult = query.getResultList();
         } catch (final Exception e) {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"getMessageUnitsInState\"", e);
@@ -110,14 +160,13 @@ public class QueryManager implements IQueryManager {
         final EntityManager em = EntityManagerUtil.getEntityManager();
 
         final String queryString = "SELECT mu "
-                                 + "FROM MessageUnit mu JOIN FETCH mu.states s1 "
-                                 + "WHERE s1.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM mu.states s2) "
-                                 + "AND   s1.START <= :beforeDate";
+                                 + "FROM MessageUnit mu LEFT JOIN FETCH mu.states "
+                                 + "WHERE mu.CURRENT_STATE_START <= :beforeDate";
         try {
             em.getTransaction().begin();
-            jpaResult = em.createQuery(queryString, MessageUnit.class)
+            jpaResult = removeDuplicates(em.createQuery(queryString, MessageUnit.class)
                                         .setParameter("beforeDate", maxLastChangeDate, TemporalType.TIMESTAMP)
-                                        .getResultList();
+                                        .getResultList());
         } catch (final Exception e) {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"getMessageUnitsWithLastStateChangedBefore\"", e);
@@ -129,6 +178,65 @@ public class QueryManager implements IQueryManager {
         return JPAEntityHelper.wrapInEntity(jpaResult);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>The message units are ordered on their OID. First only the OIDs of the message units are selected, so the
+     * database can apply the limit on the number of results. Then the message units and their processing states are
+     * fetched in one query and the other related meta-data is loaded using the same connection to the database.
+     */
+    @Override
+    public List<IMessageUnitEntity> getMessageUnitsWithLastStateChangedBefore(Date maxLastChangeDate,
+                                                                              IMessageUnitEntity startAfter,
+                                                                              int maxResults)
+                                                                                        throws PersistenceException {
+        if (maxResults <= 0)
+            throw new IllegalArgumentException("Maximum number of results must be positive");
+        if (startAfter != null && !(startAfter instanceof MessageUnitEntity))
+            throw new IllegalArgumentException("Start position must be message unit entity of this provider");
+
+        List<MessageUnit> jpaResult = null;
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+
+        final String oidQueryString = "SELECT mu.OID "
+                                    + "FROM MessageUnit mu "
+                                    + "WHERE mu.CURRENT_STATE_START <= :beforeDate "
+                                    + (startAfter != null ? "AND mu.OID > :startOID " : "")
+                                    + "ORDER BY mu.OID";
+        final String queryString = "SELECT mu "
+                                 + "FROM MessageUnit mu LEFT JOIN FETCH mu.states "
+                                 + "WHERE mu.OID IN :oids "
+                                 + "ORDER BY mu.OID";
+        try {
+            em.getTransaction().begin();
+            final TypedQuery<Long> oidQuery = em.createQuery(oidQueryString, Long.class)
+                                        .setParameter("beforeDate", maxLastChangeDate, TemporalType.TIMESTAMP)
+                                        .setMaxResults(maxResults);
+            if (startAfter != null)
+                oidQuery.setParameter("startOID", ((MessageUnitEntity) startAfter).getOID());
+            final List<Long> oids = oidQuery.getResultList();
+            if (!oids.isEmpty()) {
+                jpaResult = removeDuplicates(em.createQuery(queryString, MessageUnit.class)
+                                               .setParameter("oids", oids)
+                                               .getResultList());
+                for (final MessageUnit jpaMsgUnit : jpaResult)
+                    loadCompletely(jpaMsgUnit);
+            }
+        } catch (final Exception e) {
+            // Something went wrong during query execution
+            throw new PersistenceException("Could not execute query \"getMessageUnitsWithLastStateChangedBefore\"", e);
+        } finally {
+            em.getTransaction().commit();
+            em.close();
+        }
+
+        if (Utils.isNullOrEmpty(jpaResult))
+            return null;
+        final List<IMessageUnitEntity> result = new ArrayList<>(jpaResult.size());
+        for (final MessageUnit jpaMsgUnit : jpaResult)
+            result.add(JPAEntityHelper.wrapInEntity(jpaMsgUnit, true));
+        return result;
+    }
+
     @Override
     public <T extends IMessageUnit, V extends IMessageUnitEntity> List<V> getMessageUnitsForPModesInState(Class<T> type,
                                     Collection<String> pmodeIds, ProcessingState state) throws PersistenceException {
@@ -137,17 +245,16 @@ public class QueryManager implements IQueryManager {
 
         Class jpaEntityClass = JPAEntityHelper.determineJPAClass(type);
         final String queryString = "SELECT mu "
-                                 + "FROM " + jpaEntityClass.getSimpleName()  + " mu JOIN FETCH mu.states s1 "
+                                 + "FROM " + jpaEntityClass.getSimpleName()  + " mu LEFT JOIN FETCH mu.states "
                                  + "WHERE mu.PMODE_ID IN :pmodeIds "
-                                 + "AND s1.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM mu.states s2) "
-                                 + "AND s1.STATE = :state "
+                                 + "AND mu.CURRENT_STATE = :state "
                                  + "ORDER BY mu.MU_TIMESTAMP";
         try {
             em.getTransaction().begin();
-            jpaResult = em.createQuery(queryString, jpaEntityClass)
-                                    .setParameter("pmodeIds", pmodeIds)
-                                    .setParameter("state", state)
-                                    .getResultList();
+            jpaResult = removeDuplicates(em.createQuery(queryString, jpaEntityClass)
+                                            .setParameter("pmodeIds", pmodeIds)
+                                            .setParameter("state", state)
+                                            .getResultList());
         } catch (final Exception e) {
             // Something went wrong during query execution
             throw new PersistenceException("Could not execute query \"getMessageUnitsForPModesInState\"", e);
@@ -182,6 +289,8 @@ public class QueryManager implements IQueryManager {
             em.getTransaction().commit();
             em.close();
         }
+        // The reloaded object does not include the updates in the unit of work of this thread yet, so apply these again
+        UnitOfWork.applyPendingUpdates(providerEntityObject);
     }
 
     public static void loadCompletely(MessageUnit jpaMessageUnit) {
@@ -235,10 +344,9 @@ public class QueryManager implements IQueryManager {
         final EntityManager em = EntityManagerUtil.getEntityManager();
 
         final String query = "SELECT 'true' "
-                           + "FROM UserMessage um JOIN um.states s1 "
+                           + "FROM UserMessage um "
                            + "WHERE um.DIRECTION = :direction AND um.MESSAGE_ID = :msgId "
-                           + "AND s1.PROC_STATE_NUM = (SELECT MAX(s2.PROC_STATE_NUM) FROM um.states s2) "
-                           + "AND s1.STATE = :state";
+                           + "AND um.CURRENT_STATE = :state";
         try {
             em.getTransaction().begin();
             result = "true".equals(em.createQuery(query)
@@ -257,4 +365,15 @@ public class QueryManager implements IQueryManager {
         }
         return result;
     }
+
+    /**
+     * Removes the duplicate message units from a query result. Because the processing states are fetched in the same
+     * query the result contains a message unit as many times as it has processing states.
+     *
+     * @param queryResult   The query result
+     * @return              The list of unique message units, in the same order as in the query result
+     */
+    private static <T> List<T> removeDuplicates(final List<T> queryResult) {
+        return queryResult == null ? null : new ArrayList<>(new LinkedHashSet<>(queryResult));
+    }
 }
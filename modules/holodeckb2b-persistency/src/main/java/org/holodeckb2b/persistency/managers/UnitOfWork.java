@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.managers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
+import org.holodeckb2b.persistency.entities.MessageUnitEntity;
+import org.holodeckb2b.persistency.jpa.MessageUnit;
+
+/**
+ * Collects the updates of message units executed by a thread in a <i>unit of work</i> so they can be saved together in
+ * one transaction when the unit of work is committed, see {@link IUpdateManager#startUnitOfWork()}.
+ * <p>The updates are kept as {@link UpdateManager.UpdateCallback}s so they can be applied both to the JPA object of the
+ * entity object directly and to the managed JPA object when the updates are saved. Besides the updates the unit of work
+ * also registers the message units it owns together with the version of the JPA object when it became owner. This
+ * version is used to check that no other thread changed the message unit before the updates are saved. Only updates of
+ * owned message units are collected, updates of other message units are saved directly by the {@link UpdateManager}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+class UnitOfWork {
+
+    /**
+     * The unit of work of the current thread
+     */
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    /**
+     * The updates not yet saved to the database, per OID of the message unit and in order of execution
+     */
+    private final Map<Long, List<UpdateManager.UpdateCallback>>  pendingUpdates = new LinkedHashMap<>();
+
+    /**
+     * The entity objects to which the updates were applied and which must be updated when the updates are saved
+     */
+    private final Map<Long, List<MessageUnitEntity>>    updatedEntities = new HashMap<>();
+
+    /**
+     * The versions of the message units owned by this unit of work
+     */
+    private final Map<Long, Long>   ownedVersions = new HashMap<>();
+
+    /**
+     * Gets the active unit of work of the current thread.
+     *
+     * @return  The unit of work of the current thread, or <code>null</code> if the thread has no active unit of work
+     */
+    static UnitOfWork getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Starts a new unit of work for the current thread.
+     */
+    static void start() {
+        current.set(new UnitOfWork());
+    }
+
+    /**
+     * Ends the unit of work of the current thread. Note that this does not save the collected updates.
+     */
+    static void end() {
+        current.remove();
+    }
+
+    /**
+     * Applies the updates collected in the current thread's unit of work to the given entity object. Used when the JPA
+     * object of the entity object is reloaded from the database and therefore does not include the updates yet.
+     *
+     * @param entity    The entity object which JPA object was reloaded
+     */
+    static void applyPendingUpdates(final MessageUnitEntity entity) {
+        final UnitOfWork unitOfWork = current.get();
+        if (unitOfWork != null)
+            for (final UpdateManager.UpdateCallback update : unitOfWork.getPendingUpdates(entity.getOID()))
+                update.perform(entity.getJPAObject());
+    }
+
+    /**
+     * Registers that the given message unit is owned by this unit of work.
+     *
+     * @param jpaMsgUnit    The JPA object of the message unit as just saved to the database
+     */
+    void own(final MessageUnit jpaMsgUnit) {
+        ownedVersions.put(jpaMsgUnit.getOID(), jpaMsgUnit.getVersion());
+    }
+
+    /**
+     * Indicates whether the message unit with the given OID is owned by this unit of work.
+     *
+     * @param oid   The OID of the message unit
+     * @return      <code>true</code> if the message unit is owned, <code>false</code> otherwise
+     */
+    boolean isOwned(final long oid) {
+        return ownedVersions.containsKey(oid);
+    }
+
+    /**
+     * Gets the version of an owned message unit as it was last saved by this unit of work.
+     *
+     * @param oid   The OID of the owned message unit
+     * @return      The version of the message unit
+     */
+    long getOwnedVersion(final long oid) {
+        return ownedVersions.get(oid);
+    }
+
+    /**
+     * Adds an update of the given message unit to the unit of work and applies it to the entity object.
+     *
+     * @param entity    The entity object of the message unit to update
+     * @param update    The update to execute
+     */
+    void addUpdate(final MessageUnitEntity entity, final UpdateManager.UpdateCallback update) {
+        update.perform(entity.getJPAObject());
+
+        List<UpdateManager.UpdateCallback> updates = pendingUpdates.get(entity.getOID());
+        if (updates == null) {
+            updates = new ArrayList<>();
+            pendingUpdates.put(entity.getOID(), updates);
+        }
+        updates.add(update);
+
+        List<MessageUnitEntity> entities = updatedEntities.get(entity.getOID());
+        if (entities == null) {
+            entities = new ArrayList<>();
+            updatedEntities.put(entity.getOID(), entities);
+        }
+        // The same entity object is often updated multiple times, but should be registered only once
+        boolean registered = false;
+        for (final MessageUnitEntity e : entities)
+            registered |= e == entity;
+        if (!registered)
+            entities.add(entity);
+    }
+
+    /**
+     * Gets the OIDs of the message units that have updates which are not saved yet.
+     *
+     * @return  The OIDs of the updated message units, in order of first update
+     */
+    Collection<Long> getUpdatedMessageUnits() {
+        return new ArrayList<>(pendingUpdates.keySet());
+    }
+
+    /**
+     * Gets the updates of the message unit with the given OID that are not saved yet.
+     *
+     * @param oid   The OID of the message unit
+     * @return      The pending updates in order of execution, empty if there are none
+     */
+    List<UpdateManager.UpdateCallback> getPendingUpdates(final long oid) {
+        final List<UpdateManager.UpdateCallback> updates = pendingUpdates.get(oid);
+        return updates != null ? updates : Collections.<UpdateManager.UpdateCallback>emptyList();
+    }
+
+    /**
+     * Indicates whether one of the updated entity objects of the message unit with the given OID is completely loaded,
+     * in which case the JPA object must also be completely loaded when the updates are saved.
+     *
+     * @param oid   The OID of the message unit
+     * @return      <code>true</code> if an updated entity object is completely loaded, <code>false</code> otherwise
+     */
+    boolean isLoadedCompletely(final long oid) {
+        final List<MessageUnitEntity> entities = updatedEntities.get(oid);
+        if (entities != null)
+            for (final MessageUnitEntity e : entities)
+                if (e.isLoadedCompletely())
+                    return true;
+        return false;
+    }
+
+    /**
+     * Registers that the pending updates of the message unit are saved to the database and updates the entity objects
+     * to use the saved JPA object. When the message unit is owned by the unit of work its version is updated.
+     *
+     * @param jpaMsgUnit    The JPA object of the message unit as saved to the database
+     */
+    void saved(final MessageUnit jpaMsgUnit) {
+        final long oid = jpaMsgUnit.getOID();
+        pendingUpdates.remove(oid);
+        final List<MessageUnitEntity> entities = updatedEntities.remove(oid);
+        if (entities != null)
+            for (final MessageUnitEntity e : entities)
+                e.updateJPAObject(jpaMsgUnit);
+        if (isOwned(oid))
+            own(jpaMsgUnit);
+    }
+
+    /**
+     * Removes all updates of the message unit with the given OID, used when the message unit is deleted.
+     *
+     * @param oid   The OID of the message unit
+     */
+    void discard(final long oid) {
+        pendingUpdates.remove(oid);
+        updatedEntities.remove(oid);
+        ownedVersions.remove(oid);
+    }
+}
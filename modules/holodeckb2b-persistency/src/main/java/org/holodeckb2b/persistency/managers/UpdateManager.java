@@ -18,12 +18,23 @@ package org.holodeckb2b.persistency.managers;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.persistence.LockModeType;
 import javax.persistence.OptimisticLockException;
 import javax.persistence.RollbackException;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
 import org.holodeckb2b.common.messagemodel.MessageProcessingState;
 import org.holodeckb2b.common.messagemodel.util.MessageUnitUtils;
 import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
@@ -42,9 +53,12 @@ import org.holodeckb2b.persistency.jpa.MessageUnitProcessingState;
 import org.holodeckb2b.persistency.jpa.UserMessage;
 import org.holodeckb2b.persistency.util.EntityManagerUtil;
 import org.holodeckb2b.persistency.util.JPAEntityHelper;
+import org.holodeckb2b.persistency.util.MessageUnitTables;
 
 /**
  * Is the default persistency provider's implementation of the {@link IUpdateManager} interface.
+ * <p>The updates executed in a <i>unit of work</i> are collected in a {@link UnitOfWork} object that is bound to the
+ * current thread.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
@@ -69,6 +83,10 @@ public class UpdateManager implements IUpdateManager {
             tx.begin();
             em.persist(jpaMsgUnit);
             tx.commit();
+            // A new message unit is always owned by the unit of work in which it is created
+            final UnitOfWork unitOfWork = UnitOfWork.getCurrent();
+            if (unitOfWork != null)
+                unitOfWork.own(jpaMsgUnit);
         } catch (NoSuchMethodException | SecurityException | InstantiationException
                 | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
         	
@@ -88,6 +106,20 @@ public class UpdateManager implements IUpdateManager {
     @Override
     public boolean setProcessingState(final IMessageUnitEntity msgUnit, final ProcessingState currentProcState,
                                       final ProcessingState newProcState) throws PersistenceException {
+        final UnitOfWork unitOfWork = UnitOfWork.getCurrent();
+        if (unitOfWork != null && unitOfWork.isOwned(((MessageUnitEntity) msgUnit).getOID())) {
+            // The change can be collected in the unit of work, only check the current state if required
+            if (currentProcState != null && msgUnit.getCurrentProcessingState().getState() != currentProcState)
+                return false;
+            final MessageProcessingState newState = new MessageProcessingState(newProcState);
+            unitOfWork.addUpdate((MessageUnitEntity) msgUnit, new UpdateCallback() {
+                @Override
+                public void perform(MessageUnit jpaObject) {
+                    jpaObject.setProcessingState(newState);
+                }
+            });
+            return true;
+        }
     		EntityManager em = null;
         EntityTransaction tx = null;
         try {
@@ -97,6 +129,10 @@ public class UpdateManager implements IUpdateManager {
             // Reload the entity object from the database so we've actual data and a managed JPA object ready for change
             MessageUnit jpaMsgUnit = em.find(MessageUnit.class, ((MessageUnitEntity) msgUnit).getOID(),
                                              LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+            // First apply the updates of the message unit that were collected in the unit of work (if any)
+            if (unitOfWork != null)
+                for (final UpdateCallback update : unitOfWork.getPendingUpdates(jpaMsgUnit.getOID()))
+                    update.perform(jpaMsgUnit);
             // Check that the current state equals the required state
             MessageUnitProcessingState currentState = (MessageUnitProcessingState)
                                                                                 jpaMsgUnit.getCurrentProcessingState();
@@ -110,11 +146,17 @@ public class UpdateManager implements IUpdateManager {
             // Save to database, the flush is used to trigger possible an optimistic lock exception
             em.flush();
             // Ensure that the object stays completely loaded if it was already so previously
-            if (msgUnit.isLoadedCompletely())
+            if (msgUnit.isLoadedCompletely()
+               || (unitOfWork != null && unitOfWork.isLoadedCompletely(jpaMsgUnit.getOID())))
                 QueryManager.loadCompletely(jpaMsgUnit);
             tx.commit();
             // Update the entity object
             ((MessageUnitEntity) msgUnit).updateJPAObject(jpaMsgUnit);
+            if (unitOfWork != null) {
+                // As the state was changed successfully this thread now owns the message unit
+                unitOfWork.own(jpaMsgUnit);
+                unitOfWork.saved(jpaMsgUnit);
+            }
             return true;
         } catch (final OptimisticLockException | RollbackException alreadyChanged) {
             // During transaction the message unit was already updated, so state can not be changed.
@@ -134,6 +176,9 @@ public class UpdateManager implements IUpdateManager {
 
     @Override
     public void deleteMessageUnit(final IMessageUnitEntity messageUnit) throws PersistenceException {
+        final UnitOfWork unitOfWork = UnitOfWork.getCurrent();
+        if (unitOfWork != null)
+            unitOfWork.discard(((MessageUnitEntity) messageUnit).getOID());
     		EntityManager em = null;
         EntityTransaction tx = null;
         try {
@@ -155,8 +200,204 @@ public class UpdateManager implements IUpdateManager {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>Instead of loading and removing each message unit separately the meta-data is removed table by table, using
+     * one batch of <i>DELETE</i> statements per table for all message units. Because JPA bulk deletes do not cascade
+     * and do not apply to collection tables, the statements are executed directly on the JDBC connection. Each
+     * statement deletes the rows of one message unit, so the database can always use the index on the foreign key.
+     * The names of the tables and columns are taken from the Hibernate mapping, see {@link MessageUnitTables}.
+     */
+    @Override
+    public void deleteMessageUnits(final Collection<IMessageUnitEntity> messageUnits) throws PersistenceException {
+        if (messageUnits == null || messageUnits.isEmpty())
+            return;
+
+        final UnitOfWork unitOfWork = UnitOfWork.getCurrent();
+        final List<Long> oids = new ArrayList<>(messageUnits.size());
+        for (final IMessageUnitEntity msgUnit : messageUnits) {
+            final long oid = ((MessageUnitEntity) msgUnit).getOID();
+            oids.add(oid);
+            if (unitOfWork != null)
+                unitOfWork.discard(oid);
+        }
+        EntityManager em = null;
+        EntityTransaction tx = null;
+        try {
+            em = EntityManagerUtil.getEntityManager();
+            // The table and column names depend on the Hibernate settings, so get them from the mapping
+            final MessageUnitTables t = MessageUnitTables.get(em);
+            tx = em.getTransaction();
+            tx.begin();
+            em.unwrap(Session.class).doWork(new Work() {
+                @Override
+                public void execute(final Connection connection) throws SQLException {
+                    // The payloads and trading partners are referenced through join tables, so get their ids first
+                    final List<Long> payloadOids = selectOIDs(connection, t.userMessagePayloads, oids);
+                    final List<Long> partnerOids = selectOIDs(connection, t.userMessagePartners, oids);
+                    deleteRows(connection, t.processingStates, oids);
+                    deleteRows(connection, t.errors, oids);
+                    deleteRows(connection, t.userMessageProperties, oids);
+                    deleteRows(connection, t.userMessagePayloads, oids);
+                    deleteRows(connection, t.userMessagePartners, oids);
+                    deleteRows(connection, t.payloadProperties, payloadOids);
+                    deleteRows(connection, t.payload, payloadOids);
+                    deleteRows(connection, t.partyIds, partnerOids);
+                    deleteRows(connection, t.tradingPartner, partnerOids);
+                    deleteRows(connection, t.userMessage, oids);
+                    deleteRows(connection, t.errorMessage, oids);
+                    deleteRows(connection, t.receipt, oids);
+                    deleteRows(connection, t.pullRequest, oids);
+                    deleteRows(connection, t.msgUnit, oids);
+                }
+            });
+            tx.commit();
+        } catch (final Exception e) {
+            // Something went wrong while executing the update, rollback the transaction (if active) and throw exception
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw new PersistenceException("An error occurred in the removal of the message units meta-data!", e);
+        } finally {
+            if (em != null)
+                em.close();
+        }
+    }
+
+    /**
+     * Helper method to select the ids of the objects referenced from a join table for each of the given ids.
+     *
+     * @param connection    The JDBC connection to use
+     * @param joinTable     The join table
+     * @param oids          The ids of the owning objects
+     * @return              The ids of the referenced objects
+     * @throws SQLException When an error occurs executing the query
+     */
+    private static List<Long> selectOIDs(final Connection connection, final MessageUnitTables.Table joinTable,
+                                         final List<Long> oids) throws SQLException {
+        final List<Long> result = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT " + joinTable.elementColumn + " FROM "
+                                                                  + joinTable.name + " WHERE " + joinTable.keyColumn
+                                                                  + " = ?")) {
+            for (final Long oid : oids) {
+                stmt.setLong(1, oid);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next())
+                        result.add(rs.getLong(1));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Helper method to delete all rows from a table that belong to one of the given ids. The deletes are executed as
+     * one batch.
+     *
+     * @param connection    The JDBC connection to use
+     * @param table         The table to delete the rows from
+     * @param oids          The ids of the objects whose rows should be deleted
+     * @throws SQLException When an error occurs executing the deletes
+     */
+    private static void deleteRows(final Connection connection, final MessageUnitTables.Table table,
+                                   final List<Long> oids) throws SQLException {
+        if (oids.isEmpty())
+            return;
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM " + table.name + " WHERE "
+                                                                  + table.keyColumn + " = ?")) {
+            for (final Long oid : oids) {
+                stmt.setLong(1, oid);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @Override
+    public void startUnitOfWork() throws PersistenceException {
+        // Ensure that the updates of a unit of work that was not committed are not lost
+        commitUnitOfWork();
+        UnitOfWork.start();
+    }
+
+    @Override
+    public void commitUnitOfWork() throws PersistenceException {
+        final UnitOfWork unitOfWork = UnitOfWork.getCurrent();
+        if (unitOfWork == null)
+            return;
+        // End the unit of work first so it is also ended when saving the updates fails
+        UnitOfWork.end();
+        if (unitOfWork.getUpdatedMessageUnits().isEmpty())
+            return;
+        try {
+            saveUpdates(unitOfWork);
+        } catch (final OptimisticLockException | RollbackException concurrentUpdate) {
+            // An owned message unit was changed by another thread while saving
+            throw new PersistenceException("Could not save the updates because of concurrent updates!",
+                                           concurrentUpdate);
+        }
+    }
+
+    /**
+     * Saves the updates collected in the given unit of work in one transaction.
+     *
+     * @param unitOfWork    The unit of work which updates should be saved
+     * @throws OptimisticLockException  When a message unit was concurrently updated during the transaction
+     * @throws RollbackException        When the transaction could not be committed because of a concurrent update
+     * @throws PersistenceException     When a message unit owned by the unit of work was changed by another thread or
+     *                                  another error occurred while saving the updates
+     */
+    private void saveUpdates(final UnitOfWork unitOfWork) throws PersistenceException {
+        EntityManager em = null;
+        EntityTransaction tx = null;
+        try {
+            em = EntityManagerUtil.getEntityManager();
+            tx = em.getTransaction();
+            tx.begin();
+            final List<MessageUnit> savedMsgUnits = new ArrayList<>();
+            for (final long oid : unitOfWork.getUpdatedMessageUnits()) {
+                // Only updates of owned message units are collected, check that no other thread changed the message
+                // unit since it became owned
+                final MessageUnit jpaMsgUnit = em.find(MessageUnit.class, oid, LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+                if (jpaMsgUnit == null || jpaMsgUnit.getVersion() != unitOfWork.getOwnedVersion(oid)) {
+                    tx.rollback();
+                    throw new PersistenceException("Message unit [OID=" + oid
+                                                  + "] was changed by another thread, updates are not saved!");
+                }
+                for (final UpdateCallback update : unitOfWork.getPendingUpdates(oid))
+                    update.perform(jpaMsgUnit);
+                // Ensure that the object stays completely loaded if it was already so previously
+                if (unitOfWork.isLoadedCompletely(oid))
+                    QueryManager.loadCompletely(jpaMsgUnit);
+                savedMsgUnits.add(jpaMsgUnit);
+            }
+            em.flush();
+            tx.commit();
+            for (final MessageUnit jpaMsgUnit : savedMsgUnits)
+                unitOfWork.saved(jpaMsgUnit);
+        } catch (final PersistenceException | OptimisticLockException | RollbackException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } catch (final Exception e) {
+            // Something went wrong while saving the updates, rollback the transaction (if active) and throw exception
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw new PersistenceException("An error occurred while saving the updates of the unit of work!", e);
+        } finally {
+            if (em != null && em.isOpen())
+                em.close();
+        }
+    }
+
     private void performUpdate(final MessageUnitEntity msgUnitEntity, final UpdateCallback update)
                                                                                           throws PersistenceException {
+        // When the message unit is owned by the active unit of work the update is only collected and saved when the
+        // unit of work is committed. Updates of other message units are saved directly as another thread may own them
+        final UnitOfWork unitOfWork = UnitOfWork.getCurrent();
+        if (unitOfWork != null && unitOfWork.isOwned(msgUnitEntity.getOID())) {
+            unitOfWork.addUpdate(msgUnitEntity, update);
+            return;
+        }
         EntityManager em = null;
         EntityTransaction tx = null;
         try {
@@ -234,6 +475,50 @@ public class UpdateManager implements IUpdateManager {
         });
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>The User Messages are grouped by their time of the next check and each group is updated using one JPQL bulk
+     * update. As bulk updates bypass the persistence context they do not increment the version of the User Messages.
+     */
+    @Override
+    public void setNextRetryTimes(final Map<String, Date> nextRetryTimes) throws PersistenceException {
+        if (nextRetryTimes == null || nextRetryTimes.isEmpty())
+            return;
+
+        final Map<Date, List<String>> msgIdsByTime = new HashMap<>();
+        for (final Map.Entry<String, Date> r : nextRetryTimes.entrySet()) {
+            List<String> msgIds = msgIdsByTime.get(r.getValue());
+            if (msgIds == null) {
+                msgIds = new ArrayList<>();
+                msgIdsByTime.put(r.getValue(), msgIds);
+            }
+            msgIds.add(r.getKey());
+        }
+        EntityManager em = null;
+        EntityTransaction tx = null;
+        try {
+            em = EntityManagerUtil.getEntityManager();
+            tx = em.getTransaction();
+            tx.begin();
+            for (final Map.Entry<Date, List<String>> g : msgIdsByTime.entrySet())
+                em.createQuery("UPDATE UserMessage um SET um.NEXT_RETRY = :nextRetry "
+                             + "WHERE um.MESSAGE_ID IN :msgIds AND um.DIRECTION = :direction")
+                  .setParameter("nextRetry", g.getKey())
+                  .setParameter("msgIds", g.getValue())
+                  .setParameter("direction", IMessageUnit.Direction.OUT)
+                  .executeUpdate();
+            tx.commit();
+        } catch (final Exception e) {
+            // Something went wrong while executing the update, rollback the transaction (if active) and throw exception
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw new PersistenceException("An error occurred in the update of the next retry times!", e);
+        } finally {
+            if (em != null)
+                em.close();
+        }
+    }
+
     interface UpdateCallback {
         void perform(final MessageUnit jpaObject);
     }
@@ -20,6 +20,7 @@ import java.net.URL;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -35,22 +36,47 @@ import org.holodeckb2b.interfaces.persistency.PersistenceException;
 
 /**
  * Is a helper class to easily get hold of the JPA <code>EntityManager</code> to access the database where the message
- * unit meta-data is stored. This default persistency provider uses a fixed and programmatically built persistency unit
- * that will create an embedded Derby database.
+ * unit meta-data is stored. This default persistency provider uses a programmatically built persistency unit that by
+ * default will create an embedded Derby database. Since HB2B_NEXT_VERSION the provider can be configured to use
+ * another data source, for example a connection pool to a database server, and the Hibernate settings can be changed,
+ * see {@link ProviderConfiguration}.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  * @since  3.0.0
  */
 public class EntityManagerUtil {
-    // We use SingletonHolder pattern for the reference to the EntityManagerFactory object
-    private static final class SingletonHolder
-    {
-      static final EntityManagerFactory instance =  new HibernatePersistenceProvider()
-                                                        .createContainerEntityManagerFactory(getPersistenceUnitInfo(),
-                                                                                             Collections.emptyMap());
+    /**
+     * The factory for creating entity managers, created on first use if the provider was not explicitly initialized
+     */
+    private static volatile EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Initializes the persistency unit using the given configuration parameters. When the persistency unit was
+     * already initialized it is closed and re-initialized.
+     *
+     * @param parameters    The configuration parameters of the provider, see {@link ProviderConfiguration}
+     * @throws PersistenceException When the parameters are invalid or the persistency unit can not be created
+     * @since HB2B_NEXT_VERSION
+     */
+    public static synchronized void init(final Map<String, String> parameters) throws PersistenceException {
+        final EntityManagerFactory newFactory = createEntityManagerFactory(new ProviderConfiguration(parameters));
+        if (entityManagerFactory != null)
+            entityManagerFactory.close();
+        entityManagerFactory = newFactory;
+    }
+
+    private static EntityManagerFactory createEntityManagerFactory(final ProviderConfiguration config)
+                                                                                        throws PersistenceException {
+        try {
+            return new HibernatePersistenceProvider().createContainerEntityManagerFactory(
+                                                                    getPersistenceUnitInfo(config),
+                                                                    Collections.emptyMap());
+        } catch (final Exception e) {
+            throw new PersistenceException("Could not create the persistency unit", e);
+        }
     }
 
-    private static PersistenceUnitInfo getPersistenceUnitInfo() {
+    private static PersistenceUnitInfo getPersistenceUnitInfo(final ProviderConfiguration config) {
         return new PersistenceUnitInfo() {
             @Override
             public String getPersistenceUnitName() {
@@ -74,7 +100,7 @@ public class EntityManagerUtil {
 
             @Override
             public DataSource getNonJtaDataSource() {
-                return null;
+                return config.getDataSource();
             }
 
             @Override
@@ -107,6 +133,7 @@ public class EntityManagerUtil {
                                      "org.holodeckb2b.persistency.jpa.PullRequest",
                                      "org.holodeckb2b.persistency.jpa.Receipt",
                                      "org.holodeckb2b.persistency.jpa.SchemaReference",
+                                     "org.holodeckb2b.persistency.jpa.SchemaVersion",
                                      "org.holodeckb2b.persistency.jpa.Service",
                                      "org.holodeckb2b.persistency.jpa.TradingPartner",
                                      "org.holodeckb2b.persistency.jpa.UserMessage");
@@ -130,10 +157,14 @@ public class EntityManagerUtil {
             @Override
             public Properties getProperties() {
                 Properties props = new Properties();
-                props.put(org.hibernate.cfg.AvailableSettings.DRIVER, "org.apache.derby.jdbc.EmbeddedDriver");
-                props.put(org.hibernate.cfg.AvailableSettings.URL,
+                // When another data source is configured Hibernate detects the dialect from the database, unless
+                // explicitly configured
+                if (config.getDataSource() == null) {
+                    props.put(org.hibernate.cfg.AvailableSettings.DRIVER, "org.apache.derby.jdbc.EmbeddedDriver");
+                    props.put(org.hibernate.cfg.AvailableSettings.URL,
                                                                 "jdbc:derby:db/coreDB;databaseName=coreDB;create=true");
-                props.put(org.hibernate.cfg.AvailableSettings.DIALECT, DerbyTenSevenDialect.class);
+                    props.put(org.hibernate.cfg.AvailableSettings.DIALECT, DerbyTenSevenDialect.class);
+                }
                 props.put(org.hibernate.cfg.AvailableSettings.HBM2DDL_AUTO, "update");
                 props.put(org.hibernate.cfg.AvailableSettings.SHOW_SQL, false);
                 props.put(org.hibernate.cfg.AvailableSettings.QUERY_STARTUP_CHECKING, false);
@@ -143,6 +174,8 @@ public class EntityManagerUtil {
                 props.put(org.hibernate.cfg.AvailableSettings.USE_QUERY_CACHE, false);
                 props.put(org.hibernate.cfg.AvailableSettings.USE_STRUCTURED_CACHE, false);
                 props.put(org.hibernate.cfg.AvailableSettings.STATEMENT_BATCH_SIZE, 20);
+                // Configured settings override the defaults
+                props.putAll(config.getHibernateSettings());
 
                 return props;
             }
@@ -174,9 +207,17 @@ public class EntityManagerUtil {
      * @throws  PersistenceException   When exception occurs getting hold of an EntityManager object
      */
     public static EntityManager getEntityManager() throws PersistenceException {
+       EntityManagerFactory factory = entityManagerFactory;
+       if (factory == null) {
+           synchronized (EntityManagerUtil.class) {
+               // Not initialized explicitly, use default configuration
+               if (entityManagerFactory == null)
+                   entityManagerFactory = createEntityManagerFactory(new ProviderConfiguration(null));
+               factory = entityManagerFactory;
+           }
+       }
        try {
-           // The class is loaded upon first call
-           return  SingletonHolder.instance.createEntityManager();
+           return factory.createEntityManager();
        } catch (final Exception e) {
            // Oh oh, something went wrong creating the entity manager
            throw new PersistenceException("Error while creating the EntityManager", e);
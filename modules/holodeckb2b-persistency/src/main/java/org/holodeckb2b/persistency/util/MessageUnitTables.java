@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.util;
+
+import javax.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.holodeckb2b.persistency.jpa.ErrorMessage;
+import org.holodeckb2b.persistency.jpa.MessageUnit;
+import org.holodeckb2b.persistency.jpa.MessageUnitProcessingState;
+import org.holodeckb2b.persistency.jpa.Payload;
+import org.holodeckb2b.persistency.jpa.PullRequest;
+import org.holodeckb2b.persistency.jpa.Receipt;
+import org.holodeckb2b.persistency.jpa.TradingPartner;
+import org.holodeckb2b.persistency.jpa.UserMessage;
+
+/**
+ * Contains the names of the tables and columns in which the meta-data of message units is stored. These are needed
+ * when plain SQL statements are used, like by the {@link org.holodeckb2b.persistency.managers.UpdateManager} to delete
+ * message units and the {@link SchemaUpgrade} to populate new columns. As the names depend on the Hibernate settings
+ * in use, e.g. a naming strategy, they are taken from the Hibernate mapping so the SQL always matches the actual
+ * database schema.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since HB2B_NEXT_VERSION
+ */
+public final class MessageUnitTables {
+
+    /**
+     * Is a table that contains rows related to a message unit, identified by the table name and the column that
+     * contains the id of the object the row belongs to. For join tables the column that contains the id of the
+     * referenced object is also included.
+     */
+    public static final class Table {
+        public final String name;
+        public final String keyColumn;
+        public final String elementColumn;
+
+        private Table(final String name, final String keyColumn, final String elementColumn) {
+            this.name = name;
+            this.keyColumn = keyColumn;
+            this.elementColumn = elementColumn;
+        }
+    }
+
+    /**
+     * The mapping of the session factory that was used last
+     */
+    private static volatile MessageUnitTables  current;
+
+    /**
+     * The session factory whose mapping is used
+     */
+    private final SessionFactory    sessionFactory;
+
+    public final Table msgUnit;
+    public final Table userMessage;
+    public final Table errorMessage;
+    public final Table receipt;
+    public final Table pullRequest;
+    public final Table processingStates;
+    public final Table errors;
+    public final Table userMessageProperties;
+    public final Table userMessagePayloads;
+    public final Table userMessagePartners;
+    public final Table payload;
+    public final Table payloadProperties;
+    public final Table tradingPartner;
+    public final Table partyIds;
+
+    /**
+     * The columns of the message unit table holding the current processing state and its start time
+     */
+    public final String currentStateColumn;
+    public final String currentStateStartColumn;
+
+    /**
+     * The columns of the processing state table holding the state, its sequence number and start time
+     */
+    public final String stateColumn;
+    public final String stateNumberColumn;
+    public final String stateStartColumn;
+
+    /**
+     * The column of the User Message table holding the number of transmissions
+     */
+    public final String transmissionsColumn;
+
+    /**
+     * Gets the table and column names used by the persistency unit the given entity manager belongs to.
+     *
+     * @param em    The entity manager in use
+     * @return      The table and column names of the message unit meta-data
+     */
+    public static MessageUnitTables get(final EntityManager em) {
+        final SessionFactoryImplementor sf = (SessionFactoryImplementor) em.unwrap(Session.class).getSessionFactory();
+        MessageUnitTables tables = current;
+        // The mapping only needs to be determined again when the persistency unit was re-initialized
+        if (tables == null || tables.sessionFactory != sf) {
+            tables = new MessageUnitTables(sf);
+            current = tables;
+        }
+        return tables;
+    }
+
+    /**
+     * Determines the table and column names from the mapping of the given session factory.
+     *
+     * @param sf    The session factory
+     */
+    private MessageUnitTables(final SessionFactoryImplementor sf) {
+        this.sessionFactory = sf;
+
+        final AbstractEntityPersister msgUnitPersister = (AbstractEntityPersister)
+                                                                sf.getEntityPersister(MessageUnit.class.getName());
+        msgUnit = getEntityTable(sf, MessageUnit.class);
+        currentStateColumn = msgUnitPersister.getPropertyColumnNames("CURRENT_STATE")[0];
+        currentStateStartColumn = msgUnitPersister.getPropertyColumnNames("CURRENT_STATE_START")[0];
+        userMessage = getEntityTable(sf, UserMessage.class);
+        transmissionsColumn = ((AbstractEntityPersister) sf.getEntityPersister(UserMessage.class.getName()))
+                                                                        .getPropertyColumnNames("TRANSMISSIONS")[0];
+        errorMessage = getEntityTable(sf, ErrorMessage.class);
+        receipt = getEntityTable(sf, Receipt.class);
+        pullRequest = getEntityTable(sf, PullRequest.class);
+        payload = getEntityTable(sf, Payload.class);
+        tradingPartner = getEntityTable(sf, TradingPartner.class);
+
+        final AbstractEntityPersister statePersister = (AbstractEntityPersister)
+                                                sf.getEntityPersister(MessageUnitProcessingState.class.getName());
+        processingStates = new Table(statePersister.getTableName(),
+                                     statePersister.getPropertyColumnNames("msgUnit")[0], null);
+        stateColumn = statePersister.getPropertyColumnNames("STATE")[0];
+        stateNumberColumn = statePersister.getPropertyColumnNames("PROC_STATE_NUM")[0];
+        stateStartColumn = statePersister.getPropertyColumnNames("START")[0];
+
+        errors = getCollectionTable(sf, ErrorMessage.class, "errors");
+        userMessageProperties = getCollectionTable(sf, UserMessage.class, "properties");
+        userMessagePayloads = getCollectionTable(sf, UserMessage.class, "payloads");
+        userMessagePartners = getCollectionTable(sf, UserMessage.class, "partners");
+        payloadProperties = getCollectionTable(sf, Payload.class, "properties");
+        partyIds = getCollectionTable(sf, TradingPartner.class, "partyIds");
+    }
+
+    /**
+     * Gets the table in which the fields declared by the given entity class are stored. As the message unit classes
+     * use the <i>joined</i> inheritance strategy this is the table of the class itself and its rows are identified by
+     * the primary key.
+     */
+    private static Table getEntityTable(final SessionFactoryImplementor sf, final Class<?> entityClass) {
+        final AbstractEntityPersister persister = (AbstractEntityPersister)
+                                                                    sf.getEntityPersister(entityClass.getName());
+        return new Table(persister.getTableName(), persister.getIdentifierColumnNames()[0], null);
+    }
+
+    /**
+     * Gets the table in which the given collection of an entity class is stored.
+     */
+    private static Table getCollectionTable(final SessionFactoryImplementor sf, final Class<?> entityClass,
+                                            final String property) {
+        final QueryableCollection persister = (QueryableCollection)
+                                                    sf.getCollectionPersister(entityClass.getName() + "." + property);
+        return new Table(persister.getTableName(), persister.getKeyColumnNames()[0],
+                         persister.getElementColumnNames()[0]);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.util;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+
+/**
+ * Contains the configuration of the default persistency provider as specified by the <i>"Persistency."</i> parameters
+ * in the Holodeck B2B configuration file. The following parameters are supported (names without the prefix):<ul>
+ * <li><b>DataSource</b> : the class name of the {@link DataSource} implementation to use for connecting to the
+ * database. This can be a connection pool implementation, like HikariCP or Apache DBCP. When not specified the
+ * embedded Derby database is used.</li>
+ * <li><b>DataSource.<i>«property»</i></b> : sets the bean property with the given name on the data source, for
+ * example the JDBC URL, pool size, statement cache size or validation query. The names and supported values depend on
+ * the data source implementation. Only properties of type <code>String</code>, <code>int</code>, <code>long</code>
+ * and <code>boolean</code> can be set.</li>
+ * <li><b>hibernate.<i>«setting»</i></b> : the Hibernate setting with the given name, for example
+ * <i>hibernate.dialect</i> or <i>hibernate.jdbc.batch_size</i>. These override the default settings of the
+ * provider.</li></ul>
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  HB2B_NEXT_VERSION
+ */
+public class ProviderConfiguration {
+
+    /**
+     * Name of the parameter that specifies the class name of the data source
+     */
+    public static final String P_DATASOURCE = "DataSource";
+    /**
+     * Prefix of the parameters that specify the properties of the data source
+     */
+    public static final String DATASOURCE_PROPERTY_PREFIX = P_DATASOURCE + ".";
+    /**
+     * Prefix of the parameters that specify Hibernate settings
+     */
+    public static final String HIBERNATE_SETTING_PREFIX = "hibernate.";
+
+    /**
+     * The configured data source, <code>null</code> if the embedded Derby database should be used
+     */
+    private final DataSource  dataSource;
+    /**
+     * The Hibernate settings that override the defaults
+     */
+    private final Map<String, String> hibernateSettings = new HashMap<>();
+
+    /**
+     * Creates the configuration from the given parameters. If a data source is configured it is created and its
+     * properties set.
+     *
+     * @param parameters    The configuration parameters, may be <code>null</code> or empty to use the defaults
+     * @throws PersistenceException When a parameter is unknown or has an invalid value, or when the data source could
+     *                              not be created
+     */
+    public ProviderConfiguration(final Map<String, String> parameters) throws PersistenceException {
+        final Map<String, String> dsProperties = new HashMap<>();
+        final Map<String, String> params = parameters != null ? parameters : Collections.<String, String>emptyMap();
+        for (final Map.Entry<String, String> p : params.entrySet()) {
+            final String name = p.getKey();
+            if (name.startsWith(DATASOURCE_PROPERTY_PREFIX))
+                dsProperties.put(name.substring(DATASOURCE_PROPERTY_PREFIX.length()), p.getValue());
+            else if (name.startsWith(HIBERNATE_SETTING_PREFIX))
+                hibernateSettings.put(name, p.getValue());
+            else if (!P_DATASOURCE.equals(name))
+                throw new PersistenceException("Unknown parameter for persistency provider: " + name);
+        }
+
+        final String dsClassName = params.get(P_DATASOURCE);
+        if (!Utils.isNullOrEmpty(dsClassName))
+            dataSource = createDataSource(dsClassName.trim(), dsProperties);
+        else if (!dsProperties.isEmpty())
+            throw new PersistenceException("Data source properties specified without data source class");
+        else
+            dataSource = null;
+    }
+
+    /**
+     * Gets the data source to use for connecting to the database.
+     *
+     * @return  The configured data source, or <code>null</code> if the default embedded Derby database should be used
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Gets the Hibernate settings that should override the default settings.
+     *
+     * @return  The configured Hibernate settings, empty if none are specified
+     */
+    public Map<String, String> getHibernateSettings() {
+        return Collections.unmodifiableMap(hibernateSettings);
+    }
+
+    /**
+     * Creates the data source and sets its properties using the bean setter methods.
+     */
+    private static DataSource createDataSource(final String className, final Map<String, String> properties)
+                                                                                        throws PersistenceException {
+        final DataSource ds;
+        try {
+            ds = (DataSource) Class.forName(className).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException ex) {
+            throw new PersistenceException("Could not create the data source " + className, ex);
+        }
+        for (final Map.Entry<String, String> p : properties.entrySet())
+            setProperty(ds, p.getKey(), p.getValue());
+
+        return ds;
+    }
+
+    private static void setProperty(final DataSource ds, final String name, final String value)
+                                                                                        throws PersistenceException {
+        final String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (final Method m : ds.getClass().getMethods()) {
+            if (!m.getName().equals(setterName) || m.getParameterTypes().length != 1)
+                continue;
+            final Object arg = convert(m.getParameterTypes()[0], value);
+            if (arg == null)
+                continue;
+            try {
+                m.invoke(ds, arg);
+                return;
+            } catch (final Exception setFailed) {
+                throw new PersistenceException("Could not set property " + name + " of the data source", setFailed);
+            }
+        }
+        throw new PersistenceException("Data source " + ds.getClass().getName() + " has no property " + name
+                                        + " that can be set to " + value);
+    }
+
+    /**
+     * Converts the parameter value to the type of the setter's argument.
+     *
+     * @return  The converted value, or <code>null</code> when the type is not supported or the value can not be
+     *          converted
+     */
+    private static Object convert(final Class<?> type, final String value) {
+        final String v = value != null ? value.trim() : null;
+        try {
+            if (type == String.class)
+                return value;
+            else if (type == int.class || type == Integer.class)
+                return Integer.valueOf(v);
+            else if (type == long.class || type == Long.class)
+                return Long.valueOf(v);
+            else if (type == boolean.class || type == Boolean.class)
+                return "true".equalsIgnoreCase(v) ? Boolean.TRUE : "false".equalsIgnoreCase(v) ? Boolean.FALSE : null;
+        } catch (final NumberFormatException invalidNumber) {
+            return null;
+        }
+        return null;
+    }
+}
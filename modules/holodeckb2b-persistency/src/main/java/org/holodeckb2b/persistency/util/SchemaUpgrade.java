@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.util;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.jpa.SchemaVersion;
+
+/**
+ * Is a helper class to bring the data in an existing database in line with the current version of the JPA entity
+ * classes. The structural changes, like new columns and indexes, are already applied by Hibernate when the persistency
+ * unit is created, but the data of the new columns must be populated from the existing data.
+ * <p>The version up to which the data has been upgraded is stored in the database using the {@link SchemaVersion}
+ * entity, so the upgrade is only executed when the database is behind the {@link #CURRENT_VERSION}. As the names of
+ * the tables and columns depend on the Hibernate settings in use they are taken from the mapping, see {@link
+ * MessageUnitTables}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  HB2B_NEXT_VERSION
+ */
+public class SchemaUpgrade {
+
+    /**
+     * The current version of the schema. Version 1 added the current processing state of message units and version 2
+     * the number of transmissions of User Messages.
+     */
+    public static final int CURRENT_VERSION = 2;
+
+    /**
+     * Upgrades the data in the database when it was not yet upgraded to the current version of the schema. This is
+     * called when the persistency provider is initialized.
+     *
+     * @throws PersistenceException When the data could not be upgraded
+     */
+    public static void upgrade() throws PersistenceException {
+        final int version = getVersion();
+        if (version >= CURRENT_VERSION)
+            return;
+        if (version < 1)
+            populateCurrentState();
+        if (version < 2)
+            populateTransmissions();
+        setVersion(CURRENT_VERSION);
+    }
+
+    /**
+     * Gets the version up to which the data in the database has been upgraded.
+     *
+     * @return The version of the schema, 0 if the data was never upgraded
+     * @throws PersistenceException When the version could not be read from the database
+     */
+    public static int getVersion() throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        try {
+            final SchemaVersion schemaVersion = em.find(SchemaVersion.class, SchemaVersion.ID);
+            return schemaVersion != null ? schemaVersion.getVersion() : 0;
+        } catch (final Exception e) {
+            throw new PersistenceException("Could not read the schema version", e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Sets the version up to which the data in the database has been upgraded.
+     *
+     * @param version   The version of the schema
+     * @throws PersistenceException When the version could not be saved
+     */
+    static void setVersion(final int version) throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        final EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            final SchemaVersion schemaVersion = em.find(SchemaVersion.class, SchemaVersion.ID);
+            if (schemaVersion != null)
+                schemaVersion.setVersion(version);
+            else
+                em.persist(new SchemaVersion(version));
+            tx.commit();
+        } catch (final Exception e) {
+            if (tx.isActive())
+                tx.rollback();
+            throw new PersistenceException("Could not save the schema version", e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Populates the current processing state columns of the message units that were stored before these columns were
+     * added, based on their last processing state. As only the message units without current state are updated this
+     * is a no-op for an up to date database.
+     *
+     * @return The number of message units that were updated
+     * @throws PersistenceException When the current state of the message units could not be populated
+     */
+    public static int populateCurrentState() throws PersistenceException {
+        return executeUpdate(new Statement() {
+            @Override
+            public String create(final MessageUnitTables t) {
+                final String mu = t.msgUnit.name + "." + t.msgUnit.keyColumn;
+                final String lastState = " FROM " + t.processingStates.name + " s WHERE s."
+                                       + t.processingStates.keyColumn + " = " + mu
+                                       + " AND s." + t.stateNumberColumn + " = (SELECT MAX(s2." + t.stateNumberColumn
+                                       + ") FROM " + t.processingStates.name + " s2 WHERE s2."
+                                       + t.processingStates.keyColumn + " = " + mu + ")";
+                return "UPDATE " + t.msgUnit.name + " SET "
+                     + t.currentStateColumn + " = (SELECT s." + t.stateColumn + lastState + "), "
+                     + t.currentStateStartColumn + " = (SELECT s." + t.stateStartColumn + lastState + ") "
+                     + "WHERE " + t.currentStateColumn + " IS NULL";
+            }
+        }, "Could not populate the current processing state of message units");
+    }
+
+    /**
+     * Populates the number of transmissions of the User Messages that were stored before this column was added, based
+     * on the number of times they were in the <i>SENDING</i> state. As only the User Messages without a number of
+     * transmissions are updated this is a no-op for an up to date database.
+     *
+     * @return The number of User Messages that were updated
+     * @throws PersistenceException When the number of transmissions could not be populated
+     * @since HB2B_NEXT_VERSION
+     */
+    public static int populateTransmissions() throws PersistenceException {
+        return executeUpdate(new Statement() {
+            @Override
+            public String create(final MessageUnitTables t) {
+                return "UPDATE " + t.userMessage.name + " SET "
+                     + t.transmissionsColumn + " = (SELECT COUNT(s." + t.stateColumn + ") FROM "
+                     + t.processingStates.name + " s WHERE s." + t.processingStates.keyColumn + " = "
+                     + t.userMessage.name + "." + t.userMessage.keyColumn + " AND s." + t.stateColumn + " = '"
+                     + ProcessingState.SENDING.name() + "') "
+                     + "WHERE " + t.transmissionsColumn + " IS NULL";
+            }
+        }, "Could not populate the number of transmissions of User Messages");
+    }
+
+    /**
+     * Creates the native SQL update statement to execute using the table and column names of the current mapping.
+     */
+    private interface Statement {
+        String create(final MessageUnitTables t);
+    }
+
+    /**
+     * Executes the given native SQL update statement in its own transaction.
+     *
+     * @param statement     The SQL statement to execute
+     * @param errorMessage  The message of the exception thrown when the statement fails
+     * @return              The number of updated rows
+     * @throws PersistenceException When the statement could not be executed
+     */
+    private static int executeUpdate(final Statement statement, final String errorMessage)
+                                                                                        throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        final EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            final int updated = em.createNativeQuery(statement.create(MessageUnitTables.get(em))).executeUpdate();
+            tx.commit();
+            return updated;
+        } catch (final Exception e) {
+            if (tx.isActive())
+                tx.rollback();
+            throw new PersistenceException(errorMessage, e);
+        } finally {
+            em.close();
+        }
+    }
+}
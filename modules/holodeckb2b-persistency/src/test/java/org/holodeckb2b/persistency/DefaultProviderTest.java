@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.persistency.managers.QueryManagerTest;
+import org.holodeckb2b.persistency.managers.UpdateManagerTest;
+import org.holodeckb2b.persistency.util.EntityManagerUtil;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the configuration of the default persistency provider. It checks that the data access objects also work
+ * when the provider is configured with a data source instead of the default Derby configuration.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class DefaultProviderTest {
+
+    @After
+    public void restoreDefaultConfiguration() throws PersistenceException {
+        EntityManagerUtil.init(null);
+    }
+
+    @Test
+    public void testDAOsWithDataSource() throws Exception {
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put("DataSource", "org.apache.derby.jdbc.EmbeddedDataSource");
+        parameters.put("DataSource.databaseName", "memory:hb2bDataSourceTest");
+        parameters.put("DataSource.createDatabase", "create");
+        parameters.put("hibernate.jdbc.batch_size", "50");
+        new DefaultProvider().init(parameters);
+
+        // Check that the configured data source is used
+        final String[] url = new String[1];
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        try {
+            em.unwrap(Session.class).doWork(new Work() {
+                @Override
+                public void execute(final Connection connection) throws SQLException {
+                    url[0] = connection.getMetaData().getURL();
+                }
+            });
+        } finally {
+            em.close();
+        }
+        assertTrue(url[0].contains("hb2bDataSourceTest"));
+
+        // Run the tests of the data access objects against the data source
+        final Result result = JUnitCore.runClasses(QueryManagerTest.class, UpdateManagerTest.class);
+        final StringBuilder failures = new StringBuilder();
+        for (final Failure f : result.getFailures())
+            failures.append(f.getTestHeader()).append(": ").append(f.getMessage()).append('\n');
+        assertTrue(failures.toString(), result.wasSuccessful());
+        assertTrue(result.getRunCount() > 0);
+    }
+
+    @Test
+    public void testInvalidParameters() {
+        final String[][] invalid = {
+            { "UnknownParameter", "value" },
+            { "DataSource", "org.holodeckb2b.NoDataSource" },
+            { "DataSource", "java.lang.String" },
+            { "DataSource.databaseName", "dataSourceClassMissing" }
+        };
+        for (final String[] p : invalid) {
+            final Map<String, String> parameters = new HashMap<>();
+            parameters.put(p[0], p[1]);
+            try {
+                new DefaultProvider().init(parameters);
+                fail("Invalid parameter " + p[0] + " accepted");
+            } catch (final PersistenceException expected) {}
+        }
+
+        // A data source property that does not exist
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put("DataSource", "org.apache.derby.jdbc.EmbeddedDataSource");
+        parameters.put("DataSource.noSuchProperty", "value");
+        try {
+            new DefaultProvider().init(parameters);
+            fail("Unknown data source property accepted");
+        } catch (final PersistenceException expected) {}
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.managers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.util.EntityManagerUtil;
+
+/**
+ * Measures the throughput of purging expired message units from a database filled with a large volume of message
+ * units. This is not a unit test and therefore not executed during the build, but can be run from the test class path:
+ * <pre>
+ *   java -cp ... org.holodeckb2b.persistency.managers.PurgeBenchmark [#message units] [#units one by one]
+ * </pre>
+ * The database is populated with the given number of expired message units (default 1.000.000), half of them outgoing
+ * User Messages with a payload, properties and trading partners and the other half incoming Receipts. First the given
+ * number of message units (default 5.000) is purged one by one, i.e. by loading each message unit completely and then
+ * deleting it in its own transaction. Then the remaining message units are purged in chunks, using the paged query and
+ * the bulk delete.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  HB2B_NEXT_VERSION
+ */
+public class PurgeBenchmark {
+
+    /**
+     * The number of message units purged in one chunk, equal to the chunk size used by the purge worker
+     */
+    private static final int    CHUNK_SIZE = 500;
+
+    private final QueryManager  queryManager = new QueryManager();
+    private final UpdateManager updateManager = new UpdateManager();
+    private final int           numMsgUnits;
+    private final Date          expirationDate;
+
+    public PurgeBenchmark(final int numMsgUnits) {
+        this.numMsgUnits = numMsgUnits;
+        // All message units changed state 60 days ago, so they are all expired 30 days ago
+        this.expirationDate = new Date(System.currentTimeMillis() - 30 * 24 * 3600 * 1000L);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int numMsgUnits = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int oneByOne = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        final PurgeBenchmark benchmark = new PurgeBenchmark(numMsgUnits);
+        long start = System.currentTimeMillis();
+        final long rows = benchmark.populate();
+        System.out.printf("Populated database with %d message units (%d rows) in %d ms%n", numMsgUnits, rows,
+                          System.currentTimeMillis() - start);
+
+        start = System.nanoTime();
+        final int purgedOneByOne = benchmark.purgeOneByOne(oneByOne);
+        report("One by one", purgedOneByOne, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        final int purgedInChunks = benchmark.purgeInChunks();
+        report("In chunks of " + CHUNK_SIZE, purgedInChunks, System.nanoTime() - start);
+
+        System.out.printf("Message units left: %d, rows left: %d%n", benchmark.count("MSG_UNIT"),
+                          benchmark.countAll());
+        // The connection pool of Hibernate prevents normal termination
+        System.exit(0);
+    }
+
+    /**
+     * Purges the given number of message units the way the purge worker did before, i.e. each message unit is loaded
+     * completely and then deleted in its own transaction.
+     */
+    private int purgeOneByOne(final int max) throws PersistenceException {
+        int purged = 0;
+        if (max < 2)
+            return purged;
+        final List<IMessageUnitEntity> msgUnits = queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                            IMessageUnit.Direction.OUT,
+                                                            new ProcessingState[] { ProcessingState.DELIVERED },
+                                                            null, max / 2);
+        msgUnits.addAll(queryManager.getMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.IN,
+                                                            new ProcessingState[] { ProcessingState.DONE },
+                                                            null, max - max / 2));
+        for (final IMessageUnitEntity msgUnit : msgUnits) {
+            queryManager.ensureCompletelyLoaded(msgUnit);
+            updateManager.deleteMessageUnit(msgUnit);
+            purged++;
+        }
+        return purged;
+    }
+
+    /**
+     * Purges all expired message units in chunks, the way the purge worker does now.
+     */
+    private int purgeInChunks() throws PersistenceException {
+        int purged = 0;
+        List<IMessageUnitEntity> chunk = null;
+        do {
+            final IMessageUnitEntity last = chunk == null ? null : chunk.get(chunk.size() - 1);
+            chunk = queryManager.getMessageUnitsWithLastStateChangedBefore(expirationDate, last, CHUNK_SIZE);
+            if (chunk != null) {
+                updateManager.deleteMessageUnits(chunk);
+                purged += chunk.size();
+            }
+        } while (chunk != null && chunk.size() == CHUNK_SIZE);
+        return purged;
+    }
+
+    private static void report(final String method, final int purged, final long nanos) {
+        System.out.printf("%-20s %10d message units in %10.1f s = %10.1f message units/s%n", method, purged,
+                          nanos / 1e9, purged / (nanos / 1e9));
+    }
+
+    /**
+     * Fills the database with the test message units. The meta-data is inserted directly using JDBC batches as
+     * creating the JPA objects would take too long for large volumes.
+     *
+     * @return The total number of rows inserted
+     */
+    private long populate() throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        try {
+            em.unwrap(Session.class).doWork(new Work() {
+                @Override
+                public void execute(final Connection connection) throws SQLException {
+                    insertMessageUnits(connection);
+                }
+            });
+        } finally {
+            em.close();
+        }
+        return countAll();
+    }
+
+    private void insertMessageUnits(final Connection connection) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        final Timestamp stateStart = new Timestamp(System.currentTimeMillis() - 60 * 24 * 3600 * 1000L);
+        try (PreparedStatement msgUnit = connection.prepareStatement(
+                    "INSERT INTO MSG_UNIT (OID, VERSION, MESSAGE_ID, REF_TO_MSG_ID, PMODE_ID, DIRECTION, USES_MULTI_HOP,"
+                  + " MU_TIMESTAMP, CURRENT_STATE, CURRENT_STATE_START) VALUES (?, 0, ?, ?, 'pm-1', ?, false, ?, ?, ?)");
+             PreparedStatement state = connection.prepareStatement(
+                    "INSERT INTO MSG_STATE (OID, MSGUNIT_OID, PROC_STATE_NUM, STATE, START) VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement userMsg = connection.prepareStatement(
+                    "INSERT INTO USER_MESSAGE (OID, TRANSMISSIONS) VALUES (?, 1)");
+             PreparedStatement umProperty = connection.prepareStatement(
+                    "INSERT INTO UM_PROPERTIES (USERMESSAGE_OID, NAME, VALUE) VALUES (?, 'originalSender', 'bench')");
+             PreparedStatement payload = connection.prepareStatement(
+                    "INSERT INTO PAYLOAD (OID, CONTAINMENT, FILE_LOCATION, MIME_TYPE) "
+                  + "VALUES (?, 'ATTACHMENT', ?, 'application/xml')");
+             PreparedStatement umPayload = connection.prepareStatement(
+                    "INSERT INTO USER_MESSAGE_PAYLOAD (USERMESSAGE_OID, PAYLOADS_OID) VALUES (?, ?)");
+             PreparedStatement plProperty = connection.prepareStatement(
+                    "INSERT INTO PL_PROPERTIES (PAYLOAD_OID, NAME, VALUE) VALUES (?, 'MimeType', 'application/xml')");
+             PreparedStatement partner = connection.prepareStatement(
+                    "INSERT INTO TRADINGPARTNER (OID, TP_ROLE) VALUES (?, ?)");
+             PreparedStatement partyId = connection.prepareStatement(
+                    "INSERT INTO TRADINGPARTNER_PARTYIDS (TRADINGPARTNER_OID, P_ID) VALUES (?, ?)");
+             PreparedStatement umPartner = connection.prepareStatement(
+                    "INSERT INTO UM_PARTNERS (USERMESSAGE_OID, PARTNERS_OID, PARTNERTYPE) VALUES (?, ?, ?)");
+             PreparedStatement receipt = connection.prepareStatement("INSERT INTO RECEIPT (OID) VALUES (?)")) {
+            long oid = 1000000L, stateOid = 1000000L;
+            for (int i = 0; i < numMsgUnits; i += 2) {
+                final Timestamp timestamp = new Timestamp(stateStart.getTime() - (numMsgUnits - i) * 1000L);
+                final String msgId = "msg-" + i + "@bench.holodeck-b2b.org";
+
+                final long userMsgOid = oid++;
+                addMessageUnit(msgUnit, userMsgOid, msgId, null, IMessageUnit.Direction.OUT, timestamp,
+                               ProcessingState.DELIVERED, stateStart);
+                userMsg.setLong(1, userMsgOid);
+                userMsg.addBatch();
+                int s = 0;
+                for (final ProcessingState ps : new ProcessingState[] { ProcessingState.SUBMITTED,
+                                                                        ProcessingState.SENDING,
+                                                                        ProcessingState.AWAITING_RECEIPT,
+                                                                        ProcessingState.DELIVERED })
+                    stateOid = addState(state, stateOid, userMsgOid, s++, ps, timestamp);
+                umProperty.setLong(1, userMsgOid);
+                umProperty.addBatch();
+                final long payloadOid = oid++;
+                payload.setLong(1, payloadOid);
+                payload.setString(2, "/data/hb2b/payloads/" + msgId);
+                payload.addBatch();
+                umPayload.setLong(1, userMsgOid);
+                umPayload.setLong(2, payloadOid);
+                umPayload.addBatch();
+                plProperty.setLong(1, payloadOid);
+                plProperty.addBatch();
+                for (final String role : new String[] { "Sender", "Receiver" }) {
+                    final long partnerOid = oid++;
+                    partner.setLong(1, partnerOid);
+                    partner.setString(2, role);
+                    partner.addBatch();
+                    partyId.setLong(1, partnerOid);
+                    partyId.setString(2, role.toLowerCase() + "-party");
+                    partyId.addBatch();
+                    umPartner.setLong(1, userMsgOid);
+                    umPartner.setLong(2, partnerOid);
+                    umPartner.setString(3, role.toUpperCase());
+                    umPartner.addBatch();
+                }
+
+                if (i + 1 < numMsgUnits) {
+                    final long receiptOid = oid++;
+                    addMessageUnit(msgUnit, receiptOid, msgId + "-rcpt", msgId, IMessageUnit.Direction.IN,
+                                   timestamp, ProcessingState.DONE, stateStart);
+                    receipt.setLong(1, receiptOid);
+                    receipt.addBatch();
+                    stateOid = addState(state, stateOid, receiptOid, 0, ProcessingState.RECEIVED, timestamp);
+                    stateOid = addState(state, stateOid, receiptOid, 1, ProcessingState.DONE, timestamp);
+                }
+
+                if (i % 2000 == 1998 || i + 2 >= numMsgUnits) {
+                    // Insert in order of the foreign key constraints
+                    msgUnit.executeBatch(); state.executeBatch(); userMsg.executeBatch(); receipt.executeBatch();
+                    umProperty.executeBatch(); payload.executeBatch(); umPayload.executeBatch();
+                    plProperty.executeBatch(); partner.executeBatch(); partyId.executeBatch();
+                    umPartner.executeBatch();
+                    connection.commit();
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void addMessageUnit(final PreparedStatement stmt, final long oid, final String msgId,
+                                       final String refToMsgId, final IMessageUnit.Direction direction,
+                                       final Timestamp timestamp, final ProcessingState currentState,
+                                       final Timestamp stateStart) throws SQLException {
+        stmt.setLong(1, oid);
+        stmt.setString(2, msgId);
+        stmt.setString(3, refToMsgId);
+        stmt.setInt(4, direction.ordinal());
+        stmt.setTimestamp(5, timestamp);
+        stmt.setString(6, currentState.name());
+        stmt.setTimestamp(7, stateStart);
+        stmt.addBatch();
+    }
+
+    private static long addState(final PreparedStatement stmt, final long oid, final long msgUnitOid, final int seq,
+                                 final ProcessingState state, final Timestamp start) throws SQLException {
+        stmt.setLong(1, oid);
+        stmt.setLong(2, msgUnitOid);
+        stmt.setInt(3, seq);
+        stmt.setString(4, state.name());
+        stmt.setTimestamp(5, start);
+        stmt.addBatch();
+        return oid + 1;
+    }
+
+    /**
+     * @return The total number of rows in all tables used to store the meta-data of the message units
+     */
+    private long countAll() throws PersistenceException {
+        long total = 0;
+        for (final String table : new String[] { "MSG_UNIT", "MSG_STATE", "USER_MESSAGE", "RECEIPT", "UM_PROPERTIES",
+                                                 "PAYLOAD", "USER_MESSAGE_PAYLOAD", "PL_PROPERTIES", "TRADINGPARTNER",
+                                                 "TRADINGPARTNER_PARTYIDS", "UM_PARTNERS" })
+            total += count(table);
+        return total;
+    }
+
+    private long count(final String table) throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        try {
+            return ((Number) em.createNativeQuery("SELECT COUNT(*) FROM " + table).getSingleResult()).longValue();
+        } finally {
+            em.close();
+        }
+    }
+}
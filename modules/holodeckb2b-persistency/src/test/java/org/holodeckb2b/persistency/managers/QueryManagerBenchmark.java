@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.managers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import javax.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.util.EntityManagerUtil;
+
+/**
+ * Measures the latency of the queries of the {@link QueryManager} on a database filled with a realistic volume of
+ * message units. This is not a unit test and therefore not executed during the build, but can be run from the test
+ * class path:
+ * <pre>
+ *   java -cp ... org.holodeckb2b.persistency.managers.QueryManagerBenchmark [#user messages] [#runs per query]
+ * </pre>
+ * The database is populated with the given number of outgoing User Messages (default 100.000), each with an incoming
+ * Receipt that refers to it. Most of the exchanges are completed, small fractions are waiting to be sent or for a
+ * Receipt. The data is generated with a fixed seed so results of different runs can be compared. To also get the
+ * query plans used by Derby, add <code>-Dderby.language.logQueryPlan=true</code> and check the <i>derby.log</i> file.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ * @since  HB2B_NEXT_VERSION
+ */
+public class QueryManagerBenchmark {
+
+    /**
+     * The number of P-Modes used for the generated message units
+     */
+    private static final int    NUM_PMODES = 20;
+    /**
+     * One in how many user messages is still waiting to be sent
+     */
+    private static final int    READY_TO_PUSH_RATIO = 5000;
+    /**
+     * One in how many user messages is waiting for a receipt
+     */
+    private static final int    AWAITING_RECEIPT_RATIO = 1000;
+
+    private final QueryManager  queryManager = new QueryManager();
+    private final Random        random = new Random(42);
+    private final int           numUserMessages;
+    private final long          firstTimestamp;
+
+    public QueryManagerBenchmark(final int numUserMessages) {
+        this.numUserMessages = numUserMessages;
+        // Spread the message units over the last days, with one message per second
+        this.firstTimestamp = System.currentTimeMillis() - numUserMessages * 1000L;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int numUserMessages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int runs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        final QueryManagerBenchmark benchmark = new QueryManagerBenchmark(numUserMessages);
+        final long start = System.currentTimeMillis();
+        benchmark.populate();
+        System.out.printf("Populated database with %d user messages and receipts in %d ms%n", numUserMessages,
+                          System.currentTimeMillis() - start);
+        benchmark.run(runs);
+        // The connection pool of Hibernate prevents normal termination
+        System.exit(0);
+    }
+
+    /**
+     * Fills the database with the test message units. The meta-data is inserted directly using JDBC batches as
+     * creating the JPA objects would take too long for large volumes.
+     */
+    private void populate() throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        try {
+            em.unwrap(Session.class).doWork(new Work() {
+                @Override
+                public void execute(final Connection connection) throws SQLException {
+                    insertMessageUnits(connection);
+                    updateStatistics(connection);
+                }
+            });
+        } finally {
+            em.close();
+        }
+    }
+
+    private void insertMessageUnits(final Connection connection) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement msgUnit = connection.prepareStatement(
+                    "INSERT INTO MSG_UNIT (OID, VERSION, MESSAGE_ID, REF_TO_MSG_ID, PMODE_ID, DIRECTION, USES_MULTI_HOP,"
+                  + " MU_TIMESTAMP, CURRENT_STATE, CURRENT_STATE_START) VALUES (?, 0, ?, ?, ?, ?, false, ?, ?, ?)");
+             PreparedStatement userMsg = connection.prepareStatement("INSERT INTO USER_MESSAGE (OID) VALUES (?)");
+             PreparedStatement receipt = connection.prepareStatement("INSERT INTO RECEIPT (OID) VALUES (?)");
+             PreparedStatement state = connection.prepareStatement(
+                    "INSERT INTO MSG_STATE (OID, MSGUNIT_OID, PROC_STATE_NUM, STATE, START) VALUES (?, ?, ?, ?, ?)")) {
+            long oid = 1000000L, stateOid = 1000000L;
+            for (int i = 0; i < numUserMessages; i++) {
+                final Timestamp timestamp = new Timestamp(firstTimestamp + i * 1000L);
+                final String msgId = getMessageId(i);
+                final String pmodeId = "pm-" + random.nextInt(NUM_PMODES);
+                final List<ProcessingState> states;
+                if (i % READY_TO_PUSH_RATIO == 0)
+                    states = Arrays.asList(ProcessingState.SUBMITTED, ProcessingState.READY_TO_PUSH);
+                else if (i % AWAITING_RECEIPT_RATIO == 1)
+                    states = Arrays.asList(ProcessingState.SUBMITTED, ProcessingState.READY_TO_PUSH,
+                                           ProcessingState.PROCESSING, ProcessingState.SENDING,
+                                           ProcessingState.AWAITING_RECEIPT);
+                else
+                    states = Arrays.asList(ProcessingState.SUBMITTED, ProcessingState.READY_TO_PUSH,
+                                           ProcessingState.PROCESSING, ProcessingState.SENDING,
+                                           ProcessingState.AWAITING_RECEIPT, ProcessingState.DELIVERED);
+
+                final long userMsgOid = oid++;
+                addMessageUnit(msgUnit, userMsgOid, msgId, null, pmodeId, IMessageUnit.Direction.OUT, timestamp,
+                               states.get(states.size() - 1));
+                userMsg.setLong(1, userMsgOid);
+                userMsg.addBatch();
+                for (int s = 0; s < states.size(); s++)
+                    stateOid = addState(state, stateOid, userMsgOid, s, states.get(s), timestamp);
+
+                if (states.get(states.size() - 1) == ProcessingState.DELIVERED) {
+                    final long receiptOid = oid++;
+                    addMessageUnit(msgUnit, receiptOid, msgId + "-rcpt", msgId, pmodeId, IMessageUnit.Direction.IN,
+                                   timestamp, ProcessingState.DONE);
+                    receipt.setLong(1, receiptOid);
+                    receipt.addBatch();
+                    stateOid = addState(state, stateOid, receiptOid, 0, ProcessingState.RECEIVED, timestamp);
+                    stateOid = addState(state, stateOid, receiptOid, 1, ProcessingState.DONE, timestamp);
+                }
+
+                if (i % 1000 == 999 || i == numUserMessages - 1) {
+                    msgUnit.executeBatch(); userMsg.executeBatch(); receipt.executeBatch(); state.executeBatch();
+                    connection.commit();
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Updates the index statistics so the optimizer has the same information as on a database that has been in use
+     * for some time.
+     */
+    private static void updateStatistics(final Connection connection) throws SQLException {
+        for (final String table : new String[] { "MSG_UNIT", "MSG_STATE", "USER_MESSAGE", "RECEIPT" })
+            try (PreparedStatement stmt = connection.prepareStatement(
+                                        "CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS(CURRENT SCHEMA, ?, NULL)")) {
+                stmt.setString(1, table);
+                stmt.execute();
+            }
+    }
+
+    private static void addMessageUnit(final PreparedStatement stmt, final long oid, final String msgId,
+                                       final String refToMsgId, final String pmodeId,
+                                       final IMessageUnit.Direction direction, final Timestamp timestamp,
+                                       final ProcessingState currentState) throws SQLException {
+        stmt.setLong(1, oid);
+        stmt.setString(2, msgId);
+        stmt.setString(3, refToMsgId);
+        stmt.setString(4, pmodeId);
+        stmt.setInt(5, direction.ordinal());
+        stmt.setTimestamp(6, timestamp);
+        stmt.setString(7, currentState.name());
+        stmt.setTimestamp(8, timestamp);
+        stmt.addBatch();
+    }
+
+    private static long addState(final PreparedStatement stmt, final long oid, final long msgUnitOid, final int seq,
+                                 final ProcessingState state, final Timestamp start) throws SQLException {
+        stmt.setLong(1, oid);
+        stmt.setLong(2, msgUnitOid);
+        stmt.setInt(3, seq);
+        stmt.setString(4, state.name());
+        stmt.setTimestamp(5, start);
+        stmt.addBatch();
+        return oid + 1;
+    }
+
+    private static String getMessageId(final int i) {
+        return "msg-" + i + "@bench.holodeck-b2b.org";
+    }
+
+    /**
+     * Executes each query the given number of times and prints the latencies.
+     */
+    private void run(final int runs) throws PersistenceException {
+        System.out.printf("%-45s %8s %10s %10s %10s%n", "Query", "#rows", "avg (ms)", "p50 (ms)", "max (ms)");
+
+        final ProcessingState[] readyToPush = new ProcessingState[] { ProcessingState.READY_TO_PUSH };
+        final List<Long> inState = new ArrayList<>();
+        int rows = 0;
+        for (int r = 0; r < runs; r++) {
+            final long start = System.nanoTime();
+            rows = size(queryManager.getMessageUnitsInState(IUserMessage.class, IMessageUnit.Direction.OUT,
+                                                            readyToPush));
+            inState.add(System.nanoTime() - start);
+        }
+        report("getMessageUnitsInState", rows, inState);
+
+        final List<Long> paged = new ArrayList<>();
+        for (int r = 0; r < runs; r++) {
+            final long start = System.nanoTime();
+            final List<IMessageUnitEntity> page = queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                IMessageUnit.Direction.IN, new ProcessingState[] { ProcessingState.DONE }, null, 100);
+            paged.add(System.nanoTime() - start);
+            rows = size(page);
+        }
+        report("getMessageUnitsInState (page of 100)", rows, paged);
+
+        final List<Long> forPModes = new ArrayList<>();
+        for (int r = 0; r < runs; r++) {
+            final long start = System.nanoTime();
+            final List<IUserMessageEntity> result = queryManager.getMessageUnitsForPModesInState(IUserMessage.class,
+                                Collections.singletonList("pm-" + random.nextInt(NUM_PMODES)),
+                                ProcessingState.AWAITING_RECEIPT);
+            forPModes.add(System.nanoTime() - start);
+            rows = size(result);
+        }
+        report("getMessageUnitsForPModesInState", rows, forPModes);
+
+        final List<Long> withId = new ArrayList<>();
+        for (int r = 0; r < runs; r++) {
+            final String msgId = getMessageId(random.nextInt(numUserMessages));
+            final long start = System.nanoTime();
+            rows = size(queryManager.getMessageUnitsWithId(msgId));
+            withId.add(System.nanoTime() - start);
+        }
+        report("getMessageUnitsWithId", rows, withId);
+
+        final List<Long> changedBefore = new ArrayList<>();
+        // Select about 0.1% of the message units
+        final Date before = new Date(firstTimestamp + numUserMessages);
+        for (int r = 0; r < runs; r++) {
+            final long start = System.nanoTime();
+            rows = size(queryManager.getMessageUnitsWithLastStateChangedBefore(before));
+            changedBefore.add(System.nanoTime() - start);
+        }
+        report("getMessageUnitsWithLastStateChangedBefore", rows, changedBefore);
+
+        final List<Long> transmissions = new ArrayList<>();
+        final List<Long> delivered = new ArrayList<>();
+        for (int r = 0; r < runs; r++) {
+            final IUserMessageEntity userMsg = (IUserMessageEntity)
+                        queryManager.getMessageUnitsWithId(getMessageId(random.nextInt(numUserMessages))).iterator()
+                                    .next();
+            long start = System.nanoTime();
+            queryManager.getNumberOfTransmissions(userMsg);
+            transmissions.add(System.nanoTime() - start);
+            start = System.nanoTime();
+            queryManager.isAlreadyDelivered(userMsg.getMessageId());
+            delivered.add(System.nanoTime() - start);
+        }
+        report("getNumberOfTransmissions", 1, transmissions);
+        report("isAlreadyDelivered", 1, delivered);
+    }
+
+    private static int size(final Collection<?> result) {
+        return result == null ? 0 : result.size();
+    }
+
+    private static void report(final String query, final int rows, final List<Long> latencies) {
+        final List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long total = 0;
+        for (final long l : sorted)
+            total += l;
+        System.out.printf("%-45s %8d %10.2f %10.2f %10.2f%n", query, rows, total / 1e6 / sorted.size(),
+                          sorted.get(sorted.size() / 2) / 1e6, sorted.get(sorted.size() - 1) / 1e6);
+    }
+}
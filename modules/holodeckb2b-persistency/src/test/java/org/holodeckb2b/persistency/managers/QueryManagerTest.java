@@ -16,8 +16,10 @@
  */
 package org.holodeckb2b.persistency.managers;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -108,6 +110,39 @@ public class QueryManagerTest {
         assertSorted(result);
     }
 
+    @Test
+    public void getMessageUnitsInStatePaged() throws PersistenceException {
+        final ProcessingState[] states = new ProcessingState[] { ProcessingState.FAILURE,
+                                                                 ProcessingState.RECEIVED,
+                                                                 ProcessingState.DONE
+                                                               };
+        final List<IMessageUnitEntity> all = queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                                 IMessageUnit.Direction.IN, states);
+
+        // Retrieving the message units one by one should give the same result as retrieving all at once
+        IMessageUnitEntity last = null;
+        for (int i = 0; i < all.size(); i++) {
+            final List<IMessageUnitEntity> page = queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                      IMessageUnit.Direction.IN, states, last, 1);
+            assertFalse(Utils.isNullOrEmpty(page));
+            assertEquals(1, page.size());
+            last = page.get(0);
+            assertEquals(all.get(i).getMessageId(), last.getMessageId());
+            assertNotNull(last.getCurrentProcessingState());
+        }
+        assertTrue(Utils.isNullOrEmpty(queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                      IMessageUnit.Direction.IN, states, last, 1)));
+
+        // And the number of results should be limited
+        final List<IMessageUnitEntity> firstPage = queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                    IMessageUnit.Direction.IN, states, null, 3);
+        assertEquals(3, firstPage.size());
+        final List<IMessageUnitEntity> lastPage = queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                    IMessageUnit.Direction.IN, states,
+                                                                    firstPage.get(2), 3);
+        assertEquals(all.size() - 3, lastPage.size());
+    }
+
     @Test
     public void isAlreadyDelivered() throws PersistenceException {
         // First one with message Id which is not a User Message
@@ -228,6 +263,33 @@ public class QueryManagerTest {
         assertEquals(5 , result.size());
     }
 
+    @Test
+    public void getMessageUnitsWithLastStateChangedBeforePaged() throws PersistenceException {
+        // Test no result
+        assertTrue(Utils.isNullOrEmpty(queryManager.getMessageUnitsWithLastStateChangedBefore(daysBack(15), null,
+                                                                                               10)));
+
+        // Retrieving the message units in pages should give the same result as retrieving all at once
+        final List<String> all = new ArrayList<>();
+        for (IMessageUnitEntity mu : queryManager.getMessageUnitsWithLastStateChangedBefore(daysBack(6)))
+            all.add(mu.getMessageId());
+        final List<String> paged = new ArrayList<>();
+        IMessageUnitEntity last = null;
+        List<IMessageUnitEntity> page;
+        while (!Utils.isNullOrEmpty(page = queryManager.getMessageUnitsWithLastStateChangedBefore(daysBack(6), last,
+                                                                                                  2))) {
+            assertTrue(page.size() <= 2);
+            for (IMessageUnitEntity mu : page) {
+                // The message units should be completely loaded
+                assertTrue(mu.isLoadedCompletely());
+                paged.add(mu.getMessageId());
+            }
+            last = page.get(page.size() - 1);
+        }
+        Collections.sort(all); Collections.sort(paged);
+        assertEquals(all, paged);
+    }
+
     private Date daysBack(int d) {
         Calendar currentTime = Calendar.getInstance();
         currentTime.add(Calendar.DAY_OF_YEAR, -d);
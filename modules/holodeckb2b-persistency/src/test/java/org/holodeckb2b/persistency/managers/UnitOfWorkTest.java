@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.managers;
+
+import java.util.Collections;
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.holodeckb2b.common.messagemodel.Payload;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.processingmodel.IMessageUnitProcessingState;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.entities.UserMessageEntity;
+import org.holodeckb2b.persistency.jpa.MessageUnit;
+import org.holodeckb2b.persistency.test.TestData;
+import org.holodeckb2b.persistency.util.EntityManagerUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the processing of updates in a <i>unit of work</i> by the {@link UpdateManager}. The number of transactions is
+ * counted using the Hibernate statistics.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class UnitOfWorkTest {
+
+    private static final String T_PMODE_ID = "unit-of-work-pmode";
+
+    private static UpdateManager    updManager;
+    private static QueryManager     queryManager;
+    private static Statistics       statistics;
+
+    @BeforeClass
+    public static void setUpClass() throws PersistenceException {
+        EntityManagerUtil.init(Collections.singletonMap("hibernate.generate_statistics", "true"));
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        statistics = em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        em.close();
+        updManager = new UpdateManager();
+        queryManager = new QueryManager();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws PersistenceException {
+        // Reset the persistency unit so other tests are not affected
+        EntityManagerUtil.init(null);
+    }
+
+    @Before
+    public void setUp() throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        em.getTransaction().begin();
+        for (final MessageUnit mu : em.createQuery("from MessageUnit", MessageUnit.class).getResultList())
+            em.remove(mu);
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    @After
+    public void tearDown() throws PersistenceException {
+        updManager.commitUnitOfWork();
+    }
+
+    @Test
+    public void testTransactionsPerMessage() throws PersistenceException {
+        long start = statistics.getSuccessfulTransactionCount();
+        UserMessageEntity userMsg = processUserMessage();
+        final long withoutUnitOfWork = statistics.getSuccessfulTransactionCount() - start;
+        checkProcessedUserMessage(userMsg);
+
+        start = statistics.getSuccessfulTransactionCount();
+        updManager.startUnitOfWork();
+        userMsg = processUserMessage();
+        updManager.commitUnitOfWork();
+        final long withUnitOfWork = statistics.getSuccessfulTransactionCount() - start;
+        checkProcessedUserMessage(userMsg);
+
+        assertEquals(7, withoutUnitOfWork);
+        assertEquals(2, withUnitOfWork);
+    }
+
+    @Test
+    public void testUpdatesSavedOnCommit() throws PersistenceException {
+        updManager.startUnitOfWork();
+        final UserMessageEntity userMsg = updManager.storeMessageUnit(createReceivedUserMessage());
+        updManager.setPModeId(userMsg, T_PMODE_ID);
+        updManager.setProcessingState(userMsg, null, ProcessingState.READY_FOR_DELIVERY);
+
+        // The entity object should already reflect the changes, but they should not be saved yet
+        assertEquals(T_PMODE_ID, userMsg.getPModeId());
+        assertEquals(ProcessingState.READY_FOR_DELIVERY, userMsg.getCurrentProcessingState().getState());
+        MessageUnit stored = loadFromDatabase(userMsg.getOID());
+        assertFalse(T_PMODE_ID.equals(stored.getPModeId()));
+        assertEquals(ProcessingState.RECEIVED, stored.getCurrentProcessingState().getState());
+
+        updManager.commitUnitOfWork();
+
+        stored = loadFromDatabase(userMsg.getOID());
+        assertEquals(T_PMODE_ID, stored.getPModeId());
+        assertEquals(ProcessingState.READY_FOR_DELIVERY, stored.getCurrentProcessingState().getState());
+    }
+
+    @Test
+    public void testClaimOfNotOwnedMessageUnit() throws PersistenceException {
+        // Store outside the unit of work, so the unit of work does not own the message unit
+        final UserMessageEntity userMsg = updManager.storeMessageUnit(createReceivedUserMessage());
+
+        updManager.startUnitOfWork();
+        // As the message unit is not owned the update is saved directly
+        updManager.setPModeId(userMsg, T_PMODE_ID);
+        assertEquals(T_PMODE_ID, loadFromDatabase(userMsg.getOID()).getPModeId());
+        // A claim that fails should not change anything
+        assertFalse(updManager.setProcessingState(userMsg, ProcessingState.PROCESSING, ProcessingState.DELIVERED));
+        assertEquals(ProcessingState.RECEIVED, loadFromDatabase(userMsg.getOID()).getCurrentProcessingState()
+                                                                                  .getState());
+        // A successful claim is saved directly
+        assertTrue(updManager.setProcessingState(userMsg, ProcessingState.RECEIVED, ProcessingState.PROCESSING));
+        assertEquals(ProcessingState.PROCESSING, loadFromDatabase(userMsg.getOID()).getCurrentProcessingState()
+                                                                                    .getState());
+
+        // Now the message unit is owned, so next claim only checked on the entity object
+        assertFalse(updManager.setProcessingState(userMsg, ProcessingState.RECEIVED, ProcessingState.DELIVERED));
+        assertTrue(updManager.setProcessingState(userMsg, ProcessingState.PROCESSING, ProcessingState.DELIVERED));
+        assertEquals(ProcessingState.PROCESSING, loadFromDatabase(userMsg.getOID()).getCurrentProcessingState()
+                                                                                    .getState());
+        updManager.commitUnitOfWork();
+
+        assertEquals(ProcessingState.DELIVERED, loadFromDatabase(userMsg.getOID()).getCurrentProcessingState()
+                                                                                   .getState());
+    }
+
+    @Test
+    public void testConcurrentChangeOfOwnedMessageUnit() throws Exception {
+        updManager.startUnitOfWork();
+        final UserMessageEntity userMsg = updManager.storeMessageUnit(createReceivedUserMessage());
+        assertTrue(updManager.setProcessingState(userMsg, ProcessingState.RECEIVED, ProcessingState.PROCESSING));
+
+        // Another thread, without unit of work, changes the message unit
+        final UserMessageEntity otherCopy = (UserMessageEntity) queryManager.getMessageUnitsWithId(
+                                                                        userMsg.getMessageId()).iterator().next();
+        final Exception[] otherThreadError = new Exception[1];
+        final Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    updManager.setProcessingState(otherCopy, ProcessingState.RECEIVED, ProcessingState.FAILURE);
+                } catch (PersistenceException e) {
+                    otherThreadError[0] = e;
+                }
+            }
+        });
+        other.start();
+        other.join();
+        if (otherThreadError[0] != null)
+            throw otherThreadError[0];
+
+        try {
+            updManager.commitUnitOfWork();
+            fail("The concurrent change should have been detected");
+        } catch (PersistenceException concurrentChange) {
+            // Expected
+        }
+        assertEquals(ProcessingState.FAILURE, loadFromDatabase(userMsg.getOID()).getCurrentProcessingState()
+                                                                                 .getState());
+    }
+
+    @Test
+    public void testUnconditionalChangeOfNotOwnedMessageUnit() throws Exception {
+        // Store outside the unit of work, so the unit of work does not own the message unit
+        final UserMessageEntity userMsg = updManager.storeMessageUnit(createReceivedUserMessage());
+
+        updManager.startUnitOfWork();
+        // Like the change to DELIVERED of a message that is acknowledged by a received Receipt
+        updManager.setProcessingState(userMsg, null, ProcessingState.DELIVERED);
+        // The change must be saved directly as another thread may own the message unit
+        assertEquals(ProcessingState.DELIVERED, loadFromDatabase(userMsg.getOID()).getCurrentProcessingState()
+                                                                                   .getState());
+
+        // A later change by another thread must therefore not be overwritten when the unit of work is committed
+        final UserMessageEntity otherCopy = (UserMessageEntity) queryManager.getMessageUnitsWithId(
+                                                                        userMsg.getMessageId()).iterator().next();
+        final Exception[] otherThreadError = new Exception[1];
+        final Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    updManager.setProcessingState(otherCopy, ProcessingState.DELIVERED, ProcessingState.DONE);
+                } catch (PersistenceException e) {
+                    otherThreadError[0] = e;
+                }
+            }
+        });
+        other.start();
+        other.join();
+        if (otherThreadError[0] != null)
+            throw otherThreadError[0];
+
+        updManager.commitUnitOfWork();
+        assertEquals(ProcessingState.DONE, loadFromDatabase(userMsg.getOID()).getCurrentProcessingState()
+                                                                              .getState());
+    }
+
+    @Test
+    public void testReloadKeepsCollectedUpdates() throws PersistenceException {
+        updManager.startUnitOfWork();
+        // Stored in the unit of work, so its updates are collected
+        final UserMessageEntity stored = updManager.storeMessageUnit(createReceivedUserMessage());
+        final UserMessageEntity userMsg = (UserMessageEntity) queryManager.getMessageUnitsWithId(
+                                                                        stored.getMessageId()).iterator().next();
+        assertFalse(userMsg.isLoadedCompletely());
+        updManager.setPModeId(userMsg, T_PMODE_ID);
+        queryManager.ensureCompletelyLoaded(userMsg);
+
+        assertTrue(userMsg.isLoadedCompletely());
+        assertEquals(T_PMODE_ID, userMsg.getPModeId());
+        updManager.commitUnitOfWork();
+        assertEquals(T_PMODE_ID, loadFromDatabase(userMsg.getOID()).getPModeId());
+    }
+
+    /**
+     * Executes the updates the handlers make when a User Message is received and delivered successfully, i.e. storing
+     * the message unit, setting the P-Mode, claiming it for processing, saving the payload info, setting it ready for
+     * delivery, claiming it for delivery and finally indicating it was delivered.
+     */
+    private UserMessageEntity processUserMessage() throws PersistenceException {
+        final UserMessageEntity userMsg = updManager.storeMessageUnit(createReceivedUserMessage());
+        updManager.setPModeId(userMsg, T_PMODE_ID);
+        assertTrue(updManager.setProcessingState(userMsg, ProcessingState.RECEIVED, ProcessingState.PROCESSING));
+        final Payload payload = new Payload(TestData.payload1);
+        payload.setContentLocation("/tmp/payload.xml");
+        updManager.setPayloadInformation(userMsg, Collections.<IPayload>singletonList(payload));
+        updManager.setProcessingState(userMsg, null, ProcessingState.READY_FOR_DELIVERY);
+        assertTrue(updManager.setProcessingState(userMsg, ProcessingState.READY_FOR_DELIVERY,
+                                                          ProcessingState.OUT_FOR_DELIVERY));
+        updManager.setProcessingState(userMsg, null, ProcessingState.DELIVERED);
+        return userMsg;
+    }
+
+    private void checkProcessedUserMessage(final UserMessageEntity userMsg) throws PersistenceException {
+        final UserMessageEntity stored = (UserMessageEntity) queryManager.getMessageUnitsWithId(
+                                                                            userMsg.getMessageId()).iterator().next();
+        queryManager.ensureCompletelyLoaded(stored);
+        assertEquals(T_PMODE_ID, stored.getPModeId());
+        assertEquals("/tmp/payload.xml", stored.getPayloads().iterator().next().getContentLocation());
+        final ProcessingState[] expected = new ProcessingState[] { ProcessingState.RECEIVED,
+                                                                   ProcessingState.PROCESSING,
+                                                                   ProcessingState.READY_FOR_DELIVERY,
+                                                                   ProcessingState.OUT_FOR_DELIVERY,
+                                                                   ProcessingState.DELIVERED };
+        // The states copied from the test data precede the states set during processing
+        final List<IMessageUnitProcessingState> states = stored.getProcessingStates();
+        final int first = states.size() - expected.length;
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], states.get(first + i).getState());
+        assertEquals(ProcessingState.DELIVERED, userMsg.getCurrentProcessingState().getState());
+    }
+
+    private static UserMessage createReceivedUserMessage() {
+        final UserMessage userMsg = new UserMessage(TestData.userMsg1);
+        userMsg.setMessageId(userMsg.getMessageId() + "-" + System.nanoTime());
+        userMsg.setDirection(IMessageUnit.Direction.IN);
+        userMsg.setProcessingState(ProcessingState.RECEIVED);
+        return userMsg;
+    }
+
+    private static MessageUnit loadFromDatabase(final long oid) throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        try {
+            final MessageUnit mu = em.find(MessageUnit.class, oid);
+            mu.getProcessingStates().size();
+            return mu;
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -16,15 +16,29 @@
  */
 package org.holodeckb2b.persistency.managers;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
 import org.hibernate.LazyInitializationException;
+import org.hibernate.Session;
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.model.naming.PhysicalNamingStrategyStandardImpl;
+import org.hibernate.engine.jdbc.env.spi.JdbcEnvironment;
+import org.hibernate.jdbc.Work;
 import org.holodeckb2b.common.messagemodel.Payload;
 import org.holodeckb2b.common.messagemodel.Property;
 import org.holodeckb2b.common.messagemodel.util.CompareUtils;
@@ -32,6 +46,7 @@ import org.holodeckb2b.common.util.Utils;
 import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 import org.holodeckb2b.interfaces.persistency.dao.IUpdateManager;
+import org.holodeckb2b.interfaces.persistency.entities.IMessageUnitEntity;
 import org.holodeckb2b.interfaces.pmode.ILeg;
 import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
 import org.holodeckb2b.persistency.entities.ErrorMessageEntity;
@@ -275,6 +290,104 @@ public class UpdateManagerTest {
         }
     }
 
+    @Test
+    public void deleteMessageUnits() throws PersistenceException {
+        checkDeleteMessageUnits();
+    }
+
+    @Test
+    public void deleteMessageUnitsWithNamingStrategy() throws PersistenceException {
+        // Use a separate database with the tables and columns named by a custom naming strategy
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put("hibernate.physical_naming_strategy", PrefixNamingStrategy.class.getName());
+        parameters.put("hibernate.connection.url", "jdbc:derby:memory:hb2bNamingDB;create=true");
+        try {
+            EntityManagerUtil.init(parameters);
+            em = EntityManagerUtil.getEntityManager();
+            checkDeleteMessageUnits();
+        } finally {
+            EntityManagerUtil.init(null);
+            em = EntityManagerUtil.getEntityManager();
+        }
+    }
+
+    /**
+     * Deletes the message units of the test set in two chunks and checks that after each delete exactly the deleted
+     * message units are removed and that in the end no rows are left in any of the tables.
+     */
+    private void checkDeleteMessageUnits() throws PersistenceException {
+        // First create some records
+        TestData.createTestSet();
+
+        em.getTransaction().begin();
+        final List<MessageUnitEntity> allMsgUnits = JPAEntityHelper.wrapInEntity(em.createQuery("from MessageUnit",
+                                                                                      MessageUnit.class)
+                                                                                     .getResultList());
+        em.getTransaction().commit();
+        assertFalse(Utils.isNullOrEmpty(allMsgUnits));
+        // Delete the first half of the message units
+        final int half = allMsgUnits.size() / 2;
+        updManager.deleteMessageUnits(new ArrayList<IMessageUnitEntity>(allMsgUnits.subList(0, half)));
+        em.clear();
+        assertEquals(allMsgUnits.size() - half,
+                     (long) em.createQuery("select count(*) from MessageUnit", Long.class).getSingleResult());
+        for (int i = 0; i < allMsgUnits.size(); i++) {
+            final MessageUnit jpaMsgUnit = em.find(MessageUnit.class, allMsgUnits.get(i).getOID());
+            if (i < half)
+                assertNull(jpaMsgUnit);
+            else {
+                // The remaining message units should still be completely available
+                assertNotNull(jpaMsgUnit);
+                QueryManager.loadCompletely(jpaMsgUnit);
+            }
+        }
+        // Delete the other half and check that no related meta-data is left behind in any of the tables
+        updManager.deleteMessageUnits(new ArrayList<IMessageUnitEntity>(allMsgUnits.subList(half,
+                                                                                             allMsgUnits.size())));
+        em.clear();
+        final Map<String, Integer> rowCounts = new HashMap<>();
+        em.unwrap(Session.class).doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                final DatabaseMetaData metaData = connection.getMetaData();
+                try (ResultSet tables = metaData.getTables(null, metaData.getUserName().toUpperCase(Locale.ROOT),
+                                                           "%", new String[] { "TABLE" })) {
+                    while (tables.next()) {
+                        final String table = tables.getString("TABLE_NAME");
+                        // The tables used for generating the ids and the schema version are not related to the
+                        // message units
+                        if (table.toUpperCase(Locale.ROOT).endsWith("HIBERNATE_SEQUENCE")
+                            || table.toUpperCase(Locale.ROOT).endsWith("SCHEMA_VERSION"))
+                            continue;
+                        try (Statement stmt = connection.createStatement();
+                             ResultSet count = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                            count.next();
+                            rowCounts.put(table, count.getInt(1));
+                        }
+                    }
+                }
+            }
+        });
+        assertTrue(rowCounts.size() >= 14);
+        for (final Map.Entry<String, Integer> table : rowCounts.entrySet())
+            assertEquals(table.getKey(), 0, table.getValue().intValue());
+    }
+
+    /**
+     * Naming strategy that adds a prefix to all table and column names, so none of the default names is used.
+     */
+    public static class PrefixNamingStrategy extends PhysicalNamingStrategyStandardImpl {
+        @Override
+        public Identifier toPhysicalTableName(final Identifier name, final JdbcEnvironment context) {
+            return Identifier.toIdentifier("T_" + name.getText(), name.isQuoted());
+        }
+
+        @Override
+        public Identifier toPhysicalColumnName(final Identifier name, final JdbcEnvironment context) {
+            return Identifier.toIdentifier("C_" + name.getText(), name.isQuoted());
+        }
+    }
+
     @Test
     public void setPModeId() throws PersistenceException {
         // Add a message unit to the database so we can change it
@@ -421,6 +534,56 @@ public class UpdateManagerTest {
         assertEquals(T_NEW_SHOULD_HAVE_FAULT, errorMsgJPA.shouldHaveSOAPFault());
     }
 
+    @Test
+    public void countTransmissions() throws PersistenceException {
+        // Add a message unit to the database so we can change it
+        em.getTransaction().begin();
+        UserMessage userMsgJPA = new UserMessage(TestData.userMsg5);
+        em.persist(userMsgJPA);
+        UserMessageEntity userMsg = new UserMessageEntity(userMsgJPA);
+        em.getTransaction().commit();
+        assertEquals(0, userMsg.getNumberOfTransmissions());
+        // Send the message, fail and send again
+        updManager.setProcessingState(userMsg, null, ProcessingState.SENDING);
+        updManager.setProcessingState(userMsg, null, ProcessingState.TRANSPORT_FAILURE);
+        updManager.setProcessingState(userMsg, ProcessingState.TRANSPORT_FAILURE, ProcessingState.SENDING);
+        // A failed state change must not count
+        assertFalse(updManager.setProcessingState(userMsg, ProcessingState.TRANSPORT_FAILURE,
+                                                  ProcessingState.SENDING));
+        // Check update in entity object
+        assertEquals(2, userMsg.getNumberOfTransmissions());
+        // Check that database is updated
+        em.refresh(userMsgJPA);
+        assertEquals(2, userMsgJPA.getNumberOfTransmissions());
+    }
+
+    @Test
+    public void setNextRetryTimes() throws PersistenceException {
+        // Add an outgoing and incoming User Message to the database so we can change them
+        em.getTransaction().begin();
+        UserMessage outUserMsgJPA = new UserMessage(TestData.userMsg6);
+        em.persist(outUserMsgJPA);
+        UserMessage inUserMsgJPA = new UserMessage(TestData.userMsg5);
+        em.persist(inUserMsgJPA);
+        em.getTransaction().commit();
+        UserMessageEntity outUserMsg = new UserMessageEntity(outUserMsgJPA);
+        final long version = outUserMsgJPA.getVersion();
+        // Perform the update
+        final Date nextRetry = new Date(System.currentTimeMillis() + 60000);
+        final Map<String, Date> nextRetryTimes = new HashMap<>();
+        nextRetryTimes.put(TestData.userMsg6.getMessageId(), nextRetry);
+        nextRetryTimes.put(TestData.userMsg5.getMessageId(), nextRetry);
+        updManager.setNextRetryTimes(nextRetryTimes);
+        // Check that the entity object is not changed
+        assertNull(outUserMsg.getNextRetryTime());
+        // Check that database is updated for the outgoing User Message only and its version did not change
+        em.refresh(outUserMsgJPA);
+        assertEquals(nextRetry.getTime(), outUserMsgJPA.getNextRetryTime().getTime());
+        assertEquals(version, outUserMsgJPA.getVersion());
+        em.refresh(inUserMsgJPA);
+        assertNull(inUserMsgJPA.getNextRetryTime());
+    }
+
     @Test
     public void sameLoadedState() throws PersistenceException {
         // Store a User Message
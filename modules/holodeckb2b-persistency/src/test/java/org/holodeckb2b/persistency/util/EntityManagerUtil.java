@@ -18,9 +18,12 @@ package org.holodeckb2b.persistency.util;
  */
 
 
+import java.util.HashMap;
+import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import org.hibernate.jpa.AvailableSettings;
 import org.holodeckb2b.interfaces.persistency.PersistenceException;
 
 /**
@@ -32,10 +35,34 @@ import org.holodeckb2b.interfaces.persistency.PersistenceException;
  * @since  3.0.0
  */
 public class EntityManagerUtil {
-    // We use SingletonHolder pattern for the reference to the EntityManagerFactory object
-    private static final class SingletonHolder
-    {
-      static final EntityManagerFactory instance =  Persistence.createEntityManagerFactory("holodeckb2b-test");
+    /**
+     * The factory for creating entity managers, created on first use if not explicitly initialized
+     */
+    private static EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Initializes the test persistency unit using the given configuration parameters, which override the settings
+     * from the <code>persistence.xml</code>. When the persistency unit was already initialized it is closed and
+     * re-initialized.
+     *
+     * @param parameters    The configuration parameters of the provider, see {@link ProviderConfiguration}
+     * @throws PersistenceException When the parameters are invalid or the persistency unit can not be created
+     */
+    public static synchronized void init(final Map<String, String> parameters) throws PersistenceException {
+        final ProviderConfiguration config = new ProviderConfiguration(parameters);
+        final Map<String, Object> overrides = new HashMap<>();
+        overrides.putAll(config.getHibernateSettings());
+        if (config.getDataSource() != null)
+            overrides.put(AvailableSettings.NON_JTA_DATASOURCE, config.getDataSource());
+        final EntityManagerFactory newFactory;
+        try {
+            newFactory = Persistence.createEntityManagerFactory("holodeckb2b-test", overrides);
+        } catch (final Exception e) {
+            throw new PersistenceException("Could not create the persistency unit", e);
+        }
+        if (entityManagerFactory != null)
+            entityManagerFactory.close();
+        entityManagerFactory = newFactory;
     }
 
     /**
@@ -45,9 +72,12 @@ public class EntityManagerUtil {
      * @throws  PersistenceException   When exception occurs getting hold of an EntityManager object
      */
     public static EntityManager getEntityManager() throws PersistenceException {
+       synchronized (EntityManagerUtil.class) {
+           if (entityManagerFactory == null)
+               init(null);
+       }
        try {
-           // The class is loaded upon first call
-           return  SingletonHolder.instance.createEntityManager();
+           return entityManagerFactory.createEntityManager();
        } catch (final Exception e) {
            // Oh oh, something went wrong creating the entity manager
            throw new PersistenceException("Error while creating the EntityManager", e);
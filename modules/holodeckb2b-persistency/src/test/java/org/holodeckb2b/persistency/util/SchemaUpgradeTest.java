@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2018 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.persistency.util;
+
+import java.util.Calendar;
+import javax.persistence.EntityManager;
+import org.holodeckb2b.common.util.Utils;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.persistency.PersistenceException;
+import org.holodeckb2b.interfaces.persistency.entities.IUserMessageEntity;
+import org.holodeckb2b.interfaces.processingmodel.ProcessingState;
+import org.holodeckb2b.persistency.managers.QueryManager;
+import org.holodeckb2b.persistency.test.TestData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the population of the current processing state and number of transmissions of message units stored before
+ * these columns were added.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class SchemaUpgradeTest {
+
+    private static QueryManager    queryManager;
+
+    @BeforeClass
+    public static void setUpClass() throws PersistenceException {
+        TestData.createTestSet();
+        queryManager = new QueryManager();
+    }
+
+    @Test
+    public void testPopulateCurrentState() throws PersistenceException {
+        final ProcessingState[] delivered = new ProcessingState[] { ProcessingState.DELIVERED };
+        assertEquals(3, queryManager.getMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.OUT,
+                                                            delivered).size());
+        final int total = clearCurrentState();
+        assertTrue(total > 0);
+        // Without current state the message units can not be found anymore
+        assertTrue(Utils.isNullOrEmpty(queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                           IMessageUnit.Direction.OUT, delivered)));
+
+        assertEquals(total, SchemaUpgrade.populateCurrentState());
+
+        assertEquals(3, queryManager.getMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.OUT,
+                                                            delivered).size());
+        // Check that also the start time of the current state is populated
+        final Calendar tenDaysBack = Calendar.getInstance();
+        tenDaysBack.add(Calendar.DAY_OF_YEAR, -10);
+        assertEquals(1, queryManager.getMessageUnitsWithLastStateChangedBefore(tenDaysBack.getTime()).size());
+
+        // Running again should not change anything
+        assertEquals(0, SchemaUpgrade.populateCurrentState());
+    }
+
+    @Test
+    public void testUpgradeOnlyWhenBehind() throws PersistenceException {
+        final ProcessingState[] delivered = new ProcessingState[] { ProcessingState.DELIVERED };
+        SchemaUpgrade.setVersion(SchemaUpgrade.CURRENT_VERSION);
+        assertTrue(clearCurrentState() > 0);
+
+        // The database is already up to date, so the data should not be changed
+        SchemaUpgrade.upgrade();
+        assertTrue(Utils.isNullOrEmpty(queryManager.getMessageUnitsInState(IMessageUnit.class,
+                                                                           IMessageUnit.Direction.OUT, delivered)));
+
+        // But when the version is behind it should
+        SchemaUpgrade.setVersion(0);
+        SchemaUpgrade.upgrade();
+        assertEquals(3, queryManager.getMessageUnitsInState(IMessageUnit.class, IMessageUnit.Direction.OUT,
+                                                            delivered).size());
+        assertEquals(SchemaUpgrade.CURRENT_VERSION, SchemaUpgrade.getVersion());
+        assertEquals(0, SchemaUpgrade.populateCurrentState());
+    }
+
+    @Test
+    public void testPopulateTransmissions() throws PersistenceException {
+        final int total = executeUpdate("UPDATE USER_MESSAGE SET TRANSMISSIONS = NULL");
+        assertTrue(total > 0);
+
+        assertEquals(total, SchemaUpgrade.populateTransmissions());
+        // The populated counters must be equal to the number of transmissions in the state history
+        for (final String msgId : new String[] { TestData.userMsg2.getMessageId(), TestData.userMsg5.getMessageId(),
+                                                 TestData.userMsg6.getMessageId() }) {
+            final IUserMessageEntity userMsg = (IUserMessageEntity)
+                                                        queryManager.getMessageUnitsWithId(msgId).iterator().next();
+            assertEquals(queryManager.getNumberOfTransmissions(userMsg), userMsg.getNumberOfTransmissions());
+        }
+
+        // Running again should not change anything
+        assertEquals(0, SchemaUpgrade.populateTransmissions());
+    }
+
+    /**
+     * Simulates a database created by a previous version by removing the current state of all message units.
+     *
+     * @return The number of message units in the database
+     */
+    private static int clearCurrentState() throws PersistenceException {
+        return executeUpdate("UPDATE MSG_UNIT SET CURRENT_STATE = NULL, CURRENT_STATE_START = NULL");
+    }
+
+    /**
+     * Executes the given native SQL update statement.
+     *
+     * @return The number of updated rows
+     */
+    private static int executeUpdate(final String statement) throws PersistenceException {
+        final EntityManager em = EntityManagerUtil.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            final int n = em.createNativeQuery(statement).executeUpdate();
+            em.getTransaction().commit();
+            return n;
+        } finally {
+            em.close();
+        }
+    }
+}